@@ -0,0 +1,189 @@
+package org.directmemory.cache;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.directmemory.memory.EntryTable;
+import org.directmemory.memory.MemoryManager;
+import org.directmemory.misc.Format;
+
+/**
+ * W-TinyLFU admission, off until {@link #enabled}: a {@link FrequencySketch} counts the accesses to
+ * every key, cached or not. New entries go to a small window of the most recently stored ones, kept in LRU order.
+ * Once the cache is full the eldest entry of the window leaves it and competes with the victim chosen
+ * by the sampled LFU of the buffers: it stays only if its key is estimated hotter than the victim's,
+ * so that a scan over cold keys goes through the window without flushing the hot entries.
+ * Reads do not lock the window: they are recorded in striped ring buffers, replayed on the window
+ * by the next store, and dropped when their stripe is full, the order of the window being a hint anyway.
+ */
+public class Admission {
+	public static boolean enabled = false;
+	/** share of the entries kept in the window */
+	public static double window = 0.01;
+
+	private static volatile FrequencySketch sketch = new FrequencySketch(Cache.DEFAULT_INITIAL_CAPACITY);
+	private static final LinkedHashMap<String, Long> recent = new LinkedHashMap<String, Long>(16, 0.75f, true);
+
+	// reads waiting to be replayed on the window, a ring of STRIPE_SIZE keys per stripe
+	private static final int STRIPES = 16;
+	private static final int STRIPE_SIZE = 32;
+	private static final AtomicReferenceArray<String> reads = new AtomicReferenceArray<String>(STRIPES * STRIPE_SIZE);
+	private static final AtomicIntegerArray written = new AtomicIntegerArray(STRIPES);
+	private static final AtomicIntegerArray replayed = new AtomicIntegerArray(STRIPES);
+
+	private static final AtomicLong admitted = new AtomicLong();
+	private static final AtomicLong rejected = new AtomicLong();
+	private static final AtomicLong evicted = new AtomicLong();
+
+	private Admission() {
+		// static class
+	}
+
+	/**
+	 * @param capacity number of entries expected in the cache
+	 */
+	public static void init(int capacity) {
+		sketch = new FrequencySketch(capacity);
+		clear();
+	}
+
+	public static void clear() {
+		sketch.clear();
+		synchronized (recent) {
+			replay();
+			recent.clear();
+		}
+		admitted.set(0);
+		rejected.set(0);
+		evicted.set(0);
+	}
+
+	public static int frequency(String key) {
+		return sketch.frequency(key.hashCode());
+	}
+
+	/**
+	 * counts an access to the key, hit or miss, without taking any lock
+	 */
+	static void record(String key) {
+		sketch.increment(key.hashCode());
+		final int stripe = (int)Thread.currentThread().getId() & (STRIPES - 1);
+		final int tail = written.get(stripe);
+		if (tail - replayed.get(stripe) >= STRIPE_SIZE) {
+			// full, the read is lost for the window
+			return;
+		}
+		if (written.compareAndSet(stripe, tail, tail + 1)) {
+			reads.lazySet(stripe * STRIPE_SIZE + (tail & (STRIPE_SIZE - 1)), key);
+		}
+	}
+
+	/**
+	 * moves the keys read since the previous call to the young end of the window, the lock on it being held
+	 */
+	private static void replay() {
+		for (int stripe = 0; stripe < STRIPES; stripe++) {
+			final int tail = written.get(stripe);
+			int head = replayed.get(stripe);
+			for (; head != tail; head++) {
+				final int index = stripe * STRIPE_SIZE + (head & (STRIPE_SIZE - 1));
+				final String key = reads.get(index);
+				if (key == null) {
+					// claimed but not written yet, next time
+					break;
+				}
+				reads.lazySet(index, null);
+				recent.get(key);
+			}
+			replayed.set(stripe, head);
+		}
+	}
+
+	/**
+	 * counts an access to a key that does not go through the window, as the numeric ones
+	 */
+	static void record(int keyHash) {
+		sketch.increment(keyHash);
+	}
+
+	static void admitted(String key, long handle) {
+		admitted.incrementAndGet();
+		synchronized (recent) {
+			replay();
+			recent.put(key, handle);
+		}
+	}
+
+	/**
+	 * frees an entry to make room for a new one: the eldest of a full window or the victim of the buffers,
+	 * as long as its block can make room for the new entry
+	 * @param length of the new entry
+	 * @return false if there was nothing to free
+	 */
+	static boolean evict(OffHeapIndex map, int length) {
+		final int target = Math.max(1, (int)(map.size() * window));
+		String candidate = null;
+		long candidateHandle = EntryTable.NONE;
+		synchronized (recent) {
+			replay();
+			if (recent.size() >= target) {
+				final Iterator<Map.Entry<String, Long>> eldest = recent.entrySet().iterator();
+				final Map.Entry<String, Long> entry = eldest.next();
+				candidate = entry.getKey();
+				candidateHandle = entry.getValue();
+				eldest.remove();
+			}
+		}
+		final long victim = MemoryManager.victim(length);
+		if (candidate != null && MemoryManager.table.isLive(candidateHandle)) {
+			final boolean helps = MemoryManager.makesRoom(candidateHandle, length);
+			if (victim != EntryTable.NONE && victim != candidateHandle
+					&& (!helps || sketch.frequency(candidate.hashCode()) > sketch.frequency(MemoryManager.table.keyHash(victim)))) {
+				MemoryManager.evict(victim);
+				evicted.incrementAndGet();
+				return true;
+			}
+			if (helps) {
+				if (map.remove(candidate, candidateHandle)) {
+					Membership.removed(candidate.hashCode());
+				}
+				MemoryManager.free(candidateHandle);
+				rejected.incrementAndGet();
+				return true;
+			}
+			// the candidate leaves the window for the main space, freeing it would not help anyway
+			return false;
+		}
+		if (victim == EntryTable.NONE) {
+			return false;
+		}
+		// the window is still filling up
+		MemoryManager.evict(victim);
+		evicted.incrementAndGet();
+		return true;
+	}
+
+	public static long admitted() {
+		return admitted.get();
+	}
+
+	/**
+	 * @return entries that left the window without making it to the main space
+	 */
+	public static long rejected() {
+		return rejected.get();
+	}
+
+	public static long evicted() {
+		return evicted.get();
+	}
+
+	public static String stats() {
+		return Format.it("admission - admitted: %d, rejected from the window: %d, victims evicted: %d",
+				admitted.get(), rejected.get(), evicted.get());
+	}
+}
@@ -0,0 +1,224 @@
+package org.directmemory.cache;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.directmemory.memory.EntryTable;
+import org.directmemory.serialization.KeyBuffer;
+
+/**
+ * Index of encoded keys to the handles of their entries, in native memory: an {@link OffHeapTable}
+ * whose keys are compared and hashed as bytes, a slot holding the address of the key, the handle and the hash of the key.
+ * A key is copied to native memory as its length followed by its bytes.
+ * An index that keeps order adds its keys to {@link OrderedKeys} and removes them under the lock of their segment.
+ */
+public class BytesIndex extends OffHeapTable {
+	// address of the key
+	private static final int KEY = 0;
+	private static final int HASH = 16;
+	private static final int SLOT = 24;
+
+	public interface Visitor {
+		void visit(byte[] key, long handle);
+	}
+
+	private final AtomicLong keyBytes = new AtomicLong();
+	private final boolean keepsOrder;
+
+	/**
+	 * @param initialCapacity number of keys expected
+	 * @param concurrencyLevel number of threads expected to update the index at the same time
+	 */
+	public BytesIndex(int initialCapacity, int concurrencyLevel) {
+		this(initialCapacity, concurrencyLevel, false);
+	}
+
+	/**
+	 * @param keepsOrder whether keys go to {@link OrderedKeys} as well
+	 */
+	public BytesIndex(int initialCapacity, int concurrencyLevel, boolean keepsOrder) {
+		super(initialCapacity, concurrencyLevel, SLOT);
+		this.keepsOrder = keepsOrder;
+	}
+
+	@Override
+	protected int home(long slot) {
+		return unsafe.getInt(slot + HASH);
+	}
+
+	@Override
+	protected void release(long slot) {
+		final long address = unsafe.getLong(slot + KEY);
+		keyBytes.addAndGet(-(4L + unsafe.getInt(address)));
+		unsafe.freeMemory(address);
+	}
+
+	/**
+	 * @return the index of the slot of the key, or of the empty slot where it would go
+	 */
+	private int find(Segment segment, KeyBuffer key, int hash, int spread) {
+		final int mask = mask(segment);
+		int index = spread & mask;
+		while (true) {
+			final long slot = slotAt(segment, index);
+			if (isEmpty(slot) || unsafe.getInt(slot + HASH) == hash && matches(unsafe.getLong(slot + KEY), key)) {
+				return index;
+			}
+			index = (index + 1) & mask;
+		}
+	}
+
+	private static boolean matches(long address, KeyBuffer key) {
+		final int length = unsafe.getInt(address);
+		if (length != key.length()) {
+			return false;
+		}
+		final byte[] bytes = key.array();
+		final long from = address + 4;
+		for (int i = 0; i < length; i++) {
+			if (unsafe.getByte(from + i) != bytes[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private long copy(KeyBuffer key) {
+		final int length = key.length();
+		final long address = unsafe.allocateMemory(4L + length);
+		unsafe.putInt(address, length);
+		final byte[] bytes = key.array();
+		for (int i = 0; i < length; i++) {
+			unsafe.putByte(address + 4 + i, bytes[i]);
+		}
+		keyBytes.addAndGet(4L + length);
+		return address;
+	}
+
+	private static byte[] keyAt(long address) {
+		final byte[] key = new byte[unsafe.getInt(address)];
+		for (int i = 0; i < key.length; i++) {
+			key[i] = unsafe.getByte(address + 4 + i);
+		}
+		return key;
+	}
+
+	/**
+	 * @return the handle the key is mapped to, {@link EntryTable#NONE} if none
+	 */
+	public long get(KeyBuffer key) {
+		final int hash = key.hash();
+		final int spread = spread(hash);
+		final Segment segment = segmentFor(spread);
+		synchronized (segment) {
+			return unsafe.getLong(slotAt(segment, find(segment, key, hash, spread)) + HANDLE);
+		}
+	}
+
+	/**
+	 * @param handle not {@link EntryTable#NONE}
+	 * @return the handle the key was mapped to, {@link EntryTable#NONE} if none
+	 */
+	public long put(KeyBuffer key, long handle) {
+		final int hash = key.hash();
+		final int spread = spread(hash);
+		final Segment segment = segmentFor(spread);
+		synchronized (segment) {
+			final long slot = slotAt(segment, find(segment, key, hash, spread));
+			if (!isEmpty(slot)) {
+				final long previous = unsafe.getLong(slot + HANDLE);
+				unsafe.putLong(slot + HANDLE, handle);
+				return previous;
+			}
+			unsafe.putLong(slot + KEY, copy(key));
+			unsafe.putLong(slot + HANDLE, handle);
+			unsafe.putInt(slot + HASH, hash);
+			if (keepsOrder) {
+				OrderedKeys.added(key);
+			}
+			added(segment);
+			return EntryTable.NONE;
+		}
+	}
+
+	/**
+	 * @return the handle the key was mapped to, {@link EntryTable#NONE} if none
+	 */
+	public long remove(KeyBuffer key) {
+		final int hash = key.hash();
+		final int spread = spread(hash);
+		final Segment segment = segmentFor(spread);
+		synchronized (segment) {
+			final int index = find(segment, key, hash, spread);
+			final long previous = unsafe.getLong(slotAt(segment, index) + HANDLE);
+			if (previous == EntryTable.NONE) {
+				return EntryTable.NONE;
+			}
+			delete(segment, index);
+			if (keepsOrder) {
+				OrderedKeys.removed(key);
+			}
+			return previous;
+		}
+	}
+
+	/**
+	 * removes the key only if it is still mapped to the handle
+	 */
+	public boolean remove(KeyBuffer key, long handle) {
+		final int hash = key.hash();
+		final int spread = spread(hash);
+		final Segment segment = segmentFor(spread);
+		synchronized (segment) {
+			final int index = find(segment, key, hash, spread);
+			final long current = unsafe.getLong(slotAt(segment, index) + HANDLE);
+			if (current == EntryTable.NONE || current != handle) {
+				return false;
+			}
+			delete(segment, index);
+			if (keepsOrder) {
+				OrderedKeys.removed(key);
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * removes the key mapped to the handle, looked for by the hash of the key kept in the entry
+	 * @return the key removed, null if no key is mapped to the handle
+	 */
+	public byte[] unlink(int hash, long handle) {
+		final Segment segment = segmentFor(spread(hash));
+		synchronized (segment) {
+			final int index = findHandle(segment, hash, handle);
+			if (index < 0) {
+				return null;
+			}
+			final byte[] key = keyAt(unsafe.getLong(slotAt(segment, index) + KEY));
+			delete(segment, index);
+			if (keepsOrder) {
+				OrderedKeys.removed(new KeyBuffer(key.length).put(key));
+			}
+			return key;
+		}
+	}
+
+	/**
+	 * hands every key with its handle to the visitor, one segment at a time: keys put or removed
+	 * meanwhile may or may not be visited
+	 */
+	public void forEach(final Visitor visitor) {
+		forEachSlot(new SlotVisitor() {
+			public void visit(long slot) {
+				visitor.visit(keyAt(unsafe.getLong(slot + KEY)), unsafe.getLong(slot + HANDLE));
+			}
+		});
+	}
+
+	/**
+	 * @return native memory taken by the slots and the keys
+	 */
+	@Override
+	public long offHeapBytes() {
+		return super.offHeapBytes() + keyBytes.get();
+	}
+}
@@ -1,171 +1,678 @@
 package org.directmemory.cache;
 
+import java.io.ByteArrayOutputStream;
 import java.io.EOFException;
+import java.io.File;
 import java.io.IOException;
-import java.util.Timer;
-import java.util.TimerTask;
-import java.util.concurrent.ConcurrentMap;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
 
+import org.directmemory.compression.Compression;
+import org.directmemory.compression.Dictionaries;
 import org.directmemory.measures.Every;
 import org.directmemory.measures.Ram;
+import org.directmemory.memory.AllocationStrategy;
+import org.directmemory.memory.EntryTable;
+import org.directmemory.memory.EntryView;
 import org.directmemory.memory.MemoryManager;
 import org.directmemory.memory.OffHeapMemoryBuffer;
-import org.directmemory.memory.Pointer;
 import org.directmemory.misc.Format;
+import org.directmemory.serialization.KeyBuffer;
+import org.directmemory.serialization.KeySerializer;
 import org.directmemory.serialization.ProtoStuffSerializerV1;
 import org.directmemory.serialization.Serializer;
+import org.directmemory.serialization.StreamingSerializer;
+import org.directmemory.serialization.TupleKeySerializer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.google.common.collect.MapMaker;
-
 public class Cache {
 
 	private static Logger logger = LoggerFactory.getLogger(MemoryManager.class);
-	private static ConcurrentMap<String, Pointer> map;
+	private static volatile OffHeapIndex map;
+	private static volatile LongIndex longMap;
+	private static volatile BytesIndex keyMap;
 	
 	public static int DEFAULT_CONCURRENCY_LEVEL = 4;
 	public static int DEFAULT_INITIAL_CAPACITY = 100000;
+	public static double DEFAULT_COMPACTION_THRESHOLD = 0.3;
+	/** times a store failing for lack of memory evicts entries and tries again */
+	public static int DEFAULT_EVICTION_ATTEMPTS = 16;
 	
 	public static Serializer serializer = new ProtoStuffSerializerV1();
+	/** encodes the keys of {@link #putKey(Object, Object)} and the like */
+	public static KeySerializer keySerializer = new TupleKeySerializer();
+	
+	// the key being encoded, reused by every call of the thread
+	private static final ThreadLocal<KeyBuffer> keys = new ThreadLocal<KeyBuffer>() {
+		protected KeyBuffer initialValue() {
+			return new KeyBuffer();
+		}
+	};
+
+	// keys of the entries evicted or expired leave their index as soon as the entries are freed
+	private static final OffHeapMemoryBuffer.Evictions unlinker = new OffHeapMemoryBuffer.Evictions() {
+		public void freed(long handle, int keyHash) {
+			unlink(handle, keyHash);
+		}
+	};
 
 	private Cache() {
 		// not instantiable
 	}
 	
 	
-	private final static Timer timer = new Timer();
-
+	/**
+	 * disposal cycles of {@link Maintenance}, at most l milliseconds apart
+	 */
     public static void scheduleDisposalEvery(long l) {
-        timer.schedule(new TimerTask() {
+        Maintenance.start(l);
+    }	
+
+    public static void scheduleDictionaryTrainingEvery(long l) {
+        Maintenance.scheduleEvery("dictionary training", new Runnable() {
             public void run() {
-				 logger.info("begin scheduled disposal");
-				 collectExpired();
-				 collectLFU();
-				 logger.info("scheduled disposal complete");
+				 if (Dictionaries.enabled) {
+					 Dictionaries.train();
+				 }
+				 sweepDictionaries();
             }
         }, l);
-        logger.info("disposal scheduled every " + l + " milliseconds");
-    }	
+        logger.info("dictionary training scheduled every " + l + " milliseconds");
+    }
 
-	public static void init(int numberOfBuffers, int size, int initialCapacity, int concurrencyLevel) {
-		map = new MapMaker()
-			.concurrencyLevel(concurrencyLevel)
-			.initialCapacity(initialCapacity)
-			.makeMap();
+    public static void scheduleCompactionEvery(long l) {
+        Maintenance.scheduleEvery("compaction", new Runnable() {
+            public void run() {
+				 compact();
+            }
+        }, l);
+        logger.info("compaction scheduled every " + l + " milliseconds");
+    }
+
+	public static void init(int numberOfBuffers, long size, int initialCapacity, int concurrencyLevel) {
+		init(numberOfBuffers, size, initialCapacity, concurrencyLevel, AllocationStrategy.FIRST_FIT);
+	}
+
+	public static void init(int numberOfBuffers, long size, int initialCapacity, int concurrencyLevel, AllocationStrategy strategy) {
+		init(null, numberOfBuffers, size, initialCapacity, concurrencyLevel, strategy);
+	}
+
+	/**
+	 * @param directory where buffers are mapped to files, null to keep them in anonymous memory.
+	 * Entries saved by the last {@link #checkpoint()} in that directory are served again right away.
+	 */
+	public static void init(File directory, int numberOfBuffers, long size, int initialCapacity, int concurrencyLevel, AllocationStrategy strategy) {
+		final OffHeapIndex previous = map;
+		final LongIndex previousLong = longMap;
+		final BytesIndex previousKeys = keyMap;
+		map = new OffHeapIndex(initialCapacity, concurrencyLevel, true);
+		longMap = new LongIndex(initialCapacity, concurrencyLevel);
+		keyMap = new BytesIndex(initialCapacity, concurrencyLevel, true);
+		if (previous != null) {
+			// gets and puts may still be going on in the previous indexes
+			MemoryManager.later(new Runnable() {
+				public void run() {
+					previous.free();
+					previousLong.free();
+					previousKeys.free();
+				}
+			});
+		}
 
 		logger.info("*** initializing *******************************\r\n" + Format.logo());
 		logger.info("************************************************");
-		MemoryManager.init(numberOfBuffers, size);
+		MemoryManager.init(directory, Math.min(MemoryManager.DEFAULT_MIN_BUFFERS, numberOfBuffers), numberOfBuffers, size, strategy);
+		OffHeapMemoryBuffer.evictions = unlinker;
+		Admission.init(initialCapacity);
+		Membership.init(initialCapacity);
+		OrderedKeys.init();
+		if (directory != null) {
+			CacheIndex.load(directory, map, longMap, keyMap);
+		}
+		MemoryManager.restored();
 		logger.info("initialized");
 		logger.info(Format.it("number of buffer(s): \t%1d  with %2s each", numberOfBuffers, Ram.inMb(size)));
 		logger.info(Format.it("initial capacity: \t%1d", initialCapacity));
 		logger.info(Format.it("concurrency level: \t%1d", concurrencyLevel));
-		scheduleDisposalEvery(Every.seconds(10));
+		logger.info(Format.it("allocation: \t%1s", strategy));
+		scheduleDisposalEvery(Every.seconds(1));
+		scheduleCompactionEvery(Every.seconds(10));
+		scheduleDictionaryTrainingEvery(Every.seconds(30));
 	}
 
-	public static void init(int numberOfBuffers, int size) {
+	public static void init(int numberOfBuffers, long size) {
 		init(numberOfBuffers, size, DEFAULT_INITIAL_CAPACITY, DEFAULT_CONCURRENCY_LEVEL);
 	}
 
-	public static Pointer putByteArray(String key, byte[] payload, int expiresIn) {
-		Pointer ptr = MemoryManager.store(payload, expiresIn);
-		map.put(key, ptr);
-  		return ptr;
+	public static void init(File directory, int numberOfBuffers, long size) {
+		init(directory, numberOfBuffers, size, DEFAULT_INITIAL_CAPACITY, DEFAULT_CONCURRENCY_LEVEL, AllocationStrategy.FIRST_FIT);
+	}
+
+	/**
+	 * saves the index of a cache mapped to files, and the buffers themselves, so that a later
+	 * {@link #init(File, int, long)} on the same directory serves the entries without loading anything.
+	 * Meant for a quiet cache, at shutdown: changes made while it runs may or may not be saved.
+	 */
+	public static void checkpoint() throws IOException {
+		final File directory = MemoryManager.directory();
+		if (directory == null) {
+			throw new IllegalStateException("buffers are not mapped to files");
+		}
+		MemoryManager.force();
+		CacheIndex.save(directory, map, longMap, keyMap);
+	}
+
+	public static void init(int numberOfBuffers, long size, AllocationStrategy strategy) {
+		init(numberOfBuffers, size, DEFAULT_INITIAL_CAPACITY, DEFAULT_CONCURRENCY_LEVEL, strategy);
+	}
+
+	public static long putByteArray(String key, byte[] payload, int expiresIn) {
+		return putByteArray(key, payload, expiresIn, 0);
+	}
+	
+	private static long putByteArray(final String key, final byte[] payload, final int expiresIn, final int typeId) {
+		try {
+			final long handle = admit(key, key.hashCode(), payload.length, new Store() {
+				public long store() {
+					return MemoryManager.store(payload, expiresIn, key.hashCode(), typeId);
+				}
+			});
+			return index(key, handle);
+		} catch (IOException e) {
+			// only writers fail
+			throw new IllegalStateException(e);
+		}
+	}
+	
+	private interface Store {
+		long store() throws IOException;
+	}
+	
+	/**
+	 * stores the entry, evicting entries until it fits if memory is short: the ones chosen by {@link Admission}
+	 * if it is on, victims of the buffer the entry goes to otherwise. Gives up as soon as no victim can make room
+	 * @param key of the entry, null for a numeric or encoded key, which does not go through the admission window
+	 */
+	private static long admit(String key, int keyHash, int length, Store store) throws IOException {
+		if (Admission.enabled) {
+			if (key != null) {
+				Admission.record(key);
+			} else {
+				Admission.record(keyHash);
+			}
+		}
+		long handle = store.store();
+		for (int i = 0; handle == EntryTable.NONE && i < DEFAULT_EVICTION_ATTEMPTS && makeRoom(length); i++) {
+			handle = store.store();
+		}
+		if (handle != EntryTable.NONE) {
+			if (Admission.enabled && key != null) {
+				Admission.admitted(key, handle);
+			}
+			Maintenance.stored();
+		}
+		return handle;
+	}
+	
+	private static boolean makeRoom(int length) {
+		if (Admission.enabled) {
+			return Admission.evict(map, length);
+		}
+		return MemoryManager.makeRoom(length, Maintenance.evictionSlice) > 0;
+	}
+	
+	/**
+	 * maps the key to the handle, freeing the entry it was mapped to; a failed store only drops the mapping
+	 */
+	private static long index(String key, long handle) {
+		final int keyHash = key.hashCode();
+		if (handle != EntryTable.NONE) {
+			Membership.added(keyHash);
+		}
+		// the index adds the key to the ordered keys or removes it, under the same lock
+		final long previous = handle == EntryTable.NONE ? map.remove(key) : map.put(key, handle);
+		return replaced(keyHash, handle, previous);
 	}
 	
-	public static Pointer putByteArray(String key, byte[] payload) {
+	private static long indexLong(long key, long handle) {
+		final int keyHash = LongIndex.hash(key);
+		if (handle != EntryTable.NONE) {
+			Membership.added(keyHash);
+		}
+		return replaced(keyHash, handle, handle == EntryTable.NONE ? longMap.remove(key) : longMap.put(key, handle));
+	}
+	
+	/**
+	 * frees the entry the key was mapped to, if any: the key was in {@link Membership} already, or is gone from the index
+	 */
+	private static long replaced(int keyHash, long handle, long previous) {
+		if (previous != EntryTable.NONE) {
+			Membership.removed(keyHash);
+			if (previous != handle) {
+				MemoryManager.free(previous);
+			}
+		}
+		return handle;
+	}
+	
+	/**
+	 * removes the key of an entry the buffers freed on their own from the index it is in, if any,
+	 * found by the hash kept in the entry, and from {@link Membership} and {@link OrderedKeys}
+	 */
+	static void unlink(long handle, int keyHash) {
+		if (map.unlink(keyHash, handle) != null || longMap.unlink(keyHash, handle) || keyMap.unlink(keyHash, handle) != null) {
+			Membership.removed(keyHash);
+		}
+	}
+	
+	/**
+	 * frees the entry of a key removed from its index
+	 */
+	private static void removed(int keyHash, long handle) {
+		if (handle != EntryTable.NONE) {
+			Membership.removed(keyHash);
+			MemoryManager.free(handle);
+		}
+	}
+	
+	public static long putByteArray(String key, byte[] payload) {
   		return putByteArray(key, payload, 0);
 	}
 	
-	public static Pointer put(String key, Object object) {
+	public static long put(String key, Object object) {
 		return put(key, object, 0);
 	}
 	
-	public static Pointer put(String key, Object object, int expiresIn) {
+	public static long put(String key, Object object, int expiresIn) {
+		return putObject(key, object, expiresIn);
+	}
+	
+	private static long putObject(String key, Object object, int expiresIn) {
+		return index(key, storeObject(key, key.hashCode(), object, expiresIn));
+	}
+	
+	/**
+	 * serializes the object, compresses it if {@link Compression} is on and the payload is long enough, and stores it
+	 * @return the handle of the entry, not indexed yet
+	 */
+	private static long storeObject(final String key, final int keyHash, Object object, final int expiresIn) {
+		final int typeId = TypeRegistry.idOf(object.getClass());
 		try {
-			byte[] payload = serializer.serialize(object, object.getClass());
-			Pointer ptr = putByteArray(key, payload);
-			ptr.clazz = object.getClass();
-			return ptr; 
+			final byte[] payload;
+			if (serializer instanceof StreamingSerializer) {
+				final StreamingSerializer streaming = (StreamingSerializer)serializer;
+				final int length = streaming.prepare(object, object.getClass());
+				if (!Compression.applies(length)) {
+					// serialized straight into the entry
+					return admit(key, keyHash, length, new Store() {
+						public long store() throws IOException {
+							return MemoryManager.store(length, writer(streaming), expiresIn, keyHash, typeId);
+						}
+					});
+				}
+				final ByteArrayOutputStream out = new ByteArrayOutputStream(length);
+				streaming.writeTo(out);
+				payload = out.toByteArray();
+			} else {
+				payload = serializer.serialize(object, object.getClass());
+			}
+			final byte[] compressed = Compression.compress(payload, typeId);
+			final byte[] stored = compressed != null ? compressed : payload;
+			final long handle = admit(key, keyHash, stored.length, new Store() {
+				public long store() {
+					return MemoryManager.store(stored, expiresIn, keyHash, typeId);
+				}
+			});
+			if (compressed != null && handle != EntryTable.NONE) {
+				MemoryManager.setCompressed(handle);
+			}
+			return handle;
 		} catch (IOException e) {
 			logger.error(e.getMessage());
-			return null;
+			return EntryTable.NONE;
 		}
 	}
 	
-	public static Pointer updateByteArray(String key, byte[] payload) {
-		Pointer p = map.get(key);
-		p = MemoryManager.update(p, payload);
-  		return p;
+	public static long putLong(long key, Object object) {
+		return putLong(key, object, 0);
 	}
 	
-	public static Pointer update(String key, Object object) {
-		Pointer p = map.get(key);
-		try {
-			p = MemoryManager.update(p, serializer.serialize(object, object.getClass()));
-			p.clazz = object.getClass();
-	  		return p;
-		} catch (IOException e) {
-			logger.error(e.getMessage());
-			return null;
+	/**
+	 * stores the object under a numeric key, kept in an index of its own
+	 */
+	public static long putLong(long key, Object object, int expiresIn) {
+		return indexLong(key, storeObject(null, LongIndex.hash(key), object, expiresIn));
+	}
+	
+	public static Object getLong(long key) {
+		return objectAt(liveHandle(key));
+	}
+	
+	public static long getLongHandle(long key) {
+		return longMap.get(key);
+	}
+	
+	public static void freeLong(long key) {
+		removed(LongIndex.hash(key), longMap.remove(key));
+	}
+	
+	/**
+	 * @return the key encoded by the {@link #keySerializer} in the buffer of the thread
+	 */
+	private static KeyBuffer encode(Object key) {
+		final KeyBuffer buffer = keys.get().reset();
+		keySerializer.encode(key, buffer);
+		return buffer;
+	}
+	
+	private static long indexKey(KeyBuffer key, long handle) {
+		final int keyHash = key.hash();
+		if (handle != EntryTable.NONE) {
+			Membership.added(keyHash);
 		}
+		final long previous = handle == EntryTable.NONE ? keyMap.remove(key) : keyMap.put(key, handle);
+		return replaced(keyHash, handle, previous);
 	}
 	
-	public static byte[] retrieveByteArray(String key) {
-		Pointer ptr = getPointer(key);
-		if (ptr == null) return null;
-		if (ptr.expired() || ptr.free) {
-			map.remove(key);
-			if (!ptr.free) { 
-				MemoryManager.free(ptr);
+	public static long putKey(Object key, Object object) {
+		return putKey(key, object, 0);
+	}
+	
+	/**
+	 * stores the object under a key of any type the {@link #keySerializer} encodes, such as a tuple of
+	 * strings and numbers: keys are equal when their encoded bytes are
+	 */
+	public static long putKey(Object key, Object object, int expiresIn) {
+		final KeyBuffer encoded = encode(key);
+		return indexKey(encoded, storeObject(null, encoded.hash(), object, expiresIn));
+	}
+	
+	public static Object getKey(Object key) {
+		return objectAt(liveHandle(encode(key)));
+	}
+	
+	public static long getKeyHandle(Object key) {
+		return keyMap.get(encode(key));
+	}
+	
+	public static void freeKey(Object key) {
+		final KeyBuffer encoded = encode(key);
+		removed(encoded.hash(), keyMap.remove(encoded));
+	}
+	
+	/**
+	 * @return the encoded keys starting with the encoded prefix, in order, such as the ones of the tuples
+	 * starting with the parts of a shorter one; {@link OrderedKeys} must be on
+	 */
+	public static Iterator<byte[]> encodedKeysWithPrefix(Object prefix) {
+		final byte[] from = OrderedKeys.ordered(encode(prefix)).toByteArray();
+		final Iterator<byte[]> ordered = OrderedKeys.range(from, OrderedKeys.after(from));
+		return new Iterator<byte[]>() {
+			public boolean hasNext() {
+				return ordered.hasNext();
+			}
+			
+			public byte[] next() {
+				final byte[] key = ordered.next();
+				return Arrays.copyOfRange(key, 1, key.length);
+			}
+			
+			public void remove() {
+				throw new UnsupportedOperationException();
 			}
-			return null;
-		} else {
-	  		return MemoryManager.retrieve(ptr);
+		};
+	}
+	
+	/**
+	 * frees the entries of the keys starting with the encoded prefix; {@link OrderedKeys} must be on
+	 * @return the number of keys freed
+	 */
+	public static int freeKeysWithPrefix(Object prefix) {
+		final List<byte[]> removed = OrderedKeys.removePrefix(OrderedKeys.ordered(encode(prefix)));
+		final KeyBuffer key = new KeyBuffer();
+		final long[] handles = new long[removed.size()];
+		int freed = 0;
+		for (byte[] ordered : removed) {
+			key.reset().put(ordered, 1, ordered.length - 1);
+			final long handle = keyMap.remove(key);
+			if (handle != EntryTable.NONE) {
+				Membership.removed(key.hash());
+				handles[freed++] = handle;
+			}
+		}
+		freeAll(handles, freed);
+		return freed;
+	}
+	
+	/**
+	 * frees the entries in the order of their rows, roughly the one they were stored in, rather than
+	 * the one of their keys, so that the blocks freed one after the other are mostly next to each other
+	 */
+	private static void freeAll(long[] handles, int count) {
+		// the row is in the low half of a handle
+		for (int i = 0; i < count; i++) {
+			handles[i] = handles[i] << 32 | handles[i] >>> 32;
+		}
+		Arrays.sort(handles, 0, count);
+		for (int i = 0; i < count; i++) {
+			MemoryManager.free(handles[i] << 32 | handles[i] >>> 32);
 		}
 	}
 	
+	public static long updateByteArray(String key, byte[] payload) {
+		return putByteArray(key, payload, 0, 0);
+	}
+	
+	public static long update(String key, Object object) {
+		return putObject(key, object, 0);
+	}
+	
+	private static OffHeapMemoryBuffer.Writer writer(final StreamingSerializer streaming) {
+		return new OffHeapMemoryBuffer.Writer() {
+			public void writeTo(OutputStream out) throws IOException {
+				streaming.writeTo(out);
+			}
+		};
+	}
+	
+	/**
+	 * @return the handle of a live and not expired entry, {@link EntryTable#NONE} otherwise
+	 */
+	private static long liveHandle(String key) {
+		if (Admission.enabled) {
+			Admission.record(key);
+		}
+		if (!Membership.mightContain(key.hashCode())) return EntryTable.NONE;
+		final long handle = map.get(key);
+		if (handle == EntryTable.NONE) {
+			Membership.missed();
+			return EntryTable.NONE;
+		}
+		if (!MemoryManager.table.isLive(handle) || MemoryManager.table.expired(handle)) {
+			if (map.remove(key, handle)) {
+				removed(key.hashCode(), handle);
+			}
+			return EntryTable.NONE;
+		}
+		return handle;
+	}
+	
+	/**
+	 * @return the handle of a live and not expired entry under the numeric key, {@link EntryTable#NONE} otherwise
+	 */
+	private static long liveHandle(long key) {
+		if (Admission.enabled) {
+			Admission.record(LongIndex.hash(key));
+		}
+		if (!Membership.mightContain(LongIndex.hash(key))) return EntryTable.NONE;
+		final long handle = longMap.get(key);
+		if (handle == EntryTable.NONE) {
+			Membership.missed();
+			return EntryTable.NONE;
+		}
+		if (!MemoryManager.table.isLive(handle) || MemoryManager.table.expired(handle)) {
+			removed(LongIndex.hash(key), longMap.remove(key, handle) ? handle : EntryTable.NONE);
+			return EntryTable.NONE;
+		}
+		return handle;
+	}
+	
+	/**
+	 * @return the handle of a live and not expired entry under the encoded key, {@link EntryTable#NONE} otherwise
+	 */
+	private static long liveHandle(KeyBuffer key) {
+		if (Admission.enabled) {
+			Admission.record(key.hash());
+		}
+		if (!Membership.mightContain(key.hash())) return EntryTable.NONE;
+		final long handle = keyMap.get(key);
+		if (handle == EntryTable.NONE) {
+			Membership.missed();
+			return EntryTable.NONE;
+		}
+		if (!MemoryManager.table.isLive(handle) || MemoryManager.table.expired(handle)) {
+			if (keyMap.remove(key, handle)) {
+				removed(key.hash(), handle);
+			}
+			return EntryTable.NONE;
+		}
+		return handle;
+	}
+	
+	public static byte[] retrieveByteArray(String key) {
+		final long handle = liveHandle(key);
+		if (handle == EntryTable.NONE) return null;
+  		return MemoryManager.retrieve(handle);
+	}
+	
+	/**
+	 * payload of the entry in place, without copying it on the heap
+	 * @return a view to release once done with it, or null
+	 */
+	public static EntryView retrieveView(String key) {
+		final long handle = liveHandle(key);
+		if (handle == EntryTable.NONE) return null;
+		return MemoryManager.view(handle);
+	}
+	
+	public static <T> T read(String key, EntryView.Reader<T> reader) {
+		final long handle = liveHandle(key);
+		if (handle == EntryTable.NONE) return null;
+		return MemoryManager.read(handle, reader);
+	}
+	
 	public static Object retrieve(String key) {
-		Pointer ptr = getPointer(key);
-		if (ptr == null) return null;
-		if (ptr.expired() || ptr.free) {
-			map.remove(key);
-			if (!ptr.free) { 
-				MemoryManager.free(ptr);
-			}
-			return null;
-		} else {
-	  		try {
-				return serializer.deserialize(MemoryManager.retrieve(ptr),ptr.clazz);
-			} catch (EOFException e) {
-				logger.error(e.getMessage());
-			} catch (IOException e) {
-				logger.error(e.getMessage());
-			} catch (ClassNotFoundException e) {
-				logger.error(e.getMessage());
-			} catch (InstantiationException e) {
-				logger.error(e.getMessage());
-			} catch (IllegalAccessException e) {
-				logger.error(e.getMessage());
+		return objectAt(liveHandle(key));
+	}
+	
+	private static Object objectAt(long handle) {
+		if (handle == EntryTable.NONE) return null;
+		final Class<?> clazz = TypeRegistry.classOf(MemoryManager.table.typeId(handle));
+  		try {
+			if (MemoryManager.table.hasFlag(handle, EntryTable.FLAG_COMPRESSED)) {
+				final byte[] compressed = MemoryManager.retrieve(handle);
+				if (compressed == null) return null;
+				return serializer.deserialize(Compression.decompress(compressed), clazz);
 			}
+			if (serializer instanceof StreamingSerializer) {
+				// read in place
+				final EntryView view = MemoryManager.view(handle);
+				if (view == null) return null;
+				try {
+					return ((StreamingSerializer)serializer).deserialize(view.payload(), clazz);
+				} finally {
+					view.release();
+				}
+			}
+			final byte[] payload = MemoryManager.retrieve(handle);
+			if (payload == null) return null;
+			return serializer.deserialize(payload, clazz);
+		} catch (EOFException e) {
+			logger.error(e.getMessage());
+		} catch (IOException e) {
+			logger.error(e.getMessage());
+		} catch (ClassNotFoundException e) {
+			logger.error(e.getMessage());
+		} catch (InstantiationException e) {
+			logger.error(e.getMessage());
+		} catch (IllegalAccessException e) {
+			logger.error(e.getMessage());
 		}
 		return null;
 	}
 	
-	public static Pointer getPointer(String key) {
+	public static long getHandle(String key) {
   		return map.get(key);
 	}
 	
 	public static void free(String key) {
-		Pointer p = map.remove(key);
-		if (p != null) {
-			MemoryManager.free(p);
+		removed(key.hashCode(), map.remove(key));
+	}
+	
+	/**
+	 * @return the keys starting with the prefix, in order; {@link OrderedKeys} must be on
+	 */
+	public static Iterator<String> keysWithPrefix(String prefix) {
+		final byte[] from = OrderedKeys.ordered(prefix).toByteArray();
+		return strings(OrderedKeys.range(from, OrderedKeys.after(from)));
+	}
+	
+	/**
+	 * @param from first key, inclusive
+	 * @param to last key, exclusive, null for no bound
+	 * @return the keys in the range, in the order of their code points; {@link OrderedKeys} must be on
+	 */
+	public static Iterator<String> keysBetween(String from, String to) {
+		return strings(OrderedKeys.range(OrderedKeys.ordered(from).toByteArray(),
+				to == null ? new byte[] {OrderedKeys.STRINGS + 1} : OrderedKeys.ordered(to).toByteArray()));
+	}
+	
+	private static Iterator<String> strings(final Iterator<byte[]> ordered) {
+		return new Iterator<String>() {
+			public boolean hasNext() {
+				return ordered.hasNext();
+			}
+			
+			public String next() {
+				final byte[] key = ordered.next();
+				return KeyBuffer.utf8(key, 1, key.length - 1);
+			}
+			
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+	
+	/**
+	 * frees the entries of the keys starting with the prefix, unlinked from {@link OrderedKeys} at once
+	 * rather than looked for in the whole cache; {@link OrderedKeys} must be on
+	 * @return the number of keys freed
+	 */
+	public static int freeWithPrefix(String prefix) {
+		final List<byte[]> removed = OrderedKeys.removePrefix(OrderedKeys.ordered(prefix));
+		final long[] handles = new long[removed.size()];
+		int freed = 0;
+		for (byte[] ordered : removed) {
+			final String key = KeyBuffer.utf8(ordered, 1, ordered.length - 1);
+			final long handle = map.remove(key);
+			if (handle != EntryTable.NONE) {
+				Membership.removed(key.hashCode());
+				handles[freed++] = handle;
+			}
 		}
+		freeAll(handles, freed);
+		return freed;
 	}
 	
-	public static void free(Pointer pointer) {
-		MemoryManager.free(pointer);
+	public static void free(long handle) {
+		MemoryManager.free(handle);
 	}
 	
 	public static void collectExpired() {
@@ -175,36 +682,77 @@ public class Cache {
 	
 	public static void collectLFU() {
 		MemoryManager.collectLFU();
-		// can possibly clear one whole buffer if it's too fragmented - investigate
 	}
 	
+	/**
+	 * drops the older versions of the dictionaries none of the compressed entries refers to anymore
+	 * @return the number of versions dropped
+	 */
+	public static int sweepDictionaries() {
+		if (Dictionaries.olderVersions() == 0) {
+			return 0;
+		}
+		final EntryView.Reader<Integer> dictionaryId = new EntryView.Reader<Integer>() {
+			public Integer read(ByteBuffer payload) {
+				return Compression.dictionaryId(payload);
+			}
+		};
+		final Set<Integer> referenced = new HashSet<Integer>();
+		for (OffHeapMemoryBuffer buffer : MemoryManager.buffers) {
+			for (long handle : buffer.handles()) {
+				if (MemoryManager.table.hasFlag(handle, EntryTable.FLAG_COMPRESSED)) {
+					final Integer id = buffer.peek(handle, dictionaryId);
+					if (id != null && id >= 0) {
+						referenced.add(id);
+					}
+				}
+			}
+		}
+		return Dictionaries.sweep(referenced);
+	}
+	
+	/**
+	 * compacts the most fragmented buffer if it is more fragmented than {@link #DEFAULT_COMPACTION_THRESHOLD}
+	 */
+	public static long compact() {
+		return MemoryManager.compact(DEFAULT_COMPACTION_THRESHOLD);
+	}
+	
+	/**
+	 * a full disposal on the maintenance thread, without time budget
+	 */
 	public static void collectAll() {
-		 Thread thread = new Thread(){
-			 public void run(){
-				 logger.info("begin disposal");
-				 collectExpired();
-				 collectLFU();
-				 logger.info("disposal complete");
-			 }
-		 };
-		 thread.start();
+		Maintenance.submit(new Runnable() {
+			public void run() {
+				logger.info("begin disposal");
+				collectExpired();
+				collectLFU();
+				logger.info("disposal complete");
+			}
+		});
 	}
 	
 	
 	public static void clear() {
 		map.clear();
+		longMap.clear();
+		keyMap.clear();
 		MemoryManager.clear();
+		Admission.clear();
+		Membership.clear();
+		OrderedKeys.clear();
 		logger.info("Cache cleared");
 	}
 	
 	public static long entries() {
-		return map.size();
+		return map.size() + longMap.size() + keyMap.size();
 	}
 
 	private static void dump(OffHeapMemoryBuffer mem) {
 		logger.info(Format.it("off-heap - buffer: \t%1d", mem.bufferNumber));
 		logger.info(Format.it("off-heap - allocated: \t%1s", Ram.inMb(mem.capacity())));
 		logger.info(Format.it("off-heap - used:      \t%1s", Ram.inMb(mem.used())));
+		logger.info(Format.it("off-heap - fragmentation: \t%.1f%%", mem.fragmentation() * 100));
 		logger.info(Format.it("heap 	- max: \t%1s", Ram.inMb(Runtime.getRuntime().maxMemory())));
 		logger.info(Format.it("heap     - allocated: \t%1s", Ram.inMb(Runtime.getRuntime().totalMemory())));
 		logger.info(Format.it("heap     - free : \t%1s", Ram.inMb(Runtime.getRuntime().freeMemory())));
@@ -220,6 +768,22 @@ public class Cache {
 		for (OffHeapMemoryBuffer mem : MemoryManager.buffers) {
 			dump(mem);
 		}
+		logger.info(Format.it("index - keys: %d, off-heap: %s", map.size(), Ram.inMb(map.offHeapBytes())));
+		logger.info(Format.it("index - numeric keys: %d, off-heap: %s", longMap.size(), Ram.inMb(longMap.offHeapBytes())));
+		logger.info(Format.it("index - encoded keys: %d, off-heap: %s", keyMap.size(), Ram.inMb(keyMap.offHeapBytes())));
+		if (Compression.enabled()) {
+			logger.info(Compression.stats());
+		}
+		if (Admission.enabled) {
+			logger.info(Admission.stats());
+		}
+		if (Membership.active()) {
+			logger.info(Membership.stats());
+		}
+		if (OrderedKeys.active()) {
+			logger.info(OrderedKeys.stats());
+		}
+		logger.info(Maintenance.stats());
 	}
 	
 }
@@ -0,0 +1,256 @@
+package org.directmemory.cache;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Collection;
+
+import org.directmemory.compression.Dictionaries;
+import org.directmemory.compression.DictionaryCodec;
+import org.directmemory.memory.EntryTable;
+import org.directmemory.memory.MemoryManager;
+import org.directmemory.memory.OffHeapMemoryBuffer;
+import org.directmemory.misc.Format;
+import org.directmemory.serialization.KeyBuffer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Index of a cache whose buffers are mapped to files: keys with the location of their entries,
+ * the classes behind the type ids, which are numbered again by every JVM, and the compression
+ * dictionaries the entries may name. Numeric keys come after the others, encoded keys last.
+ * Keys are written as their length followed by their bytes, string keys in UTF-8, whatever their length.
+ * The index only matches the files until they change, so it is deleted as soon as it is read.
+ */
+class CacheIndex {
+	private static Logger logger = LoggerFactory.getLogger(CacheIndex.class);
+
+	private static final String INDEX = "index";
+	private static final int VERSION = 5;
+
+	private CacheIndex() {
+		// static class
+	}
+
+	static void save(File directory, OffHeapIndex map, LongIndex longMap, BytesIndex keyMap) throws IOException {
+		final File temporary = new File(directory, INDEX + ".tmp");
+		final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporary)));
+		final int[] saved = new int[1];
+		try {
+			out.writeInt(VERSION);
+			out.writeBoolean(OffHeapMemoryBuffer.DEFAULT_HEADERS);
+			final int types = TypeRegistry.size();
+			out.writeInt(types);
+			for (int id = 1; id <= types; id++) {
+				out.writeUTF(TypeRegistry.classOf(id).getName());
+			}
+			final Collection<DictionaryCodec> dictionaries = Dictionaries.all();
+			out.writeInt(dictionaries.size());
+			for (DictionaryCodec dictionary : dictionaries) {
+				out.writeInt(dictionary.dictionaryId());
+				out.writeInt(dictionary.typeId());
+				out.writeInt(dictionary.dictionary().length);
+				out.write(dictionary.dictionary());
+			}
+			final EntryTable table = MemoryManager.table;
+			final IOException[] failed = new IOException[1];
+			final KeyBuffer utf8 = new KeyBuffer();
+			map.forEach(new OffHeapIndex.Visitor() {
+				public void visit(String key, long handle) {
+					if (failed[0] != null || !table.isLive(handle) || table.expired(handle)) {
+						return;
+					}
+					try {
+						out.writeBoolean(true);
+						utf8.reset().putUtf8(key);
+						out.writeInt(utf8.length());
+						out.write(utf8.array(), 0, utf8.length());
+						writeEntry(out, table, handle);
+						saved[0]++;
+					} catch (IOException e) {
+						failed[0] = e;
+					}
+				}
+			});
+			if (failed[0] != null) {
+				throw failed[0];
+			}
+			out.writeBoolean(false);
+			longMap.forEach(new LongIndex.Visitor() {
+				public void visit(long key, long handle) {
+					if (failed[0] != null || !table.isLive(handle) || table.expired(handle)) {
+						return;
+					}
+					try {
+						out.writeBoolean(true);
+						out.writeLong(key);
+						writeEntry(out, table, handle);
+						saved[0]++;
+					} catch (IOException e) {
+						failed[0] = e;
+					}
+				}
+			});
+			if (failed[0] != null) {
+				throw failed[0];
+			}
+			out.writeBoolean(false);
+			keyMap.forEach(new BytesIndex.Visitor() {
+				public void visit(byte[] key, long handle) {
+					if (failed[0] != null || !table.isLive(handle) || table.expired(handle)) {
+						return;
+					}
+					try {
+						out.writeBoolean(true);
+						out.writeInt(key.length);
+						out.write(key);
+						writeEntry(out, table, handle);
+						saved[0]++;
+					} catch (IOException e) {
+						failed[0] = e;
+					}
+				}
+			});
+			if (failed[0] != null) {
+				throw failed[0];
+			}
+			out.writeBoolean(false);
+		} finally {
+			out.close();
+		}
+		final File index = new File(directory, INDEX);
+		if (index.exists() && !index.delete() || !temporary.renameTo(index)) {
+			throw new IOException("cannot replace " + index);
+		}
+		logger.info(Format.it("checkpoint of %d entries in %s", saved[0], directory));
+	}
+
+	private static void writeEntry(DataOutputStream out, EntryTable table, long handle) throws IOException {
+		out.writeInt(table.buffer(handle));
+		out.writeLong(table.offset(handle));
+		out.writeInt(table.length(handle));
+		out.writeLong(table.expires(handle));
+		out.writeInt(table.typeId(handle));
+		out.writeInt(table.flags(handle));
+	}
+
+	/**
+	 * @return the handle of the entry restored, {@link EntryTable#NONE} if it expired or is lost
+	 */
+	private static long readEntry(DataInputStream in, int[] typeIds, long now) throws IOException {
+		final int buffer = in.readInt();
+		final long offset = in.readLong();
+		final int length = in.readInt();
+		final long expires = in.readLong();
+		final int typeId = typeIds[in.readInt()];
+		final int flags = in.readInt();
+		if (typeId >= 0 && (expires == 0 || expires > now)) {
+			return MemoryManager.restore(buffer, offset, length, expires, typeId, flags);
+		}
+		return EntryTable.NONE;
+	}
+
+	static void load(File directory, OffHeapIndex map, LongIndex longMap, BytesIndex keyMap) {
+		final File index = new File(directory, INDEX);
+		if (!index.exists()) {
+			return;
+		}
+		int restored = 0;
+		int lost = 0;
+		try {
+			final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(index)));
+			try {
+				if (in.readInt() != VERSION || in.readBoolean() != OffHeapMemoryBuffer.DEFAULT_HEADERS) {
+					logger.warn(Format.it("%s was saved with another layout, starting empty", index));
+				} else {
+					final int[] typeIds = readTypes(in);
+					readDictionaries(in, typeIds);
+					final long now = System.currentTimeMillis();
+					while (in.readBoolean()) {
+						final byte[] utf8 = new byte[in.readInt()];
+						in.readFully(utf8);
+						final String key = KeyBuffer.utf8(utf8, 0, utf8.length);
+						final long handle = readEntry(in, typeIds, now);
+						if (handle == EntryTable.NONE) {
+							lost++;
+						} else {
+							MemoryManager.table.setKeyHash(handle, key.hashCode());
+							Membership.added(key.hashCode());
+							map.put(key, handle);
+							restored++;
+						}
+					}
+					while (in.readBoolean()) {
+						final long key = in.readLong();
+						final long handle = readEntry(in, typeIds, now);
+						if (handle == EntryTable.NONE) {
+							lost++;
+						} else {
+							MemoryManager.table.setKeyHash(handle, LongIndex.hash(key));
+							Membership.added(LongIndex.hash(key));
+							longMap.put(key, handle);
+							restored++;
+						}
+					}
+					while (in.readBoolean()) {
+						final byte[] bytes = new byte[in.readInt()];
+						in.readFully(bytes);
+						final KeyBuffer key = new KeyBuffer(bytes.length).put(bytes);
+						final long handle = readEntry(in, typeIds, now);
+						if (handle == EntryTable.NONE) {
+							lost++;
+						} else {
+							MemoryManager.table.setKeyHash(handle, key.hash());
+							Membership.added(key.hash());
+							keyMap.put(key, handle);
+							restored++;
+						}
+					}
+				}
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			logger.error(Format.it("cannot read %s: %s", index, e.getMessage()));
+		}
+		if (!index.delete()) {
+			logger.warn(Format.it("cannot delete %s", index));
+		}
+		logger.info(Format.it("%d entries restored from %s, %d expired or lost", restored, index, lost));
+	}
+
+	private static void readDictionaries(DataInputStream in, int[] typeIds) throws IOException {
+		final int howMany = in.readInt();
+		for (int i = 0; i < howMany; i++) {
+			final int dictionaryId = in.readInt();
+			final int typeId = typeIds[in.readInt()];
+			final byte[] dictionary = new byte[in.readInt()];
+			in.readFully(dictionary);
+			if (typeId >= 0) {
+				Dictionaries.register(new DictionaryCodec(dictionaryId, typeId, dictionary));
+			}
+		}
+	}
+
+	/**
+	 * @return the id in this JVM by saved id, -1 for classes which are not there anymore
+	 */
+	private static int[] readTypes(DataInputStream in) throws IOException {
+		final int[] typeIds = new int[in.readInt() + 1];
+		for (int id = 1; id < typeIds.length; id++) {
+			final String name = in.readUTF();
+			try {
+				typeIds[id] = TypeRegistry.idOf(Class.forName(name));
+			} catch (ClassNotFoundException e) {
+				logger.warn(Format.it("entries of %s dropped, the class is gone", name));
+				typeIds[id] = -1;
+			}
+		}
+		return typeIds;
+	}
+}
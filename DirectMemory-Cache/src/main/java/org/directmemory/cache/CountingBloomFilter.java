@@ -0,0 +1,139 @@
+package org.directmemory.cache;
+
+import org.directmemory.misc.UnsafeAccess;
+
+import sun.misc.Unsafe;
+
+/**
+ * Counting Bloom filter of key hashes in native memory, 4 bit counters sixteen to a long.
+ * The filter is blocked: the {@link #HASHES} counters of a key all lie in the same block of eight longs,
+ * one cache line, so that a lookup costs a single cache miss whatever the number of hashes.
+ * A key is added by incrementing its counters and removed by decrementing them, with compare and swap.
+ * A counter that reaches 15 stays there until the filter is cleared, so that no key present is ever rejected.
+ */
+public class CountingBloomFilter {
+	private static final Unsafe unsafe = UnsafeAccess.unsafe;
+
+	public static final int HASHES = 6;
+	private static final int BLOCK_LONGS = 8;
+	private static final int BLOCK_BYTES = BLOCK_LONGS * 8;
+	private static final long MAX = 0xfL;
+	// the block takes the low bits of the hash, the probes the 42 high ones
+	private static final int MAX_BLOCKS = 1 << 22;
+
+	private final long address;
+	private final int blockMask;
+
+	/**
+	 * @param capacity number of keys expected
+	 * @param countersPerKey 10 keeps the false positive rate around 1% at capacity
+	 */
+	public CountingBloomFilter(int capacity, int countersPerKey) {
+		final long counters = (long)Math.max(capacity, 16) * countersPerKey;
+		int blocks = 1;
+		while ((long)blocks * BLOCK_LONGS * 16 < counters && blocks < MAX_BLOCKS) {
+			blocks <<= 1;
+		}
+		blockMask = blocks - 1;
+		address = unsafe.allocateMemory((long)blocks * BLOCK_BYTES);
+		clear();
+	}
+
+	private static long mix(int keyHash) {
+		long h = keyHash * 0x9E3779B97F4A7C15L;
+		h ^= h >>> 29;
+		h *= 0xBF58476D1CE4E5B9L;
+		return h ^ (h >>> 32);
+	}
+
+	private long block(long h) {
+		return address + (long)((int)h & blockMask) * BLOCK_BYTES;
+	}
+
+	/**
+	 * @return the counter the probe goes to in the block, from 7 bits of the hash
+	 */
+	private static int counter(long h, int probe) {
+		return (int)(h >>> (64 - 7 * (probe + 1))) & 127;
+	}
+
+	public boolean mightContain(int keyHash) {
+		final long h = mix(keyHash);
+		final long block = block(h);
+		for (int i = 0; i < HASHES; i++) {
+			final int counter = counter(h, i);
+			if ((unsafe.getLongVolatile(null, block + (counter >>> 4 << 3)) & (MAX << ((counter & 15) << 2))) == 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	public void add(int keyHash) {
+		final long h = mix(keyHash);
+		final long block = block(h);
+		for (int i = 0; i < HASHES; i++) {
+			update(block, counter(h, i), 1);
+		}
+	}
+
+	public void remove(int keyHash) {
+		final long h = mix(keyHash);
+		final long block = block(h);
+		for (int i = 0; i < HASHES; i++) {
+			update(block, counter(h, i), -1);
+		}
+	}
+
+	private static void update(long block, int counter, int delta) {
+		final long word = block + (counter >>> 4 << 3);
+		final int shift = (counter & 15) << 2;
+		while (true) {
+			final long current = unsafe.getLongVolatile(null, word);
+			final long value = (current >>> shift) & MAX;
+			if (value == MAX || value == 0 && delta < 0) {
+				// saturated for good, or already cleared
+				return;
+			}
+			if (unsafe.compareAndSwapLong(null, word, current, current + ((long)delta << shift))) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * @return the share of the counters above 0, which the false positive rate follows
+	 */
+	public double occupancy() {
+		final long words = (long)(blockMask + 1) * BLOCK_LONGS;
+		long used = 0;
+		for (long i = 0; i < words; i++) {
+			final long word = unsafe.getLong(address + i * 8);
+			for (int shift = 0; shift < 64; shift += 4) {
+				if ((word >>> shift & MAX) != 0) {
+					used++;
+				}
+			}
+		}
+		return (double)used / (words * 16);
+	}
+
+	/**
+	 * @return the rate of false positives expected from the counters in use
+	 */
+	public double expectedFalsePositiveRate() {
+		return Math.pow(occupancy(), HASHES);
+	}
+
+	public void clear() {
+		unsafe.setMemory(address, offHeapBytes(), (byte)0);
+	}
+
+	public void free() {
+		unsafe.freeMemory(address);
+	}
+
+	public long offHeapBytes() {
+		return (long)(blockMask + 1) * BLOCK_BYTES;
+	}
+}
@@ -0,0 +1,111 @@
+package org.directmemory.cache;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Count-min sketch of how often keys are accessed: four 4 bit counters per key, each in its own
+ * long of the table, the estimate being the smallest of them. Once as many increments as ten times
+ * the capacity have been recorded every counter is halved, so that the estimates follow
+ * the recent popularity of the keys rather than the one of all time.
+ * A counter is incremented by a compare and swap of its long, so that it saturates rather than carrying
+ * into the counter next to it, and the counters are halved by one thread at a time.
+ */
+public class FrequencySketch {
+	private static final long[] SEEDS = {0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+	private static final long RESET_MASK = 0x7777777777777777L;
+	public static final int MAX_FREQUENCY = 15;
+
+	private final AtomicLongArray table;
+	private final int mask;
+	private final int sampleSize;
+	private final AtomicInteger size = new AtomicInteger();
+
+	public FrequencySketch(int capacity) {
+		int length = Integer.highestOneBit(Math.max(capacity, 16) - 1) << 1;
+		table = new AtomicLongArray(length);
+		mask = length - 1;
+		sampleSize = 10 * Math.max(capacity, 16);
+	}
+
+	private static int spread(int hash) {
+		hash = ((hash >>> 16) ^ hash) * 0x45d9f3b;
+		hash = ((hash >>> 16) ^ hash) * 0x45d9f3b;
+		return (hash >>> 16) ^ hash;
+	}
+
+	private int indexOf(int hash, int i) {
+		long h = (hash + SEEDS[i]) * SEEDS[i];
+		h += h >>> 32;
+		return (int)h & mask;
+	}
+
+	/**
+	 * @return the estimated number of recent accesses to the key, at most {@link #MAX_FREQUENCY}
+	 */
+	public int frequency(int keyHash) {
+		final int hash = spread(keyHash);
+		// each key has its own counter in each of the four longs
+		final int start = (hash & 3) << 2;
+		int frequency = MAX_FREQUENCY;
+		for (int i = 0; i < 4; i++) {
+			final int counter = (int)((table.get(indexOf(hash, i)) >>> ((start + i) << 2)) & 0xfL);
+			frequency = Math.min(frequency, counter);
+		}
+		return frequency;
+	}
+
+	public void increment(int keyHash) {
+		final int hash = spread(keyHash);
+		final int start = (hash & 3) << 2;
+		boolean added = false;
+		for (int i = 0; i < 4; i++) {
+			added |= incrementAt(indexOf(hash, i), start + i);
+		}
+		if (added && size.incrementAndGet() >= sampleSize) {
+			synchronized (this) {
+				// the counters may have been halved meanwhile
+				if (size.get() >= sampleSize) {
+					reset();
+				}
+			}
+		}
+	}
+
+	private boolean incrementAt(int index, int counter) {
+		final int offset = counter << 2;
+		final long mask = 0xfL << offset;
+		while (true) {
+			final long current = table.get(index);
+			if ((current & mask) == mask) {
+				return false;
+			}
+			if (table.compareAndSet(index, current, current + (1L << offset))) {
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * halves every counter
+	 */
+	public synchronized void reset() {
+		for (int i = 0; i < table.length(); i++) {
+			long current;
+			do {
+				current = table.get(i);
+			} while (!table.compareAndSet(i, current, (current >>> 1) & RESET_MASK));
+		}
+		int current;
+		do {
+			current = size.get();
+		} while (!size.compareAndSet(current, current / 2));
+	}
+
+	public synchronized void clear() {
+		for (int i = 0; i < table.length(); i++) {
+			table.set(i, 0);
+		}
+		size.set(0);
+	}
+}
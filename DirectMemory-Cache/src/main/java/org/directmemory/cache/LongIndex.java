@@ -0,0 +1,142 @@
+package org.directmemory.cache;
+
+import org.directmemory.memory.EntryTable;
+
+/**
+ * Index of numeric keys to the handles of their entries, in native memory: an {@link OffHeapTable}
+ * whose slot is only the key and the handle, so that nothing is boxed, hashed out of characters or allocated
+ * to look a key up.
+ */
+public class LongIndex extends OffHeapTable {
+	private static final int KEY = 0;
+	private static final int SLOT = 16;
+
+	public interface Visitor {
+		void visit(long key, long handle);
+	}
+
+	/**
+	 * @param initialCapacity number of keys expected
+	 * @param concurrencyLevel number of threads expected to update the index at the same time
+	 */
+	public LongIndex(int initialCapacity, int concurrencyLevel) {
+		super(initialCapacity, concurrencyLevel, SLOT);
+	}
+
+	/**
+	 * @return the hash of the key, also the one kept in the entry
+	 */
+	public static int hash(long key) {
+		return (int)(key ^ (key >>> 32));
+	}
+
+	@Override
+	protected int home(long slot) {
+		return hash(unsafe.getLong(slot + KEY));
+	}
+
+	/**
+	 * @return the index of the slot of the key, or of the empty slot where it would go
+	 */
+	private int find(Segment segment, long key, int spread) {
+		final int mask = mask(segment);
+		int index = spread & mask;
+		while (true) {
+			final long slot = slotAt(segment, index);
+			if (isEmpty(slot) || unsafe.getLong(slot + KEY) == key) {
+				return index;
+			}
+			index = (index + 1) & mask;
+		}
+	}
+
+	/**
+	 * @return the handle the key is mapped to, {@link EntryTable#NONE} if none
+	 */
+	public long get(long key) {
+		final int spread = spread(hash(key));
+		final Segment segment = segmentFor(spread);
+		synchronized (segment) {
+			return unsafe.getLong(slotAt(segment, find(segment, key, spread)) + HANDLE);
+		}
+	}
+
+	/**
+	 * @param handle not {@link EntryTable#NONE}
+	 * @return the handle the key was mapped to, {@link EntryTable#NONE} if none
+	 */
+	public long put(long key, long handle) {
+		final int spread = spread(hash(key));
+		final Segment segment = segmentFor(spread);
+		synchronized (segment) {
+			final long slot = slotAt(segment, find(segment, key, spread));
+			final long previous = unsafe.getLong(slot + HANDLE);
+			unsafe.putLong(slot + KEY, key);
+			unsafe.putLong(slot + HANDLE, handle);
+			if (previous == EntryTable.NONE) {
+				added(segment);
+			}
+			return previous;
+		}
+	}
+
+	/**
+	 * @return the handle the key was mapped to, {@link EntryTable#NONE} if none
+	 */
+	public long remove(long key) {
+		final int spread = spread(hash(key));
+		final Segment segment = segmentFor(spread);
+		synchronized (segment) {
+			final int index = find(segment, key, spread);
+			final long previous = unsafe.getLong(slotAt(segment, index) + HANDLE);
+			if (previous != EntryTable.NONE) {
+				delete(segment, index);
+			}
+			return previous;
+		}
+	}
+
+	/**
+	 * removes the key only if it is still mapped to the handle
+	 */
+	public boolean remove(long key, long handle) {
+		final int spread = spread(hash(key));
+		final Segment segment = segmentFor(spread);
+		synchronized (segment) {
+			final int index = find(segment, key, spread);
+			final long current = unsafe.getLong(slotAt(segment, index) + HANDLE);
+			if (current == EntryTable.NONE || current != handle) {
+				return false;
+			}
+			delete(segment, index);
+			return true;
+		}
+	}
+
+	/**
+	 * removes the key mapped to the handle, looked for by the hash of the key kept in the entry
+	 * @return whether a key was mapped to the handle
+	 */
+	public boolean unlink(int hash, long handle) {
+		final Segment segment = segmentFor(spread(hash));
+		synchronized (segment) {
+			final int index = findHandle(segment, hash, handle);
+			if (index < 0) {
+				return false;
+			}
+			delete(segment, index);
+			return true;
+		}
+	}
+
+	/**
+	 * hands every key with its handle to the visitor, one segment at a time
+	 */
+	public void forEach(final Visitor visitor) {
+		forEachSlot(new SlotVisitor() {
+			public void visit(long slot) {
+				visitor.visit(unsafe.getLong(slot + KEY), unsafe.getLong(slot + HANDLE));
+			}
+		});
+	}
+}
@@ -0,0 +1,324 @@
+package org.directmemory.cache;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.directmemory.measures.Ram;
+import org.directmemory.memory.MemoryManager;
+import org.directmemory.memory.OffHeapMemoryBuffer;
+import org.directmemory.misc.Format;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Background maintenance of the cache, on a single daemon thread.
+ * Disposal runs in cycles: each cycle expires entries and, while evicting, evicts some, one buffer
+ * at a time, until its CPU time budget is spent; the next cycle carries on from the buffer where the last one stopped.
+ * Eviction starts when the memory in use crosses the {@link #highWatermark}, right away if a store crossed it,
+ * and goes on until the buffers are back under the {@link #lowWatermark}.
+ * Cycles come every {@link #period} milliseconds, more often while evicting, so that memory is
+ * reclaimed continuously in small slices rather than in sweeps over the whole cache.
+ * Other periodic tasks, such as compaction, run on the same thread at their own rate.
+ */
+public class Maintenance {
+	private static Logger logger = LoggerFactory.getLogger(Maintenance.class);
+
+	/** milliseconds between two disposal cycles when not evicting */
+	public static long period = 1000;
+	/** CPU time a disposal cycle may take */
+	public static long budgetNanos = TimeUnit.MILLISECONDS.toNanos(5);
+	/** share of the capacity in use above which eviction starts */
+	public static double highWatermark = 0.9;
+	/** share of the capacity of a buffer in use eviction brings it down to */
+	public static double lowWatermark = 0.8;
+	/** entries evicted from a buffer in one slice */
+	public static int evictionSlice = 64;
+	/** due entries of a buffer looked at in one slice of expiry */
+	public static int expirySlice = 1024;
+
+	private static final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+		public Thread newThread(Runnable runnable) {
+			final Thread thread = new Thread(runnable, "directmemory-maintenance");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+	private static final ConcurrentMap<String, ScheduledFuture<?>> tasks = new ConcurrentHashMap<String, ScheduledFuture<?>>();
+	private static final String DISPOSAL = "disposal";
+	private static final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+	// bumped to drop the cycles scheduled before a restart or a stop
+	private static final AtomicInteger generation = new AtomicInteger();
+	private static volatile boolean evicting;
+	// a cycle has been submitted by a store crossing the high watermark
+	private static final AtomicBoolean triggered = new AtomicBoolean();
+	// buffer the next cycle starts from
+	private static int cursor;
+
+	private static final AtomicLong cycles = new AtomicLong();
+	private static final AtomicLong expired = new AtomicLong();
+	private static final AtomicLong evicted = new AtomicLong();
+	private static final AtomicLong overBudget = new AtomicLong();
+	private static final AtomicLong cpuNanos = new AtomicLong();
+	private static volatile Cycle last = new Cycle();
+
+	/**
+	 * work done by a disposal cycle
+	 */
+	public static class Cycle {
+		public long expired;
+		public long evicted;
+		public int slices;
+		public long cpuNanos;
+		public boolean overBudget;
+		public double pressure;
+
+		public String toString() {
+			return Format.it("%d slices, %s expired, %s evicted, %.3fms of CPU%s, %.0f%% used",
+					slices, Ram.inKb(expired), Ram.inKb(evicted), cpuNanos / 1e6, overBudget ? " (over budget)" : "", pressure * 100);
+		}
+	}
+
+	private Maintenance() {
+		// static class
+	}
+
+	/**
+	 * starts the disposal cycles, or starts them over with the new period if they are already running
+	 */
+	public static void start(long period) {
+		Maintenance.period = period;
+		final ScheduledFuture<?> previous = tasks.remove(DISPOSAL);
+		if (previous != null) {
+			previous.cancel(false);
+		}
+		scheduleCycle(generation.incrementAndGet(), period);
+		logger.info("disposal cycles every " + period + " milliseconds at most, " + TimeUnit.NANOSECONDS.toMicros(budgetNanos) + "us of CPU each");
+	}
+
+	private static void scheduleCycle(final int scheduled, long delay) {
+		tasks.put(DISPOSAL, executor.schedule(new Runnable() {
+			public void run() {
+				if (scheduled != generation.get()) {
+					return;
+				}
+				try {
+					cycle(budgetNanos);
+				} catch (RuntimeException e) {
+					logger.error("disposal cycle failed", e);
+				}
+				if (scheduled == generation.get()) {
+					scheduleCycle(scheduled, nextDelay());
+				}
+			}
+		}, delay, TimeUnit.MILLISECONDS));
+	}
+
+	public static void stop() {
+		generation.incrementAndGet();
+		for (ScheduledFuture<?> task : tasks.values()) {
+			task.cancel(false);
+		}
+		tasks.clear();
+	}
+
+	/**
+	 * runs the task every period milliseconds, in place of the task with the same name if any
+	 */
+	public static void scheduleEvery(String name, final Runnable task, long period) {
+		final ScheduledFuture<?> future = executor.scheduleAtFixedRate(new Runnable() {
+			public void run() {
+				try {
+					task.run();
+				} catch (RuntimeException e) {
+					logger.error("maintenance task failed", e);
+				}
+			}
+		}, period, period, TimeUnit.MILLISECONDS);
+		final ScheduledFuture<?> previous = tasks.put(name, future);
+		if (previous != null) {
+			previous.cancel(false);
+		}
+	}
+
+	/**
+	 * runs the task once, as soon as the maintenance thread is free
+	 */
+	public static void submit(Runnable task) {
+		executor.execute(task);
+	}
+
+	/**
+	 * @return the share of the capacity of the pool in use
+	 */
+	public static double pressure() {
+		final long capacity = MemoryManager.capacity();
+		return capacity == 0 ? 0 : (double)MemoryManager.used() / capacity;
+	}
+
+	public static boolean evicting() {
+		return evicting;
+	}
+
+	/**
+	 * to be called after a store: past the high watermark eviction starts on the maintenance thread,
+	 * without waiting for the next cycle
+	 */
+	public static void stored() {
+		if (evicting || pressure() < highWatermark || !triggered.compareAndSet(false, true)) {
+			return;
+		}
+		evicting = true;
+		executor.execute(new Runnable() {
+			public void run() {
+				triggered.set(false);
+				try {
+					cycle(budgetNanos);
+				} catch (RuntimeException e) {
+					logger.error("disposal cycle failed", e);
+				}
+			}
+		});
+	}
+
+	/**
+	 * @return the period, a fourth of it while evicting
+	 */
+	static long nextDelay() {
+		return evicting ? Math.max(1, period / 4) : period;
+	}
+
+	private static long cpuTime() {
+		if (threads.isCurrentThreadCpuTimeSupported()) {
+			return threads.getCurrentThreadCpuTime();
+		}
+		return System.nanoTime();
+	}
+
+	/**
+	 * one disposal cycle on the calling thread: slices of expiry until a buffer has no due entries left and, while evicting,
+	 * slices of eviction until the buffer is under the low watermark, as long as the budget lasts
+	 * @param budget CPU time in nanoseconds, 0 or less to go through every buffer once whatever it takes
+	 * @return what the cycle did
+	 */
+	public static Cycle cycle(long budget) {
+		final long start = cpuTime();
+		final Cycle cycle = new Cycle();
+		cycle.pressure = pressure();
+		if (cycle.pressure >= highWatermark) {
+			evicting = true;
+		}
+		final List<OffHeapMemoryBuffer> buffers = MemoryManager.buffers;
+		final int count = buffers.size();
+		int visited = 0;
+		synchronized (Maintenance.class) {
+			while (visited < count) {
+				final OffHeapMemoryBuffer buffer;
+				try {
+					buffer = buffers.get(cursor++ % count);
+				} catch (IndexOutOfBoundsException e) {
+					// the pool just shrank
+					break;
+				}
+				visited++;
+				do {
+					cycle.expired += buffer.collectExpired(expirySlice);
+					cycle.slices++;
+				} while (buffer.overdue() > 0 && !spent(start, budget));
+				if (buffer.overdue() > 0) {
+					// the next cycle goes on with the entries left
+					cursor--;
+					cycle.overBudget = true;
+					break;
+				}
+				while (evicting && buffer.used() > buffer.capacity() * lowWatermark && !spent(start, budget)) {
+					final long freed = buffer.collectLFU(evictionSlice);
+					if (freed == 0) {
+						break;
+					}
+					cycle.evicted += freed;
+					cycle.slices++;
+				}
+				if (spent(start, budget)) {
+					cycle.overBudget = visited < count;
+					break;
+				}
+			}
+			cursor %= Math.max(1, count);
+			if (evicting && pressure() <= lowWatermark) {
+				evicting = false;
+			}
+		}
+		if (!cycle.overBudget) {
+			MemoryManager.reclaimIdleRegions();
+			MemoryManager.shrink();
+		}
+		cycle.cpuNanos = cpuTime() - start;
+		cycles.incrementAndGet();
+		expired.addAndGet(cycle.expired);
+		evicted.addAndGet(cycle.evicted);
+		cpuNanos.addAndGet(cycle.cpuNanos);
+		if (cycle.overBudget) {
+			overBudget.incrementAndGet();
+		}
+		last = cycle;
+		if (logger.isDebugEnabled() && (cycle.expired > 0 || cycle.evicted > 0)) {
+			logger.debug("disposal cycle: " + cycle);
+		}
+		return cycle;
+	}
+
+	private static boolean spent(long start, long budget) {
+		return budget > 0 && cpuTime() - start >= budget;
+	}
+
+	public static Cycle lastCycle() {
+		return last;
+	}
+
+	public static long cycles() {
+		return cycles.get();
+	}
+
+	/**
+	 * @return bytes freed by expiry since the start
+	 */
+	public static long expired() {
+		return expired.get();
+	}
+
+	/**
+	 * @return bytes freed by eviction since the start
+	 */
+	public static long evicted() {
+		return evicted.get();
+	}
+
+	public static void resetStats() {
+		evicting = false;
+		cycles.set(0);
+		expired.set(0);
+		evicted.set(0);
+		overBudget.set(0);
+		cpuNanos.set(0);
+		last = new Cycle();
+	}
+
+	public static String stats() {
+		final long cycles = Maintenance.cycles.get();
+		return Format.it("maintenance - cycles: %d (%d over budget), expired: %s, evicted: %s, CPU: %.3fms per cycle, last: %s",
+				cycles, overBudget.get(), Ram.inMb(expired.get()), Ram.inMb(evicted.get()),
+				cycles == 0 ? 0 : cpuNanos.get() / 1e6 / cycles, last);
+	}
+}
@@ -0,0 +1,138 @@
+package org.directmemory.cache;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.directmemory.measures.Ram;
+import org.directmemory.memory.MemoryManager;
+import org.directmemory.misc.Format;
+
+/**
+ * Fast path for the keys that are not in the cache, off unless {@link #enabled} when the cache is initialized:
+ * a {@link CountingBloomFilter} of the hashes of the keys in the indexes is checked before them,
+ * so that most misses are answered without probing an index.
+ * Keys are added before they are indexed and removed after they are not anymore, evicted and expired ones
+ * included, so the filter never rejects a key in the cache; what it lets through in vain is counted as a
+ * false positive.
+ */
+public class Membership {
+	/** read by {@link #init(int)} */
+	public static boolean enabled = false;
+	/** counters of the filter per key of the capacity */
+	public static int countersPerKey = 10;
+
+	private static volatile CountingBloomFilter filter;
+
+	private static final AtomicLong rejected = new AtomicLong();
+	private static final AtomicLong falsePositives = new AtomicLong();
+
+	private Membership() {
+		// static class
+	}
+
+	/**
+	 * @param capacity number of keys expected in the cache
+	 */
+	public static synchronized void init(int capacity) {
+		final CountingBloomFilter previous = filter;
+		filter = enabled ? new CountingBloomFilter(capacity, countersPerKey) : null;
+		if (previous != null) {
+			// readers may still hold the previous filter
+			MemoryManager.later(new Runnable() {
+				public void run() {
+					previous.free();
+				}
+			});
+		}
+		resetStats();
+	}
+
+	public static void clear() {
+		final CountingBloomFilter filter = Membership.filter;
+		if (filter != null) {
+			filter.clear();
+		}
+		resetStats();
+	}
+
+	public static boolean active() {
+		return filter != null;
+	}
+
+	static void added(int keyHash) {
+		final CountingBloomFilter filter = Membership.filter;
+		if (filter != null) {
+			filter.add(keyHash);
+		}
+	}
+
+	static void removed(int keyHash) {
+		final CountingBloomFilter filter = Membership.filter;
+		if (filter != null) {
+			filter.remove(keyHash);
+		}
+	}
+
+	/**
+	 * @return false if the key is surely not in the cache, true if it may be
+	 */
+	static boolean mightContain(int keyHash) {
+		final CountingBloomFilter filter = Membership.filter;
+		if (filter == null || filter.mightContain(keyHash)) {
+			return true;
+		}
+		rejected.incrementAndGet();
+		return false;
+	}
+
+	/**
+	 * to be called when a key let through is not in the index
+	 */
+	static void missed() {
+		if (filter != null) {
+			falsePositives.incrementAndGet();
+		}
+	}
+
+	/**
+	 * @return misses rejected by the filter without probing the index
+	 */
+	public static long rejected() {
+		return rejected.get();
+	}
+
+	public static long falsePositives() {
+		return falsePositives.get();
+	}
+
+	/**
+	 * @return the share of the misses the filter let through, as measured
+	 */
+	public static double falsePositiveRate() {
+		final long falsePositives = Membership.falsePositives.get();
+		final long misses = falsePositives + rejected.get();
+		return misses == 0 ? 0 : (double)falsePositives / misses;
+	}
+
+	/**
+	 * @return the false positive rate expected from the counters in use, 0 if the filter is off
+	 */
+	public static double expectedFalsePositiveRate() {
+		final CountingBloomFilter filter = Membership.filter;
+		return filter == null ? 0 : filter.expectedFalsePositiveRate();
+	}
+
+	public static void resetStats() {
+		rejected.set(0);
+		falsePositives.set(0);
+	}
+
+	public static String stats() {
+		final CountingBloomFilter filter = Membership.filter;
+		if (filter == null) {
+			return "membership - off";
+		}
+		return Format.it("membership - misses rejected: %d, false positives: %d (%.2f%%, %.2f%% expected), off-heap: %s",
+				rejected.get(), falsePositives.get(), falsePositiveRate() * 100, filter.expectedFalsePositiveRate() * 100,
+				Ram.inMb(filter.offHeapBytes()));
+	}
+}
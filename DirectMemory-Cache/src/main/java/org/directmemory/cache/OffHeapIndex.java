@@ -0,0 +1,246 @@
+package org.directmemory.cache;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.directmemory.memory.EntryTable;
+
+/**
+ * Index of the keys of the cache to the handles of their entries, kept in native memory so that the
+ * garbage collector has neither the keys nor the handles to trace: an {@link OffHeapTable} whose slot
+ * holds the address of the key, the handle and the hash of the key, compared before the key itself.
+ * Keys are copied to native memory one byte per character when they fit in Latin-1, two otherwise.
+ * An index that keeps order adds its keys to {@link OrderedKeys} and removes them under the lock of their segment,
+ * so that both agree on the keys whatever the order of concurrent updates.
+ */
+public class OffHeapIndex extends OffHeapTable {
+	// address of the key
+	private static final int KEY = 0;
+	private static final int HASH = 16;
+	private static final int SLOT = 24;
+	private static final int WIDE = 0x80000000;
+
+	public interface Visitor {
+		void visit(String key, long handle);
+	}
+
+	private final AtomicLong keyBytes = new AtomicLong();
+	private final boolean keepsOrder;
+
+	/**
+	 * @param initialCapacity number of keys expected
+	 * @param concurrencyLevel number of threads expected to update the index at the same time
+	 */
+	public OffHeapIndex(int initialCapacity, int concurrencyLevel) {
+		this(initialCapacity, concurrencyLevel, false);
+	}
+
+	/**
+	 * @param keepsOrder whether keys go to {@link OrderedKeys} as well
+	 */
+	public OffHeapIndex(int initialCapacity, int concurrencyLevel, boolean keepsOrder) {
+		super(initialCapacity, concurrencyLevel, SLOT);
+		this.keepsOrder = keepsOrder;
+	}
+
+	@Override
+	protected int home(long slot) {
+		return unsafe.getInt(slot + HASH);
+	}
+
+	@Override
+	protected void release(long slot) {
+		final long address = unsafe.getLong(slot + KEY);
+		final int header = unsafe.getInt(address);
+		keyBytes.addAndGet(-(4 + ((header & WIDE) != 0 ? 2L : 1L) * (header & ~WIDE)));
+		unsafe.freeMemory(address);
+	}
+
+	/**
+	 * @return the index of the slot of the key, or of the empty slot where it would go
+	 */
+	private int find(Segment segment, String key, int hash, int spread) {
+		final int mask = mask(segment);
+		int index = spread & mask;
+		while (true) {
+			final long slot = slotAt(segment, index);
+			if (isEmpty(slot) || unsafe.getInt(slot + HASH) == hash && matches(unsafe.getLong(slot + KEY), key)) {
+				return index;
+			}
+			index = (index + 1) & mask;
+		}
+	}
+
+	private static boolean matches(long address, String key) {
+		final int header = unsafe.getInt(address);
+		final int length = header & ~WIDE;
+		if (length != key.length()) {
+			return false;
+		}
+		final long chars = address + 4;
+		if ((header & WIDE) != 0) {
+			for (int i = 0; i < length; i++) {
+				if (unsafe.getChar(chars + 2L * i) != key.charAt(i)) {
+					return false;
+				}
+			}
+		} else {
+			for (int i = 0; i < length; i++) {
+				if ((char)(unsafe.getByte(chars + i) & 0xFF) != key.charAt(i)) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	private long copy(String key) {
+		final int length = key.length();
+		boolean wide = false;
+		for (int i = 0; i < length && !wide; i++) {
+			wide = key.charAt(i) > 0xFF;
+		}
+		final long size = 4 + (wide ? 2L : 1L) * length;
+		final long address = unsafe.allocateMemory(size);
+		unsafe.putInt(address, wide ? length | WIDE : length);
+		final long chars = address + 4;
+		for (int i = 0; i < length; i++) {
+			if (wide) {
+				unsafe.putChar(chars + 2L * i, key.charAt(i));
+			} else {
+				unsafe.putByte(chars + i, (byte)key.charAt(i));
+			}
+		}
+		keyBytes.addAndGet(size);
+		return address;
+	}
+
+	private static String keyAt(long address) {
+		final int header = unsafe.getInt(address);
+		final int length = header & ~WIDE;
+		final char[] chars = new char[length];
+		for (int i = 0; i < length; i++) {
+			chars[i] = (header & WIDE) != 0 ? unsafe.getChar(address + 4 + 2L * i) : (char)(unsafe.getByte(address + 4 + i) & 0xFF);
+		}
+		return new String(chars);
+	}
+
+	/**
+	 * @return the handle the key is mapped to, {@link EntryTable#NONE} if none
+	 */
+	public long get(String key) {
+		final int hash = key.hashCode();
+		final int spread = spread(hash);
+		final Segment segment = segmentFor(spread);
+		synchronized (segment) {
+			return unsafe.getLong(slotAt(segment, find(segment, key, hash, spread)) + HANDLE);
+		}
+	}
+
+	/**
+	 * @param handle not {@link EntryTable#NONE}
+	 * @return the handle the key was mapped to, {@link EntryTable#NONE} if none
+	 */
+	public long put(String key, long handle) {
+		final int hash = key.hashCode();
+		final int spread = spread(hash);
+		final Segment segment = segmentFor(spread);
+		synchronized (segment) {
+			final long slot = slotAt(segment, find(segment, key, hash, spread));
+			if (!isEmpty(slot)) {
+				final long previous = unsafe.getLong(slot + HANDLE);
+				unsafe.putLong(slot + HANDLE, handle);
+				return previous;
+			}
+			unsafe.putLong(slot + KEY, copy(key));
+			unsafe.putLong(slot + HANDLE, handle);
+			unsafe.putInt(slot + HASH, hash);
+			if (keepsOrder) {
+				OrderedKeys.added(key);
+			}
+			added(segment);
+			return EntryTable.NONE;
+		}
+	}
+
+	/**
+	 * @return the handle the key was mapped to, {@link EntryTable#NONE} if none
+	 */
+	public long remove(String key) {
+		final int hash = key.hashCode();
+		final int spread = spread(hash);
+		final Segment segment = segmentFor(spread);
+		synchronized (segment) {
+			final int index = find(segment, key, hash, spread);
+			final long previous = unsafe.getLong(slotAt(segment, index) + HANDLE);
+			if (previous == EntryTable.NONE) {
+				return EntryTable.NONE;
+			}
+			delete(segment, index);
+			if (keepsOrder) {
+				OrderedKeys.removed(key);
+			}
+			return previous;
+		}
+	}
+
+	/**
+	 * removes the key only if it is still mapped to the handle
+	 */
+	public boolean remove(String key, long handle) {
+		final int hash = key.hashCode();
+		final int spread = spread(hash);
+		final Segment segment = segmentFor(spread);
+		synchronized (segment) {
+			final int index = find(segment, key, hash, spread);
+			final long current = unsafe.getLong(slotAt(segment, index) + HANDLE);
+			if (current == EntryTable.NONE || current != handle) {
+				return false;
+			}
+			delete(segment, index);
+			if (keepsOrder) {
+				OrderedKeys.removed(key);
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * removes the key mapped to the handle, looked for by the hash of the key kept in the entry
+	 * @return the key removed, null if no key is mapped to the handle
+	 */
+	public String unlink(int hash, long handle) {
+		final Segment segment = segmentFor(spread(hash));
+		synchronized (segment) {
+			final int index = findHandle(segment, hash, handle);
+			if (index < 0) {
+				return null;
+			}
+			final String key = keyAt(unsafe.getLong(slotAt(segment, index) + KEY));
+			delete(segment, index);
+			if (keepsOrder) {
+				OrderedKeys.removed(key);
+			}
+			return key;
+		}
+	}
+
+	/**
+	 * hands every key with its handle to the visitor, one segment at a time: keys put or removed
+	 * meanwhile may or may not be visited
+	 */
+	public void forEach(final Visitor visitor) {
+		forEachSlot(new SlotVisitor() {
+			public void visit(long slot) {
+				visitor.visit(keyAt(unsafe.getLong(slot + KEY)), unsafe.getLong(slot + HANDLE));
+			}
+		});
+	}
+
+	/**
+	 * @return native memory taken by the slots and the keys
+	 */
+	@Override
+	public long offHeapBytes() {
+		return super.offHeapBytes() + keyBytes.get();
+	}
+}
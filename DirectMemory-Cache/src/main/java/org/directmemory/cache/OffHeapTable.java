@@ -0,0 +1,251 @@
+package org.directmemory.cache;
+
+import org.directmemory.memory.EntryTable;
+import org.directmemory.misc.UnsafeAccess;
+
+import sun.misc.Unsafe;
+
+/**
+ * Segmented open addressing table of handles in native memory, the indexes of the cache being adapters over it.
+ * Keys are hashed to one of a power of two of segments, each a table with linear probing behind its own lock;
+ * a segment doubles on its own when three quarters full, the others serving meanwhile.
+ * Every slot holds a handle at {@link #HANDLE}, {@link EntryTable#NONE} for an empty slot, the rest of the slot
+ * being up to the index: it looks its keys up itself and tells {@link #home(long)} of a slot, the hash of its key,
+ * from which the slot is moved on a resize or a delete.
+ */
+public abstract class OffHeapTable {
+	protected static final Unsafe unsafe = UnsafeAccess.unsafe;
+
+	protected static final int HANDLE = 8;
+	private static final double LOAD_FACTOR = 0.75;
+
+	static final class Segment {
+		long slots;
+		int capacity;
+		int size;
+	}
+
+	interface SlotVisitor {
+		void visit(long slot);
+	}
+
+	private final Segment[] segments;
+	private final int segmentShift;
+	private final int initialCapacity;
+	private final int slotSize;
+
+	/**
+	 * @param initialCapacity number of keys expected
+	 * @param concurrencyLevel number of threads expected to update the index at the same time
+	 * @param slotSize bytes of a slot, the handle included
+	 */
+	OffHeapTable(int initialCapacity, int concurrencyLevel, int slotSize) {
+		this.slotSize = slotSize;
+		int count = 1;
+		while (count < concurrencyLevel * 4) {
+			count <<= 1;
+		}
+		segments = new Segment[count];
+		segmentShift = 32 - Integer.numberOfTrailingZeros(count);
+		int capacity = 16;
+		while (capacity * LOAD_FACTOR < (double)initialCapacity / count) {
+			capacity <<= 1;
+		}
+		this.initialCapacity = capacity;
+		for (int i = 0; i < count; i++) {
+			segments[i] = new Segment();
+			allocate(segments[i], capacity);
+		}
+	}
+
+	/**
+	 * @return the hash of the key of the slot, the one the slot was put with
+	 */
+	protected abstract int home(long slot);
+
+	/**
+	 * gives back what the slot points to, once its key is removed or the table cleared
+	 */
+	protected void release(long slot) {
+	}
+
+	private void allocate(Segment segment, int capacity) {
+		segment.slots = unsafe.allocateMemory((long)capacity * slotSize);
+		unsafe.setMemory(segment.slots, (long)capacity * slotSize, (byte)0);
+		segment.capacity = capacity;
+	}
+
+	static int spread(int hash) {
+		hash ^= hash >>> 16;
+		hash *= 0x85ebca6b;
+		hash ^= hash >>> 13;
+		return hash;
+	}
+
+	final Segment segmentFor(int spread) {
+		return segments[segmentShift == 32 ? 0 : spread >>> segmentShift];
+	}
+
+	final long slotAt(Segment segment, int index) {
+		return segment.slots + (long)index * slotSize;
+	}
+
+	static boolean isEmpty(long slot) {
+		return unsafe.getLong(slot + HANDLE) == EntryTable.NONE;
+	}
+
+	/**
+	 * @return the mask of the slot indexes of the segment, to probe from spread & mask
+	 */
+	static int mask(Segment segment) {
+		if (segment.capacity == 0) {
+			throw new IllegalStateException("index freed");
+		}
+		return segment.capacity - 1;
+	}
+
+	/**
+	 * counts the slot just filled, doubling the segment once three quarters full
+	 */
+	final void added(Segment segment) {
+		if (++segment.size > segment.capacity * LOAD_FACTOR) {
+			resize(segment);
+		}
+	}
+
+	/**
+	 * @return the index of the slot of the handle in the cluster of the hash, -1 if it is not there
+	 */
+	final int findHandle(Segment segment, int hash, long handle) {
+		final int mask = mask(segment);
+		int index = spread(hash) & mask;
+		while (true) {
+			final long slot = slotAt(segment, index);
+			if (isEmpty(slot)) {
+				return -1;
+			}
+			if (unsafe.getLong(slot + HANDLE) == handle && home(slot) == hash) {
+				return index;
+			}
+			index = (index + 1) & mask;
+		}
+	}
+
+	/**
+	 * empties the slot, moving back the next slots of the cluster which would not be found anymore
+	 */
+	final void delete(Segment segment, int index) {
+		release(slotAt(segment, index));
+		final int mask = segment.capacity - 1;
+		int hole = index;
+		int next = index;
+		while (true) {
+			next = (next + 1) & mask;
+			final long slot = slotAt(segment, next);
+			if (isEmpty(slot)) {
+				break;
+			}
+			final int home = spread(home(slot)) & mask;
+			// the slot stays if its home is cyclically within (hole, next]
+			final boolean stays = hole <= next ? hole < home && home <= next : hole < home || home <= next;
+			if (!stays) {
+				unsafe.copyMemory(slot, slotAt(segment, hole), slotSize);
+				hole = next;
+			}
+		}
+		unsafe.setMemory(slotAt(segment, hole), slotSize, (byte)0);
+		segment.size--;
+	}
+
+	private void resize(Segment segment) {
+		final long old = segment.slots;
+		final int oldCapacity = segment.capacity;
+		allocate(segment, oldCapacity * 2);
+		final int mask = segment.capacity - 1;
+		for (int i = 0; i < oldCapacity; i++) {
+			final long from = old + (long)i * slotSize;
+			if (isEmpty(from)) {
+				continue;
+			}
+			int index = spread(home(from)) & mask;
+			while (!isEmpty(slotAt(segment, index))) {
+				index = (index + 1) & mask;
+			}
+			unsafe.copyMemory(from, slotAt(segment, index), slotSize);
+		}
+		unsafe.freeMemory(old);
+	}
+
+	public int size() {
+		int size = 0;
+		for (Segment segment : segments) {
+			synchronized (segment) {
+				size += segment.size;
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * hands every slot in use to the visitor, one segment at a time under its lock: keys put or removed
+	 * meanwhile may or may not be visited
+	 */
+	final void forEachSlot(SlotVisitor visitor) {
+		for (Segment segment : segments) {
+			synchronized (segment) {
+				for (int i = 0; i < segment.capacity; i++) {
+					final long slot = slotAt(segment, i);
+					if (!isEmpty(slot)) {
+						visitor.visit(slot);
+					}
+				}
+			}
+		}
+	}
+
+	public void clear() {
+		for (Segment segment : segments) {
+			synchronized (segment) {
+				releaseAll(segment);
+				unsafe.freeMemory(segment.slots);
+				allocate(segment, initialCapacity);
+				segment.size = 0;
+			}
+		}
+	}
+
+	private void releaseAll(Segment segment) {
+		for (int i = 0; i < segment.capacity; i++) {
+			final long slot = slotAt(segment, i);
+			if (!isEmpty(slot)) {
+				release(slot);
+			}
+		}
+	}
+
+	/**
+	 * gives all the native memory back, the index cannot be used anymore
+	 */
+	public void free() {
+		for (Segment segment : segments) {
+			synchronized (segment) {
+				releaseAll(segment);
+				unsafe.freeMemory(segment.slots);
+				segment.slots = 0;
+				segment.capacity = 0;
+				segment.size = 0;
+			}
+		}
+	}
+
+	/**
+	 * @return native memory taken by the slots
+	 */
+	public long offHeapBytes() {
+		long bytes = 0;
+		for (Segment segment : segments) {
+			bytes += (long)segment.capacity * slotSize;
+		}
+		return bytes;
+	}
+}
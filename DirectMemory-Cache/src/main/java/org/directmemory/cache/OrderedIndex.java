@@ -0,0 +1,278 @@
+package org.directmemory.cache;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.directmemory.misc.UnsafeAccess;
+
+import sun.misc.Unsafe;
+
+/**
+ * Sorted set of byte keys in native memory, a skip list: every node is allocated on its own and holds
+ * its level, the length of its key, one pointer to the next node per level and the key.
+ * Keys compare as unsigned bytes. Readers share a lock, writers take it alone.
+ */
+public class OrderedIndex {
+	private static final Unsafe unsafe = UnsafeAccess.unsafe;
+
+	private static final int LEVEL = 0;
+	private static final int LENGTH = 4;
+	private static final int NEXT = 8;
+	private static final int MAX_LEVEL = 24;
+
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+	private final long head;
+	private int level = 1;
+	private int size;
+	private long offHeapBytes;
+	private long seed = System.nanoTime() | 1;
+
+	public OrderedIndex() {
+		head = allocate(MAX_LEVEL, 0);
+	}
+
+	private long allocate(int level, int length) {
+		final long size = NEXT + 8L * level + length;
+		final long node = unsafe.allocateMemory(size);
+		unsafe.setMemory(node, NEXT + 8L * level, (byte)0);
+		unsafe.putInt(node + LEVEL, level);
+		unsafe.putInt(node + LENGTH, length);
+		offHeapBytes += size;
+		return node;
+	}
+
+	private void release(long node) {
+		offHeapBytes -= NEXT + 8L * unsafe.getInt(node + LEVEL) + unsafe.getInt(node + LENGTH);
+		unsafe.freeMemory(node);
+	}
+
+	private static long next(long node, int level) {
+		return unsafe.getLong(node + NEXT + 8L * level);
+	}
+
+	private static void setNext(long node, int level, long next) {
+		unsafe.putLong(node + NEXT + 8L * level, next);
+	}
+
+	private static long keyAddress(long node) {
+		return node + NEXT + 8L * unsafe.getInt(node + LEVEL);
+	}
+
+	private static byte[] keyAt(long node) {
+		final byte[] key = new byte[unsafe.getInt(node + LENGTH)];
+		final long address = keyAddress(node);
+		for (int i = 0; i < key.length; i++) {
+			key[i] = unsafe.getByte(address + i);
+		}
+		return key;
+	}
+
+	/**
+	 * @return less than 0, 0 or more than 0 as the key of the node is less than, equal to or greater than the key
+	 */
+	private static int compare(long node, byte[] key, int length) {
+		final int nodeLength = unsafe.getInt(node + LENGTH);
+		final long address = keyAddress(node);
+		final int common = Math.min(nodeLength, length);
+		for (int i = 0; i < common; i++) {
+			final int diff = (unsafe.getByte(address + i) & 0xFF) - (key[i] & 0xFF);
+			if (diff != 0) {
+				return diff;
+			}
+		}
+		return nodeLength - length;
+	}
+
+	/**
+	 * fills the last node before the key at every level
+	 * @return the first node not before the key, 0 if none
+	 */
+	private long seek(byte[] key, int length, long[] predecessors) {
+		long node = head;
+		for (int i = level - 1; i >= 0; i--) {
+			long next = next(node, i);
+			while (next != 0 && compare(next, key, length) < 0) {
+				node = next;
+				next = next(node, i);
+			}
+			if (predecessors != null) {
+				predecessors[i] = node;
+			}
+		}
+		return next(node, 0);
+	}
+
+	private int randomLevel() {
+		// xorshift, under the write lock
+		seed ^= seed << 13;
+		seed ^= seed >>> 7;
+		seed ^= seed << 17;
+		int level = 1;
+		long bits = seed;
+		while ((bits & 3) == 0 && level < MAX_LEVEL) {
+			level++;
+			bits >>>= 2;
+		}
+		return level;
+	}
+
+	/**
+	 * @return false if the key was there already
+	 */
+	public boolean add(byte[] key, int length) {
+		final long[] predecessors = new long[MAX_LEVEL];
+		lock.writeLock().lock();
+		try {
+			final long found = seek(key, length, predecessors);
+			if (found != 0 && compare(found, key, length) == 0) {
+				return false;
+			}
+			final int nodeLevel = randomLevel();
+			for (int i = level; i < nodeLevel; i++) {
+				predecessors[i] = head;
+			}
+			level = Math.max(level, nodeLevel);
+			final long node = allocate(nodeLevel, length);
+			final long address = keyAddress(node);
+			for (int i = 0; i < length; i++) {
+				unsafe.putByte(address + i, key[i]);
+			}
+			for (int i = 0; i < nodeLevel; i++) {
+				setNext(node, i, next(predecessors[i], i));
+				setNext(predecessors[i], i, node);
+			}
+			size++;
+			return true;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * @return false if the key was not there
+	 */
+	public boolean remove(byte[] key, int length) {
+		final long[] predecessors = new long[MAX_LEVEL];
+		lock.writeLock().lock();
+		try {
+			final long found = seek(key, length, predecessors);
+			if (found == 0 || compare(found, key, length) != 0) {
+				return false;
+			}
+			for (int i = 0; i < unsafe.getInt(found + LEVEL); i++) {
+				setNext(predecessors[i], i, next(found, i));
+			}
+			release(found);
+			size--;
+			return true;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * @param from first key, inclusive
+	 * @param to last key, exclusive, null for no bound
+	 * @param limit number of keys at most
+	 * @return the keys in the range, in order
+	 */
+	public List<byte[]> range(byte[] from, byte[] to, int limit) {
+		final List<byte[]> keys = new ArrayList<byte[]>();
+		lock.readLock().lock();
+		try {
+			for (long node = seek(from, from.length, null); node != 0 && keys.size() < limit; node = next(node, 0)) {
+				if (to != null && compare(node, to, to.length) >= 0) {
+					break;
+				}
+				keys.add(keyAt(node));
+			}
+		} finally {
+			lock.readLock().unlock();
+		}
+		return keys;
+	}
+
+	/**
+	 * unlinks the keys in the range all at once, each level spliced where the range starts and ends
+	 * @param to exclusive, null for no bound
+	 * @return the keys removed, in order
+	 */
+	public List<byte[]> removeRange(byte[] from, byte[] to) {
+		final List<byte[]> keys = new ArrayList<byte[]>();
+		final long[] predecessors = new long[MAX_LEVEL];
+		lock.writeLock().lock();
+		try {
+			final long first = seek(from, from.length, predecessors);
+			// the last node of the range at each level
+			final long[] last = new long[level];
+			long node = first;
+			while (node != 0 && (to == null || compare(node, to, to.length) < 0)) {
+				keys.add(keyAt(node));
+				for (int i = 0; i < unsafe.getInt(node + LEVEL); i++) {
+					last[i] = node;
+				}
+				node = next(node, 0);
+			}
+			for (int i = 0; i < level; i++) {
+				if (last[i] != 0) {
+					setNext(predecessors[i], i, next(last[i], i));
+				}
+			}
+			node = keys.isEmpty() ? 0 : first;
+			while (node != 0) {
+				final long next = node == last[0] ? 0 : next(node, 0);
+				release(node);
+				node = next;
+			}
+			size -= keys.size();
+		} finally {
+			lock.writeLock().unlock();
+		}
+		return keys;
+	}
+
+	public int size() {
+		lock.readLock().lock();
+		try {
+			return size;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	public void clear() {
+		lock.writeLock().lock();
+		try {
+			long node = next(head, 0);
+			while (node != 0) {
+				final long next = next(node, 0);
+				release(node);
+				node = next;
+			}
+			unsafe.setMemory(head + NEXT, 8L * MAX_LEVEL, (byte)0);
+			level = 1;
+			size = 0;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * gives the native memory back, the index cannot be used anymore
+	 */
+	public void free() {
+		clear();
+		release(head);
+	}
+
+	public long offHeapBytes() {
+		lock.readLock().lock();
+		try {
+			return offHeapBytes;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+}
@@ -0,0 +1,183 @@
+package org.directmemory.cache;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.directmemory.measures.Ram;
+import org.directmemory.memory.MemoryManager;
+import org.directmemory.misc.Format;
+import org.directmemory.serialization.KeyBuffer;
+
+/**
+ * Keys of the cache in order, off unless {@link #enabled} when the cache is initialized: an {@link OrderedIndex}
+ * of the string keys, in UTF-8, and of the encoded ones, each kind behind a byte of its own,
+ * so that keys can be listed or freed by prefix or range without going through the whole cache.
+ * Keys are added and removed by the indexes of the cache, under the lock of the key, evicted and expired ones
+ * included: keys put or freed during a scan may or may not be part of it.
+ */
+public class OrderedKeys {
+	/** read by {@link #init()} */
+	public static boolean enabled = false;
+	/** keys read at once by the iterators */
+	public static int batch = 1024;
+
+	static final byte STRINGS = 0;
+	static final byte ENCODED = 1;
+
+	private static volatile OrderedIndex index;
+
+	// the key with the byte of its kind in front
+	private static final ThreadLocal<KeyBuffer> keys = new ThreadLocal<KeyBuffer>() {
+		protected KeyBuffer initialValue() {
+			return new KeyBuffer();
+		}
+	};
+
+	private OrderedKeys() {
+		// static class
+	}
+
+	public static synchronized void init() {
+		final OrderedIndex previous = index;
+		index = enabled ? new OrderedIndex() : null;
+		if (previous != null) {
+			// readers and indexes may still hold the previous keys
+			MemoryManager.later(new Runnable() {
+				public void run() {
+					previous.free();
+				}
+			});
+		}
+	}
+
+	public static void clear() {
+		final OrderedIndex index = OrderedKeys.index;
+		if (index != null) {
+			index.clear();
+		}
+	}
+
+	public static boolean active() {
+		return index != null;
+	}
+
+	private static OrderedIndex index() {
+		final OrderedIndex index = OrderedKeys.index;
+		if (index == null) {
+			throw new IllegalStateException("keys are not kept in order, see OrderedKeys.enabled");
+		}
+		return index;
+	}
+
+	static KeyBuffer ordered(String key) {
+		return keys.get().reset().put(STRINGS).putUtf8(key);
+	}
+
+	static KeyBuffer ordered(KeyBuffer key) {
+		return keys.get().reset().put(ENCODED).put(key.array(), 0, key.length());
+	}
+
+	static void added(String key) {
+		final OrderedIndex index = OrderedKeys.index;
+		if (index != null) {
+			final KeyBuffer ordered = ordered(key);
+			index.add(ordered.array(), ordered.length());
+		}
+	}
+
+	static void removed(String key) {
+		final OrderedIndex index = OrderedKeys.index;
+		if (index != null) {
+			final KeyBuffer ordered = ordered(key);
+			index.remove(ordered.array(), ordered.length());
+		}
+	}
+
+	static void added(KeyBuffer key) {
+		final OrderedIndex index = OrderedKeys.index;
+		if (index != null) {
+			final KeyBuffer ordered = ordered(key);
+			index.add(ordered.array(), ordered.length());
+		}
+	}
+
+	static void removed(KeyBuffer key) {
+		final OrderedIndex index = OrderedKeys.index;
+		if (index != null) {
+			final KeyBuffer ordered = ordered(key);
+			index.remove(ordered.array(), ordered.length());
+		}
+	}
+
+	/**
+	 * @return the first key after all the keys starting with the prefix, null if there is none
+	 */
+	static byte[] after(byte[] prefix) {
+		for (int i = prefix.length - 1; i >= 0; i--) {
+			if (prefix[i] != (byte)0xFF) {
+				final byte[] after = new byte[i + 1];
+				System.arraycopy(prefix, 0, after, 0, i + 1);
+				after[i]++;
+				return after;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @param to exclusive, null for no bound
+	 * @return the keys in the range, with the byte of their kind, read a {@link #batch} at a time
+	 */
+	static Iterator<byte[]> range(final byte[] from, final byte[] to) {
+		final OrderedIndex index = index();
+		return new Iterator<byte[]>() {
+			private List<byte[]> keys = index.range(from, to, batch);
+			private int position;
+
+			public boolean hasNext() {
+				if (position == keys.size() && keys.size() == batch) {
+					// the smallest key after the last one read
+					final byte[] last = keys.get(position - 1);
+					final byte[] next = new byte[last.length + 1];
+					System.arraycopy(last, 0, next, 0, last.length);
+					keys = index.range(next, to, batch);
+					position = 0;
+				}
+				return position < keys.size();
+			}
+
+			public byte[] next() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				return keys.get(position++);
+			}
+
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
+	/**
+	 * @return the keys starting with the prefix, with the byte of their kind, unlinked all at once
+	 */
+	static List<byte[]> removePrefix(KeyBuffer prefix) {
+		final byte[] from = prefix.toByteArray();
+		return index().removeRange(from, after(from));
+	}
+
+	public static int size() {
+		final OrderedIndex index = OrderedKeys.index;
+		return index == null ? 0 : index.size();
+	}
+
+	public static String stats() {
+		final OrderedIndex index = OrderedKeys.index;
+		if (index == null) {
+			return "ordered keys - off";
+		}
+		return Format.it("ordered keys - keys: %d, off-heap: %s", index.size(), Ram.inMb(index.offHeapBytes()));
+	}
+}
@@ -0,0 +1,47 @@
+package org.directmemory.cache;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Numbers the classes of the cached objects, so that the entry table stores an int
+ * instead of a reference to the class. Id 0 stands for raw byte arrays.
+ */
+public class TypeRegistry {
+	private static final ConcurrentMap<Class<?>, Integer> ids = new ConcurrentHashMap<Class<?>, Integer>();
+	private static final List<Class<?>> classes = new CopyOnWriteArrayList<Class<?>>();
+
+	private TypeRegistry() {
+		// static class
+	}
+
+	public static int idOf(Class<?> clazz) {
+		final Integer id = ids.get(clazz);
+		if (id != null) {
+			return id;
+		}
+		synchronized (classes) {
+			if (!ids.containsKey(clazz)) {
+				classes.add(clazz);
+				ids.put(clazz, classes.size());
+			}
+			return ids.get(clazz);
+		}
+	}
+
+	/**
+	 * @return the number of classes registered, ids go from 1 to this number
+	 */
+	public static int size() {
+		return classes.size();
+	}
+
+	public static Class<?> classOf(int id) {
+		if (id <= 0 || id > classes.size()) {
+			return null;
+		}
+		return classes.get(id - 1);
+	}
+}
@@ -0,0 +1,23 @@
+package org.directmemory.compression;
+
+import java.io.IOException;
+
+/**
+ * Compression algorithm applied to serialized payloads. Codecs are stateless and shared between threads.
+ */
+public interface Codec {
+
+	/**
+	 * @return the identifier written in front of the payloads compressed by this codec, unique among codecs
+	 */
+	public abstract byte id();
+
+	public abstract byte[] compress(byte[] source, int offset, int length);
+
+	/**
+	 * @param originalLength length of the payload before compression
+	 * @throws IOException if the source is not what this codec produced
+	 */
+	public abstract byte[] decompress(byte[] source, int offset, int length, int originalLength) throws IOException;
+
+}
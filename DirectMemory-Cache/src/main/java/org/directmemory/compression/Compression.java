@@ -0,0 +1,175 @@
+package org.directmemory.compression;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.directmemory.measures.Ram;
+import org.directmemory.misc.Format;
+
+/**
+ * Optional stage between the serializer and the off-heap store, off until a {@link #codec} is set.
+ * Payloads shorter than the {@link #threshold}, or which do not shrink, are stored as they are;
+ * the others are framed with the id of their codec and their original length, so that a cache
+ * can switch codecs while entries compressed by the previous one are still around.
+ */
+public class Compression {
+	public static final int DEFAULT_THRESHOLD = 256;
+	private static final int FRAME = 5;
+
+	public static Codec codec = null;
+	public static int threshold = DEFAULT_THRESHOLD;
+
+	private static final Codec[] codecs = new Codec[128];
+
+	private static final AtomicLong compressed = new AtomicLong();
+	private static final AtomicLong skipped = new AtomicLong();
+	private static final AtomicLong bytesIn = new AtomicLong();
+	private static final AtomicLong bytesOut = new AtomicLong();
+	private static final AtomicLong compressionTime = new AtomicLong();
+	private static final AtomicLong decompressionTime = new AtomicLong();
+
+	static {
+		register(new Lz4Codec());
+		register(new DeflateCodec());
+		// reads with whatever dictionary the payload names
+		register(new DictionaryCodec(0, 0, new byte[0]));
+	}
+
+	/**
+	 * makes a codec known for decompression, codecs are looked up by {@link Codec#id()}
+	 */
+	public static void register(Codec codec) {
+		codecs[codec.id()] = codec;
+	}
+
+	public static boolean enabled() {
+		return codec != null || Dictionaries.enabled;
+	}
+
+	/**
+	 * @return true if a payload of the given length may be compressed
+	 */
+	public static boolean applies(int length) {
+		return (codec != null && length >= threshold) || (Dictionaries.enabled && length >= Dictionaries.minLength);
+	}
+
+	/**
+	 * @return the framed compressed payload, or null if the payload is better stored as it is
+	 */
+	public static byte[] compress(byte[] payload) {
+		final Codec current = codec;
+		if (current == null || payload.length < threshold) {
+			return null;
+		}
+		return compress(current, payload);
+	}
+
+	/**
+	 * compresses a payload of the given type with the dictionary of the type when {@link Dictionaries} are on
+	 * and there is one, with the {@link #codec} otherwise
+	 * @return the framed compressed payload, or null if the payload is better stored as it is
+	 */
+	public static byte[] compress(byte[] payload, int typeId) {
+		if (Dictionaries.enabled && payload.length >= Dictionaries.minLength) {
+			Dictionaries.sample(typeId, payload);
+			final DictionaryCodec dictionary = Dictionaries.current(typeId);
+			if (dictionary != null) {
+				final byte[] framed = compress(dictionary, payload);
+				if (framed != null) {
+					return framed;
+				}
+			}
+		}
+		return compress(payload);
+	}
+
+	private static byte[] compress(Codec current, byte[] payload) {
+		final long startedAt = System.nanoTime();
+		final byte[] packed = current.compress(payload, 0, payload.length);
+		compressionTime.addAndGet(System.nanoTime() - startedAt);
+		if (packed.length + FRAME >= payload.length) {
+			skipped.incrementAndGet();
+			return null;
+		}
+		final byte[] framed = new byte[packed.length + FRAME];
+		framed[0] = current.id();
+		framed[1] = (byte)(payload.length >>> 24);
+		framed[2] = (byte)(payload.length >>> 16);
+		framed[3] = (byte)(payload.length >>> 8);
+		framed[4] = (byte)payload.length;
+		System.arraycopy(packed, 0, framed, FRAME, packed.length);
+		compressed.incrementAndGet();
+		bytesIn.addAndGet(payload.length);
+		bytesOut.addAndGet(framed.length);
+		return framed;
+	}
+
+	public static byte[] decompress(byte[] framed) throws IOException {
+		if (framed.length < FRAME) {
+			throw new IOException("not a compressed payload");
+		}
+		final Codec decoder = codecs[framed[0] & 0x7F];
+		if (decoder == null) {
+			throw new IOException(Format.it("unknown codec %d", framed[0]));
+		}
+		final int originalLength = (framed[1] & 0xFF) << 24 | (framed[2] & 0xFF) << 16 | (framed[3] & 0xFF) << 8 | (framed[4] & 0xFF);
+		final long startedAt = System.nanoTime();
+		final byte[] payload = decoder.decompress(framed, FRAME, framed.length - FRAME, originalLength);
+		decompressionTime.addAndGet(System.nanoTime() - startedAt);
+		return payload;
+	}
+
+	/**
+	 * @param framed a compressed payload, from its position on
+	 * @return the id of the {@link DictionaryCodec dictionary} the payload was compressed with, -1 if it was not
+	 */
+	public static int dictionaryId(ByteBuffer framed) {
+		if (framed.remaining() < FRAME + 4 || framed.get(framed.position()) != DictionaryCodec.ID) {
+			return -1;
+		}
+		return framed.getInt(framed.position() + FRAME);
+	}
+
+	/**
+	 * @return original size over compressed size of the payloads compressed so far, 1 if none
+	 */
+	public static double ratio() {
+		final long out = bytesOut.get();
+		return out == 0 ? 1 : (double)bytesIn.get() / out;
+	}
+
+	public static long compressed() {
+		return compressed.get();
+	}
+
+	/**
+	 * @return the number of payloads long enough to be compressed which did not shrink
+	 */
+	public static long skipped() {
+		return skipped.get();
+	}
+
+	public static long compressionTime() {
+		return compressionTime.get();
+	}
+
+	public static long decompressionTime() {
+		return decompressionTime.get();
+	}
+
+	public static void resetStats() {
+		compressed.set(0);
+		skipped.set(0);
+		bytesIn.set(0);
+		bytesOut.set(0);
+		compressionTime.set(0);
+		decompressionTime.set(0);
+	}
+
+	public static String stats() {
+		return Format.it("compressed %d payloads from %s to %s (ratio %.2f, %d skipped) in %.3f ms, decompressed in %.3f ms",
+				compressed.get(), Ram.inKb(bytesIn.get()), Ram.inKb(bytesOut.get()), ratio(), skipped.get(),
+				(double)compressionTime.get() / 1000000, (double)decompressionTime.get() / 1000000);
+	}
+}
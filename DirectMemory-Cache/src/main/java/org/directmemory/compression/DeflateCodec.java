@@ -0,0 +1,71 @@
+package org.directmemory.compression;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Codec of the JDK, slower than {@link Lz4Codec} but compressing better.
+ */
+public class DeflateCodec implements Codec {
+	public static final byte ID = 2;
+
+	private final int level;
+
+	public DeflateCodec() {
+		this(Deflater.BEST_SPEED);
+	}
+
+	public DeflateCodec(int level) {
+		this.level = level;
+	}
+
+	public byte id() {
+		return ID;
+	}
+
+	public byte[] compress(byte[] source, int offset, int length) {
+		final Deflater deflater = new Deflater(level);
+		try {
+			deflater.setInput(source, offset, length);
+			deflater.finish();
+			byte[] compressed = new byte[length + length / 1000 + 64];
+			int size = 0;
+			while (!deflater.finished()) {
+				if (size == compressed.length) {
+					compressed = Arrays.copyOf(compressed, compressed.length * 2);
+				}
+				size += deflater.deflate(compressed, size, compressed.length - size);
+			}
+			return Arrays.copyOf(compressed, size);
+		} finally {
+			deflater.end();
+		}
+	}
+
+	public byte[] decompress(byte[] source, int offset, int length, int originalLength) throws IOException {
+		final Inflater inflater = new Inflater();
+		try {
+			inflater.setInput(source, offset, length);
+			final byte[] payload = new byte[originalLength];
+			int size = 0;
+			while (size < originalLength && !inflater.finished()) {
+				final int inflated = inflater.inflate(payload, size, originalLength - size);
+				if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+					break;
+				}
+				size += inflated;
+			}
+			if (size != originalLength) {
+				throw new IOException("truncated deflate payload");
+			}
+			return payload;
+		} catch (DataFormatException e) {
+			throw new IOException(e.getMessage());
+		} finally {
+			inflater.end();
+		}
+	}
+}
@@ -0,0 +1,300 @@
+package org.directmemory.compression;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.directmemory.measures.Ram;
+import org.directmemory.misc.Format;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Compression dictionaries of the payload types, off until {@link #enabled}.
+ * {@link Compression} hands over a sample of the payloads stored of each type, {@link #train()} builds
+ * a dictionary out of them: the segments of the samples made of the substrings found in most of them.
+ * Training again gives a new version of the dictionary, adopted if it compresses the samples
+ * better than the current one; older versions stay around for the payloads compressed with them,
+ * until a {@link #sweep(Set)} finds none of them left.
+ */
+public class Dictionaries {
+	private static Logger logger = LoggerFactory.getLogger(Dictionaries.class);
+
+	public static boolean enabled = false;
+	/** payloads shorter than this are stored as they are */
+	public static int minLength = 64;
+	public static int dictionarySize = (int)Ram.Kb(4);
+	public static int samples = 128;
+	/** one payload out of sampleRate is sampled */
+	public static int sampleRate = 4;
+
+	private static final int GRAM = 8;
+	private static final int SEGMENT = 64;
+	private static final int HASH_BITS = 16;
+
+	private static final ConcurrentMap<Integer, Samples> samplesByType = new ConcurrentHashMap<Integer, Samples>();
+	private static final ConcurrentMap<Integer, DictionaryCodec> current = new ConcurrentHashMap<Integer, DictionaryCodec>();
+	private static final ConcurrentMap<Integer, DictionaryCodec> byId = new ConcurrentHashMap<Integer, DictionaryCodec>();
+	private static final AtomicInteger ids = new AtomicInteger();
+	// versions already replaced by a newer one at the last sweep
+	private static volatile Set<Integer> superseded = Collections.emptySet();
+
+	private static class Samples {
+		final AtomicLong seen = new AtomicLong();
+		final byte[][] payloads = new byte[samples][];
+		int taken;
+		// taken since the last training
+		int fresh;
+
+		synchronized void add(byte[] payload) {
+			payloads[taken++ % payloads.length] = payload;
+			fresh++;
+		}
+
+		synchronized List<byte[]> takeIfFresh() {
+			if (fresh < payloads.length) {
+				return null;
+			}
+			fresh = 0;
+			final List<byte[]> taken = new ArrayList<byte[]>(payloads.length);
+			for (byte[] payload : payloads) {
+				taken.add(payload);
+			}
+			return taken;
+		}
+	}
+
+	private Dictionaries() {
+		// static class
+	}
+
+	/**
+	 * keeps the payload as a sample of its type if its turn has come
+	 */
+	public static void sample(int typeId, byte[] payload) {
+		Samples sampled = samplesByType.get(typeId);
+		if (sampled == null) {
+			samplesByType.putIfAbsent(typeId, new Samples());
+			sampled = samplesByType.get(typeId);
+		}
+		if (sampled.seen.getAndIncrement() % sampleRate == 0) {
+			sampled.add(payload);
+		}
+	}
+
+	/**
+	 * @return the dictionary payloads of the type are compressed with, null if there is none yet
+	 */
+	public static DictionaryCodec current(int typeId) {
+		return current.get(typeId);
+	}
+
+	/**
+	 * @return the dictionary with the given id, whatever its version
+	 */
+	public static DictionaryCodec get(int dictionaryId) {
+		return byId.get(dictionaryId);
+	}
+
+	public static Collection<DictionaryCodec> all() {
+		return byId.values();
+	}
+
+	/**
+	 * makes a dictionary known again, as when loading a cache saved by a previous run
+	 */
+	public static void register(DictionaryCodec dictionary) {
+		byId.put(dictionary.dictionaryId(), dictionary);
+		final DictionaryCodec previous = current.get(dictionary.typeId());
+		if (previous == null || previous.dictionaryId() < dictionary.dictionaryId()) {
+			current.put(dictionary.typeId(), dictionary);
+		}
+		int id;
+		while ((id = ids.get()) < dictionary.dictionaryId() && !ids.compareAndSet(id, dictionary.dictionaryId())) {
+			// raced with another registration
+		}
+	}
+
+	/**
+	 * @return the number of versions kept which are not the current one of their type
+	 */
+	public static int olderVersions() {
+		return byId.size() - current.size();
+	}
+
+	/**
+	 * drops the versions no payload is compressed with anymore. A version goes only if it was replaced
+	 * already at the previous sweep, so that a payload compressed with it just before it was replaced
+	 * has been stored, and found, since
+	 * @param referenced ids of the dictionaries the live payloads are compressed with
+	 * @return the number of versions dropped
+	 */
+	public static synchronized int sweep(Set<Integer> referenced) {
+		final Set<Integer> replaced = new HashSet<Integer>();
+		int dropped = 0;
+		for (DictionaryCodec dictionary : byId.values()) {
+			final int id = dictionary.dictionaryId();
+			if (current.get(dictionary.typeId()) == dictionary) {
+				continue;
+			}
+			if (superseded.contains(id) && !referenced.contains(id)) {
+				byId.remove(id);
+				dropped++;
+			} else {
+				replaced.add(id);
+			}
+		}
+		superseded = replaced;
+		if (dropped > 0) {
+			logger.info(Format.it("%d dictionaries dropped, %d kept", dropped, byId.size()));
+		}
+		return dropped;
+	}
+
+	public static void clear() {
+		samplesByType.clear();
+		current.clear();
+		byId.clear();
+		superseded = Collections.emptySet();
+		ids.set(0);
+	}
+
+	/**
+	 * trains a new version of the dictionary of the types with a full set of fresh samples
+	 * @return the number of dictionaries adopted
+	 */
+	public static int train() {
+		int adopted = 0;
+		for (Integer typeId : samplesByType.keySet()) {
+			final List<byte[]> taken = samplesByType.get(typeId).takeIfFresh();
+			if (taken == null) {
+				continue;
+			}
+			final byte[] trained = train(taken, dictionarySize);
+			if (trained.length == 0) {
+				continue;
+			}
+			final DictionaryCodec previous = current.get(typeId);
+			final DictionaryCodec candidate = new DictionaryCodec(ids.get() + 1, typeId, trained);
+			final long size = compressedSize(candidate, taken);
+			final long previousSize = previous == null ? sizeOf(taken) : compressedSize(previous, taken);
+			if (size < previousSize) {
+				register(new DictionaryCodec(ids.incrementAndGet(), typeId, trained));
+				adopted++;
+				logger.info(Format.it("dictionary %d of type %d adopted, samples take %s instead of %s",
+						ids.get(), typeId, Ram.inKb(size), Ram.inKb(previousSize)));
+			}
+		}
+		return adopted;
+	}
+
+	private static long sizeOf(List<byte[]> payloads) {
+		long size = 0;
+		for (byte[] payload : payloads) {
+			size += payload.length;
+		}
+		return size;
+	}
+
+	private static long compressedSize(DictionaryCodec dictionary, List<byte[]> payloads) {
+		long size = 0;
+		for (byte[] payload : payloads) {
+			size += dictionary.compress(payload, 0, payload.length).length;
+		}
+		return size;
+	}
+
+	private static int hash(byte[] b, int i) {
+		long gram = 0;
+		for (int j = 0; j < GRAM; j++) {
+			gram = (gram << 8) | (b[i + j] & 0xFF);
+		}
+		return (int)((gram * 0x9E3779B97F4A7C15L) >>> (64 - HASH_BITS));
+	}
+
+	/**
+	 * builds a dictionary of at most size bytes out of segments of the samples: the segments whose
+	 * substrings of {@link #GRAM} bytes show up in the most samples, substrings already covered
+	 * by a chosen segment not counting anymore. The best segments go last, deflate reaching them
+	 * with the shortest distances.
+	 */
+	public static byte[] train(List<byte[]> samples, int size) {
+		// in how many samples each substring shows up
+		final int[] frequencies = new int[1 << HASH_BITS];
+		final int[] seenIn = new int[1 << HASH_BITS];
+		final List<byte[]> sources = new ArrayList<byte[]>();
+		final List<Integer> starts = new ArrayList<Integer>();
+		for (int s = 0; s < samples.size(); s++) {
+			final byte[] sample = samples.get(s);
+			if (sample == null) {
+				continue;
+			}
+			for (int i = 0; i + GRAM <= sample.length; i++) {
+				final int h = hash(sample, i);
+				if (seenIn[h] != s + 1) {
+					seenIn[h] = s + 1;
+					frequencies[h]++;
+				}
+			}
+			for (int start = 0; start + SEGMENT <= sample.length; start += SEGMENT / 2) {
+				sources.add(sample);
+				starts.add(start);
+			}
+		}
+		final List<Integer> chosen = new ArrayList<Integer>();
+		final boolean[] used = new boolean[sources.size()];
+		int length = 0;
+		while (length + SEGMENT <= size) {
+			int best = -1;
+			long bestScore = 0;
+			for (int c = 0; c < sources.size(); c++) {
+				if (used[c]) {
+					continue;
+				}
+				final long score = score(sources.get(c), starts.get(c), frequencies);
+				if (score > bestScore) {
+					best = c;
+					bestScore = score;
+				}
+			}
+			if (best < 0) {
+				break;
+			}
+			used[best] = true;
+			chosen.add(best);
+			length += SEGMENT;
+			final byte[] source = sources.get(best);
+			for (int i = starts.get(best); i + GRAM <= starts.get(best) + SEGMENT; i++) {
+				frequencies[hash(source, i)] = 0;
+			}
+		}
+		final byte[] dictionary = new byte[length];
+		int at = length;
+		for (int c : chosen) {
+			at -= SEGMENT;
+			System.arraycopy(sources.get(c), starts.get(c), dictionary, at, SEGMENT);
+		}
+		return dictionary;
+	}
+
+	/**
+	 * @return the sum of the frequencies of the substrings of the segment found in more than one sample
+	 */
+	private static long score(byte[] source, int start, int[] frequencies) {
+		long score = 0;
+		for (int i = start; i + GRAM <= start + SEGMENT; i++) {
+			final int frequency = frequencies[hash(source, i)];
+			if (frequency > 1) {
+				score += frequency;
+			}
+		}
+		return score;
+	}
+}
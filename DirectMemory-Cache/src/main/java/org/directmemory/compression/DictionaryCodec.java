@@ -0,0 +1,102 @@
+package org.directmemory.compression;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Deflate against a preset dictionary trained on payloads of one type, see {@link Dictionaries}.
+ * Short payloads have too little history of their own to compress, the dictionary gives them
+ * the substrings they share with the other payloads of the type.
+ * The compressed form starts with the id of the dictionary, so that payloads compressed with
+ * an older version of it can still be read: any instance decompresses them all.
+ */
+public class DictionaryCodec implements Codec {
+	public static final byte ID = 3;
+
+	private final int dictionaryId;
+	private final int typeId;
+	private final byte[] dictionary;
+
+	public DictionaryCodec(int dictionaryId, int typeId, byte[] dictionary) {
+		this.dictionaryId = dictionaryId;
+		this.typeId = typeId;
+		this.dictionary = dictionary;
+	}
+
+	public byte id() {
+		return ID;
+	}
+
+	public int dictionaryId() {
+		return dictionaryId;
+	}
+
+	public int typeId() {
+		return typeId;
+	}
+
+	public byte[] dictionary() {
+		return dictionary;
+	}
+
+	public byte[] compress(byte[] source, int offset, int length) {
+		final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+		try {
+			deflater.setDictionary(dictionary);
+			deflater.setInput(source, offset, length);
+			deflater.finish();
+			byte[] compressed = new byte[length + length / 1000 + 64];
+			compressed[0] = (byte)(dictionaryId >>> 24);
+			compressed[1] = (byte)(dictionaryId >>> 16);
+			compressed[2] = (byte)(dictionaryId >>> 8);
+			compressed[3] = (byte)dictionaryId;
+			int size = 4;
+			while (!deflater.finished()) {
+				if (size == compressed.length) {
+					compressed = Arrays.copyOf(compressed, compressed.length * 2);
+				}
+				size += deflater.deflate(compressed, size, compressed.length - size);
+			}
+			return Arrays.copyOf(compressed, size);
+		} finally {
+			deflater.end();
+		}
+	}
+
+	public byte[] decompress(byte[] source, int offset, int length, int originalLength) throws IOException {
+		if (length < 4) {
+			throw new IOException("not a dictionary compressed payload");
+		}
+		final int id = (source[offset] & 0xFF) << 24 | (source[offset + 1] & 0xFF) << 16 | (source[offset + 2] & 0xFF) << 8 | (source[offset + 3] & 0xFF);
+		final DictionaryCodec codec = Dictionaries.get(id);
+		if (codec == null) {
+			throw new IOException("unknown dictionary " + id);
+		}
+		final Inflater inflater = new Inflater(true);
+		try {
+			inflater.setDictionary(codec.dictionary);
+			// raw inflate wants an extra byte past the end of the stream
+			inflater.setInput(Arrays.copyOfRange(source, offset + 4, offset + length + 1));
+			final byte[] payload = new byte[originalLength];
+			int size = 0;
+			while (size < originalLength && !inflater.finished()) {
+				final int inflated = inflater.inflate(payload, size, originalLength - size);
+				if (inflated == 0 && inflater.needsInput()) {
+					break;
+				}
+				size += inflated;
+			}
+			if (size != originalLength) {
+				throw new IOException("truncated payload");
+			}
+			return payload;
+		} catch (DataFormatException e) {
+			throw new IOException(e.getMessage());
+		} finally {
+			inflater.end();
+		}
+	}
+}
@@ -0,0 +1,163 @@
+package org.directmemory.compression;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Pure Java implementation of the LZ4 block format: a greedy matcher over a hash table of 4 byte
+ * sequences, trading compression ratio for speed. Sequences are a token (literal and match length nibbles),
+ * the literals, a little endian 2 byte offset and the extra match length; the last sequence only has literals.
+ */
+public class Lz4Codec implements Codec {
+	public static final byte ID = 1;
+
+	private static final int MIN_MATCH = 4;
+	private static final int LAST_LITERALS = 5;
+	// no match starts in the last 12 bytes
+	private static final int MF_LIMIT = 12;
+	private static final int MAX_OFFSET = 65535;
+	private static final int HASH_LOG = 12;
+	// the step grows while no match is found, incompressible data goes through quickly
+	private static final int SKIP_TRIGGER = 6;
+
+	private static final ThreadLocal<int[]> hashTable = new ThreadLocal<int[]>() {
+		protected int[] initialValue() {
+			return new int[1 << HASH_LOG];
+		}
+	};
+
+	public byte id() {
+		return ID;
+	}
+
+	private static int readInt(byte[] b, int i) {
+		return (b[i] & 0xFF) | (b[i + 1] & 0xFF) << 8 | (b[i + 2] & 0xFF) << 16 | (b[i + 3] & 0xFF) << 24;
+	}
+
+	private static int hash(int sequence) {
+		return (sequence * -1640531535) >>> (32 - HASH_LOG);
+	}
+
+	private static int writeLength(byte[] dst, int d, int length) {
+		while (length >= 255) {
+			dst[d++] = (byte)255;
+			length -= 255;
+		}
+		dst[d++] = (byte)length;
+		return d;
+	}
+
+	public byte[] compress(byte[] source, int offset, int length) {
+		final byte[] dst = new byte[length + length / 255 + 16];
+		final int end = offset + length;
+		int d = 0;
+		int anchor = offset;
+		if (length > MF_LIMIT) {
+			// positions are stored plus one, 0 is an empty slot
+			final int[] table = hashTable.get();
+			Arrays.fill(table, 0);
+			final int matchLimit = end - LAST_LITERALS;
+			final int limit = end - MF_LIMIT;
+			int s = offset;
+			int misses = 0;
+			while (s < limit) {
+				final int sequence = readInt(source, s);
+				final int h = hash(sequence);
+				final int ref = table[h] - 1;
+				table[h] = s + 1;
+				if (ref < offset || s - ref > MAX_OFFSET || readInt(source, ref) != sequence) {
+					s += 1 + (misses++ >>> SKIP_TRIGGER);
+					continue;
+				}
+				misses = 0;
+				int matchLength = MIN_MATCH;
+				while (s + matchLength < matchLimit && source[ref + matchLength] == source[s + matchLength]) {
+					matchLength++;
+				}
+				d = writeSequence(source, anchor, s - anchor, dst, d, s - ref, matchLength);
+				s += matchLength;
+				anchor = s;
+			}
+		}
+		// last literals
+		final int literals = end - anchor;
+		dst[d++] = (byte)(Math.min(literals, 15) << 4);
+		if (literals >= 15) {
+			d = writeLength(dst, d, literals - 15);
+		}
+		System.arraycopy(source, anchor, dst, d, literals);
+		d += literals;
+		return Arrays.copyOf(dst, d);
+	}
+
+	private static int writeSequence(byte[] src, int literalsAt, int literals, byte[] dst, int d, int distance, int matchLength) {
+		final int extra = matchLength - MIN_MATCH;
+		dst[d++] = (byte)(Math.min(literals, 15) << 4 | Math.min(extra, 15));
+		if (literals >= 15) {
+			d = writeLength(dst, d, literals - 15);
+		}
+		System.arraycopy(src, literalsAt, dst, d, literals);
+		d += literals;
+		dst[d++] = (byte)distance;
+		dst[d++] = (byte)(distance >>> 8);
+		if (extra >= 15) {
+			d = writeLength(dst, d, extra - 15);
+		}
+		return d;
+	}
+
+	public byte[] decompress(byte[] source, int offset, int length, int originalLength) throws IOException {
+		final byte[] dst = new byte[originalLength];
+		final int end = offset + length;
+		int s = offset;
+		int d = 0;
+		try {
+			while (true) {
+				final int token = source[s++] & 0xFF;
+				int literals = token >>> 4;
+				if (literals == 15) {
+					int b;
+					do {
+						b = source[s++] & 0xFF;
+						literals += b;
+					} while (b == 255);
+				}
+				System.arraycopy(source, s, dst, d, literals);
+				s += literals;
+				d += literals;
+				if (s >= end) {
+					break;
+				}
+				final int distance = (source[s++] & 0xFF) | (source[s++] & 0xFF) << 8;
+				int matchLength = token & 15;
+				if (matchLength == 15) {
+					int b;
+					do {
+						b = source[s++] & 0xFF;
+						matchLength += b;
+					} while (b == 255);
+				}
+				matchLength += MIN_MATCH;
+				int ref = d - distance;
+				if (distance == 0 || ref < 0) {
+					throw new IOException("lz4 match out of the output");
+				}
+				if (distance >= matchLength) {
+					System.arraycopy(dst, ref, dst, d, matchLength);
+					d += matchLength;
+				} else {
+					// overlapping, the match repeats what it just wrote
+					for (int i = 0; i < matchLength; i++) {
+						dst[d++] = dst[ref++];
+					}
+				}
+			}
+		} catch (IndexOutOfBoundsException e) {
+			throw new IOException("corrupted lz4 payload");
+		}
+		if (d != originalLength) {
+			throw new IOException("corrupted lz4 payload");
+		}
+		return dst;
+	}
+}
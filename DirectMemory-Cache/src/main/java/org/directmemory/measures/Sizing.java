@@ -3,16 +3,16 @@ package org.directmemory.measures;
 import java.util.Formatter;
 
 public class Sizing {
-	public static int Gb(double giga) {
-		return (int)giga * 1024 * 1024 * 1024;
+	public static long Gb(double giga) {
+		return (long)(giga * 1024 * 1024 * 1024);
 	}
 
-	public static int Mb(double mega) {
-		return (int)mega * 1024 * 1024;
+	public static long Mb(double mega) {
+		return (long)(mega * 1024 * 1024);
 	}
 	
-	public static int Kb(double kilo) {
-		return (int)kilo * 1024;
+	public static long Kb(double kilo) {
+		return (long)(kilo * 1024);
 	}
 	public static int unlimited() {
 		return -1;
@@ -24,6 +24,6 @@ public class Sizing {
 		return new Formatter().format("%(,.1fMb", (double)bytes/1024/1024).toString();
 	}
 	public static String inGb(long bytes) {		
-		return new Formatter().format("%(,.1fKb", (double)bytes/1024/1024/1024).toString();
+		return new Formatter().format("%(,.1fGb", (double)bytes/1024/1024/1024).toString();
 	}
 }
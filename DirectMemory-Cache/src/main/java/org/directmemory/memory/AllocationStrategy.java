@@ -0,0 +1,22 @@
+package org.directmemory.memory;
+
+public enum AllocationStrategy {
+	/**
+	 * walks the free blocks in address order, from where the previous search stopped, looking for the first one large enough
+	 */
+	FIRST_FIT,
+	/**
+	 * carves the buffer into pages, each page serving a single size class with its own free list
+	 */
+	SLAB,
+	/**
+	 * power of two blocks, freed blocks are merged back with their buddies
+	 */
+	BUDDY,
+	/**
+	 * lock free, every thread bumps a pointer inside a region of the buffer claimed for itself.
+	 * Entries which expire are still scheduled under the lock of the timing wheel of the buffer.
+	 * Freed space is only reclaimed once the whole buffer is empty, eviction does not make room
+	 */
+	BUMP
+}
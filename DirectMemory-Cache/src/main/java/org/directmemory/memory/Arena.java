@@ -0,0 +1,302 @@
+package org.directmemory.memory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Method;
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import org.directmemory.measures.Ram;
+import org.directmemory.misc.Format;
+import org.directmemory.misc.UnsafeAccess;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Off-heap memory addressed by long offsets. A single ByteBuffer cannot hold more than 2Gb,
+ * so the arena is made of direct buffers (chunks) of a power of two size laid end to end,
+ * and payloads straddling a chunk boundary are copied in pieces.
+ * Chunks are either anonymous direct memory or, with {@link #map(File, long)}, pages of a file
+ * which outlive the JVM.
+ */
+public class Arena {
+	private static Logger logger = LoggerFactory.getLogger(Arena.class);
+
+	public static int DEFAULT_CHUNK_SIZE = 1 << 30;
+
+	private final ByteBuffer[] chunks;
+	private final int chunkShift;
+	private final long chunkMask;
+	private final long capacity;
+
+	public static Arena allocateDirect(long capacity) {
+		return allocateDirect(capacity, DEFAULT_CHUNK_SIZE);
+	}
+
+	public static Arena allocateDirect(long capacity, int chunkSize) {
+		chunkSize = Integer.highestOneBit(chunkSize);
+		final int howMany = (int)((capacity + chunkSize - 1) / chunkSize);
+		final ByteBuffer[] chunks = new ByteBuffer[howMany];
+		for (int i = 0; i < howMany; i++) {
+			chunks[i] = ByteBuffer.allocateDirect((int)Math.min(chunkSize, capacity - (long)i * chunkSize));
+		}
+		if (howMany > 1) {
+			logger.debug(Format.it("arena of %s in %d chunks of %s", Ram.inMb(capacity), howMany, Ram.inMb(chunkSize)));
+		}
+		return new Arena(chunks, chunkSize);
+	}
+
+	public static Arena map(File file, long capacity) throws IOException {
+		return map(file, capacity, DEFAULT_CHUNK_SIZE);
+	}
+
+	/**
+	 * maps the file, created or extended to the capacity if needed, keeping whatever it already holds
+	 */
+	public static Arena map(File file, long capacity, int chunkSize) throws IOException {
+		chunkSize = Integer.highestOneBit(chunkSize);
+		final int howMany = (int)((capacity + chunkSize - 1) / chunkSize);
+		final ByteBuffer[] chunks = new ByteBuffer[howMany];
+		final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			if (raf.length() < capacity) {
+				raf.setLength(capacity);
+			}
+			final FileChannel channel = raf.getChannel();
+			for (int i = 0; i < howMany; i++) {
+				chunks[i] = channel.map(FileChannel.MapMode.READ_WRITE, (long)i * chunkSize, Math.min(chunkSize, capacity - (long)i * chunkSize));
+			}
+		} finally {
+			// mappings stay valid once the file is closed
+			raf.close();
+		}
+		logger.debug(Format.it("arena of %s mapped on %s", Ram.inMb(capacity), file));
+		return new Arena(chunks, chunkSize);
+	}
+
+	/**
+	 * @param chunks buffers laid end to end, all of chunkSize bytes but the last one
+	 * @param chunkSize a power of two
+	 */
+	protected Arena(ByteBuffer[] chunks, int chunkSize) {
+		this.chunks = chunks;
+		this.chunkShift = Integer.numberOfTrailingZeros(chunkSize);
+		this.chunkMask = chunkSize - 1;
+		long total = 0;
+		for (ByteBuffer chunk : chunks) {
+			total += chunk.capacity();
+		}
+		this.capacity = total;
+	}
+
+	public long capacity() {
+		return capacity;
+	}
+
+	public int chunkSize() {
+		return 1 << chunkShift;
+	}
+
+	public int chunks() {
+		return chunks.length;
+	}
+
+	public ByteBuffer chunk(int index) {
+		return chunks[index];
+	}
+
+	public boolean isMapped() {
+		return chunks.length > 0 && chunks[0] instanceof MappedByteBuffer;
+	}
+
+	/**
+	 * writes the changes of a mapped arena through to its file
+	 */
+	public void force() {
+		for (ByteBuffer chunk : chunks) {
+			if (chunk instanceof MappedByteBuffer) {
+				((MappedByteBuffer)chunk).force();
+			}
+		}
+	}
+
+	/**
+	 * gives the native memory back right away rather than when the chunks get garbage collected,
+	 * the arena must not be used afterwards
+	 */
+	public void dispose() {
+		for (int i = 0; i < chunks.length; i++) {
+			final ByteBuffer chunk = chunks[i];
+			chunks[i] = null;
+			if (chunk != null && chunk.isDirect()) {
+				clean(chunk);
+			}
+		}
+	}
+
+	private static void clean(ByteBuffer buffer) {
+		try {
+			// java 9 and later
+			final Method invokeCleaner = UnsafeAccess.unsafe.getClass().getMethod("invokeCleaner", ByteBuffer.class);
+			invokeCleaner.invoke(UnsafeAccess.unsafe, buffer);
+		} catch (NoSuchMethodException e) {
+			try {
+				final Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+				cleanerMethod.setAccessible(true);
+				final Object cleaner = cleanerMethod.invoke(buffer);
+				if (cleaner != null) {
+					cleaner.getClass().getMethod("clean").invoke(cleaner);
+				}
+			} catch (Exception cause) {
+				logger.warn("direct buffer left to the garbage collector: " + cause);
+			}
+		} catch (Exception e) {
+			logger.warn("direct buffer left to the garbage collector: " + e);
+		}
+	}
+
+	public void put(long offset, byte[] source) {
+		put(offset, source, 0, source.length);
+	}
+
+	public void put(long offset, byte[] source, int from, int length) {
+		if (offset < 0 || offset + length > capacity) {
+			throw new BufferOverflowException();
+		}
+		while (length > 0) {
+			final ByteBuffer chunk = chunks[(int)(offset >>> chunkShift)];
+			final int position = (int)(offset & chunkMask);
+			final int howMany = Math.min(length, chunk.capacity() - position);
+			final ByteBuffer buf = chunk.duplicate();
+			buf.position(position);
+			buf.put(source, from, howMany);
+			offset += howMany;
+			from += howMany;
+			length -= howMany;
+		}
+	}
+
+	public void get(long offset, byte[] destination) {
+		get(offset, destination, 0, destination.length);
+	}
+
+	public void get(long offset, byte[] destination, int from, int length) {
+		if (offset < 0 || offset + length > capacity) {
+			throw new BufferUnderflowException();
+		}
+		while (length > 0) {
+			final ByteBuffer chunk = chunks[(int)(offset >>> chunkShift)];
+			final int position = (int)(offset & chunkMask);
+			final int howMany = Math.min(length, chunk.capacity() - position);
+			final ByteBuffer buf = chunk.duplicate();
+			buf.position(position);
+			buf.get(destination, from, howMany);
+			offset += howMany;
+			from += howMany;
+			length -= howMany;
+		}
+	}
+
+	/**
+	 * copies length bytes within the arena, chunk to chunk without going through the heap.
+	 * The two spans must not overlap
+	 */
+	public void copy(long from, long to, int length) {
+		if (from < 0 || from + length > capacity) {
+			throw new BufferUnderflowException();
+		}
+		if (to < 0 || to + length > capacity) {
+			throw new BufferOverflowException();
+		}
+		while (length > 0) {
+			final ByteBuffer source = chunks[(int)(from >>> chunkShift)].duplicate();
+			final ByteBuffer destination = chunks[(int)(to >>> chunkShift)].duplicate();
+			final int sourcePosition = (int)(from & chunkMask);
+			final int destinationPosition = (int)(to & chunkMask);
+			final int howMany = Math.min(length, Math.min(source.capacity() - sourcePosition, destination.capacity() - destinationPosition));
+			source.limit(sourcePosition + howMany);
+			source.position(sourcePosition);
+			destination.position(destinationPosition);
+			destination.put(source);
+			from += howMany;
+			to += howMany;
+			length -= howMany;
+		}
+	}
+
+	/**
+	 * @return a read-only view on length bytes from offset, or null if they straddle two chunks
+	 */
+	public ByteBuffer slice(long offset, int length) {
+		if (offset < 0 || offset + length > capacity) {
+			throw new BufferUnderflowException();
+		}
+		final ByteBuffer chunk = chunks[(int)(offset >>> chunkShift)];
+		final int position = (int)(offset & chunkMask);
+		if (position + length > chunk.capacity()) {
+			return null;
+		}
+		final ByteBuffer view = chunk.asReadOnlyBuffer();
+		view.limit(position + length);
+		view.position(position);
+		return view.slice();
+	}
+
+	public byte get(long offset) {
+		return chunks[(int)(offset >>> chunkShift)].get((int)(offset & chunkMask));
+	}
+
+	public void put(long offset, byte value) {
+		chunks[(int)(offset >>> chunkShift)].put((int)(offset & chunkMask), value);
+	}
+
+	public int getInt(long offset) {
+		final int position = (int)(offset & chunkMask);
+		final ByteBuffer chunk = chunks[(int)(offset >>> chunkShift)];
+		if (position + 4 <= chunk.capacity()) {
+			return chunk.getInt(position);
+		}
+		final byte[] bytes = new byte[4];
+		get(offset, bytes);
+		return ByteBuffer.wrap(bytes).getInt();
+	}
+
+	public void putInt(long offset, int value) {
+		final int position = (int)(offset & chunkMask);
+		final ByteBuffer chunk = chunks[(int)(offset >>> chunkShift)];
+		if (position + 4 <= chunk.capacity()) {
+			chunk.putInt(position, value);
+			return;
+		}
+		final byte[] bytes = new byte[4];
+		ByteBuffer.wrap(bytes).putInt(value);
+		put(offset, bytes);
+	}
+
+	public long getLong(long offset) {
+		final int position = (int)(offset & chunkMask);
+		final ByteBuffer chunk = chunks[(int)(offset >>> chunkShift)];
+		if (position + 8 <= chunk.capacity()) {
+			return chunk.getLong(position);
+		}
+		final byte[] bytes = new byte[8];
+		get(offset, bytes);
+		return ByteBuffer.wrap(bytes).getLong();
+	}
+
+	public void putLong(long offset, long value) {
+		final int position = (int)(offset & chunkMask);
+		final ByteBuffer chunk = chunks[(int)(offset >>> chunkShift)];
+		if (position + 8 <= chunk.capacity()) {
+			chunk.putLong(position, value);
+			return;
+		}
+		final byte[] bytes = new byte[8];
+		ByteBuffer.wrap(bytes).putLong(value);
+		put(offset, bytes);
+	}
+}
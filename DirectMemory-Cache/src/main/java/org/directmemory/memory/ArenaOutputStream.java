@@ -0,0 +1,43 @@
+package org.directmemory.memory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Stream writing a bounded region of an {@link Arena}, from its start on.
+ */
+public class ArenaOutputStream extends OutputStream {
+	private final Arena arena;
+	private long position;
+	private final long limit;
+
+	public ArenaOutputStream(Arena arena, long offset, int length) {
+		this.arena = arena;
+		this.position = offset;
+		this.limit = offset + length;
+	}
+
+	/**
+	 * @return the number of bytes still to be written
+	 */
+	public int remaining() {
+		return (int)(limit - position);
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		if (position >= limit) {
+			throw new IOException("region is full");
+		}
+		arena.put(position++, (byte)b);
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		if (len > limit - position) {
+			throw new IOException("region is full");
+		}
+		arena.put(position, b, off, len);
+		position += len;
+	}
+}
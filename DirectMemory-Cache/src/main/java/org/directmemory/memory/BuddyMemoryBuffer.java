@@ -0,0 +1,261 @@
+package org.directmemory.memory;
+
+import java.util.Arrays;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+import org.directmemory.misc.Format;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Binary buddy allocator: every block is a power of two, naturally aligned, and a freed
+ * block is merged with its buddy as long as the buddy is free too, so freed neighbours
+ * always coalesce back into large blocks. Both store and free take O(log n).
+ * Free lists are doubly linked through the first bytes of the free blocks themselves,
+ * a bitmap per order tells whether a block is free.
+ * To keep the bitmaps small on very large arenas the smallest block grows with the capacity,
+ * so that there are never more than {@link #MAX_BLOCKS} blocks of the smallest order.
+ */
+public class BuddyMemoryBuffer extends OffHeapMemoryBuffer {
+	private static Logger logger = LoggerFactory.getLogger(BuddyMemoryBuffer.class);
+
+	public static final int MIN_ORDER = 5;
+	public static final int MAX_BLOCKS = 1 << 26;
+	private static final long NONE = -1;
+	// the first long is left to the free block mark of entry headers
+	private static final int NEXT = 8;
+	private static final int PREV = 16;
+
+	private final int minOrder;
+	private final int maxOrder;
+	private final long[] heads;
+	private final long[][] freeBlocks;
+	// per order, no free block lives in the words of the bitmap below this one
+	private final int[] lowestWord;
+	private long allocated;
+	private long usable;
+
+	protected BuddyMemoryBuffer(Arena arena, int bufferNumber, EntryTable table) {
+		super(arena, bufferNumber, table);
+		maxOrder = 63 - Long.numberOfLeadingZeros(arena.capacity());
+		minOrder = Math.min(maxOrder, Math.max(MIN_ORDER, 64 - Long.numberOfLeadingZeros((arena.capacity() - 1) / MAX_BLOCKS)));
+		heads = new long[maxOrder + 1];
+		freeBlocks = new long[maxOrder + 1][];
+		lowestWord = new int[maxOrder + 1];
+		for (int order = minOrder; order <= maxOrder; order++) {
+			freeBlocks[order] = new long[(int)(((arena.capacity() >>> order) + 63) / 64)];
+		}
+		Arrays.fill(heads, NONE);
+		logger.debug(Format.it("buffer %d: blocks from %d bytes to %d bytes", bufferNumber, 1L << minOrder, 1L << maxOrder));
+	}
+
+	@Override
+	protected synchronized void reset() {
+		rebuild(new TreeMap<Long, Long>());
+	}
+
+	/**
+	 * the free lists are linked through the free blocks alone: a block holding restored entries is split
+	 * until they take whole blocks, only the blocks left are pushed
+	 */
+	@Override
+	protected synchronized void rebuild(NavigableMap<Long, Long> blocks) {
+		for (int order = minOrder; order <= maxOrder; order++) {
+			heads[order] = NONE;
+			Arrays.fill(freeBlocks[order], 0);
+			lowestWord[order] = 0;
+		}
+		allocated = 0;
+		usable = 0;
+		// carve the buffer in descending powers of two, each one naturally aligned
+		long start = 0;
+		for (int order = maxOrder; order >= minOrder; order--) {
+			if (start + (1L << order) <= arena.capacity()) {
+				rebuild(start, order, blocks);
+				start += 1L << order;
+				usable += 1L << order;
+			}
+		}
+		freeBlock(start, arena.capacity() - start);
+	}
+
+	private void rebuild(long start, int order, NavigableMap<Long, Long> blocks) {
+		final Long first = blocks.ceilingKey(start);
+		if (first == null || first >= start + (1L << order)) {
+			push(start, order);
+		} else if (first == start && orderFor(blocks.get(first).intValue()) == order) {
+			allocated += 1L << order;
+		} else {
+			rebuild(start, order - 1, blocks);
+			rebuild(start + (1L << (order - 1)), order - 1, blocks);
+		}
+	}
+
+	/**
+	 * @return the order of the block the buffer is first carved in that holds the offset, -1 if none does
+	 */
+	private int carvedOrder(long offset) {
+		long start = 0;
+		for (int order = maxOrder; order >= minOrder; order--) {
+			if (start + (1L << order) <= arena.capacity()) {
+				if (offset < start + (1L << order)) {
+					return offset >= start ? order : -1;
+				}
+				start += 1L << order;
+			}
+		}
+		return -1;
+	}
+
+	private int orderFor(int length) {
+		if (length <= 1 << minOrder) {
+			return minOrder;
+		}
+		return 32 - Integer.numberOfLeadingZeros(length - 1);
+	}
+
+	private boolean isFree(long start, int order) {
+		final int index = (int)(start >>> order);
+		final long[] bits = freeBlocks[order];
+		return (index >>> 6) < bits.length && (bits[index >>> 6] & (1L << index)) != 0;
+	}
+
+	private void push(long start, int order) {
+		final long head = heads[order];
+		arena.putLong(start + NEXT, head);
+		arena.putLong(start + PREV, NONE);
+		if (head != NONE) {
+			arena.putLong(head + PREV, start);
+		}
+		heads[order] = start;
+		freeBlock(start, 1L << order);
+		final int index = (int)(start >>> order);
+		freeBlocks[order][index >>> 6] |= 1L << index;
+		lowestWord[order] = Math.min(lowestWord[order], index >>> 6);
+	}
+
+	private void remove(long start, int order) {
+		final long next = arena.getLong(start + NEXT);
+		final long prev = arena.getLong(start + PREV);
+		if (prev == NONE) {
+			heads[order] = next;
+		} else {
+			arena.putLong(prev + NEXT, next);
+		}
+		if (next != NONE) {
+			arena.putLong(next + PREV, prev);
+		}
+		final int index = (int)(start >>> order);
+		freeBlocks[order][index >>> 6] &= ~(1L << index);
+	}
+
+	@Override
+	protected long blockSize(int length) {
+		return 1L << orderFor(length);
+	}
+
+	@Override
+	protected long footprint(int length) {
+		return blockSize(length);
+	}
+
+	@Override
+	protected synchronized long allocate(int length) {
+		final int wanted = orderFor(length);
+		int order = wanted;
+		while (order <= maxOrder && heads[order] == NONE) {
+			order++;
+		}
+		if (order > maxOrder) {
+			return NONE;
+		}
+		final long start = heads[order];
+		take(start, order, wanted);
+		return start;
+	}
+
+	/**
+	 * takes the lowest free block large enough, splitting it if needed, as a first fit would
+	 */
+	@Override
+	protected synchronized long allocateBelow(int length, long limit) {
+		final int wanted = orderFor(length);
+		long lowest = limit;
+		int lowestOrder = -1;
+		for (int order = wanted; order <= maxOrder; order++) {
+			final long start = lowestFree(order);
+			if (start != NONE && start < lowest) {
+				lowest = start;
+				lowestOrder = order;
+			}
+		}
+		if (lowestOrder < 0) {
+			return NONE;
+		}
+		take(lowest, lowestOrder, wanted);
+		return lowest;
+	}
+
+	private long lowestFree(int order) {
+		final long[] bits = freeBlocks[order];
+		for (int word = lowestWord[order]; word < bits.length; word++) {
+			if (bits[word] != 0) {
+				lowestWord[order] = word;
+				return ((long)word * 64 + Long.numberOfTrailingZeros(bits[word])) << order;
+			}
+		}
+		lowestWord[order] = bits.length;
+		return NONE;
+	}
+
+	/**
+	 * a block can be taken back if it is aligned on its size, within a block of the first carving
+	 */
+	@Override
+	protected boolean reserve(long offset, int length) {
+		final int wanted = orderFor(length);
+		return offset >= 0 && (offset & ((1L << wanted) - 1)) == 0 && wanted <= carvedOrder(offset);
+	}
+
+	private void take(long start, int order, int wanted) {
+		remove(start, order);
+		// split, handing the upper halves back to the free lists
+		while (order > wanted) {
+			order--;
+			push(start + (1L << order), order);
+		}
+		allocated += 1L << wanted;
+	}
+
+	@Override
+	protected synchronized void release(long start, int length) {
+		int order = orderFor(length);
+		allocated -= 1L << order;
+		while (order < maxOrder) {
+			final long buddy = start ^ (1L << order);
+			if (!isFree(buddy, order)) {
+				break;
+			}
+			remove(buddy, order);
+			start = Math.min(start, buddy);
+			order++;
+		}
+		push(start, order);
+	}
+
+	@Override
+	public synchronized long available() {
+		return usable - allocated;
+	}
+
+	@Override
+	public synchronized long largestFreeBlock() {
+		for (int order = maxOrder; order >= minOrder; order--) {
+			if (heads[order] != NONE) {
+				return 1L << order;
+			}
+		}
+		return 0;
+	}
+}
@@ -0,0 +1,330 @@
+package org.directmemory.memory;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.directmemory.measures.Ram;
+import org.directmemory.misc.Format;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Lock free bump pointer allocator, a-la TLAB: every thread claims a region of the buffer
+ * with a single CAS and then carves its entries out of it without taking any lock. Entries stored
+ * with an expiration date still go through the lock of the {@link TimingWheel} of the buffer.
+ * Tails of regions left unused by idle threads are handed back by {@link #reclaimIdleRegions()}
+ * or explicitly by the owning thread with {@link #release()}.
+ * Freed entries only lower the used counter: their space is not handed out again until the last
+ * block of the buffer is freed, which resets it, or the buffer is cleared. Evicting a few entries
+ * is then no way to make room, this allocator suits entries dropped together, as a whole cache
+ * expiring at once or a buffer emptied before being filled again.
+ */
+public class BumpMemoryBuffer extends OffHeapMemoryBuffer {
+	private static Logger logger = LoggerFactory.getLogger(BumpMemoryBuffer.class);
+
+	public static int DEFAULT_REGION_SIZE = (int)Ram.Kb(256);
+
+	// blocks handed out and not released yet, RESETTING while the last release resets the buffer
+	private static final int RESETTING = Integer.MIN_VALUE;
+
+	private final int regionSize;
+	private final AtomicLong top = new AtomicLong();
+	private final AtomicLong tailBytes = new AtomicLong();
+	private final AtomicInteger blocks = new AtomicInteger();
+	private final Queue<Region> regions = new ConcurrentLinkedQueue<Region>();
+	private final Queue<Region> tails = new ConcurrentLinkedQueue<Region>();
+	private final ThreadLocal<Region> localRegion = new ThreadLocal<Region>();
+
+	protected BumpMemoryBuffer(Arena arena, int bufferNumber, EntryTable table) {
+		this(arena, bufferNumber, table, DEFAULT_REGION_SIZE);
+	}
+
+	protected BumpMemoryBuffer(Arena arena, int bufferNumber, EntryTable table, int regionSize) {
+		super(arena, bufferNumber, table);
+		this.regionSize = (int)Math.min(regionSize, arena.capacity());
+		logger.debug(Format.it("buffer %d: regions of %s", bufferNumber, Ram.inKb(this.regionSize)));
+	}
+
+	private long claim(int size) {
+		while (true) {
+			final long current = top.get();
+			if (size > capacity() - current) {
+				return -1;
+			}
+			if (top.compareAndSet(current, current + size)) {
+				return current;
+			}
+		}
+	}
+
+	private Region newRegion(int length) {
+		final Region tail = tails.poll();
+		if (tail != null) {
+			tailBytes.addAndGet(-(tail.end - tail.cursor.get()));
+			if (tail.end - tail.cursor.get() >= length) {
+				return tail;
+			}
+			handBack(tail.cursor.get(), tail.end);
+		}
+		long start = claim(regionSize);
+		if (start >= 0) {
+			return new Region(start, start + regionSize);
+		}
+		start = claim(length);
+		if (start >= 0) {
+			return new Region(start, start + length);
+		}
+		return null;
+	}
+
+	@Override
+	protected long allocate(int length) {
+		enter();
+		final long start = bump(length);
+		if (start < 0) {
+			exit();
+		}
+		return start;
+	}
+
+	/**
+	 * counts a block about to be handed out, or a change of the regions, waiting for a reset in progress to be over
+	 */
+	private void enter() {
+		while (true) {
+			final int current = blocks.get();
+			if (current < 0) {
+				Thread.yield();
+			} else if (blocks.compareAndSet(current, current + 1)) {
+				return;
+			}
+		}
+	}
+
+	private long bump(int length) {
+		Region region = localRegion.get();
+		if (region != null) {
+			final long start = allocate(region, length);
+			if (start >= 0) {
+				return start;
+			}
+		}
+		if (length > regionSize / 2) {
+			// large entries go straight to the shared top, no point in wasting a region on them
+			return claim(length);
+		}
+		if (region != null) {
+			retire(region);
+		}
+		region = newRegion(length);
+		if (region == null) {
+			localRegion.remove();
+			return -1;
+		}
+		localRegion.set(region);
+		regions.add(region);
+		return allocate(region, length);
+	}
+
+	private long allocate(Region region, int length) {
+		final long start = region.allocate(length);
+		if (start >= 0) {
+			freeBlock(start + length, region.end - start - length);
+		}
+		return start;
+	}
+
+	private void retire(Region region) {
+		regions.remove(region);
+		final long start = region.cursor.getAndSet(region.end);
+		handBack(start, region.end);
+	}
+
+	private void handBack(long start, long end) {
+		if (start >= end) {
+			return;
+		}
+		// if nobody claimed anything after this region just lower the top again
+		if (top.compareAndSet(end, start)) {
+			return;
+		}
+		freeBlock(start, end - start);
+		tailBytes.addAndGet(end - start);
+		tails.add(new Region(start, end));
+	}
+
+	/**
+	 * hands back the unused tail of the calling thread's region
+	 */
+	public void release() {
+		final Region region = localRegion.get();
+		if (region != null) {
+			localRegion.remove();
+			enter();
+			retire(region);
+			exit();
+		}
+	}
+
+	/**
+	 * hands back the tails of regions whose owners did not allocate anything since the previous call
+	 * @return the number of bytes handed back
+	 */
+	@Override
+	public long reclaimIdleRegions() {
+		long reclaimed = 0;
+		enter();
+		for (Iterator<Region> iterator = regions.iterator(); iterator.hasNext();) {
+			final Region region = iterator.next();
+			final long cursor = region.cursor.get();
+			if (cursor == region.lastSeen) {
+				iterator.remove();
+				// the owner, if still alive, will fail its next CAS and claim a fresh region
+				final long start = region.cursor.getAndSet(region.end);
+				reclaimed += region.end - start;
+				handBack(start, region.end);
+			} else {
+				region.lastSeen = cursor;
+			}
+		}
+		exit();
+		if (reclaimed > 0) {
+			logger.debug(Format.it("buffer %d: %s handed back from idle regions", bufferNumber, Ram.inKb(reclaimed)));
+		}
+		return reclaimed;
+	}
+
+	/**
+	 * freed space is never handed out again before a clear, there is nowhere to move to
+	 */
+	@Override
+	protected long allocateBelow(int length, long limit) {
+		return -1;
+	}
+
+	@Override
+	protected boolean relocates() {
+		return false;
+	}
+
+	/**
+	 * nothing is handed out until the rebuild, a block counted for the time being keeps a failed store from resetting
+	 */
+	@Override
+	protected void holdAll() {
+		top.set(capacity());
+		blocks.set(1);
+	}
+
+	/**
+	 * the free space between restored entries is lost until the buffer is reset, allocation goes on after the last one
+	 */
+	@Override
+	protected synchronized void rebuild(NavigableMap<Long, Long> blocks) {
+		long position = 0;
+		for (Map.Entry<Long, Long> block : blocks.entrySet()) {
+			if (block.getKey() > position) {
+				freeBlock(position, block.getKey() - position);
+			}
+			position = block.getKey() + block.getValue();
+		}
+		top.set(position);
+		freeBlock(position, capacity() - position);
+		this.blocks.addAndGet(blocks.size());
+		// resets the buffer if nothing was restored
+		exit();
+	}
+
+	/**
+	 * the space of a single block is not reclaimed, the buffer is reset once all its blocks are released
+	 */
+	@Override
+	protected void release(long offset, int length) {
+		exit();
+	}
+
+	private void exit() {
+		if (blocks.decrementAndGet() == 0 && blocks.compareAndSet(0, RESETTING)) {
+			// nobody can allocate until reset() sets the count back to 0
+			reset();
+		}
+	}
+
+	/**
+	 * hands the whole buffer out again, the regions of the threads are retired on their next allocation
+	 */
+	@Override
+	protected synchronized void reset() {
+		for (Region region : regions) {
+			region.cursor.set(region.end);
+		}
+		regions.clear();
+		tails.clear();
+		tailBytes.set(0);
+		top.set(0);
+		blocks.set(0);
+	}
+
+	/**
+	 * only what was never handed out is sure to fit, the tails of regions are not looked at
+	 */
+	@Override
+	protected boolean fits(int length) {
+		return length <= capacity() - top.get();
+	}
+
+	/**
+	 * only freeing the last block makes room, by resetting the buffer
+	 */
+	@Override
+	protected boolean makesRoom(long block, int blockLength, int length) {
+		return blocks.get() == 1;
+	}
+
+	@Override
+	protected long walkLimit() {
+		return top.get();
+	}
+
+	@Override
+	public long available() {
+		return capacity() - top.get() + tailBytes.get();
+	}
+
+	@Override
+	public long largestFreeBlock() {
+		long largest = capacity() - top.get();
+		for (Region tail : tails) {
+			largest = Math.max(largest, tail.end - tail.cursor.get());
+		}
+		return largest;
+	}
+
+	static class Region {
+		final AtomicLong cursor;
+		final long end;
+		long lastSeen = -1;
+
+		Region(long start, long end) {
+			this.cursor = new AtomicLong(start);
+			this.end = end;
+		}
+
+		long allocate(int length) {
+			while (true) {
+				final long start = cursor.get();
+				if (length > end - start) {
+					return -1;
+				}
+				if (cursor.compareAndSet(start, start + length)) {
+					return start;
+				}
+			}
+		}
+	}
+}
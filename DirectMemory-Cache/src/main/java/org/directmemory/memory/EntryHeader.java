@@ -0,0 +1,118 @@
+package org.directmemory.memory;
+
+/**
+ * Header written in front of the payloads of buffers created with headers, and at the start of
+ * their free blocks, so that the raw content of a buffer can be walked block after block,
+ * verified and indexed again without any other metadata.
+ * Layout of a live block: block length and flags packed in a long, payload length, key hash,
+ * expiration date, type id and row of the entry in the {@link EntryTable}.
+ * Free blocks only carry the first long, which is why allocators never leave free spans
+ * shorter than {@link #FREE_SIZE} bytes (all lengths are multiples of 8).
+ * An instance is a reusable view on the header at a given offset.
+ */
+public class EntryHeader {
+	public static final int SIZE = 32;
+	public static final int FREE_SIZE = 8;
+
+	public static final int LIVE = 1;
+	/** expiration was given as time to live rather than as a date */
+	public static final int RELATIVE = 2;
+	public static final int COMPRESSED = 4;
+
+	private static final int STATUS = 0;
+	private static final int PAYLOAD_LENGTH = 8;
+	private static final int KEY_HASH = 12;
+	private static final int EXPIRES = 16;
+	private static final int TYPE = 24;
+	private static final int ROW = 28;
+
+	public long offset;
+	public long blockLength;
+	public int flags;
+	public int payloadLength;
+	public int keyHash;
+	public long expires;
+	public int typeId;
+	public int row;
+
+	public interface Visitor {
+		void visit(EntryHeader header);
+	}
+
+	/**
+	 * @return the size of the block holding a payload of the given length and its header
+	 */
+	public static int blockLength(int payloadLength) {
+		return (SIZE + payloadLength + 7) & ~7;
+	}
+
+	private static long status(long blockLength, int flags) {
+		return (blockLength << 8) | (flags & 0xFF);
+	}
+
+	public static void write(Arena arena, long offset, long blockLength, int flags, int payloadLength, int keyHash, long expires, int typeId, int row) {
+		arena.putInt(offset + PAYLOAD_LENGTH, payloadLength);
+		arena.putInt(offset + KEY_HASH, keyHash);
+		arena.putLong(offset + EXPIRES, expires);
+		arena.putInt(offset + TYPE, typeId);
+		arena.putInt(offset + ROW, row);
+		// status last, a walker never sees a live block with a half written header
+		arena.putLong(offset + STATUS, status(blockLength, flags | LIVE));
+	}
+
+	/**
+	 * marks length bytes from offset as a free block, spans too short to hold the mark are left alone
+	 */
+	public static void writeFree(Arena arena, long offset, long length) {
+		if (length >= FREE_SIZE && offset + FREE_SIZE <= arena.capacity()) {
+			arena.putLong(offset + STATUS, status(length, 0));
+		}
+	}
+
+	public static void writeBlockLength(Arena arena, long offset, long blockLength) {
+		arena.putLong(offset + STATUS, status(blockLength, (int)arena.getLong(offset + STATUS)));
+	}
+
+	public static void addFlags(Arena arena, long offset, int flags) {
+		final long status = arena.getLong(offset + STATUS);
+		arena.putLong(offset + STATUS, status | (flags & 0xFF));
+	}
+
+	public static void writeRow(Arena arena, long offset, int row) {
+		arena.putInt(offset + ROW, row);
+	}
+
+	/**
+	 * reads the header at the given offset, only the block length and the flags of free blocks
+	 * @return this
+	 */
+	public EntryHeader read(Arena arena, long offset) {
+		final long status = arena.getLong(offset + STATUS);
+		this.offset = offset;
+		this.blockLength = status >>> 8;
+		this.flags = (int)(status & 0xFF);
+		if (isLive()) {
+			payloadLength = arena.getInt(offset + PAYLOAD_LENGTH);
+			keyHash = arena.getInt(offset + KEY_HASH);
+			expires = arena.getLong(offset + EXPIRES);
+			typeId = arena.getInt(offset + TYPE);
+			row = arena.getInt(offset + ROW);
+		}
+		return this;
+	}
+
+	public boolean isLive() {
+		return (flags & LIVE) != 0;
+	}
+
+	public boolean hasFlag(int flag) {
+		return (flags & flag) != 0;
+	}
+
+	/**
+	 * @return the offset of the payload
+	 */
+	public long payloadOffset() {
+		return offset + SIZE;
+	}
+}
@@ -0,0 +1,456 @@
+package org.directmemory.memory;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.directmemory.misc.UnsafeAccess;
+
+import sun.misc.Unsafe;
+
+/**
+ * Off-heap metadata of the cached entries: one row per entry, laid out as a struct of arrays
+ * in native segments of {@link #SEGMENT_ROWS} rows allocated as the table grows, so that
+ * the heap holds nothing per entry.
+ * Entries are addressed by a long handle packing the row (low 32 bits) and its generation
+ * (high 32 bits). Live rows have an odd generation which is bumped when the entry is freed:
+ * a stale handle is recognized as such and never reads the payload of a newer entry.
+ * The location of the payload (buffer, offset and length) is kept in the row rather than in the handle,
+ * so an entry can be moved around without touching the handles held by the index.
+ * Moves are guarded by a per row version used as a seqlock: odd while the location changes,
+ * readers copy the payload without locking and retry if the version changed meanwhile.
+ * An entry can also be pinned by readers working on its payload in place: the generation and the
+ * number of pins share a word, so that a pin never lands on a freed entry and the payload of an entry
+ * freed while pinned is released by whoever drops the last pin.
+ */
+public class EntryTable {
+	public static final long NONE = 0;
+
+	public static final int SEGMENT_SHIFT = 16;
+	public static final int SEGMENT_ROWS = 1 << SEGMENT_SHIFT;
+
+	/** expiration was given as time to live rather than as a date */
+	public static final int FLAG_RELATIVE = 1;
+	/** the payload went through {@link org.directmemory.compression.Compression} */
+	public static final int FLAG_COMPRESSED = 2;
+
+	public static int LFU_INIT = 5;
+	public static int LFU_MAX = 255;
+	public static int LFU_LOG_FACTOR = 10;
+	public static long LFU_DECAY_PERIOD = 60000;
+
+	private static final Unsafe unsafe = UnsafeAccess.unsafe;
+	private static final ThreadLocal<Random> random = new ThreadLocal<Random>() {
+		protected Random initialValue() {
+			return new Random();
+		}
+	};
+
+	private static final int OFFSET = 0;
+	private static final int CREATED = 1;
+	private static final int EXPIRES = 2;
+	private static final int LAST_HIT = 3;
+	// generation (high 32 bits) and pins (low 32 bits)
+	private static final int STATE = 4;
+	private static final int LONG_COLUMNS = 5;
+
+	private static final int BUFFER = 0;
+	private static final int LENGTH = 1;
+	private static final int HITS = 2;
+	private static final int TYPE = 3;
+	private static final int FLAGS = 4;
+	private static final int VERSION = 5;
+	private static final int KEY_HASH = 6;
+	private static final int REFERENCED = 7;
+	private static final int INT_COLUMNS = 8;
+
+	private static final long INTS = (long)LONG_COLUMNS * 8 * SEGMENT_ROWS;
+	private static final long SEGMENT_BYTES = INTS + (long)INT_COLUMNS * 4 * SEGMENT_ROWS;
+
+	private static final int NO_ROW = -1;
+
+	private volatile long[] segments = new long[0];
+	private final AtomicInteger top = new AtomicInteger();
+	private final AtomicInteger size = new AtomicInteger();
+	// head of the stack of free rows, tagged with a counter against ABA
+	private final AtomicLong freeRows = new AtomicLong(pack(NO_ROW, 0));
+
+	public static int row(long handle) {
+		return (int)handle;
+	}
+
+	private static int generation(long handle) {
+		return (int)(handle >>> 32);
+	}
+
+	private static long pack(int row, int tag) {
+		return ((long)tag << 32) | (row & 0xFFFFFFFFL);
+	}
+
+	private static int pinCount(long state) {
+		return (int)state;
+	}
+
+	private long longAt(int row, int column) {
+		return segments[row >>> SEGMENT_SHIFT] + (long)column * 8 * SEGMENT_ROWS + (long)(row & (SEGMENT_ROWS - 1)) * 8;
+	}
+
+	private long intAt(int row, int column) {
+		return segments[row >>> SEGMENT_SHIFT] + INTS + (long)column * 4 * SEGMENT_ROWS + (long)(row & (SEGMENT_ROWS - 1)) * 4;
+	}
+
+	private synchronized void grow(int segment) {
+		if (segment < segments.length) {
+			return;
+		}
+		final long[] grown = new long[segment + 1];
+		System.arraycopy(segments, 0, grown, 0, segments.length);
+		for (int i = segments.length; i < grown.length; i++) {
+			grown[i] = unsafe.allocateMemory(SEGMENT_BYTES);
+			unsafe.setMemory(grown[i], SEGMENT_BYTES, (byte)0);
+		}
+		segments = grown;
+	}
+
+	private int allocateRow() {
+		while (true) {
+			final long head = freeRows.get();
+			final int row = (int)head;
+			if (row == NO_ROW) {
+				break;
+			}
+			final int next = (int)unsafe.getLong(longAt(row, OFFSET));
+			if (freeRows.compareAndSet(head, pack(next, generation(head) + 1))) {
+				return row;
+			}
+		}
+		final int row = top.getAndIncrement();
+		if (row < 0) {
+			throw new IllegalStateException("entry table is full");
+		}
+		grow(row >>> SEGMENT_SHIFT);
+		return row;
+	}
+
+	public long add(int buffer, long offset, int length, long expiresIn, long expires) {
+		final int row = allocateRow();
+		final long now = System.currentTimeMillis();
+		unsafe.putLong(longAt(row, OFFSET), offset);
+		unsafe.putLong(longAt(row, CREATED), now);
+		unsafe.putLong(longAt(row, EXPIRES), expiresIn > 0 ? now + expiresIn : Math.max(expires, 0));
+		unsafe.putLong(longAt(row, LAST_HIT), now);
+		unsafe.putInt(intAt(row, BUFFER), buffer);
+		unsafe.putInt(intAt(row, LENGTH), length);
+		unsafe.putInt(intAt(row, HITS), LFU_INIT);
+		unsafe.putInt(intAt(row, TYPE), 0);
+		unsafe.putInt(intAt(row, KEY_HASH), 0);
+		unsafe.putInt(intAt(row, REFERENCED), 0);
+		unsafe.putInt(intAt(row, FLAGS), expiresIn > 0 ? FLAG_RELATIVE : 0);
+		// recycled rows are never pinned
+		final int generation = generation(unsafe.getLong(longAt(row, STATE))) + 1;
+		unsafe.putLongVolatile(null, longAt(row, STATE), pack(0, generation));
+		size.incrementAndGet();
+		return pack(row, generation);
+	}
+
+	public boolean isLive(long handle) {
+		final int row = row(handle);
+		if (row < 0 || row >>> SEGMENT_SHIFT >= segments.length) {
+			return false;
+		}
+		final int generation = generation(handle);
+		return (generation & 1) == 1 && generation(unsafe.getLongVolatile(null, longAt(row, STATE))) == generation;
+	}
+
+	/**
+	 * marks the entry as freed, the row keeps its content until it is recycled
+	 * @return true if the payload is to be released by the caller, false if the entry was already freed
+	 * or if it is pinned, in which case the payload goes when the last pin is dropped
+	 */
+	public boolean remove(long handle) {
+		if (!isLive(handle)) {
+			return false;
+		}
+		final int generation = generation(handle);
+		final long address = longAt(row(handle), STATE);
+		while (true) {
+			final long state = unsafe.getLongVolatile(null, address);
+			if (generation(state) != generation) {
+				return false;
+			}
+			if (unsafe.compareAndSwapLong(null, address, state, pack(pinCount(state), generation + 1))) {
+				size.decrementAndGet();
+				return pinCount(state) == 0;
+			}
+		}
+	}
+
+	/**
+	 * keeps the payload of a live entry where it is until {@link #unpin(long)}: it is neither moved nor released
+	 * @return false if the entry is gone
+	 */
+	public boolean pin(long handle) {
+		if (!isLive(handle)) {
+			return false;
+		}
+		final int generation = generation(handle);
+		final long address = longAt(row(handle), STATE);
+		while (true) {
+			final long state = unsafe.getLongVolatile(null, address);
+			if (generation(state) != generation) {
+				return false;
+			}
+			if (unsafe.compareAndSwapLong(null, address, state, state + 1)) {
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * @return true if the entry was freed while pinned and this was the last pin, the payload is then
+	 * to be released by the caller
+	 */
+	public boolean unpin(long handle) {
+		final long address = longAt(row(handle), STATE);
+		while (true) {
+			final long state = unsafe.getLongVolatile(null, address);
+			if (unsafe.compareAndSwapLong(null, address, state, state - 1)) {
+				return pinCount(state) == 1 && generation(state) != generation(handle);
+			}
+		}
+	}
+
+	public int pins(long handle) {
+		return pinCount(unsafe.getLongVolatile(null, longAt(row(handle), STATE)));
+	}
+
+	/**
+	 * hands the row of a removed entry back for reuse
+	 */
+	public void recycle(long handle) {
+		final int row = row(handle);
+		while (true) {
+			final long head = freeRows.get();
+			unsafe.putLong(longAt(row, OFFSET), (int)head);
+			if (freeRows.compareAndSet(head, pack(row, generation(head) + 1))) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * @return the number of rows handed out so far, live or not
+	 */
+	public int slots() {
+		return Math.min(top.get(), segments.length * SEGMENT_ROWS);
+	}
+
+	/**
+	 * @return the handle of the entry living in the given row, or {@link #NONE}
+	 */
+	public long handle(int row) {
+		final int generation = generation(unsafe.getLongVolatile(null, longAt(row, STATE)));
+		return (generation & 1) == 1 ? pack(row, generation) : NONE;
+	}
+
+	public int size() {
+		return size.get();
+	}
+
+	public int buffer(long handle) {
+		return unsafe.getInt(intAt(row(handle), BUFFER));
+	}
+
+	public long offset(long handle) {
+		return unsafe.getLong(longAt(row(handle), OFFSET));
+	}
+
+	public int length(long handle) {
+		return unsafe.getInt(intAt(row(handle), LENGTH));
+	}
+
+	/**
+	 * @return the version of the location of the entry, odd while it is being moved
+	 */
+	public int version(long handle) {
+		return unsafe.getIntVolatile(null, intAt(row(handle), VERSION));
+	}
+
+	/**
+	 * takes the location of the entry for a move, or for a free
+	 * @return false if it is already taken
+	 */
+	public boolean tryLock(long handle) {
+		final long address = intAt(row(handle), VERSION);
+		final int version = unsafe.getIntVolatile(null, address);
+		return (version & 1) == 0 && unsafe.compareAndSwapInt(null, address, version, version + 1);
+	}
+
+	public void lock(long handle) {
+		for (int attempt = 0; !tryLock(handle); attempt++) {
+			backOff(attempt);
+		}
+	}
+
+	/**
+	 * waits before the next attempt at an entry being moved: yields first, then parks for longer and longer,
+	 * up to about a millisecond, as a move may be held up by a copy of several megabytes
+	 */
+	public static void backOff(int attempt) {
+		if (attempt < 8) {
+			Thread.yield();
+		} else {
+			LockSupport.parkNanos(1L << Math.min(attempt, 20));
+		}
+	}
+
+	public void unlock(long handle) {
+		final long address = intAt(row(handle), VERSION);
+		unsafe.putIntVolatile(null, address, unsafe.getInt(address) + 1);
+	}
+
+	/**
+	 * points the entry to its new location, the location must be locked
+	 */
+	public void relocate(long handle, long offset) {
+		unsafe.putLong(longAt(row(handle), OFFSET), offset);
+	}
+
+	public long created(long handle) {
+		return unsafe.getLong(longAt(row(handle), CREATED));
+	}
+
+	/**
+	 * @return the expiration date in milliseconds, 0 if the entry never expires
+	 */
+	public long expires(long handle) {
+		return unsafe.getLong(longAt(row(handle), EXPIRES));
+	}
+
+	public boolean expired(long handle) {
+		return expired(handle, System.currentTimeMillis());
+	}
+
+	public boolean expired(long handle, long now) {
+		final long expires = expires(handle);
+		return expires > 0 && expires <= now;
+	}
+
+	public long lastHit(long handle) {
+		return unsafe.getLong(longAt(row(handle), LAST_HIT));
+	}
+
+	/**
+	 * counts a hit in the frequency counter of the entry, in constant time. The counter is updated
+	 * with a compare and swap, concurrent hits are not lost; the last hit date is a plain write, the latest wins
+	 */
+	public void hit(long handle) {
+		final int row = row(handle);
+		final long address = intAt(row, HITS);
+		final long now = System.currentTimeMillis();
+		final long lastHit = unsafe.getLong(longAt(row, LAST_HIT));
+		while (true) {
+			final int current = unsafe.getInt(address);
+			int counter = decayed(current, lastHit, now);
+			if (counter < LFU_MAX) {
+				// logarithmic: the higher the counter, the less likely a hit moves it
+				final double p = 1.0 / (Math.max(counter - LFU_INIT, 0) * LFU_LOG_FACTOR + 1);
+				if (random.get().nextDouble() < p) {
+					counter++;
+				}
+			}
+			if (counter == current || unsafe.compareAndSwapInt(null, address, current, counter)) {
+				break;
+			}
+		}
+		unsafe.putLong(longAt(row, LAST_HIT), now);
+	}
+
+	/**
+	 * sets the reference bit of the entry for {@link EvictionPolicy#CLOCK}: a plain write, and only if not set already.
+	 * A reference racing with the hand clearing the bit may be lost, the entry then gets no second chance,
+	 * as with any CLOCK implementation
+	 */
+	public void reference(long handle) {
+		final long address = intAt(row(handle), REFERENCED);
+		if (unsafe.getInt(address) == 0) {
+			unsafe.putInt(address, 1);
+		}
+	}
+
+	public boolean isReferenced(long handle) {
+		return unsafe.getInt(intAt(row(handle), REFERENCED)) != 0;
+	}
+
+	/**
+	 * @return whether the reference bit was set, and cleared by this call
+	 */
+	public boolean clearReference(long handle) {
+		return unsafe.compareAndSwapInt(null, intAt(row(handle), REFERENCED), 1, 0);
+	}
+
+	private static int decayed(int counter, long lastHit, long now) {
+		final long periods = (now - lastHit) / LFU_DECAY_PERIOD;
+		return periods <= 0 ? counter : (int)Math.max(0, counter - periods);
+	}
+
+	/**
+	 * @return the frequency counter of the entry as of now: it grows logarithmically with the hits and
+	 * loses one every {@link #LFU_DECAY_PERIOD} milliseconds without any, new entries start at {@link #LFU_INIT}
+	 */
+	public int frequency(long handle, long now) {
+		final int row = row(handle);
+		return decayed(unsafe.getInt(intAt(row, HITS)), unsafe.getLong(longAt(row, LAST_HIT)), now);
+	}
+
+	public int typeId(long handle) {
+		return unsafe.getInt(intAt(row(handle), TYPE));
+	}
+
+	public void setTypeId(long handle, int typeId) {
+		unsafe.putInt(intAt(row(handle), TYPE), typeId);
+	}
+
+	public int keyHash(long handle) {
+		return unsafe.getInt(intAt(row(handle), KEY_HASH));
+	}
+
+	public void setKeyHash(long handle, int keyHash) {
+		unsafe.putInt(intAt(row(handle), KEY_HASH), keyHash);
+	}
+
+	public int flags(long handle) {
+		return unsafe.getInt(intAt(row(handle), FLAGS));
+	}
+
+	public void setFlag(long handle, int flag) {
+		final long address = intAt(row(handle), FLAGS);
+		while (true) {
+			final int flags = unsafe.getInt(address);
+			if ((flags & flag) == flag || unsafe.compareAndSwapInt(null, address, flags, flags | flag)) {
+				return;
+			}
+		}
+	}
+
+	public boolean hasFlag(long handle, int flag) {
+		return (flags(handle) & flag) != 0;
+	}
+
+	/**
+	 * releases the native segments, the table must not be used afterwards.
+	 * Whoever creates a table disposes of it: the pool of the {@link MemoryManager} when it is initialized again,
+	 * a standalone buffer when it is closed
+	 */
+	public synchronized void dispose() {
+		final long[] released = segments;
+		segments = new long[0];
+		top.set(0);
+		size.set(0);
+		freeRows.set(pack(NO_ROW, 0));
+		for (long segment : released) {
+			unsafe.freeMemory(segment);
+		}
+	}
+}
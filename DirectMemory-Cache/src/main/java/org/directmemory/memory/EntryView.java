@@ -0,0 +1,52 @@
+package org.directmemory.memory;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Read-only view on the payload of an entry, straight over the off-heap memory.
+ * The entry is pinned for as long as the view is held: it is neither moved by compaction nor
+ * its block handed out again, even if the entry is freed meanwhile. Views must be released,
+ * and the payload not used afterwards; they are not meant to outlive a clear of their buffer.
+ */
+public class EntryView {
+	private final OffHeapMemoryBuffer buffer;
+	private final long handle;
+	private final ByteBuffer payload;
+	private boolean released;
+
+	public interface Reader<T> {
+		T read(ByteBuffer payload);
+	}
+
+	EntryView(OffHeapMemoryBuffer buffer, long handle, long offset, int length) {
+		this.buffer = buffer;
+		this.handle = handle;
+		final ByteBuffer slice = buffer.arena.slice(offset, length);
+		if (slice != null) {
+			this.payload = slice;
+		} else {
+			// across two chunks of the arena, copied
+			final byte[] copy = new byte[length];
+			buffer.arena.get(offset, copy);
+			this.payload = ByteBuffer.wrap(copy).asReadOnlyBuffer();
+		}
+	}
+
+	public long handle() {
+		return handle;
+	}
+
+	/**
+	 * @return the payload, from position 0 to its length
+	 */
+	public ByteBuffer payload() {
+		return payload;
+	}
+
+	public synchronized void release() {
+		if (!released) {
+			released = true;
+			buffer.unpin(handle);
+		}
+	}
+}
@@ -0,0 +1,13 @@
+package org.directmemory.memory;
+
+public enum EvictionPolicy {
+	/**
+	 * least frequently used of a few entries sampled at random, reads count hits in a decaying logarithmic counter
+	 */
+	LFU,
+	/**
+	 * second chance: reads set a reference bit, a clock hand sweeping the buffer clears it and
+	 * picks the first entry found without it
+	 */
+	CLOCK
+}
@@ -1,78 +1,415 @@
 package org.directmemory.memory;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.List;
-import java.util.Vector;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 import org.directmemory.measures.Ram;
 import org.directmemory.misc.Format;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * Elastic pool of buffers: only the minimum number of buffers is allocated at startup, the others
+ * are allocated as the cache fills up, up to the maximum, and empty buffers above the minimum
+ * give their native memory back on {@link #shrink()}.
+ * Writers are spread over the allocated buffers by thread, each thread starting from its own
+ * buffer and moving on to the next ones when it is full, so that they do not all contend for the same lock.
+ * Initialized with a directory, buffers are files mapped in memory and what they hold survives a restart.
+ */
 public class MemoryManager {
 	private static Logger logger = LoggerFactory.getLogger(MemoryManager.class);
-	public static List<OffHeapMemoryBuffer> buffers = new Vector<OffHeapMemoryBuffer>();
-	public static OffHeapMemoryBuffer activeBuffer = null;
+	public static int DEFAULT_MIN_BUFFERS = 1;
+	/** buffers currently allocated */
+	public static List<OffHeapMemoryBuffer> buffers = new CopyOnWriteArrayList<OffHeapMemoryBuffer>();
+	public static EntryTable table = new EntryTable();
+	// allocated buffers by number, the number of a buffer is the one kept in the entry table
+	private static OffHeapMemoryBuffer[] slots = new OffHeapMemoryBuffer[0];
+	// allocated buffers, replaced as a whole when the pool grows or shrinks
+	private static volatile OffHeapMemoryBuffer[] pool = new OffHeapMemoryBuffer[0];
+	private static int minBuffers;
+	private static long bufferSize;
+	private static AllocationStrategy strategy;
+	private static File directory;
+	/** milliseconds a replaced pool is kept before its memory is given back */
+	public static long RETIREMENT_DELAY = 1000;
+	private static ScheduledExecutorService retirement;
 	
 	private MemoryManager() {
 		//static class
 	}
 	
-	public static void init(int numberOfBuffers, int size) {
-		for (int i = 0; i < numberOfBuffers; i++) {
-			buffers.add(OffHeapMemoryBuffer.createNew(size, i));
+	public static void init(int numberOfBuffers, long size) {
+		init(numberOfBuffers, size, AllocationStrategy.FIRST_FIT);
+	}
+	
+	public static void init(int numberOfBuffers, long size, AllocationStrategy strategy) {
+		init(Math.min(DEFAULT_MIN_BUFFERS, numberOfBuffers), numberOfBuffers, size, strategy);
+	}
+	
+	/**
+	 * @param minBuffers buffers allocated right away and never released
+	 * @param maxBuffers buffers allocated at most
+	 */
+	public static synchronized void init(int minBuffers, int maxBuffers, long size, AllocationStrategy strategy) {
+		init(null, minBuffers, maxBuffers, size, strategy);
+	}
+	
+	/**
+	 * @param directory where the files of the buffers are, null for buffers in anonymous memory.
+	 * Files already there are mapped as they are, their entries can then be {@link #restore(int, long, int, long, int, int)}d:
+	 * their buffers store nothing until they are {@link #restored()}
+	 */
+	public static synchronized void init(File directory, int minBuffers, int maxBuffers, long size, AllocationStrategy strategy) {
+		if (maxBuffers < 1 || minBuffers > maxBuffers) {
+			throw new IllegalArgumentException(Format.it("%d to %d buffers", minBuffers, maxBuffers));
+		}
+		if (size <= 0) {
+			throw new IllegalArgumentException(Format.it("buffers of %d bytes", size));
+		}
+		if (directory != null && !directory.isDirectory() && !directory.mkdirs()) {
+			throw new IllegalArgumentException("cannot create " + directory);
+		}
+		MemoryManager.directory = directory;
+		retire(pool, table);
+		buffers.clear();
+		table = new EntryTable();
+		pool = new OffHeapMemoryBuffer[0];
+		slots = new OffHeapMemoryBuffer[maxBuffers];
+		MemoryManager.minBuffers = Math.max(1, minBuffers);
+		MemoryManager.bufferSize = size;
+		MemoryManager.strategy = strategy;
+		if (directory != null) {
+			for (int i = 0; i < maxBuffers; i++) {
+				if (file(i).exists()) {
+					allocate(i, true);
+				}
+			}
+		}
+		while (buffers.size() < MemoryManager.minBuffers) {
+			grow(pool);
+		}
+		logger.info(Format.it("MemoryManager initialized - %d to %d buffers, %s each, %s allocation", MemoryManager.minBuffers, maxBuffers, Ram.inMb(size), strategy));
+	}
+	
+	/**
+	 * disposes of a pool replaced as a whole once the reads which may still be going on in it are over
+	 */
+	private static void retire(final OffHeapMemoryBuffer[] buffers, final EntryTable table) {
+		later(new Runnable() {
+			public void run() {
+				for (OffHeapMemoryBuffer buffer : buffers) {
+					buffer.dispose();
+				}
+				table.dispose();
+				logger.debug(Format.it("%d buffers of a previous pool disposed", buffers.length));
+			}
+		});
+	}
+
+	/**
+	 * runs a disposal {@link #RETIREMENT_DELAY} milliseconds from now: readers copy payloads without
+	 * locking, memory freed under them must stay mapped until they are done. The same goes for the other
+	 * off-heap structures read without locks, such as the ones of the cache
+	 */
+	public static synchronized void later(Runnable disposal) {
+		if (retirement == null) {
+			retirement = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				public Thread newThread(Runnable runnable) {
+					final Thread thread = new Thread(runnable, "directmemory-retirement");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		retirement.schedule(disposal, RETIREMENT_DELAY, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * allocates one more buffer, if the maximum is not reached yet
+	 * @param seen the pool the caller found full
+	 * @return the new buffer, the newest one if another thread grew the pool meanwhile, or null
+	 */
+	private static synchronized OffHeapMemoryBuffer grow(OffHeapMemoryBuffer[] seen) {
+		if (pool != seen && pool.length > 0) {
+			return pool[pool.length - 1];
+		}
+		for (int i = 0; i < slots.length; i++) {
+			if (slots[i] == null) {
+				return allocate(i, false);
+			}
 		}
-		activeBuffer = buffers.get(0);
-		logger.info(Format.it("MemoryManager initialized - %d buffers, %s each", numberOfBuffers, Ram.inMb(size)));
+		return null;
 	}
 	
-	public static Pointer store(byte[] payload, int expiresIn) {
-		Pointer p = activeBuffer.store(payload, expiresIn);
-		if (p == null) {
-			if (activeBuffer.bufferNumber+1 == buffers.size()) {
-				return null;
-			} else {
-				// try next buffer
-				activeBuffer = buffers.get(activeBuffer.bufferNumber+1);
-				p = activeBuffer.store(payload, expiresIn);
+	private static File file(int bufferNumber) {
+		return new File(directory, "buffer-" + bufferNumber);
+	}
+	
+	/**
+	 * @param restoring whether the file of a previous run is mapped at init, its entries kept until they are restored
+	 */
+	private static OffHeapMemoryBuffer allocate(int bufferNumber, boolean restoring) {
+		Arena arena;
+		if (directory == null) {
+			arena = Arena.allocateDirect(bufferSize);
+		} else {
+			try {
+				arena = Arena.map(file(bufferNumber), bufferSize);
+			} catch (IOException e) {
+				throw new IllegalStateException("cannot map " + file(bufferNumber), e);
 			}
 		}
-		return p;
+		final OffHeapMemoryBuffer buffer = OffHeapMemoryBuffer.createNew(arena, bufferNumber, strategy, table, restoring);
+		slots[bufferNumber] = buffer;
+		buffers.add(buffer);
+		pool = buffers.toArray(new OffHeapMemoryBuffer[buffers.size()]);
+		return buffer;
 	}
 	
-	public static Pointer store(byte[] payload) {
-		return store(payload, 0);
+	/**
+	 * releases the empty buffers above the minimum, their memory is given back after {@link #RETIREMENT_DELAY}
+	 * @return the number of bytes given back
+	 */
+	public static synchronized long shrink() {
+		long released = 0;
+		for (OffHeapMemoryBuffer buffer : buffers) {
+			if (buffers.size() <= minBuffers) {
+				break;
+			}
+			if (buffer.used() == 0) {
+				buffers.remove(buffer);
+				pool = buffers.toArray(new OffHeapMemoryBuffer[buffers.size()]);
+				if (buffer.seal()) {
+					released += buffer.capacity();
+					retire(buffer);
+				} else {
+					// something got stored meanwhile
+					buffers.add(buffer);
+					pool = buffers.toArray(new OffHeapMemoryBuffer[buffers.size()]);
+				}
+			}
+		}
+		if (released > 0) {
+			logger.info(Format.it("released %s, %d buffers left", Ram.inMb(released), buffers.size()));
+		}
+		return released;
 	}
 	
-	public static Pointer update(Pointer pointer, byte[] payload) {
-		Pointer p = activeBuffer.update(pointer, payload);
-		if (p == null) {
-			if (activeBuffer.bufferNumber == buffers.size()) {
-				return null;
-			} else {
-				// try next buffer
-				activeBuffer = buffers.get(activeBuffer.bufferNumber+1);
-				p = activeBuffer.store(payload);
+	/**
+	 * disposes of a closed buffer once the reads which may still be going on in it are over,
+	 * its number is not given to a new buffer before
+	 */
+	private static void retire(final OffHeapMemoryBuffer buffer) {
+		final File file = directory == null ? null : file(buffer.bufferNumber);
+		later(new Runnable() {
+			public void run() {
+				buffer.dispose();
+				synchronized (MemoryManager.class) {
+					// unless the pool was replaced meanwhile
+					if (buffer.bufferNumber < slots.length && slots[buffer.bufferNumber] == buffer) {
+						slots[buffer.bufferNumber] = null;
+						if (file != null && !file.delete()) {
+							logger.warn(Format.it("cannot delete %s", file));
+						}
+					}
+				}
+				logger.debug(Format.it("buffer %d closed, %s released", buffer.bufferNumber, Ram.inMb(buffer.capacity())));
 			}
+		});
+	}
+
+	public static long store(byte[] payload, int expiresIn) {
+		return store(payload, expiresIn, 0, 0);
+	}
+	
+	/**
+	 * @param keyHash hash of the key, kept in the entry header of buffers having one
+	 */
+	public static long store(byte[] payload, int expiresIn, int keyHash, int typeId) {
+		try {
+			return store(payload.length, payload, null, expiresIn, keyHash, typeId);
+		} catch (IOException e) {
+			// only writers fail
+			throw new IllegalStateException(e);
+		}
+	}
+	
+	/**
+	 * @see OffHeapMemoryBuffer#store(int, OffHeapMemoryBuffer.Writer, long, int, int)
+	 */
+	public static long store(int length, OffHeapMemoryBuffer.Writer writer, int expiresIn, int keyHash, int typeId) throws IOException {
+		return store(length, null, writer, expiresIn, keyHash, typeId);
+	}
+	
+	private static long store(int length, byte[] payload, OffHeapMemoryBuffer.Writer writer, int expiresIn, int keyHash, int typeId) throws IOException {
+		final OffHeapMemoryBuffer[] current = pool;
+		// empty while init fills a new pool, grow waits for it
+		final int home = stripe(Math.max(1, current.length));
+		// the thread's own buffer first, then the next ones, then a new one
+		for (int i = 0; i < current.length; i++) {
+			final long p = storeIn(current[(home + i) % current.length], length, payload, writer, expiresIn, keyHash, typeId);
+			if (p != EntryTable.NONE) {
+				return p;
+			}
+		}
+		final OffHeapMemoryBuffer grown = grow(current);
+		// fragmented buffers are left to the scheduled compaction, the caller evicts
+		if (grown != null) {
+			return storeIn(grown, length, payload, writer, expiresIn, keyHash, typeId);
+		}
+		return EntryTable.NONE;
+	}
+	
+	private static long storeIn(OffHeapMemoryBuffer buffer, int length, byte[] payload, OffHeapMemoryBuffer.Writer writer, int expiresIn, int keyHash, int typeId) throws IOException {
+		if (writer == null) {
+			return buffer.store(payload, expiresIn, keyHash, typeId);
+		}
+		return buffer.store(length, writer, expiresIn, keyHash, typeId);
+	}
+	
+	private static int stripe(int howMany) {
+		return (int)(Thread.currentThread().getId() % howMany);
+	}
+	
+	public static long store(byte[] payload) {
+		return store(payload, 0);
+	}
+	
+	public static long update(long handle, byte[] payload) {
+		return update(handle, payload, 0, 0);
+	}
+	
+	public static long update(long handle, byte[] payload, int keyHash, int typeId) {
+		free(handle);
+		return store(payload, 0, keyHash, typeId);
+	}
+	
+	public static long update(long handle, int length, OffHeapMemoryBuffer.Writer writer, int keyHash, int typeId) throws IOException {
+		free(handle);
+		return store(length, writer, 0, keyHash, typeId);
+	}
+	
+	/**
+	 * hands the free space of the buffers mapped from files to their allocators once their entries are restored
+	 */
+	public static synchronized void restored() {
+		for (OffHeapMemoryBuffer buffer : buffers) {
+			buffer.restored();
 		}
-		return p;
 	}
 	
-	public static byte[] retrieve(Pointer pointer) {
-		return buffers.get(pointer.bufferNumber).retrieve(pointer);
+	/**
+	 * indexes again an entry left in a mapped buffer by a previous run
+	 * @return the handle of the entry, {@link EntryTable#NONE} if the buffer is not there or the block is taken
+	 */
+	public static long restore(int bufferNumber, long offset, int length, long expires, int typeId, int flags) {
+		if (bufferNumber < 0 || bufferNumber >= slots.length || slots[bufferNumber] == null) {
+			return EntryTable.NONE;
+		}
+		return slots[bufferNumber].restore(offset, length, expires, typeId, flags);
+	}
+	
+	public static File directory() {
+		return directory;
+	}
+	
+	/**
+	 * writes the mapped buffers through to their files
+	 */
+	public static void force() {
+		for (OffHeapMemoryBuffer buffer : buffers) {
+			buffer.force();
+		}
+	}
+	
+	/**
+	 * @return the buffer of a live entry, null if there is none anymore
+	 */
+	private static OffHeapMemoryBuffer bufferOf(long handle) {
+		if (!table.isLive(handle)) {
+			return null;
+		}
+		// the buffer can be released as soon as the entry is freed
+		final OffHeapMemoryBuffer[] current = slots;
+		final int number = table.buffer(handle);
+		return number < current.length ? current[number] : null;
+	}
+
+	public static byte[] retrieve(long handle) {
+		final OffHeapMemoryBuffer buffer = bufferOf(handle);
+		return buffer == null ? null : buffer.retrieve(handle);
+	}
+	
+	/**
+	 * @see OffHeapMemoryBuffer#view(long)
+	 */
+	public static EntryView view(long handle) {
+		final OffHeapMemoryBuffer buffer = bufferOf(handle);
+		return buffer == null ? null : buffer.view(handle);
+	}
+	
+	public static <T> T read(long handle, EntryView.Reader<T> reader) {
+		final OffHeapMemoryBuffer buffer = bufferOf(handle);
+		return buffer == null ? null : buffer.read(handle, reader);
+	}
+	
+	public static void setCompressed(long handle) {
+		final OffHeapMemoryBuffer buffer = bufferOf(handle);
+		if (buffer != null) {
+			buffer.setCompressed(handle);
+		}
 	}
 	
-	public static void free(Pointer pointer) {
-		buffers.get(pointer.bufferNumber).free(pointer);
+	public static void free(long handle) {
+		final OffHeapMemoryBuffer buffer = bufferOf(handle);
+		if (buffer != null) {
+			buffer.free(handle);
+		}
+	}
+	
+	/**
+	 * @see OffHeapMemoryBuffer#evict(long)
+	 */
+	public static void evict(long handle) {
+		final OffHeapMemoryBuffer buffer = bufferOf(handle);
+		if (buffer != null) {
+			buffer.evict(handle);
+		}
 	}
 	
 	public static void clear() {
 		for (OffHeapMemoryBuffer buffer : buffers) {
 			buffer.clear();
 		}
-		activeBuffer = buffers.get(0);
+		shrink();
 	}
 	
+	/**
+	 * @return the capacity of the pool once all its buffers are allocated
+	 */
 	public static long capacity() {
+		return bufferSize * slots.length;
+	}
+
+	public static long used() {
+		long used = 0;
+		for (OffHeapMemoryBuffer buffer : buffers) {
+			used += buffer.used();
+		}
+		return used;
+	}
+
+	/**
+	 * @return the capacity of the buffers currently allocated
+	 */
+	public static long allocated() {
 		long totalCapacity = 0;
 		for (OffHeapMemoryBuffer buffer : buffers) {
 			totalCapacity += buffer.capacity();
@@ -80,6 +417,40 @@ public class MemoryManager {
 		return totalCapacity;
 	}
 
+	/**
+	 * capacity weighted average of the buffers fragmentation
+	 */
+	public static double fragmentation() {
+		double weighted = 0;
+		long totalCapacity = 0;
+		for (OffHeapMemoryBuffer buffer : buffers) {
+			weighted += buffer.fragmentation() * buffer.capacity();
+			totalCapacity += buffer.capacity();
+		}
+		return totalCapacity == 0 ? 0 : weighted / totalCapacity;
+	}
+
+	/**
+	 * compacts the most fragmented buffer, if its fragmentation is above the threshold
+	 * @return the number of bytes moved
+	 */
+	public static long compact(double threshold) {
+		OffHeapMemoryBuffer worst = null;
+		double highest = threshold;
+		for (OffHeapMemoryBuffer buffer : buffers) {
+			final double fragmentation = buffer.relocates() ? buffer.fragmentation() : 0;
+			if (fragmentation > highest) {
+				worst = buffer;
+				highest = fragmentation;
+			}
+		}
+		if (worst == null) {
+			return 0;
+		}
+		logger.debug(Format.it("compacting buffer %d, fragmentation %.2f", worst.bufferNumber, highest));
+		return worst.compact();
+	}
+
 	public static long collectExpired() {
 		long disposed = 0;
 		for (OffHeapMemoryBuffer buffer : buffers) {
@@ -88,6 +459,71 @@ public class MemoryManager {
 		return disposed;
 	}
 
+	public static long reclaimIdleRegions() {
+		long reclaimed = 0;
+		for (OffHeapMemoryBuffer buffer : buffers) {
+			reclaimed += buffer.reclaimIdleRegions();
+		}
+		return reclaimed;
+	}
+
+	private static final ThreadLocal<Random> random = new ThreadLocal<Random>() {
+		protected Random initialValue() {
+			return new Random();
+		}
+	};
+
+	/**
+	 * @return the coldest of a sample of the entries of the thread's own buffer, where its next store goes first,
+	 * or of the next buffers a store tries, {@link EntryTable#NONE} if there is none
+	 */
+	public static long victim() {
+		return victim(0);
+	}
+
+	/**
+	 * @param length of the payload to make room for, 0 if any victim will do
+	 * @return the coldest of a sample of the entries that would make room for the payload, in the first buffer
+	 * having one in the order stores try them, {@link EntryTable#NONE} if there is none
+	 */
+	public static long victim(int length) {
+		final OffHeapMemoryBuffer[] current = pool;
+		final int home = stripe(Math.max(1, current.length));
+		for (int i = 0; i < current.length; i++) {
+			final long victim = current[(home + i) % current.length].victim(random.get(), length);
+			if (victim != EntryTable.NONE) {
+				return victim;
+			}
+		}
+		return EntryTable.NONE;
+	}
+
+	/**
+	 * @see OffHeapMemoryBuffer#makesRoom(long, int)
+	 */
+	public static boolean makesRoom(long handle, int length) {
+		final OffHeapMemoryBuffer buffer = bufferOf(handle);
+		return buffer != null && buffer.makesRoom(handle, length);
+	}
+
+	/**
+	 * evicts victims until the payload fits, from the thread's own buffer, where its next store goes first,
+	 * or from the next buffers in the order stores try them when nothing there can make room
+	 * @param limit of the number of victims in a buffer
+	 * @return the number of bytes freed
+	 */
+	public static long makeRoom(int length, int limit) {
+		final OffHeapMemoryBuffer[] current = pool;
+		final int home = stripe(Math.max(1, current.length));
+		for (int i = 0; i < current.length; i++) {
+			final long freed = current[(home + i) % current.length].makeRoom(length, limit, random.get());
+			if (freed > 0) {
+				return freed;
+			}
+		}
+		return 0;
+	}
+
 	public static void collectLFU() {
 		for (OffHeapMemoryBuffer buf : MemoryManager.buffers) {
 			buf.collectLFU(-1);
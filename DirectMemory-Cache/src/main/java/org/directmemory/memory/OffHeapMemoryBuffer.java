@@ -1,251 +1,1129 @@
 package org.directmemory.memory;
 
-import java.nio.BufferOverflowException;
-import java.nio.ByteBuffer;
-import java.util.ArrayList;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
 import java.util.Date;
-import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Random;
+import java.util.TreeMap;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.zip.CRC32;
 import java.util.zip.Checksum;
 
 import org.directmemory.measures.Ram;
 import org.directmemory.misc.Format;
-import org.josql.Query;
-import org.josql.QueryExecutionException;
-import org.josql.QueryParseException;
-import org.josql.QueryResults;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * Off-heap buffer handing out first fit blocks of its arena. Entries are addressed by the long handles
+ * of an {@link EntryTable}, subclasses plug in other allocation strategies overriding
+ * {@link #allocate(int)}, {@link #release(long, int)} and {@link #reset()}, and
+ * {@link #reserve(long, int)} and {@link #rebuild(NavigableMap)} to take back the entries of a mapped arena.
+ * Buffers created while {@link #DEFAULT_HEADERS} is set write an {@link EntryHeader} in front of every payload
+ * and at the start of every free block, so that they can be walked with {@link #walk(EntryHeader.Visitor)}.
+ * Live entries can be slid towards the start of the arena with {@link #compact()} while readers keep going.
+ */
 public class OffHeapMemoryBuffer {
 	private static Logger logger = LoggerFactory.getLogger(OffHeapMemoryBuffer.class);
-	protected ByteBuffer buffer;
-	public List<Pointer> pointers = new ArrayList<Pointer>();
-//	public List<Pointer> pointers = new CopyOnWriteArrayList<Pointer>();
-	AtomicInteger used = new AtomicInteger();
+
+	public static boolean DEFAULT_HEADERS = false;
+	public static EvictionPolicy DEFAULT_EVICTION = EvictionPolicy.LFU;
+	public static int EVICTION_SAMPLES = 8;
+	/** told about every entry a buffer frees on its own */
+	public static volatile Evictions evictions;
+
+	protected Arena arena;
+	public final EntryTable table;
+	// entries which expire, by expiration date
+	private final TimingWheel expiring;
+	// free blocks by offset, values are lengths
+	private final TreeMap<Long, Long> holes = new TreeMap<Long, Long>();
+	// where the previous search stopped
+	private long rover;
+	private final Object compaction = new Object();
+
+	/**
+	 * Writes a payload whose length is known beforehand.
+	 */
+	public interface Writer {
+		void writeTo(OutputStream out) throws IOException;
+	}
+
+	/**
+	 * Learns of the entries evicted or expired, so that what refers to them can go too.
+	 */
+	public interface Evictions {
+		/**
+		 * @param keyHash the entry was stored with
+		 */
+		void freed(long handle, int keyHash);
+	}
+	AtomicLong used = new AtomicLong();
+	private final AtomicInteger entries = new AtomicInteger();
 	public int bufferNumber;
-	
-	
-	public int used() {
+	protected final boolean headers;
+	protected final EvictionPolicy eviction;
+	// row of the entry table the CLOCK hand sweeps next, the rows of other buffers are skipped
+	private final AtomicInteger hand = new AtomicInteger();
+	private volatile boolean closed;
+	// the table was created for this buffer alone, and goes with it
+	private boolean ownsTable;
+	// blocks of the entries restored from the arena of a previous run, by offset, values are lengths,
+	// until the free space is rebuilt around them
+	private volatile TreeMap<Long, Long> restoring;
+
+	public long used() {
 		return used.get();
 	}
-	
-	public int capacity(){
-		return buffer.capacity();
+
+	/**
+	 * @return the number of entries stored in this buffer
+	 */
+	public int entries() {
+		return entries.get();
 	}
-	
-	public static OffHeapMemoryBuffer createNew(int capacity, int bufferNumber) {
-		logger.info(Format.it("Creating OffHeapMemoryBuffer %d with a capacity of %s", bufferNumber, Ram.inMb(capacity)));
-		return new OffHeapMemoryBuffer(ByteBuffer.allocateDirect(capacity), bufferNumber); 
+
+	public long capacity(){
+		return arena.capacity();
 	}
-	
-	public static OffHeapMemoryBuffer createNew(int capacity) {
-		return new OffHeapMemoryBuffer(ByteBuffer.allocateDirect(capacity), -1); 
+
+	public long available() {
+		return capacity() - used();
+	}
+
+	public synchronized long largestFreeBlock() {
+		long largest = 0;
+		for (long length : holes.values()) {
+			largest = Math.max(largest, length);
+		}
+		return largest;
 	}
-	
-	private OffHeapMemoryBuffer(ByteBuffer buffer, int bufferNumber) {
-		this.buffer = buffer;
+
+	/**
+	 * share of the available memory that cannot be handed out as a single block:
+	 * 0 when all the free space is contiguous, close to 1 when it is scattered in small holes
+	 */
+	public double fragmentation() {
+		final long available = available();
+		if (available <= 0) {
+			return 0;
+		}
+		return 1 - Math.min(1, (double)largestFreeBlock() / available);
+	}
+
+	public static OffHeapMemoryBuffer createNew(long capacity, int bufferNumber) {
+		return createNew(capacity, bufferNumber, AllocationStrategy.FIRST_FIT);
+	}
+
+	public static OffHeapMemoryBuffer createNew(long capacity) {
+		return createNew(capacity, -1);
+	}
+
+	public static OffHeapMemoryBuffer createNew(long capacity, int bufferNumber, AllocationStrategy strategy) {
+		return createNew(Arena.allocateDirect(capacity), bufferNumber, strategy);
+	}
+
+	public static OffHeapMemoryBuffer createNew(Arena arena, int bufferNumber, AllocationStrategy strategy) {
+		final OffHeapMemoryBuffer buffer = createNew(arena, bufferNumber, strategy, new EntryTable());
+		buffer.ownsTable = true;
+		return buffer;
+	}
+
+	public static OffHeapMemoryBuffer createNew(Arena arena, int bufferNumber, AllocationStrategy strategy, EntryTable table) {
+		return createNew(arena, bufferNumber, strategy, table, false);
+	}
+
+	/**
+	 * @param restoring whether the arena still holds the entries of a previous run: nothing is written to it
+	 * and nothing is allocated until the entries to keep are {@link #restore(long, int, long, int, int)}d
+	 * and the buffer is {@link #restored()}
+	 */
+	public static OffHeapMemoryBuffer createNew(Arena arena, int bufferNumber, AllocationStrategy strategy, EntryTable table, boolean restoring) {
+		final OffHeapMemoryBuffer buffer = construct(arena, bufferNumber, strategy, table);
+		if (restoring) {
+			buffer.restoring = new TreeMap<Long, Long>();
+			buffer.holdAll();
+		} else {
+			buffer.reset();
+		}
+		return buffer;
+	}
+
+	private static OffHeapMemoryBuffer construct(Arena arena, int bufferNumber, AllocationStrategy strategy, EntryTable table) {
+		final long capacity = arena.capacity();
+		switch (strategy) {
+			case SLAB:
+				logger.info(Format.it("Creating SlabMemoryBuffer %d with a capacity of %s", bufferNumber, Ram.inMb(capacity)));
+				return new SlabMemoryBuffer(arena, bufferNumber, table);
+			case BUDDY:
+				logger.info(Format.it("Creating BuddyMemoryBuffer %d with a capacity of %s", bufferNumber, Ram.inMb(capacity)));
+				return new BuddyMemoryBuffer(arena, bufferNumber, table);
+			case BUMP:
+				logger.info(Format.it("Creating BumpMemoryBuffer %d with a capacity of %s", bufferNumber, Ram.inMb(capacity)));
+				return new BumpMemoryBuffer(arena, bufferNumber, table);
+			default:
+				logger.info(Format.it("Creating OffHeapMemoryBuffer %d with a capacity of %s", bufferNumber, Ram.inMb(capacity)));
+				return new OffHeapMemoryBuffer(arena, bufferNumber, table);
+		}
+	}
+
+	protected OffHeapMemoryBuffer(Arena arena, int bufferNumber, EntryTable table) {
+		this.arena = arena;
 		this.bufferNumber = bufferNumber;
-		createAndAddFirstPointer();
+		this.table = table;
+		this.expiring = new TimingWheel(table, System.currentTimeMillis());
+		this.headers = DEFAULT_HEADERS;
+		this.eviction = DEFAULT_EVICTION;
 	}
 
-	private Pointer createAndAddFirstPointer() {
-		Pointer first = new Pointer();
-		first.bufferNumber = bufferNumber;
-		first.start = 0;
-		first.free = true;
-		first.end = buffer.capacity()-1;
-		pointers.add(first);
-		return first;
+	public EvictionPolicy eviction() {
+		return eviction;
 	}
-	
-	public Pointer slice(Pointer existing, int capacity) {
-		Pointer fresh = new Pointer();
-		fresh.bufferNumber = existing.bufferNumber;
-		fresh.start = existing.start;
-		fresh.end = fresh.start+capacity;
-		fresh.free = true;
-		existing.start+=capacity+1;
-		return fresh;
+
+	private void hit(long handle) {
+		if (eviction == EvictionPolicy.CLOCK) {
+			table.reference(handle);
+		} else {
+			table.hit(handle);
+		}
+	}
+
+	public boolean hasHeaders() {
+		return headers;
+	}
+
+	/**
+	 * marks a free span for walkers, allocators call it for every free block they create
+	 */
+	protected void freeBlock(long offset, long length) {
+		if (headers) {
+			EntryHeader.writeFree(arena, offset, length);
+		}
+	}
+
+	/**
+	 * @return the size of the block actually handed out by {@link #allocate(int)} for length bytes
+	 */
+	protected long blockSize(int length) {
+		return length;
+	}
+
+	/**
+	 * @return how much of the used space a block of length bytes accounts for
+	 */
+	protected long footprint(int length) {
+		return length;
+	}
+
+	/**
+	 * @return whether {@link #allocate(int)} would find a block of length bytes right now
+	 */
+	protected boolean fits(int length) {
+		return largestFreeBlock() >= blockSize(length);
+	}
+
+	/**
+	 * @return whether freeing the given block can help a block of length bytes fit: any free block may merge
+	 * into a large enough hole here
+	 */
+	protected boolean makesRoom(long block, int blockLength, int length) {
+		return true;
+	}
+
+	/**
+	 * @return the end of the part of the arena handed out so far
+	 */
+	protected long walkLimit() {
+		return arena.capacity();
 	}
 
-	
-	public Pointer firstMatch(int capacity) {
-		for (Pointer ptr : pointers) {
-			if (ptr.free && ptr.end >= capacity) {
-				return ptr;
+	/**
+	 * @return the offset of a block of at least length bytes, -1 if there is none
+	 */
+	protected synchronized long allocate(int length) {
+		long start = firstFit(holes.tailMap(rover, true), length);
+		if (start < 0) {
+			start = firstFit(holes.headMap(rover, false), length);
+		}
+		if (start < 0) {
+			return -1;
+		}
+		take(start, length);
+		rover = start + length;
+		return start;
+	}
+
+	/**
+	 * @return false for allocators whose {@link #allocateBelow(int, long)} never finds a block, compacting them moves nothing
+	 */
+	protected boolean relocates() {
+		return true;
+	}
+
+	/**
+	 * used by {@link #compact()}, allocators which cannot pick a lower block just return -1
+	 * @return the offset of a block of at least length bytes starting before limit, -1 if there is none
+	 */
+	protected synchronized long allocateBelow(int length, long limit) {
+		final long start = firstFit(holes.headMap(limit, false), length);
+		if (start >= 0) {
+			take(start, length);
+		}
+		return start;
+	}
+
+	/**
+	 * tells whether the block of an entry found in a mapped arena can be restored, writing nothing:
+	 * blocks taken back are only known to the allocator once they are all {@link #rebuild(NavigableMap)} around
+	 * @return false if the allocator could not have handed the block out
+	 */
+	protected boolean reserve(long offset, int length) {
+		return offset >= 0 && offset + blockSize(length) <= arena.capacity();
+	}
+
+	/**
+	 * sets the free space up around the blocks of the restored entries, writing to the free space alone
+	 * @param blocks by offset, values are lengths
+	 */
+	protected synchronized void rebuild(NavigableMap<Long, Long> blocks) {
+		holes.clear();
+		rover = 0;
+		long position = 0;
+		for (Map.Entry<Long, Long> block : blocks.entrySet()) {
+			if (block.getKey() > position) {
+				holes.put(position, block.getKey() - position);
+				freeBlock(position, block.getKey() - position);
 			}
+			position = block.getKey() + blockSize(block.getValue().intValue());
+		}
+		if (position < arena.capacity()) {
+			holes.put(position, arena.capacity() - position);
+			freeBlock(position, arena.capacity() - position);
 		}
-		return null;
 	}
-	
-	public Pointer store(byte[] payload) {
+
+	/**
+	 * keeps stores away from an arena whose entries are being restored, the allocator not knowing yet where they are
+	 */
+	protected void holdAll() {
+		// no hole until the rebuild
+	}
+
+	private void take(long start, int length) {
+		final long free = holes.remove(start);
+		if (free > length) {
+			holes.put(start + length, free - length);
+			freeBlock(start + length, free - length);
+		}
+	}
+
+	private static long firstFit(Map<Long, Long> holes, int length) {
+		for (Map.Entry<Long, Long> hole : holes.entrySet()) {
+			if (hole.getValue() >= length) {
+				return hole.getKey();
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * gives back a block obtained from {@link #allocate(int)}
+	 */
+	protected synchronized void release(long offset, int length) {
+		long start = offset;
+		long end = offset + length;
+		final Map.Entry<Long, Long> before = holes.floorEntry(offset);
+		if (before != null && before.getKey() + before.getValue() == start) {
+			start = before.getKey();
+			holes.remove(start);
+		}
+		final Long after = holes.get(end);
+		if (after != null) {
+			holes.remove(end);
+			end += after;
+		}
+		holes.put(start, end - start);
+		freeBlock(start, end - start);
+	}
+
+	/**
+	 * makes the whole arena available again
+	 */
+	protected synchronized void reset() {
+		holes.clear();
+		holes.put(0L, arena.capacity());
+		freeBlock(0, arena.capacity());
+		rover = 0;
+	}
+
+	public long store(byte[] payload) {
 		return store(payload, -1);
 	}
-	
-	public byte[] retrieve(Pointer pointer) {
-//		if (!pointer.expired()) {
-			pointer.lastHit = System.currentTimeMillis();
-			pointer.hits++;
-			
-			ByteBuffer buf = null;
-			synchronized (buffer) {
-				buf = buffer.duplicate();
-			}
-			buf.position(pointer.start);
-			// not needed for reads
-			// buf.limit(pointer.end+pointer.start);
-			final byte[] swp = new byte[pointer.end-pointer.start];
-			buf.get(swp);
-			return swp;
-//		} else {
-//			free(pointer);
-//			return null;
-//		}
-	}
-	
-	
-	public long free(Pointer pointer2free) {
-		pointer2free.free = true;
-		pointer2free.created = 0;
-		pointer2free.lastHit = 0;
-		pointer2free.hits = 0;
-		pointer2free.expiresIn = 0;
-		pointer2free.clazz = null;
-		used.addAndGet(-( pointer2free.end-pointer2free.start));
-		pointers.add(pointer2free);
-		return pointer2free.end-pointer2free.start;
-	}
-	
+
+	/**
+	 * copies the payload out without locking, starting over if the entry moved meanwhile.
+	 * The memory of a buffer stays mapped for a while after it is closed by its pool, for copies still going on
+	 * @return the payload, or null if the handle does not point to a live entry anymore
+	 */
+	public byte[] retrieve(long handle) {
+		if (!table.isLive(handle)) {
+			return null;
+		}
+		for (int attempt = 0;; attempt++) {
+			final int version = table.version(handle);
+			if ((version & 1) == 1) {
+				// being moved
+				EntryTable.backOff(attempt);
+				continue;
+			}
+			final long offset = table.offset(handle);
+			final int length = table.length(handle);
+			if (!table.isLive(handle)) {
+				return null;
+			}
+			final byte[] swp = new byte[length];
+			arena.get(offset, swp);
+			if (!table.isLive(handle)) {
+				// freed, and maybe overwritten, while copying
+				return null;
+			}
+			if (table.version(handle) == version) {
+				hit(handle);
+				return swp;
+			}
+		}
+	}
+
+	/**
+	 * @return the location of a pinned entry, once a move in progress is over
+	 */
+	private long offsetOfPinned(long handle) {
+		for (int attempt = 0;; attempt++) {
+			final int version = table.version(handle);
+			if ((version & 1) == 1) {
+				// pinned while being moved, the entry stays at its new location
+				EntryTable.backOff(attempt);
+				continue;
+			}
+			final long offset = table.offset(handle);
+			if (table.version(handle) == version) {
+				return offset;
+			}
+		}
+	}
+
+	/**
+	 * pins the entry and hands its payload over without copying it
+	 * @return a view to release once done with the payload, or null if the handle does not point to a live entry anymore
+	 */
+	public EntryView view(long handle) {
+		final EntryView view = pinned(handle);
+		if (view != null) {
+			hit(handle);
+		}
+		return view;
+	}
+
+	private EntryView pinned(long handle) {
+		if (!table.pin(handle)) {
+			return null;
+		}
+		return new EntryView(this, handle, offsetOfPinned(handle), table.length(handle));
+	}
+
+	/**
+	 * hands the payload of the entry to the reader, the payload stays in place until the reader returns
+	 * @return what the reader returned, or null if the handle does not point to a live entry anymore
+	 */
+	public <T> T read(long handle, EntryView.Reader<T> reader) {
+		return read(view(handle), reader);
+	}
+
+	/**
+	 * reads the payload as {@link #read(long, EntryView.Reader)} does, without counting a hit, for maintenance
+	 */
+	public <T> T peek(long handle, EntryView.Reader<T> reader) {
+		return read(pinned(handle), reader);
+	}
+
+	private static <T> T read(EntryView view, EntryView.Reader<T> reader) {
+		if (view == null) {
+			return null;
+		}
+		try {
+			return reader.read(view.payload());
+		} finally {
+			view.release();
+		}
+	}
+
+	void unpin(long handle) {
+		if (table.unpin(handle)) {
+			// freed while pinned
+			releaseEntry(handle);
+		}
+	}
+
+	public long free(long handle) {
+		if (!table.remove(handle)) {
+			return 0;
+		}
+		return releaseEntry(handle);
+	}
+
+	/**
+	 * frees an entry nobody asked to free, evicted or expired, and tells the {@link #evictions} about it
+	 * @return the number of bytes freed, 0 if it was freed already
+	 */
+	public long evict(long handle) {
+		// the row keeps the hash until the entry is freed, by us or not at all
+		final int keyHash = table.keyHash(handle);
+		final long freed = free(handle);
+		final Evictions evictions = OffHeapMemoryBuffer.evictions;
+		if (freed > 0 && evictions != null) {
+			evictions.freed(handle, keyHash);
+		}
+		return freed;
+	}
+
+	private long releaseEntry(long handle) {
+		// wait for a move in progress to know where the entry is
+		table.lock(handle);
+		final long offset = table.offset(handle);
+		table.unlock(handle);
+		final int length = table.length(handle);
+		releaseBlock(headers ? offset - EntryHeader.SIZE : offset, length);
+		entries.decrementAndGet();
+		table.recycle(handle);
+		return length;
+	}
+
+	/**
+	 * @return the handle of the live entry in the given row of the table if it belongs to this buffer, {@link EntryTable#NONE} otherwise
+	 */
+	private long handleAt(int row) {
+		final long handle = table.handle(row);
+		return handle != EntryTable.NONE && table.buffer(handle) == bufferNumber ? handle : EntryTable.NONE;
+	}
+
+	private void dropRows() {
+		final int slots = table.slots();
+		for (int row = 0; row < slots; row++) {
+			final long handle = handleAt(row);
+			if (handle != EntryTable.NONE && table.remove(handle)) {
+				table.recycle(handle);
+			}
+		}
+		hand.set(0);
+	}
+
 	public void clear() {
-		pointers.clear();
-		createAndAddFirstPointer();
-		buffer.clear();
+		restoring = null;
+		dropRows();
+		expiring.clear(System.currentTimeMillis());
+		reset();
 		used.set(0);
+		entries.set(0);
 	}
 
-	public Pointer store(byte[] payload, Date expires) {
+	/**
+	 * indexes again an entry whose payload is still in the arena, as after mapping the file of a previous run
+	 * @param flags flags of the entry table
+	 * @return the handle of the entry, {@link EntryTable#NONE} if its block could not be reserved
+	 */
+	public long restore(long offset, int length, long expires, int typeId, int flags) {
+		final int blockLength = headers ? EntryHeader.blockLength(length) : length;
+		final long block = headers ? offset - EntryHeader.SIZE : offset;
+		synchronized (this) {
+			final TreeMap<Long, Long> blocks = restoring;
+			if (blocks == null || !reserve(block, blockLength) || overlaps(blocks, block, blockSize(blockLength))) {
+				return EntryTable.NONE;
+			}
+			blocks.put(block, (long)blockLength);
+		}
+		used.addAndGet(footprint(blockLength));
+		entries.incrementAndGet();
+		final long handle = table.add(bufferNumber, offset, length, 0, expires);
+		table.setTypeId(handle, typeId);
+		table.setFlag(handle, flags);
+		expiring.schedule(handle, expires);
+		if (headers) {
+			EntryHeader.writeRow(arena, block, EntryTable.row(handle));
+		}
+		return handle;
+	}
+
+	private boolean overlaps(TreeMap<Long, Long> blocks, long block, long size) {
+		final Map.Entry<Long, Long> before = blocks.floorEntry(block);
+		if (before != null && before.getKey() + blockSize(before.getValue().intValue()) > block) {
+			return true;
+		}
+		final Long after = blocks.higherKey(block);
+		return after != null && after < block + size;
+	}
+
+	/**
+	 * hands the free space around the restored entries to the allocator, the buffer then serves stores again
+	 */
+	public synchronized void restored() {
+		final TreeMap<Long, Long> blocks = restoring;
+		if (blocks != null) {
+			restoring = null;
+			rebuild(blocks);
+			logger.debug(Format.it("buffer %d: free space rebuilt around %d restored entries", bufferNumber, blocks.size()));
+		}
+	}
+
+	/**
+	 * marks a live entry as compressed, in its header too
+	 */
+	public void setCompressed(long handle) {
+		table.setFlag(handle, EntryTable.FLAG_COMPRESSED);
+		if (headers) {
+			// the entry could be moving
+			table.lock(handle);
+			try {
+				EntryHeader.addFlags(arena, table.offset(handle) - EntryHeader.SIZE, EntryHeader.COMPRESSED);
+			} finally {
+				table.unlock(handle);
+			}
+		}
+	}
+
+	public boolean isMapped() {
+		return arena.isMapped();
+	}
+
+	/**
+	 * writes the entries of a mapped buffer through to its file
+	 */
+	public void force() {
+		arena.force();
+	}
+
+	/**
+	 * gives the memory of an empty buffer back to the operating system, its entry table too if the buffer
+	 * was created with its own, the buffer must not be used afterwards
+	 * @return false, and the buffer stays open, if it is not empty
+	 */
+	public synchronized boolean close() {
+		if (!seal()) {
+			return false;
+		}
+		dispose();
+		logger.debug(Format.it("buffer %d closed, %s released", bufferNumber, Ram.inMb(capacity())));
+		return true;
+	}
+
+	/**
+	 * closes an empty buffer to writers, leaving its memory to {@link #dispose()}
+	 * @return false, and the buffer stays open, if it is not empty
+	 */
+	synchronized boolean seal() {
+		closed = true;
+		if (used() != 0) {
+			closed = false;
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * gives the memory of the buffer back whatever it holds, once nobody reads it anymore
+	 */
+	void dispose() {
+		closed = true;
+		arena.dispose();
+		if (ownsTable) {
+			table.dispose();
+		}
+	}
+
+	public boolean isClosed() {
+		return closed;
+	}
+
+	/**
+	 * visits the live entries of the buffer in address order, reading nothing but the arena
+	 * @return the number of entries visited
+	 */
+	public int walk(EntryHeader.Visitor visitor) {
+		if (!headers) {
+			throw new IllegalStateException("buffer " + bufferNumber + " has no entry headers");
+		}
+		final EntryHeader header = new EntryHeader();
+		final long limit = walkLimit();
+		long position = 0;
+		int visited = 0;
+		while (position + EntryHeader.FREE_SIZE <= limit) {
+			header.read(arena, position);
+			if (header.blockLength < EntryHeader.FREE_SIZE) {
+				logger.warn(Format.it("buffer %d: unreadable block at offset %d, walk stopped", bufferNumber, position));
+				break;
+			}
+			if (header.isLive()) {
+				visitor.visit(header);
+				visited++;
+			}
+			position += header.blockLength;
+		}
+		return visited;
+	}
+
+	/**
+	 * rebuilds the rows of the entries of this buffer from their headers, dropping the current ones.
+	 * The allocator is left as it is, handles given out before are not valid anymore.
+	 * @return the number of entries found
+	 */
+	public synchronized int recover() {
+		dropRows();
+		expiring.clear(System.currentTimeMillis());
+		used.set(0);
+		entries.set(0);
+		final int recovered = walk(new EntryHeader.Visitor() {
+			public void visit(EntryHeader header) {
+				final long handle = table.add(bufferNumber, header.payloadOffset(), header.payloadLength, 0, header.expires);
+						table.setTypeId(handle, header.typeId);
+				table.setKeyHash(handle, header.keyHash);
+				if (header.hasFlag(EntryHeader.RELATIVE)) {
+					table.setFlag(handle, EntryTable.FLAG_RELATIVE);
+				}
+				if (header.hasFlag(EntryHeader.COMPRESSED)) {
+					table.setFlag(handle, EntryTable.FLAG_COMPRESSED);
+				}
+				EntryHeader.writeRow(arena, header.offset, EntryTable.row(handle));
+				expiring.schedule(handle, header.expires);
+				used.addAndGet(footprint(EntryHeader.blockLength(header.payloadLength)));
+				entries.incrementAndGet();
+			}
+		});
+		logger.info(Format.it("buffer %d: %d entries recovered from headers", bufferNumber, recovered));
+		return recovered;
+	}
+
+	public long store(byte[] payload, Date expires) {
 		return store(payload, 0, expires.getTime());
 	}
-	
-	public Pointer store(byte[] payload, long expiresIn) {
+
+	public long store(byte[] payload, long expiresIn) {
 		return store(payload, expiresIn, 0);
 	}
-	
-	private synchronized Pointer store(byte[] payload, long expiresIn, long expires) {
-		Pointer goodOne = firstMatch(payload.length);
-		
-		if (goodOne == null ) {
-			throw new NullPointerException("did not find a suitable buffer");
-		}
-		
-		Pointer fresh = slice(goodOne, payload.length);
-
-
-		fresh.created = System.currentTimeMillis();
-		if (expiresIn > 0) {
-			fresh.expiresIn = expiresIn;
-			fresh.expires = 0;
-		} else if (expires > 0) {
-			fresh.expiresIn = 0;
-			fresh.expires = expires;
-		}
-		
-		fresh.free = false;
-		used.addAndGet(payload.length);
-		ByteBuffer buf = buffer.slice();
-		buf.position(fresh.start);
+
+	public long store(byte[] payload, long expiresIn, int keyHash, int typeId) {
+		return store(payload, expiresIn, 0, keyHash, typeId);
+	}
+
+	protected long store(byte[] payload, long expiresIn, long expires) {
+		return store(payload, expiresIn, expires, 0, 0);
+	}
+
+	/**
+	 * @param keyHash hash of the key, only kept in the header
+	 * @return the handle of the new entry, {@link EntryTable#NONE} if the buffer is full
+	 */
+	protected long store(byte[] payload, long expiresIn, long expires, int keyHash, int typeId) {
+		final long block = reserveBlock(payload.length);
+		if (block < 0) {
+			return EntryTable.NONE;
+		}
+		arena.put(headers ? block + EntryHeader.SIZE : block, payload);
+		return addEntry(block, payload.length, expiresIn, expires, keyHash, typeId);
+	}
+
+	/**
+	 * stores a payload of known length by handing the writer a stream over the block reserved for it,
+	 * so that it goes off-heap without being copied into an array first
+	 * @return the handle of the new entry, {@link EntryTable#NONE} if the buffer is full
+	 * @throws IOException if the writer failed or did not write exactly length bytes, nothing is stored then
+	 */
+	public long store(int length, Writer writer, long expiresIn, int keyHash, int typeId) throws IOException {
+		final long block = reserveBlock(length);
+		if (block < 0) {
+			return EntryTable.NONE;
+		}
+		boolean written = false;
 		try {
-			buf.put(payload);
-		} catch (BufferOverflowException e) {
-			// RpG not convincing - let's fix it later
-			goodOne.start = fresh.start;
-			goodOne.end = buffer.limit();
-			return null;
+			final ArenaOutputStream out = new ArenaOutputStream(arena, headers ? block + EntryHeader.SIZE : block, length);
+			writer.writeTo(out);
+			if (out.remaining() > 0) {
+				throw new IOException(Format.it("%d bytes written out of %d", length - out.remaining(), length));
+			}
+			written = true;
+		} finally {
+			if (!written) {
+				releaseBlock(block, length);
+			}
 		}
-		pointers.add(fresh);
-		return fresh;
+		return addEntry(block, length, expiresIn, 0, keyHash, typeId);
 	}
-	
-	private QueryResults select(String whereClause) throws QueryParseException, QueryExecutionException {
-		Query q = new Query ();
-		q.parse ("SELECT * FROM " + Pointer.class.getCanonicalName() + "  WHERE " + whereClause);
-		QueryResults qr = q.execute (pointers);
-		return qr;
+
+	/**
+	 * @return the block for a payload of the given length, -1 if there is no room
+	 */
+	private long reserveBlock(int payloadLength) {
+		final int length = headers ? EntryHeader.blockLength(payloadLength) : payloadLength;
+		final long block = allocate(length);
+		if (block < 0) {
+			return -1;
+		}
+		used.addAndGet(footprint(length));
+		if (closed) {
+			// lost the race with seal(): the block goes back, the buffer may be reopened, or is retired
+			// after the readers, the arena is still there
+			freeBlock(block, blockSize(length));
+			release(block, length);
+			used.addAndGet(-footprint(length));
+			return -1;
+		}
+		return block;
 	}
-	
-	private QueryResults selectOrderBy(String whereClause, String orderBy, String limit) throws QueryParseException, QueryExecutionException {
-		Query q = new Query ();
-		q.parse ("SELECT * FROM " + Pointer.class.getCanonicalName() + "  WHERE " + whereClause + " order by " + orderBy + " " + limit);
-		QueryResults qr = q.execute (pointers);
-		return qr;
+
+	private void releaseBlock(long block, int payloadLength) {
+		final int length = headers ? EntryHeader.blockLength(payloadLength) : payloadLength;
+		if (!forget(block)) {
+			freeBlock(block, blockSize(length));
+			release(block, length);
+		}
+		used.addAndGet(-footprint(length));
 	}
-	
-	public long collectLFU(int limit) {
-		if (limit<=0) limit = pointers.size()/10;
-		QueryResults qr;
-		try {
-			qr = selectOrderBy("free=false", "frequency", "limit 1, " + limit);
-			@SuppressWarnings("unchecked")
-			List<Pointer> result = qr.getResults();
-			return free(result);
-		} catch (QueryParseException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
-		} catch (QueryExecutionException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
+
+	/**
+	 * @return true if the block was one of the restored ones the allocator does not know of yet, left free on rebuild
+	 */
+	private boolean forget(long block) {
+		if (restoring == null) {
+			return false;
 		}
+		synchronized (this) {
+			final TreeMap<Long, Long> blocks = restoring;
+			return blocks != null && blocks.remove(block) != null;
+		}
+	}
+
+	private long addEntry(long block, int payloadLength, long expiresIn, long expires, int keyHash, int typeId) {
+		final long offset = headers ? block + EntryHeader.SIZE : block;
+		final long handle = table.add(bufferNumber, offset, payloadLength, expiresIn, expires);
+		entries.incrementAndGet();
+		table.setTypeId(handle, typeId);
+		table.setKeyHash(handle, keyHash);
+		expiring.schedule(handle, table.expires(handle));
+		if (headers) {
+			final int length = EntryHeader.blockLength(payloadLength);
+			EntryHeader.write(arena, block, blockSize(length), expiresIn > 0 ? EntryHeader.RELATIVE : 0,
+					payloadLength, keyHash, table.expires(handle), typeId, EntryTable.row(handle));
+		}
+		return handle;
+	}
+
+	/**
+	 * hands back memory reserved by threads which are not allocating anymore, if the allocator does any reservation
+	 * @return the number of bytes handed back
+	 */
+	public long reclaimIdleRegions() {
 		return 0;
-	} 
-	
-	
-	
-	@SuppressWarnings("unchecked")
-	private List<Pointer> filter(final String whereClause) {
+	}
+
+	/**
+	 * @return handles of the live entries stored in this buffer, found in the rows of the table
+	 */
+	public long[] handles() {
+		final int slots = table.slots();
+		long[] handles = new long[Math.max(entries(), 16)];
+		int count = 0;
+		for (int row = 0; row < slots; row++) {
+			final long handle = handleAt(row);
+			if (handle != EntryTable.NONE) {
+				if (count == handles.length) {
+					handles = Arrays.copyOf(handles, count * 2);
+				}
+				handles[count++] = handle;
+			}
+		}
+		return count == handles.length ? handles : Arrays.copyOf(handles, count);
+	}
+
+	/**
+	 * slides live entries towards the start of the arena, lowest first, to merge the free space
+	 * in large blocks. Entries pinned by readers stay where they are, readers pinning an entry
+	 * being moved wait for the move to be over.
+	 * @return the number of bytes moved
+	 */
+	public long compact() {
+		if (!relocates()) {
+			return 0;
+		}
+		synchronized (compaction) {
+			final long[] handles = handles();
+			final long[] offsets = new long[handles.length];
+			for (int i = 0; i < handles.length; i++) {
+				offsets[i] = table.offset(handles[i]);
+			}
+			// handles in address order, moving the lowest entries first leaves room for the next ones.
+			// Live entries do not share offsets, the rank of an offset among the sorted ones is the place of its handle
+			final long[] sorted = offsets.clone();
+			Arrays.sort(sorted);
+			final long[] order = new long[handles.length];
+			for (int i = 0; i < handles.length; i++) {
+				order[Arrays.binarySearch(sorted, offsets[i])] = handles[i];
+			}
+			long moved = 0;
+			for (long handle : order) {
+				// NONE where an entry freed meanwhile shared its offset with a new one
+				if (handle != EntryTable.NONE) {
+					moved += move(handle);
+				}
+			}
+			if (moved > 0) {
+				logger.debug(Format.it("buffer %d: compacted %s, fragmentation now %.2f", bufferNumber, Ram.inKb(moved), fragmentation()));
+			}
+			return moved;
+		}
+	}
+
+	private long move(long handle) {
+		if (!table.tryLock(handle)) {
+			return 0;
+		}
+		final long from;
+		final int length;
 		try {
-			return select(whereClause).getResults();
-		} catch (QueryParseException e) {
-			e.printStackTrace();
-		} catch (QueryExecutionException e) {
-			e.printStackTrace();
+			if (!table.isLive(handle) || table.pins(handle) > 0) {
+				return 0;
+			}
+			final long offset = table.offset(handle);
+			length = headers ? EntryHeader.blockLength(table.length(handle)) : table.length(handle);
+			from = headers ? offset - EntryHeader.SIZE : offset;
+			final long to = allocateBelow(length, from);
+			if (to < 0) {
+				return 0;
+			}
+			// a free block below the entry, the two do not overlap
+			arena.copy(from, to, length);
+			if (headers) {
+				EntryHeader.writeBlockLength(arena, to, blockSize(length));
+			}
+			table.relocate(handle, to + offset - from);
+		} finally {
+			table.unlock(handle);
 		}
-		return (List<Pointer>) new ArrayList<Pointer>();
+		// readers of the old location see the new version and start over
+		freeBlock(from, blockSize(length));
+		release(from, length);
+		return length;
 	}
-	
-	private long free(List<Pointer> pointers) {
+
+	/**
+	 * evicts entries chosen by the {@link EvictionPolicy} of the buffer. With {@link EvictionPolicy#LFU},
+	 * the default, each victim is the coldest of {@link #EVICTION_SAMPLES} entries sampled at random,
+	 * so that an eviction costs the same whatever the number of entries
+	 * @param limit how many entries to evict, a tenth of them if not positive
+	 * @return the number of bytes freed
+	 */
+	public long collectLFU(int limit) {
+		if (limit <= 0) {
+			limit = entries() / 10;
+		}
+		final Random random = new Random();
+		long howMuch = 0;
+		for (int i = 0; i < limit; i++) {
+			final long victim = victim(random);
+			if (victim == EntryTable.NONE) {
+				break;
+			}
+			howMuch += evict(victim);
+		}
+		return howMuch;
+	}
+
+	/**
+	 * evicts victims until a payload of the given length would fit, or the limit is reached. Only entries whose
+	 * block can make room for the payload are evicted, none if the allocator cannot reuse what they free
+	 * @return the number of bytes freed
+	 */
+	public long makeRoom(int length, int limit, Random random) {
+		final int needed = headers ? EntryHeader.blockLength(length) : length;
 		long howMuch = 0;
-		for (Pointer expired : pointers) {
-			howMuch += free(expired);
+		for (int i = 0; i < limit && !fits(needed); i++) {
+			final long victim = victim(random, length);
+			if (victim == EntryTable.NONE) {
+				break;
+			}
+			howMuch += evict(victim);
 		}
 		return howMuch;
 	}
-	
+
+	/**
+	 * @return the next entry to evict according to the {@link EvictionPolicy} of the buffer,
+	 * {@link EntryTable#NONE} if none was found
+	 */
+	public long victim(Random random) {
+		return victim(random, 0);
+	}
+
+	/**
+	 * @param length of the payload to make room for, 0 if any victim will do
+	 * @return the next entry to evict according to the {@link EvictionPolicy} of the buffer among those that
+	 * {@link #makesRoom(long, int) make room} for the payload, {@link EntryTable#NONE} if none was found
+	 */
+	public long victim(Random random, int length) {
+		if (eviction == EvictionPolicy.LFU) {
+			return lfuVictim(random, length);
+		}
+		for (int i = 0; i < EVICTION_SAMPLES; i++) {
+			final long victim = clockVictim();
+			if (victim == EntryTable.NONE || length == 0 || makesRoom(victim, length)) {
+				return victim;
+			}
+		}
+		return EntryTable.NONE;
+	}
+
+	/**
+	 * @return whether freeing the entry can help a payload of the given length fit in this buffer
+	 */
+	public boolean makesRoom(long handle, int length) {
+		final long offset = table.offset(handle);
+		final int entryLength = table.length(handle);
+		if (headers) {
+			return makesRoom(offset - EntryHeader.SIZE, EntryHeader.blockLength(entryLength), EntryHeader.blockLength(length));
+		}
+		return makesRoom(offset, entryLength, length);
+	}
+
+	/**
+	 * moves the hand over the entries of the buffer, giving a second chance to the referenced ones
+	 * @return the first entry found without its reference bit, or {@link EntryTable#NONE} if the buffer is empty
+	 */
+	private long clockVictim() {
+		final int slots = table.slots();
+		// twice around: the first turn may only clear reference bits
+		for (int step = 0; step < 2 * slots && entries() > 0; step++) {
+			int current;
+			int row;
+			do {
+				current = hand.get();
+				row = current % slots;
+			} while (!hand.compareAndSet(current, (row + 1) % slots));
+			// freed while pinned and not released yet, or in another buffer
+			final long handle = handleAt(row);
+			if (handle == EntryTable.NONE) {
+				continue;
+			}
+			if (!table.clearReference(handle)) {
+				return handle;
+			}
+		}
+		return EntryTable.NONE;
+	}
+
+	/**
+	 * @return the least frequently used of a few entries of this buffer sampled at random, the least
+	 * recently used among equals, or {@link EntryTable#NONE} if none was found
+	 */
+	private long lfuVictim(Random random, int length) {
+		final long[] samples = new long[EVICTION_SAMPLES];
+		int sampled = 0;
+		final int slots = table.slots();
+		final int live = entries();
+		if (live > 0 && slots > 0) {
+			// rows are sampled straight from the table, shared with the other buffers of the pool: a few probes
+			// more than samples for each row of this buffer among the others, never more than the rows of the table
+			final long probes = Math.min(EVICTION_SAMPLES * 4L * ((slots + live - 1) / live), Math.max(slots, EVICTION_SAMPLES * 4L));
+			for (long probe = 0; probe < probes && sampled < EVICTION_SAMPLES; probe++) {
+				final long handle = handleAt(random.nextInt(slots));
+				if (handle != EntryTable.NONE) {
+					samples[sampled++] = handle;
+				}
+			}
+		}
+		final long now = System.currentTimeMillis();
+		long victim = EntryTable.NONE;
+		int coldest = 0;
+		long oldest = 0;
+		for (int i = 0; i < sampled; i++) {
+			final long handle = samples[i];
+			final int frequency = table.frequency(handle, now);
+			final long lastHit = table.lastHit(handle);
+			if ((victim == EntryTable.NONE || frequency < coldest || frequency == coldest && lastHit < oldest)
+					&& (length == 0 || makesRoom(handle, length))) {
+				victim = handle;
+				coldest = frequency;
+				oldest = lastHit;
+			}
+		}
+		return victim;
+	}
+
+	private long disposeExpired(boolean relative) {
+		final long now = System.currentTimeMillis();
+		long disposed = 0;
+		for (long handle : handles()) {
+			if (table.hasFlag(handle, EntryTable.FLAG_RELATIVE) == relative && table.expired(handle, now)) {
+				disposed += evict(handle);
+			}
+		}
+		return disposed;
+	}
+
 	public void disposeExpiredRelative() {
-		free(filter("free=false and expiresIn > 0 and (expiresIn+created) <= " + System.currentTimeMillis()));
+		disposeExpired(true);
 	}
-	
+
 	public void disposeExpiredAbsolute() {
-		free(filter("free=false and expires > 0 and (expires) <= " + System.currentTimeMillis()));
+		disposeExpired(false);
 	}
-	
+
+	/**
+	 * frees the entries whose expiration date has come, draining the due buckets of the timing wheel
+	 * @return the number of bytes freed
+	 */
 	public long collectExpired() {
-		int limit = 50;
-		long disposed = free(filter("free=false and expiresIn > 0 and (expiresIn+created) <= " + System.currentTimeMillis() + " limit 1, " + limit));
-		disposed += free(filter("free=false and expires > 0 and (expires) <= " + System.currentTimeMillis() + " limit 1, 100" + limit));
-		return disposed;
+		return collectExpired(Integer.MAX_VALUE);
+	}
+
+	/**
+	 * frees the entries whose expiration date has come, a slice of them at a time
+	 * @param limit of the entries drained from the timing wheel, the others are left {@link #overdue()}
+	 * @return the number of bytes freed
+	 */
+	public long collectExpired(int limit) {
+		final long[] disposed = new long[1];
+		expiring.advance(System.currentTimeMillis(), new TimingWheel.Sink() {
+			public void expired(long handle) {
+				disposed[0] += evict(handle);
+			}
+		}, limit);
+		return disposed[0];
+	}
+
+	/**
+	 * @return the number of entries waiting in the timing wheel, freed ones included until their bucket is drained
+	 */
+	public int expiring() {
+		return expiring.size();
 	}
-	
+
+	/**
+	 * @return the number of entries due, and left for the next {@link #collectExpired(int)}
+	 */
+	public int overdue() {
+		return expiring.overdue();
+	}
+
 	public static long crc32(byte[] payload) {
 		final Checksum checksum = new CRC32();
 		checksum.update(payload,0,payload.length);
 		return checksum.getValue();
 	}
 
-	public Pointer update(Pointer pointer, byte[] payload) {
-		free(pointer);
+	public long update(long handle, byte[] payload) {
+		free(handle);
 		return store(payload);
 	}
-	
+
 }
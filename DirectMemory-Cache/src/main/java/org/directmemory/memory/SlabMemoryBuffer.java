@@ -0,0 +1,370 @@
+package org.directmemory.memory;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+import org.directmemory.measures.Ram;
+import org.directmemory.misc.Format;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Segregated fit allocator: the buffer is split in pages, every page is dedicated
+ * to a single size class and every size class keeps its own list of pages with free slots,
+ * so that both store and free take constant time regardless of the number of entries.
+ * Payloads larger than a page take a run of contiguous pages.
+ * A page whose last slot is freed goes back to the free pages, where it merges with
+ * its free neighbours and can be given to any size class or run.
+ * Entries are accounted by the size of their slot, rounding included.
+ */
+public class SlabMemoryBuffer extends OffHeapMemoryBuffer {
+	private static Logger logger = LoggerFactory.getLogger(SlabMemoryBuffer.class);
+
+	public static int DEFAULT_PAGE_SIZE = (int)Ram.Mb(1);
+	public static int MIN_SLOT_SIZE = 16;
+	public static double GROWTH_FACTOR = 1.25;
+
+	private static final int FREE = -1;
+
+	private final int pageSize;
+	private final int numberOfPages;
+	private final int[] slotSizes;
+	private final SizeClass[] classes;
+	// free runs of pages, by first page, values are numbers of pages
+	private final TreeMap<Integer, Integer> freeRuns = new TreeMap<Integer, Integer>();
+	// per page: size class, or FREE if the page is not dedicated to one
+	private final int[] owner;
+	// per page: slots in use, slots handed out at least once, freed slots
+	private final int[] live;
+	private final int[] carved;
+	private final IntStack[] freeSlots;
+	// per page: links of the list of pages of a size class having a free slot
+	private final int[] next;
+	private final int[] previous;
+
+	protected SlabMemoryBuffer(Arena arena, int bufferNumber, EntryTable table) {
+		this(arena, bufferNumber, table, DEFAULT_PAGE_SIZE);
+	}
+
+	protected SlabMemoryBuffer(Arena arena, int bufferNumber, EntryTable table, int pageSize) {
+		super(arena, bufferNumber, table);
+		this.pageSize = (int)Math.min(pageSize, arena.capacity());
+		this.numberOfPages = (int)(arena.capacity() / this.pageSize);
+		this.slotSizes = slotSizes(this.pageSize);
+		this.classes = new SizeClass[slotSizes.length];
+		for (int i = 0; i < slotSizes.length; i++) {
+			classes[i] = new SizeClass(slotSizes[i], this.pageSize / slotSizes[i]);
+		}
+		owner = new int[numberOfPages];
+		live = new int[numberOfPages];
+		carved = new int[numberOfPages];
+		freeSlots = new IntStack[numberOfPages];
+		next = new int[numberOfPages];
+		previous = new int[numberOfPages];
+		logger.debug(Format.it("buffer %d: %d pages of %s, %d size classes", bufferNumber, numberOfPages, Ram.inKb(this.pageSize), slotSizes.length));
+	}
+
+	static int[] slotSizes(int pageSize) {
+		int[] sizes = new int[64];
+		int count = 0;
+		int size = MIN_SLOT_SIZE;
+		while (size < pageSize) {
+			if (count == sizes.length) {
+				sizes = Arrays.copyOf(sizes, count * 2);
+			}
+			sizes[count++] = size;
+			size = Math.max(size + 8, ((int)(size * GROWTH_FACTOR) + 7) & ~7);
+		}
+		sizes = Arrays.copyOf(sizes, count + 1);
+		sizes[count] = pageSize;
+		return sizes;
+	}
+
+	private int classFor(int length) {
+		int index = Arrays.binarySearch(slotSizes, length);
+		return index >= 0 ? index : -index - 1;
+	}
+
+	private int pagesFor(int length) {
+		return (length + pageSize - 1) / pageSize;
+	}
+
+	@Override
+	protected long blockSize(int length) {
+		return length > pageSize ? (long)pagesFor(length) * pageSize : slotSizes[classFor(length)];
+	}
+
+	@Override
+	protected long footprint(int length) {
+		return blockSize(length);
+	}
+
+	/**
+	 * a slot fits if its size class has a page with a free slot or there is a free page, a run if there are enough
+	 * contiguous free pages
+	 */
+	@Override
+	protected synchronized boolean fits(int length) {
+		if (length > pageSize) {
+			return largestFreeBlock() >= blockSize(length);
+		}
+		return classes[classFor(length)].partial != FREE || !freeRuns.isEmpty();
+	}
+
+	/**
+	 * a slot makes room for payloads of its own size class; for the others it only helps if its page is left empty,
+	 * and for runs if the pages freed with their free neighbours are enough
+	 */
+	@Override
+	protected synchronized boolean makesRoom(long block, int blockLength, int length) {
+		final int first = (int)(block / pageSize);
+		if (first >= numberOfPages) {
+			return false;
+		}
+		final int pages = blockLength > pageSize ? pagesFor(blockLength) : 1;
+		if (blockLength <= pageSize) {
+			if (owner[first] == FREE) {
+				// freed in the meantime
+				return false;
+			}
+			if (length <= pageSize && owner[first] == classFor(length)) {
+				return true;
+			}
+			if (live[first] > 1) {
+				return false;
+			}
+		}
+		return length <= pageSize || freeAround(first, pages) >= pagesFor(length);
+	}
+
+	/**
+	 * @return the length of the run of free pages the given pages would be part of once freed
+	 */
+	private int freeAround(int first, int howMany) {
+		int pages = howMany;
+		final Map.Entry<Integer, Integer> before = freeRuns.lowerEntry(first);
+		if (before != null && before.getKey() + before.getValue() == first) {
+			pages += before.getValue();
+		}
+		final Integer after = freeRuns.get(first + howMany);
+		return after == null ? pages : pages + after;
+	}
+
+	@Override
+	protected long walkLimit() {
+		return (long)numberOfPages * pageSize;
+	}
+
+	@Override
+	protected synchronized long allocate(int length) {
+		if (length > pageSize) {
+			final int first = allocatePages(pagesFor(length));
+			return first < 0 ? -1 : (long)first * pageSize;
+		}
+		final int index = classFor(length);
+		final SizeClass sizeClass = classes[index];
+		int page = sizeClass.partial;
+		if (page == FREE) {
+			page = allocatePages(1);
+			if (page < 0) {
+				return -1;
+			}
+			owner[page] = index;
+			live[page] = 0;
+			carved[page] = 0;
+			link(sizeClass, page);
+		}
+		final long start = (long)page * pageSize;
+		final int slot;
+		final IntStack free = freeSlots[page];
+		if (free != null && free.size > 0) {
+			slot = free.pop();
+		} else {
+			slot = carved[page]++;
+			final long cursor = start + (long)carved[page] * sizeClass.slotSize;
+			freeBlock(cursor, start + pageSize - cursor);
+		}
+		if (++live[page] == sizeClass.slotsPerPage) {
+			unlink(sizeClass, page);
+		}
+		return start + (long)slot * sizeClass.slotSize;
+	}
+
+	/**
+	 * slots of a size class are interchangeable, moving entries between them gains nothing
+	 */
+	@Override
+	protected long allocateBelow(int length, long limit) {
+		return -1;
+	}
+
+	@Override
+	protected boolean relocates() {
+		return false;
+	}
+
+	/**
+	 * pages are dedicated to size classes on the fly, a given slot cannot be taken back
+	 */
+	@Override
+	protected boolean reserve(long offset, int length) {
+		return false;
+	}
+
+	/**
+	 * no entry is taken back, the pages are carved again from scratch
+	 */
+	@Override
+	protected void rebuild(NavigableMap<Long, Long> blocks) {
+		reset();
+	}
+
+	/**
+	 * @return the first of howMany free contiguous pages, the lowest run they fit in, -1 if there is none
+	 */
+	private int allocatePages(int howMany) {
+		for (Map.Entry<Integer, Integer> run : freeRuns.entrySet()) {
+			if (run.getValue() >= howMany) {
+				final int first = run.getKey();
+				final int left = run.getValue() - howMany;
+				freeRuns.remove(first);
+				if (left > 0) {
+					freeRuns.put(first + howMany, left);
+					freeBlock((long)(first + howMany) * pageSize, (long)left * pageSize);
+				}
+				return first;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * gives pages back, merged with the free runs right before and after them
+	 */
+	private void releasePages(int first, int howMany) {
+		int start = first;
+		int end = first + howMany;
+		final Map.Entry<Integer, Integer> before = freeRuns.lowerEntry(first);
+		if (before != null && before.getKey() + before.getValue() == start) {
+			start = before.getKey();
+			freeRuns.remove(start);
+		}
+		final Integer after = freeRuns.remove(end);
+		if (after != null) {
+			end += after;
+		}
+		freeRuns.put(start, end - start);
+		freeBlock((long)start * pageSize, (long)(end - start) * pageSize);
+	}
+
+	@Override
+	protected synchronized void release(long offset, int length) {
+		if (length > pageSize) {
+			releasePages((int)(offset / pageSize), pagesFor(length));
+			return;
+		}
+		final int page = (int)(offset / pageSize);
+		final SizeClass sizeClass = classes[owner[page]];
+		if (live[page]-- == sizeClass.slotsPerPage) {
+			link(sizeClass, page);
+		}
+		if (live[page] == 0) {
+			// empty, the page is free for any size class again
+			unlink(sizeClass, page);
+			owner[page] = FREE;
+			freeSlots[page] = null;
+			releasePages(page, 1);
+			return;
+		}
+		IntStack free = freeSlots[page];
+		if (free == null) {
+			free = new IntStack();
+			freeSlots[page] = free;
+		}
+		free.push((int)((offset - (long)page * pageSize) / sizeClass.slotSize));
+	}
+
+	private void link(SizeClass sizeClass, int page) {
+		previous[page] = FREE;
+		next[page] = sizeClass.partial;
+		if (sizeClass.partial != FREE) {
+			previous[sizeClass.partial] = page;
+		}
+		sizeClass.partial = page;
+	}
+
+	private void unlink(SizeClass sizeClass, int page) {
+		if (previous[page] == FREE) {
+			sizeClass.partial = next[page];
+		} else {
+			next[previous[page]] = next[page];
+		}
+		if (next[page] != FREE) {
+			previous[next[page]] = previous[page];
+		}
+	}
+
+	@Override
+	public synchronized long largestFreeBlock() {
+		long largest = 0;
+		for (int pages : freeRuns.values()) {
+			largest = Math.max(largest, (long)pages * pageSize);
+		}
+		return largest;
+	}
+
+	/**
+	 * @return the number of pages not dedicated to a size class nor taken by a run
+	 */
+	public synchronized int freePages() {
+		int free = 0;
+		for (int pages : freeRuns.values()) {
+			free += pages;
+		}
+		return free;
+	}
+
+	@Override
+	protected synchronized void reset() {
+		for (SizeClass sizeClass : classes) {
+			sizeClass.partial = FREE;
+		}
+		Arrays.fill(owner, FREE);
+		Arrays.fill(freeSlots, null);
+		freeRuns.clear();
+		if (numberOfPages > 0) {
+			freeRuns.put(0, numberOfPages);
+		}
+		freeBlock(0, arena.capacity());
+	}
+
+	static class SizeClass {
+		final int slotSize;
+		final int slotsPerPage;
+		// first page of the list of pages having a free slot
+		int partial = FREE;
+
+		SizeClass(int slotSize, int slotsPerPage) {
+			this.slotSize = slotSize;
+			this.slotsPerPage = slotsPerPage;
+		}
+	}
+
+	static class IntStack {
+		int[] items = new int[16];
+		int size;
+
+		void push(int value) {
+			if (size == items.length) {
+				items = Arrays.copyOf(items, size * 2);
+			}
+			items[size++] = value;
+		}
+
+		int pop() {
+			return items[--size];
+		}
+	}
+}
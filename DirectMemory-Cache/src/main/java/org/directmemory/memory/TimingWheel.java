@@ -0,0 +1,204 @@
+package org.directmemory.memory;
+
+import java.util.Arrays;
+
+/**
+ * Hierarchical timing wheel of the entries of a buffer which expire: five wheels of 64 buckets,
+ * the buckets of the first one spanning 16 milliseconds and those of each next one as much as
+ * a whole turn of the previous one, about six months for the last. An entry goes to the bucket of its
+ * expiration date in the finest wheel able to tell it apart from now.
+ * {@link #advance(long, Sink)} drains the buckets of the finest wheel the clock went past, handing over
+ * the entries that are due, and the buckets of the other wheels as soon as the clock enters them, putting
+ * their entries back in a finer wheel: entries are handed over at most one bucket of the finest wheel late,
+ * and the work done is about the number of entries expiring rather than the number of entries stored.
+ * {@link #advance(long, Sink, int)} hands over a limited number of entries, those left are overdue and go first next time.
+ * Entries are not taken out of the wheel when freed: their handle is stale once drained and skipped then,
+ * and purged when a bucket is about to grow, so that a bucket never holds many more stale handles than live ones.
+ */
+public class TimingWheel {
+	private static final int BUCKETS = 64;
+	private static final int[] SHIFTS = {4, 10, 16, 22, 28};
+
+	public interface Sink {
+		/**
+		 * @param handle of an entry whose expiration date has come, if it is still live
+		 */
+		void expired(long handle);
+	}
+
+	private static class Bucket {
+		long[] handles;
+		int size;
+
+		/**
+		 * @return the number of stale handles purged to make room
+		 */
+		int add(long handle, EntryTable table) {
+			int purged = 0;
+			if (handles == null) {
+				handles = new long[8];
+			} else if (size == handles.length) {
+				purged = purge(table);
+				// grows only if at least half of the handles are live
+				if (size > handles.length / 2) {
+					handles = Arrays.copyOf(handles, handles.length * 2);
+				}
+			}
+			handles[size++] = handle;
+			return purged;
+		}
+
+		private int purge(EntryTable table) {
+			int live = 0;
+			for (int i = 0; i < size; i++) {
+				if (table.isLive(handles[i])) {
+					handles[live++] = handles[i];
+				}
+			}
+			final int purged = size - live;
+			size = live;
+			return purged;
+		}
+	}
+
+	private final EntryTable table;
+	private final Bucket[][] wheels = new Bucket[SHIFTS.length][BUCKETS];
+	private long time;
+	private int size;
+	// drained from their buckets and not handed over yet, the last ones go first
+	private long[] overdue = new long[16];
+	private int overdueCount;
+
+	public TimingWheel(EntryTable table, long now) {
+		this.table = table;
+		this.time = now;
+		for (Bucket[] wheel : wheels) {
+			for (int i = 0; i < BUCKETS; i++) {
+				wheel[i] = new Bucket();
+			}
+		}
+	}
+
+	/**
+	 * @param expires expiration date of the entry, nothing is scheduled if it is 0
+	 */
+	public synchronized void schedule(long handle, long expires) {
+		if (expires <= 0) {
+			return;
+		}
+		// already due, drained with the current bucket
+		final long at = Math.max(expires, time);
+		final long delay = at - time;
+		int level = 0;
+		while (level < SHIFTS.length - 1 && delay >= 1L << SHIFTS[level + 1]) {
+			level++;
+		}
+		size += 1 - wheels[level][(int)((at >>> SHIFTS[level]) & (BUCKETS - 1))].add(handle, table);
+	}
+
+	/**
+	 * moves the clock to now, handing the live entries which are due over to the sink
+	 * @return the number of entries handed over
+	 */
+	public long advance(long now, Sink sink) {
+		return advance(now, sink, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * moves the clock to now, handing over the live entries which are due, at most limit of them
+	 * @param limit of the handles looked at, freed ones included: the due entries beyond it are
+	 * {@link #overdue()} and handed over first by the next call, whether the clock moved or not
+	 * @return the number of entries handed over
+	 */
+	public long advance(long now, Sink sink, int limit) {
+		final long[] drained;
+		synchronized (this) {
+			if (now > time) {
+				drain(now);
+			}
+			final int count = Math.min(overdueCount, limit);
+			if (count == 0) {
+				return 0;
+			}
+			drained = Arrays.copyOfRange(overdue, overdueCount - count, overdueCount);
+			overdueCount -= count;
+			if (overdueCount == 0 && overdue.length > 1024) {
+				// a mass expiry is over
+				overdue = new long[16];
+			}
+			size -= count;
+		}
+		long expired = 0;
+		for (long handle : drained) {
+			if (!table.isLive(handle)) {
+				continue;
+			}
+			final long expires = table.expires(handle);
+			if (expires > 0 && expires <= now) {
+				sink.expired(handle);
+				expired++;
+			} else {
+				schedule(handle, expires);
+			}
+		}
+		return expired;
+	}
+
+	/**
+	 * empties the buckets the clock goes past into the overdue entries
+	 */
+	private void drain(long now) {
+		final long previous = time;
+		time = now;
+		for (int level = 0; level < SHIFTS.length; level++) {
+			final long previousTicks = previous >>> SHIFTS[level];
+			final long currentTicks = now >>> SHIFTS[level];
+			if (currentTicks <= previousTicks) {
+				break;
+			}
+			final long turns = Math.min(currentTicks - previousTicks, BUCKETS);
+			// the finest wheel is drained past its buckets, the other ones cascade on entering theirs
+			final long first = level == 0 ? previousTicks : previousTicks + 1;
+			for (long tick = first; tick < first + turns; tick++) {
+				final Bucket bucket = wheels[level][(int)(tick & (BUCKETS - 1))];
+				if (bucket.size == 0) {
+					continue;
+				}
+				if (overdueCount + bucket.size > overdue.length) {
+					overdue = Arrays.copyOf(overdue, Math.max(overdue.length * 2, overdueCount + bucket.size));
+				}
+				System.arraycopy(bucket.handles, 0, overdue, overdueCount, bucket.size);
+				overdueCount += bucket.size;
+				bucket.handles = null;
+				bucket.size = 0;
+			}
+		}
+	}
+
+	/**
+	 * @return the number of entries due and not handed over yet, freed ones included
+	 */
+	public synchronized int overdue() {
+		return overdueCount;
+	}
+
+	/**
+	 * @return the number of entries scheduled, freed ones included until they are drained or purged
+	 */
+	public synchronized int size() {
+		return size;
+	}
+
+	public synchronized void clear(long now) {
+		for (Bucket[] wheel : wheels) {
+			for (Bucket bucket : wheel) {
+				bucket.handles = null;
+				bucket.size = 0;
+			}
+		}
+		overdue = new long[16];
+		overdueCount = 0;
+		size = 0;
+		time = now;
+	}
+}
@@ -0,0 +1,27 @@
+package org.directmemory.misc;
+
+import java.lang.reflect.Field;
+
+import sun.misc.Unsafe;
+
+/**
+ * Hands out the {@link Unsafe} instance used to read and write off-heap structures
+ * (metadata tables, indexes) with volatile and compare-and-swap semantics.
+ */
+public class UnsafeAccess {
+	public static final Unsafe unsafe;
+
+	static {
+		try {
+			Field field = Unsafe.class.getDeclaredField("theUnsafe");
+			field.setAccessible(true);
+			unsafe = (Unsafe)field.get(null);
+		} catch (Exception e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
+	private UnsafeAccess() {
+		// static class
+	}
+}
@@ -13,7 +13,7 @@ import com.dyuproject.protostuff.runtime.RuntimeSchema;
 public final class DummyPojoSerializer implements Serializer
 	{
 	    
-    	final DummyPojo pojo = new DummyPojo("test", Ram.Kb(2));
+    	final DummyPojo pojo = new DummyPojo("test", (int)Ram.Kb(2));
 	    final byte[] data;
 	    
 	    public DummyPojoSerializer()
@@ -0,0 +1,163 @@
+package org.directmemory.serialization;
+
+import java.util.Arrays;
+
+/**
+ * Growable buffer a {@link KeySerializer} writes the encoded key into, meant to be reused by every call of a thread
+ * so that encoding a key allocates nothing once the buffer has grown to the longest key.
+ */
+public class KeyBuffer {
+	private byte[] bytes;
+	private int length;
+
+	public KeyBuffer() {
+		this(64);
+	}
+
+	public KeyBuffer(int capacity) {
+		bytes = new byte[capacity];
+	}
+
+	public KeyBuffer reset() {
+		length = 0;
+		return this;
+	}
+
+	private void ensure(int more) {
+		if (length + more > bytes.length) {
+			bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + more));
+		}
+	}
+
+	public KeyBuffer put(int b) {
+		ensure(1);
+		bytes[length++] = (byte)b;
+		return this;
+	}
+
+	public KeyBuffer put(byte[] source) {
+		return put(source, 0, source.length);
+	}
+
+	public KeyBuffer put(byte[] source, int offset, int count) {
+		ensure(count);
+		System.arraycopy(source, offset, bytes, length, count);
+		length += count;
+		return this;
+	}
+
+	/**
+	 * big-endian, so that keys compare bytewise as the numbers do once the sign bit is flipped
+	 */
+	public KeyBuffer putLong(long value) {
+		ensure(8);
+		for (int shift = 56; shift >= 0; shift -= 8) {
+			bytes[length++] = (byte)(value >>> shift);
+		}
+		return this;
+	}
+
+	/**
+	 * writes the characters in UTF-8, without building the bytes of the string first
+	 */
+	public KeyBuffer putUtf8(CharSequence chars) {
+		final int count = chars.length();
+		ensure(count * 3);
+		for (int i = 0; i < count; i++) {
+			final char c = chars.charAt(i);
+			if (c < 0x80) {
+				bytes[length++] = (byte)c;
+			} else if (c < 0x800) {
+				bytes[length++] = (byte)(0xC0 | c >> 6);
+				bytes[length++] = (byte)(0x80 | c & 0x3F);
+			} else if (Character.isHighSurrogate(c) && i + 1 < count && Character.isLowSurrogate(chars.charAt(i + 1))) {
+				final int code = Character.toCodePoint(c, chars.charAt(++i));
+				bytes[length++] = (byte)(0xF0 | code >> 18);
+				bytes[length++] = (byte)(0x80 | code >> 12 & 0x3F);
+				bytes[length++] = (byte)(0x80 | code >> 6 & 0x3F);
+				bytes[length++] = (byte)(0x80 | code & 0x3F);
+			} else {
+				bytes[length++] = (byte)(0xE0 | c >> 12);
+				bytes[length++] = (byte)(0x80 | c >> 6 & 0x3F);
+				bytes[length++] = (byte)(0x80 | c & 0x3F);
+			}
+		}
+		return this;
+	}
+
+	/**
+	 * reads back characters written by {@link #putUtf8(CharSequence)}
+	 */
+	public static String utf8(byte[] bytes, int offset, int length) {
+		final StringBuilder chars = new StringBuilder(length);
+		final int end = offset + length;
+		for (int i = offset; i < end; i++) {
+			final int b = bytes[i] & 0xFF;
+			if (b < 0x80) {
+				chars.append((char)b);
+			} else if (b < 0xE0) {
+				chars.append((char)((b & 0x1F) << 6 | bytes[++i] & 0x3F));
+			} else if (b < 0xF0) {
+				chars.append((char)((b & 0x0F) << 12 | (bytes[++i] & 0x3F) << 6 | bytes[++i] & 0x3F));
+			} else {
+				chars.appendCodePoint((b & 0x07) << 18 | (bytes[++i] & 0x3F) << 12 | (bytes[++i] & 0x3F) << 6 | bytes[++i] & 0x3F);
+			}
+		}
+		return chars.toString();
+	}
+
+	/**
+	 * ends a component written from the offset on, so that it is delimited and compares bytewise as before:
+	 * every 0 in it is followed by 0xFF, and a 0 closes it
+	 */
+	void terminate(int from) {
+		int zeros = 0;
+		for (int i = from; i < length; i++) {
+			if (bytes[i] == 0) {
+				zeros++;
+			}
+		}
+		ensure(zeros + 1);
+		if (zeros > 0) {
+			int to = length + zeros;
+			for (int i = length - 1; i >= from; i--) {
+				if (bytes[i] == 0) {
+					bytes[--to] = (byte)0xFF;
+				}
+				bytes[--to] = bytes[i];
+			}
+			length += zeros;
+		}
+		bytes[length++] = 0;
+	}
+
+	/**
+	 * the bytes written so far, valid up to {@link #length()}
+	 */
+	public byte[] array() {
+		return bytes;
+	}
+
+	public int length() {
+		return length;
+	}
+
+	public byte[] toByteArray() {
+		return Arrays.copyOf(bytes, length);
+	}
+
+	/**
+	 * @return the hash of the bytes written so far, the one kept in the entry and the index
+	 */
+	public int hash() {
+		return hash(bytes, 0, length);
+	}
+
+	public static int hash(byte[] bytes, int offset, int length) {
+		int hash = 1;
+		for (int i = offset; i < offset + length; i++) {
+			hash = 31 * hash + bytes[i];
+		}
+		return hash;
+	}
+}
@@ -0,0 +1,14 @@
+package org.directmemory.serialization;
+
+/**
+ * Turns a key into bytes: keys are equal for the cache when their bytes are.
+ */
+public interface KeySerializer {
+
+	/**
+	 * writes the key at the end of the buffer
+	 * @throws IllegalArgumentException if the key cannot be encoded
+	 */
+	public abstract void encode(Object key, KeyBuffer out);
+
+}
@@ -1,19 +1,29 @@
 package org.directmemory.serialization;
 
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
 
 import org.directmemory.measures.Ram;
+import org.directmemory.misc.ByteBufferInputStream;
 
 import com.dyuproject.protostuff.LinkedBuffer;
 import com.dyuproject.protostuff.ProtostuffIOUtil;
 import com.dyuproject.protostuff.Schema;
 import com.dyuproject.protostuff.runtime.RuntimeSchema;
 
-public class ProtoStuffSerializerV1 implements Serializer {
+public class ProtoStuffSerializerV1 implements StreamingSerializer {
 	
-	static int serBufferSize = Ram.Kb(3);
+	static int serBufferSize = (int)Ram.Kb(3);
 //	static int serBufferSize = 300;
 	
+	// scratch area of the streaming serialization, reused by every put of the thread
+	private static final ThreadLocal<LinkedBuffer> prepared = new ThreadLocal<LinkedBuffer>() {
+		protected LinkedBuffer initialValue() {
+			return LinkedBuffer.allocate(serBufferSize);
+		}
+	};
+	
 	/* (non-Javadoc)
 	 * @see org.directmemory.utils.Serializer#serialize(java.lang.Object, java.lang.Class)
 	 */
@@ -43,4 +53,30 @@ public class ProtoStuffSerializerV1 implements Serializer {
 		ProtostuffIOUtil.mergeFrom(source, object, schema);
 		return object;
 	}	
+
+	@SuppressWarnings("unchecked")
+	public int prepare(Object obj, @SuppressWarnings("rawtypes") Class clazz) {
+		@SuppressWarnings("rawtypes")
+		final Schema schema = RuntimeSchema.getSchema(clazz);
+		final LinkedBuffer buffer = prepared.get().clear();
+		return ProtostuffIOUtil.writeTo(buffer, obj, schema);
+	}
+
+	public void writeTo(OutputStream out) throws IOException {
+		final LinkedBuffer buffer = prepared.get();
+		try {
+			LinkedBuffer.writeTo(out, buffer);
+		} finally {
+			buffer.clear();
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	public Object deserialize(ByteBuffer source, @SuppressWarnings("rawtypes") Class clazz) throws IOException, ClassNotFoundException, InstantiationException, IllegalAccessException {
+		final Object object = clazz.newInstance();
+		@SuppressWarnings("rawtypes")
+		final Schema schema = RuntimeSchema.getSchema(clazz);
+		ProtostuffIOUtil.mergeFrom(new ByteBufferInputStream(source), object, schema);
+		return object;
+	}
 }
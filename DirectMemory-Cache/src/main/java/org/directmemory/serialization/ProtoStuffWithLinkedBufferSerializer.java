@@ -11,7 +11,7 @@ import com.dyuproject.protostuff.runtime.RuntimeSchema;
 
 public final class ProtoStuffWithLinkedBufferSerializer implements Serializer {
 	
-	static int bufferSize = Ram.Kb(3);
+	static int bufferSize = (int)Ram.Kb(3);
 	
 	
 	/*
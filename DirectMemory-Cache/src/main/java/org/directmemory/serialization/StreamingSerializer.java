@@ -0,0 +1,28 @@
+package org.directmemory.serialization;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Serializer writing to and reading from off-heap memory without going through byte arrays.
+ * Serializing takes two steps since the slot has to be reserved before writing into it:
+ * {@link #prepare(Object, Class)} serializes into a scratch area of the calling thread and tells the size,
+ * {@link #writeTo(OutputStream)} then copies it into the slot.
+ */
+public interface StreamingSerializer extends Serializer {
+
+	/**
+	 * @return the size of the serialized object, to be written by the same thread before it prepares another one
+	 */
+	public abstract int prepare(Object obj, @SuppressWarnings({"rawtypes","unchecked"}) Class clazz) throws IOException;
+
+	/**
+	 * writes out what the calling thread prepared last
+	 */
+	public abstract void writeTo(OutputStream out) throws IOException;
+
+	public abstract Object deserialize(ByteBuffer source, @SuppressWarnings({"rawtypes","unchecked"}) Class clazz) throws IOException,
+			ClassNotFoundException, InstantiationException, IllegalAccessException;
+
+}
@@ -0,0 +1,72 @@
+package org.directmemory.serialization;
+
+import java.util.List;
+
+/**
+ * Encodes byte arrays, strings, integral numbers and tuples of them (arrays or lists), so that composite
+ * keys need not be concatenated into strings.
+ * A tag byte tells the kind of the key; the bytes then sort as the keys do, and the key of a tuple
+ * starts with the key of any of its leading parts, as the key of a string starts with the key of its prefixes,
+ * so that keys can be scanned by prefix. Strings and arrays inside a tuple are closed by a 0, their own 0s escaped.
+ */
+public class TupleKeySerializer implements KeySerializer {
+	public static final byte BYTES = 1;
+	public static final byte STRING = 2;
+	public static final byte INTEGER = 3;
+	public static final byte TUPLE = 4;
+
+	public void encode(Object key, KeyBuffer out) {
+		out.put(tag(key));
+		if (key instanceof Object[]) {
+			for (Object part : (Object[])key) {
+				encodePart(part, out);
+			}
+		} else if (key instanceof List) {
+			for (Object part : (List<?>)key) {
+				encodePart(part, out);
+			}
+		} else {
+			encodeValue(key, out);
+		}
+	}
+
+	private void encodePart(Object part, KeyBuffer out) {
+		final byte tag = tag(part);
+		if (tag == INTEGER) {
+			// fixed length, nothing to close
+			out.put(tag);
+			encodeValue(part, out);
+			return;
+		}
+		final int from = out.length() + 1;
+		encode(part, out);
+		out.terminate(from);
+	}
+
+	private static byte tag(Object key) {
+		if (key instanceof byte[]) {
+			return BYTES;
+		}
+		if (key instanceof CharSequence) {
+			return STRING;
+		}
+		if (key instanceof Long || key instanceof Integer || key instanceof Short || key instanceof Byte) {
+			return INTEGER;
+		}
+		if (key instanceof Object[] || key instanceof List) {
+			return TUPLE;
+		}
+		throw new IllegalArgumentException("no encoding for keys of " + (key == null ? "null" : key.getClass().getName()));
+	}
+
+	private static void encodeValue(Object key, KeyBuffer out) {
+		if (key instanceof byte[]) {
+			out.put((byte[])key);
+		} else if (key instanceof CharSequence) {
+			out.putUtf8((CharSequence)key);
+		} else {
+			// the sign bit flipped, negative numbers sort first
+			out.putLong(((Number)key).longValue() ^ Long.MIN_VALUE);
+		}
+	}
+}
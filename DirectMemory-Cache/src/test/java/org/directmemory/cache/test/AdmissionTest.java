@@ -0,0 +1,154 @@
+package org.directmemory.cache.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.directmemory.cache.Admission;
+import org.directmemory.cache.Cache;
+import org.directmemory.cache.FrequencySketch;
+import org.directmemory.cache.Maintenance;
+import org.directmemory.measures.Ram;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class AdmissionTest {
+	private static Logger logger = LoggerFactory.getLogger(AdmissionTest.class);
+
+	private static final int HOT = 300;
+	private static final byte[] PAYLOAD = new byte[1000];
+
+	private final double highWatermark = Maintenance.highWatermark;
+
+	@Before
+	public void onlyEvictOnStore() {
+		// the maintenance thread evicting meanwhile would make the ratios depend on timing
+		Maintenance.highWatermark = 2;
+	}
+
+	@After
+	public void off() {
+		Maintenance.highWatermark = highWatermark;
+		Admission.enabled = false;
+		Admission.clear();
+	}
+
+	@Test
+	public void sketchCountsAndAges() {
+		final FrequencySketch sketch = new FrequencySketch(1000);
+		for (int i = 0; i < 10; i++) {
+			sketch.increment(42);
+		}
+		sketch.increment(7);
+		assertEquals(10, sketch.frequency(42));
+		assertEquals(1, sketch.frequency(7));
+		assertEquals(0, sketch.frequency(8));
+		for (int i = 0; i < 100; i++) {
+			sketch.increment(42);
+		}
+		assertEquals(FrequencySketch.MAX_FREQUENCY, sketch.frequency(42));
+		sketch.reset();
+		assertEquals(FrequencySketch.MAX_FREQUENCY / 2, sketch.frequency(42));
+		assertEquals(0, sketch.frequency(7));
+	}
+
+	@Test
+	public void concurrentIncrementsSaturate() throws InterruptedException {
+		final FrequencySketch sketch = new FrequencySketch(100000);
+		final Thread[] threads = new Thread[8];
+		for (int t = 0; t < threads.length; t++) {
+			threads[t] = new Thread() {
+				public void run() {
+					for (int i = 0; i < 10000; i++) {
+						sketch.increment(42);
+					}
+				}
+			};
+			threads[t].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		// a counter wrapping around would leave the hottest key looking cold
+		assertEquals(FrequencySketch.MAX_FREQUENCY, sketch.frequency(42));
+		assertEquals(0, sketch.frequency(7));
+	}
+
+	/**
+	 * reads a key through the cache, storing it on a miss
+	 */
+	private static boolean access(String key) {
+		if (Cache.retrieveByteArray(key) != null) {
+			return true;
+		}
+		Cache.putByteArray(key, PAYLOAD);
+		return false;
+	}
+
+	/**
+	 * a cache filled by a scan, then a hot set of keys read among more cold ones
+	 * @return the hit ratio of the hot keys
+	 */
+	private static double hotHitRatio() {
+		Cache.init(1, Ram.Mb(1));
+		for (int i = 0; i < 2000; i++) {
+			access("scan-" + i);
+		}
+		final Random random = new Random(1);
+		int hits = 0;
+		int reads = 0;
+		for (int i = 0; i < 30000; i++) {
+			if (random.nextBoolean()) {
+				access("cold-" + i);
+			} else {
+				if (access("hot-" + random.nextInt(HOT)) && i > 10000) {
+					hits++;
+				}
+				if (i > 10000) {
+					reads++;
+				}
+			}
+		}
+		return (double)hits / reads;
+	}
+
+	@Test
+	public void hotKeysGetInDespiteTheScans() {
+		final double without = hotHitRatio();
+		Cache.clear();
+		Admission.enabled = true;
+		final double with = hotHitRatio();
+		logger.info("hot hit ratio " + without + " without admission, " + with + " with");
+		logger.info(Admission.stats());
+		assertTrue(with > 0.9);
+		// victims are sampled at random, a miss either way is noise
+		assertTrue(with >= without - 0.001);
+	}
+
+	@Test
+	public void scanDoesNotFlushTheHotSet() {
+		Admission.enabled = true;
+		Cache.init(1, Ram.Mb(1));
+		for (int round = 0; round < 5; round++) {
+			for (int i = 0; i < HOT; i++) {
+				access("hot-" + i);
+			}
+		}
+		for (int i = 0; i < 5000; i++) {
+			access("scan-" + i);
+		}
+		int hits = 0;
+		for (int i = 0; i < HOT; i++) {
+			if (Cache.retrieveByteArray("hot-" + i) != null) {
+				hits++;
+			}
+		}
+		logger.info(hits + " hot entries out of " + HOT + " survived the scan");
+		assertTrue(hits > HOT * 9 / 10);
+		assertTrue(Admission.rejected() > 0);
+	}
+}
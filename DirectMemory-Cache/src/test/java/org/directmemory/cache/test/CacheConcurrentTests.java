@@ -6,8 +6,8 @@ import java.util.concurrent.atomic.AtomicInteger;
 import org.directmemory.cache.Cache;
 import org.directmemory.measures.Monitor;
 import org.directmemory.measures.Ram;
+import org.directmemory.memory.EntryTable;
 import org.directmemory.memory.MemoryManager;
-import org.directmemory.memory.Pointer;
 import org.junit.AfterClass;
 import org.junit.BeforeClass;
 import org.junit.Rule;
@@ -67,11 +67,11 @@ public class CacheConcurrentTests {
   	}
 	
 	private void get(String key) {
-  		Pointer p = Cache.getPointer(key);
+  		long p = Cache.getHandle(key);
   		@SuppressWarnings("unused")
 		byte [] check = Cache.retrieveByteArray(key);
 		read.incrementAndGet();
-  		if (p != null) {
+  		if (p != EntryTable.NONE) {
   			got.incrementAndGet();
   			byte [] payload = MemoryManager.retrieve(p);
   	  		if ((new String(payload)).startsWith(key))
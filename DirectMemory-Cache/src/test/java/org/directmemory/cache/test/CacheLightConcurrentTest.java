@@ -7,10 +7,8 @@ import org.directmemory.cache.Cache;
 import org.directmemory.measures.Every;
 import org.directmemory.measures.Monitor;
 import org.directmemory.measures.Ram;
+import org.directmemory.memory.EntryTable;
 import org.directmemory.memory.MemoryManager;
-import org.directmemory.memory.Pointer;
-import org.josql.QueryExecutionException;
-import org.josql.QueryParseException;
 import org.junit.AfterClass;
 import org.junit.BeforeClass;
 import org.junit.Rule;
@@ -71,16 +69,16 @@ public class CacheLightConcurrentTest {
 	
 	@BenchmarkOptions(benchmarkRounds = 1, warmupRounds=0, concurrency=1)
 	@Test
-	public void LFUEviction() throws QueryParseException, QueryExecutionException {
+	public void LFUEviction() {
 		Cache.collectAll();
 	}
 	
 	private void getAndRetrieve(String key) {
-  		Pointer p = Cache.getPointer(key);
+  		long p = Cache.getHandle(key);
   		@SuppressWarnings("unused")
 		byte [] check = Cache.retrieveByteArray(key);
 		read.incrementAndGet();
-  		if (p != null) {
+  		if (p != EntryTable.NONE) {
   			got.incrementAndGet();
   			byte [] payload = MemoryManager.retrieve(p);
   	  		if ((new String(payload)).startsWith(key))
@@ -0,0 +1,56 @@
+package org.directmemory.cache.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.directmemory.cache.BytesIndex;
+import org.directmemory.cache.Cache;
+import org.directmemory.measures.Ram;
+import org.directmemory.memory.EntryTable;
+import org.directmemory.misc.DummyPojo;
+import org.directmemory.serialization.KeyBuffer;
+import org.junit.Test;
+
+public class EncodedKeyTest {
+
+	@Test
+	public void indexComparesBytes() {
+		final BytesIndex index = new BytesIndex(16, 1);
+		final KeyBuffer key = new KeyBuffer();
+		for (int i = 0; i < 10000; i++) {
+			assertEquals(EntryTable.NONE, index.put(key.reset().put(1).putLong(i), i + 1));
+		}
+		// same bytes, another buffer
+		assertEquals(43, index.get(new KeyBuffer().put(1).putLong(42)));
+		assertEquals(EntryTable.NONE, index.get(key.reset().put(2).putLong(42)));
+		assertEquals(EntryTable.NONE, index.get(key.reset().put(1)));
+		assertEquals(43, index.remove(key.reset().put(1).putLong(42)));
+		assertEquals(9999, index.size());
+		assertTrue(index.offHeapBytes() > 9999 * (24 + 4 + 9));
+		index.free();
+	}
+
+	@Test
+	public void compositeKeysWithoutStrings() {
+		Cache.init(1, Ram.Mb(1));
+		for (int tenant = 0; tenant < 10; tenant++) {
+			for (long entity = 0; entity < 100; entity++) {
+				Cache.putKey(new Object[] {"tenant-" + tenant, entity, 1}, new DummyPojo(tenant + "/" + entity, 50));
+			}
+		}
+		assertEquals(1000, Cache.entries());
+		assertEquals("3/42", ((DummyPojo)Cache.getKey(new Object[] {"tenant-3", 42L, 1})).name);
+		// version 2 was never stored
+		assertNull(Cache.getKey(new Object[] {"tenant-3", 42L, 2}));
+		Cache.putKey(new byte[] {1, 2, 3}, new DummyPojo("bytes", 50));
+		assertEquals("bytes", ((DummyPojo)Cache.getKey(new byte[] {1, 2, 3})).name);
+		Cache.putKey(new byte[] {1, 2, 3}, new DummyPojo("again", 50));
+		assertEquals("again", ((DummyPojo)Cache.getKey(new byte[] {1, 2, 3})).name);
+		assertEquals(1001, Cache.entries());
+		Cache.freeKey(new byte[] {1, 2, 3});
+		assertNull(Cache.getKey(new byte[] {1, 2, 3}));
+		assertEquals(EntryTable.NONE, Cache.getKeyHandle(new byte[] {1, 2, 3}));
+		Cache.clear();
+	}
+}
@@ -0,0 +1,96 @@
+package org.directmemory.cache.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.directmemory.cache.Cache;
+import org.directmemory.cache.LongIndex;
+import org.directmemory.measures.Ram;
+import org.directmemory.memory.EntryTable;
+import org.directmemory.misc.DummyPojo;
+import org.junit.Test;
+
+public class LongIndexTest {
+
+	@Test
+	public void behavesLikeAMapWhileGrowing() {
+		final LongIndex index = new LongIndex(16, 2);
+		final Map<Long, Long> reference = new HashMap<Long, Long>();
+		final Random random = new Random(1);
+		for (int i = 0; i < 200000; i++) {
+			// sequential ids as well as spread ones, 0 and negative included
+			final long key = random.nextBoolean() ? random.nextInt(10000) - 10 : random.nextLong() % 10000 << 32;
+			if (random.nextInt(3) == 0) {
+				final Long expected = reference.remove(key);
+				assertEquals(expected == null ? EntryTable.NONE : expected, index.remove(key));
+			} else {
+				final Long expected = reference.put(key, (long)i + 1);
+				assertEquals(expected == null ? EntryTable.NONE : expected, index.put(key, i + 1));
+			}
+		}
+		assertEquals(reference.size(), index.size());
+		for (Map.Entry<Long, Long> entry : reference.entrySet()) {
+			assertEquals((long)entry.getValue(), index.get(entry.getKey()));
+		}
+		final int[] visited = new int[1];
+		index.forEach(new LongIndex.Visitor() {
+			public void visit(long key, long handle) {
+				assertEquals(reference.get(key).longValue(), handle);
+				visited[0]++;
+			}
+		});
+		assertEquals(reference.size(), visited[0]);
+		index.free();
+	}
+
+	@Test
+	public void unlinkFindsTheKeyOfAHandle() {
+		final LongIndex index = new LongIndex(16, 1);
+		for (long key = 0; key < 1000; key++) {
+			index.put(key << 32 | key * 3, key + 1);
+		}
+		final long key = 7L << 32 | 21;
+		assertFalse(index.unlink(LongIndex.hash(key), 1000));
+		assertTrue(index.unlink(LongIndex.hash(key), 8));
+		assertFalse(index.unlink(LongIndex.hash(key), 8));
+		assertEquals(999, index.size());
+		for (long other = 0; other < 1000; other++) {
+			assertEquals(other == 7 ? EntryTable.NONE : other + 1, index.get(other << 32 | other * 3));
+		}
+		index.free();
+	}
+
+	@Test
+	public void numericKeysLiveBesideStringOnes() {
+		Cache.init(1, Ram.Mb(1));
+		for (long id = 0; id < 1000; id++) {
+			assertTrue(Cache.putLong(id, new DummyPojo("pojo-" + id, 100)) != EntryTable.NONE);
+		}
+		Cache.put("0", new DummyPojo("string", 100));
+		assertEquals(1001, Cache.entries());
+		assertEquals("pojo-42", ((DummyPojo)Cache.getLong(42)).name);
+		assertEquals("string", ((DummyPojo)Cache.retrieve("0")).name);
+		assertEquals("pojo-0", ((DummyPojo)Cache.getLong(0)).name);
+		Cache.putLong(42, new DummyPojo("again", 100));
+		assertEquals("again", ((DummyPojo)Cache.getLong(42)).name);
+		assertEquals(1001, Cache.entries());
+		Cache.freeLong(42);
+		assertNull(Cache.getLong(42));
+		assertNull(Cache.getLong(-1));
+		Cache.putLong(7, new DummyPojo("short lived", 10), 1);
+		try {
+			Thread.sleep(20);
+		} catch (InterruptedException e) {
+			// expired anyway
+		}
+		assertNull(Cache.getLong(7));
+		assertFalse(Cache.getLongHandle(7) != EntryTable.NONE);
+		Cache.clear();
+	}
+}
@@ -0,0 +1,229 @@
+package org.directmemory.cache.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.directmemory.cache.Cache;
+import org.directmemory.cache.Maintenance;
+import org.directmemory.measures.Ram;
+import org.directmemory.memory.AllocationStrategy;
+import org.directmemory.memory.EntryTable;
+import org.directmemory.memory.MemoryManager;
+import org.directmemory.memory.OffHeapMemoryBuffer;
+import org.directmemory.memory.SlabMemoryBuffer;
+import org.directmemory.misc.DummyPojo;
+import org.junit.After;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class MaintenanceTest {
+	private static Logger logger = LoggerFactory.getLogger(MaintenanceTest.class);
+
+	@After
+	public void defaults() {
+		Maintenance.period = 1000;
+		Maintenance.resetStats();
+	}
+
+	@Test
+	public void expiredEntriesAreReclaimedContinuously() throws InterruptedException {
+		Cache.init(1, Ram.Mb(1));
+		Maintenance.start(20);
+		for (int round = 0; round < 3; round++) {
+			for (int i = 0; i < 1000; i++) {
+				Cache.putByteArray("key-" + round + "-" + i, new byte[100], 50);
+			}
+			assertTrue(MemoryManager.used() >= 1000 * 100);
+			Thread.sleep(300);
+			assertEquals(0, MemoryManager.used());
+		}
+		assertTrue(Maintenance.cycles() > 3);
+		assertEquals(3 * 1000 * 100, Maintenance.expired());
+		logger.info(Maintenance.stats());
+		Cache.clear();
+	}
+
+	@Test
+	public void cyclesStopWhenTheBudgetIsSpent() {
+		MemoryManager.init(4, 4, Ram.Kb(256), AllocationStrategy.FIRST_FIT);
+		final Maintenance.Cycle first = Maintenance.cycle(1);
+		assertTrue(first.overBudget);
+		assertEquals(1, first.slices);
+		final Maintenance.Cycle full = Maintenance.cycle(0);
+		assertFalse(full.overBudget);
+		assertEquals(4, full.slices);
+		MemoryManager.clear();
+	}
+
+	@Test
+	public void massExpiryIsSpreadOverCycles() throws InterruptedException {
+		MemoryManager.init(1, 1, Ram.Mb(1), AllocationStrategy.FIRST_FIT);
+		final int slice = Maintenance.expirySlice;
+		Maintenance.expirySlice = 1000;
+		try {
+			for (int i = 0; i < 5000; i++) {
+				MemoryManager.store(new byte[100], 1);
+			}
+			Thread.sleep(50);
+			final Maintenance.Cycle first = Maintenance.cycle(1);
+			assertTrue(first.overBudget);
+			assertEquals(1000 * 100, first.expired);
+			assertEquals(4000, MemoryManager.buffers.get(0).overdue());
+			// the next cycle goes on where the first one stopped
+			final Maintenance.Cycle rest = Maintenance.cycle(0);
+			assertFalse(rest.overBudget);
+			assertEquals(4000 * 100, rest.expired);
+			assertEquals(0, MemoryManager.used());
+		} finally {
+			Maintenance.expirySlice = slice;
+			MemoryManager.clear();
+		}
+	}
+
+	@Test
+	public void evictsFromTheHighToTheLowWatermark() {
+		MemoryManager.init(1, 1, Ram.Kb(256), AllocationStrategy.FIRST_FIT);
+		for (int i = 0; i < 1000; i++) {
+			MemoryManager.store(new byte[100]);
+		}
+		assertEquals(0, Maintenance.cycle(0).evicted);
+		assertFalse(Maintenance.evicting());
+		while (MemoryManager.store(new byte[100]) != EntryTable.NONE && Maintenance.pressure() < 0.99) {
+			// fill it up
+		}
+		final Maintenance.Cycle cycle = Maintenance.cycle(0);
+		logger.info("over the high watermark: " + cycle);
+		assertTrue(cycle.evicted > 0);
+		assertTrue(Maintenance.pressure() <= Maintenance.lowWatermark);
+		assertFalse(Maintenance.evicting());
+		MemoryManager.clear();
+	}
+
+	@Test
+	public void storeCrossingTheHighWatermarkStartsEviction() throws InterruptedException {
+		Cache.init(1, Ram.Kb(256));
+		int i = 0;
+		while (Maintenance.pressure() < Maintenance.highWatermark) {
+			Cache.putByteArray("key-" + i++, new byte[100]);
+		}
+		Thread.sleep(100);
+		assertTrue(Maintenance.pressure() <= Maintenance.lowWatermark);
+		assertTrue(Maintenance.evicted() > 0);
+		Cache.clear();
+	}
+
+	@Test
+	public void fullCacheKeepsAcceptingWrites() {
+		Cache.init(1, Ram.Kb(256));
+		// no time for the maintenance thread to help
+		final double high = Maintenance.highWatermark;
+		Maintenance.highWatermark = 2;
+		try {
+			for (int i = 0; i < 20000; i++) {
+				final String key = "key-" + i;
+				assertTrue(Cache.putByteArray(key, new byte[100 + i % 50]) != EntryTable.NONE);
+				assertEquals(100 + i % 50, Cache.retrieveByteArray(key).length);
+			}
+			assertTrue(MemoryManager.used() <= MemoryManager.capacity());
+			// hot keys written over and over do not leak their previous entries
+			for (int round = 0; round < 100; round++) {
+				for (int i = 0; i < 10; i++) {
+					assertTrue(Cache.putByteArray("hot-" + i, new byte[1000]) != EntryTable.NONE);
+				}
+			}
+			for (int i = 0; i < 10; i++) {
+				assertEquals(1000, Cache.retrieveByteArray("hot-" + i).length);
+			}
+		} finally {
+			Maintenance.highWatermark = high;
+			Cache.clear();
+		}
+	}
+
+	private static int entries() {
+		int entries = 0;
+		for (OffHeapMemoryBuffer buffer : MemoryManager.buffers) {
+			entries += buffer.entries();
+		}
+		return entries;
+	}
+
+	@Test
+	public void failingPutOnlyEvictsWhatMakesRoom() {
+		final int pageSize = SlabMemoryBuffer.DEFAULT_PAGE_SIZE;
+		SlabMemoryBuffer.DEFAULT_PAGE_SIZE = (int)Ram.Kb(16);
+		final double high = Maintenance.highWatermark;
+		Maintenance.highWatermark = 2;
+		try {
+			Cache.init(1, Ram.Kb(256), AllocationStrategy.SLAB);
+			// every page goes to the size class of these entries
+			for (int i = 0; i < 3000; i++) {
+				assertTrue(Cache.putByteArray("key-" + i, new byte[100]) != EntryTable.NONE);
+			}
+			final int entries = entries();
+			// no victim leaves a page empty, the larger size class cannot get one
+			assertEquals(EntryTable.NONE, Cache.putByteArray("large", new byte[5000]));
+			assertEquals(entries, entries());
+			// a single victim of the same size class is enough
+			assertTrue(Cache.putByteArray("small", new byte[100]) != EntryTable.NONE);
+			assertEquals(entries, entries());
+		} finally {
+			SlabMemoryBuffer.DEFAULT_PAGE_SIZE = pageSize;
+			Maintenance.highWatermark = high;
+			Cache.clear();
+		}
+	}
+
+	@Test
+	public void failingPutDoesNotEvictFromABumpBuffer() {
+		final double high = Maintenance.highWatermark;
+		Maintenance.highWatermark = 2;
+		try {
+			Cache.init(1, Ram.Kb(256), AllocationStrategy.BUMP);
+			int i = 0;
+			while (Cache.putByteArray("key-" + i++, new byte[100]) != EntryTable.NONE) {
+				// fill it up
+			}
+			final int entries = entries();
+			assertTrue(entries > 0);
+			// freeing single blocks never makes room
+			assertEquals(EntryTable.NONE, Cache.putByteArray("more", new byte[100]));
+			assertEquals(entries, entries());
+		} finally {
+			Maintenance.highWatermark = high;
+			Cache.clear();
+		}
+	}
+
+	@Test
+	public void evictedAndExpiredKeysLeaveTheIndex() throws InterruptedException {
+		Cache.init(1, Ram.Kb(256));
+		final double high = Maintenance.highWatermark;
+		Maintenance.highWatermark = 2;
+		try {
+			for (int i = 0; i < 5000; i++) {
+				Cache.putByteArray("key-" + i, new byte[100]);
+				Cache.putLong(i, new DummyPojo("pojo-" + i, 100));
+			}
+			assertTrue(entries() < 10000);
+			// no key is left behind by the entries evicted to make room
+			assertEquals(entries(), Cache.entries());
+			Cache.clear();
+			for (int i = 0; i < 100; i++) {
+				Cache.putByteArray("short-" + i, new byte[100], 10);
+				Cache.putLong(i, new DummyPojo("pojo-" + i, 100), 10);
+			}
+			assertEquals(200, Cache.entries());
+			Thread.sleep(50);
+			Maintenance.cycle(0);
+			// gone without being read
+			assertEquals(0, entries());
+			assertEquals(0, Cache.entries());
+		} finally {
+			Maintenance.highWatermark = high;
+			Cache.clear();
+		}
+	}
+}
@@ -0,0 +1,108 @@
+package org.directmemory.cache.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import org.directmemory.cache.Cache;
+import org.directmemory.cache.CountingBloomFilter;
+import org.directmemory.cache.Maintenance;
+import org.directmemory.cache.Membership;
+import org.directmemory.measures.Ram;
+import org.junit.After;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class MembershipTest {
+	private static Logger logger = LoggerFactory.getLogger(MembershipTest.class);
+
+	@After
+	public void off() {
+		Membership.enabled = false;
+		Membership.init(0);
+	}
+
+	@Test
+	public void filterNeverForgetsAKeyStillIn() {
+		final CountingBloomFilter filter = new CountingBloomFilter(10000, 10);
+		final Set<Integer> in = new HashSet<Integer>();
+		final Random random = new Random(1);
+		for (int i = 0; i < 100000; i++) {
+			final int key = random.nextInt(20000);
+			if (in.contains(key)) {
+				filter.remove(key);
+				in.remove(key);
+			} else {
+				filter.add(key);
+				in.add(key);
+			}
+		}
+		int falsePositives = 0;
+		for (int key = 0; key < 20000; key++) {
+			if (in.contains(key)) {
+				assertTrue(filter.mightContain(key));
+			} else if (filter.mightContain(key)) {
+				falsePositives++;
+			}
+		}
+		logger.info(falsePositives + " false positives out of " + (20000 - in.size()) + ", " + filter.expectedFalsePositiveRate() + " expected");
+		assertTrue(falsePositives < (20000 - in.size()) / 20);
+		filter.free();
+	}
+
+	@Test
+	public void missesSkipTheIndex() {
+		Membership.enabled = true;
+		Cache.init(1, Ram.Mb(16), 10000, Cache.DEFAULT_CONCURRENCY_LEVEL);
+		for (int i = 0; i < 10000; i++) {
+			Cache.putByteArray("test" + i, new byte[10]);
+		}
+		for (int i = 0; i < 10000; i++) {
+			assertNotNull(Cache.retrieveByteArray("test" + i));
+			assertNull(Cache.retrieveByteArray("missing" + i));
+		}
+		logger.info(Membership.stats());
+		assertTrue(Membership.rejected() > 9000);
+		assertEquals(10000 - Membership.rejected(), Membership.falsePositives());
+		assertTrue(Membership.falsePositiveRate() < 0.05);
+		for (int i = 0; i < 10000; i++) {
+			Cache.free("test" + i);
+		}
+		// freed keys are gone from the filter too
+		Membership.resetStats();
+		for (int i = 0; i < 10000; i++) {
+			assertNull(Cache.retrieveByteArray("test" + i));
+		}
+		assertEquals(10000, Membership.rejected());
+		assertFalse(Membership.expectedFalsePositiveRate() > 0);
+		Cache.clear();
+	}
+
+	@Test
+	public void evictedAndExpiredKeysLeaveTheFilter() throws InterruptedException {
+		Membership.enabled = true;
+		Cache.init(1, Ram.Kb(256), 10000, Cache.DEFAULT_CONCURRENCY_LEVEL);
+		// more than fits, the first ones are evicted
+		for (int i = 0; i < 5000; i++) {
+			Cache.putByteArray("evicted" + i, new byte[100], 10);
+		}
+		Thread.sleep(50);
+		Maintenance.cycle(0);
+		assertEquals(0, Cache.entries());
+		Membership.resetStats();
+		for (int i = 0; i < 5000; i++) {
+			assertNull(Cache.retrieveByteArray("evicted" + i));
+		}
+		// every counter went back to 0
+		assertEquals(5000, Membership.rejected());
+		assertFalse(Membership.expectedFalsePositiveRate() > 0);
+		Cache.clear();
+	}
+}
@@ -0,0 +1,115 @@
+package org.directmemory.cache.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.directmemory.cache.OffHeapIndex;
+import org.directmemory.memory.EntryTable;
+import org.junit.Test;
+
+public class OffHeapIndexTest {
+
+	@Test
+	public void putGetRemove() {
+		final OffHeapIndex index = new OffHeapIndex(16, 1);
+		assertEquals(EntryTable.NONE, index.get("a"));
+		assertEquals(EntryTable.NONE, index.put("a", 1));
+		assertEquals(1, index.put("a", 2));
+		assertEquals(2, index.get("a"));
+		// not latin-1
+		index.put("€ uro", 3);
+		assertEquals(3, index.get("€ uro"));
+		assertEquals(EntryTable.NONE, index.get("€ ur"));
+		assertFalse(index.remove("a", 1));
+		assertTrue(index.remove("a", 2));
+		assertEquals(EntryTable.NONE, index.remove("a"));
+		assertEquals(1, index.size());
+		index.clear();
+		assertEquals(0, index.size());
+		assertEquals(EntryTable.NONE, index.get("€ uro"));
+		index.free();
+	}
+
+	@Test
+	public void unlinkFindsTheKeyOfAHandle() {
+		final OffHeapIndex index = new OffHeapIndex(16, 1);
+		for (int i = 0; i < 1000; i++) {
+			index.put("key-" + i, i + 1);
+		}
+		assertNull(index.unlink("key-7".hashCode(), 9));
+		assertEquals("key-7", index.unlink("key-7".hashCode(), 8));
+		assertNull(index.unlink("key-7".hashCode(), 8));
+		assertEquals(EntryTable.NONE, index.get("key-7"));
+		assertEquals(999, index.size());
+		// the rest of the cluster is still found
+		for (int i = 0; i < 1000; i++) {
+			assertEquals(i == 7 ? EntryTable.NONE : i + 1, index.get("key-" + i));
+		}
+		index.free();
+	}
+
+	@Test
+	public void behavesLikeAMapWhileGrowing() {
+		final OffHeapIndex index = new OffHeapIndex(16, 2);
+		final Map<String, Long> reference = new HashMap<String, Long>();
+		final Random random = new Random(1);
+		for (int i = 0; i < 200000; i++) {
+			final String key = "key-" + random.nextInt(20000);
+			if (random.nextInt(3) == 0) {
+				final Long expected = reference.remove(key);
+				assertEquals(expected == null ? EntryTable.NONE : expected, index.remove(key));
+			} else {
+				final Long expected = reference.put(key, (long)i + 1);
+				assertEquals(expected == null ? EntryTable.NONE : expected, index.put(key, i + 1));
+			}
+		}
+		assertEquals(reference.size(), index.size());
+		for (Map.Entry<String, Long> entry : reference.entrySet()) {
+			assertEquals((long)entry.getValue(), index.get(entry.getKey()));
+		}
+		final AtomicInteger visited = new AtomicInteger();
+		index.forEach(new OffHeapIndex.Visitor() {
+			public void visit(String key, long handle) {
+				assertEquals(reference.get(key).longValue(), handle);
+				visited.incrementAndGet();
+			}
+		});
+		assertEquals(reference.size(), visited.get());
+		index.free();
+	}
+
+	@Test
+	public void concurrentPuts() throws InterruptedException {
+		final OffHeapIndex index = new OffHeapIndex(16, 4);
+		final Thread[] threads = new Thread[4];
+		for (int t = 0; t < threads.length; t++) {
+			final int thread = t;
+			threads[t] = new Thread() {
+				public void run() {
+					for (int i = 0; i < 50000; i++) {
+						index.put(thread + "-" + i, i + 1);
+					}
+				}
+			};
+			threads[t].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertEquals(200000, index.size());
+		for (int t = 0; t < threads.length; t++) {
+			for (int i = 0; i < 50000; i += 7) {
+				assertEquals(i + 1, index.get(t + "-" + i));
+			}
+		}
+		assertTrue(index.offHeapBytes() > 200000 * 24);
+		index.free();
+	}
+}
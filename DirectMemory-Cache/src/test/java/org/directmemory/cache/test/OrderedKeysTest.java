@@ -0,0 +1,202 @@
+package org.directmemory.cache.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+import org.directmemory.cache.Cache;
+import org.directmemory.cache.Maintenance;
+import org.directmemory.cache.OrderedIndex;
+import org.directmemory.cache.OrderedKeys;
+import org.directmemory.measures.Ram;
+import org.directmemory.memory.EntryTable;
+import org.directmemory.misc.DummyPojo;
+import org.junit.After;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class OrderedKeysTest {
+	private static Logger logger = LoggerFactory.getLogger(OrderedKeysTest.class);
+
+	@After
+	public void off() {
+		OrderedKeys.enabled = false;
+		OrderedKeys.init();
+	}
+
+	private static byte[] bytes(String key) {
+		return key.getBytes();
+	}
+
+	@Test
+	public void skipListKeepsKeysInOrder() {
+		final OrderedIndex index = new OrderedIndex();
+		final TreeSet<String> reference = new TreeSet<String>();
+		final Random random = new Random(1);
+		for (int i = 0; i < 50000; i++) {
+			final String key = "k" + random.nextInt(10000);
+			if (random.nextInt(3) == 0) {
+				assertEquals(reference.remove(key), index.remove(bytes(key), key.length()));
+			} else {
+				assertEquals(reference.add(key), index.add(bytes(key), key.length()));
+			}
+		}
+		assertEquals(reference.size(), index.size());
+		final List<byte[]> range = index.range(bytes("k2"), bytes("k3"), Integer.MAX_VALUE);
+		final List<String> expected = new ArrayList<String>(reference.subSet("k2", "k3"));
+		assertEquals(expected.size(), range.size());
+		for (int i = 0; i < range.size(); i++) {
+			assertEquals(expected.get(i), new String(range.get(i)));
+		}
+		final List<byte[]> removed = index.removeRange(bytes("k5"), bytes("k6"));
+		assertEquals(reference.subSet("k5", "k6").size(), removed.size());
+		reference.subSet("k5", "k6").clear();
+		assertEquals(reference.size(), index.size());
+		assertTrue(index.range(bytes("k5"), bytes("k6"), 10).isEmpty());
+		// the levels were spliced right around the range
+		final Iterator<String> around = reference.tailSet("k4999").iterator();
+		final List<byte[]> spliced = index.range(bytes("k4999"), null, 2);
+		assertEquals(around.next(), new String(spliced.get(0)));
+		assertEquals(around.next(), new String(spliced.get(1)));
+		for (String key : reference) {
+			assertFalse(index.add(bytes(key), key.length()));
+		}
+		index.free();
+	}
+
+	@Test
+	public void tenantInvalidatedByPrefix() {
+		OrderedKeys.enabled = true;
+		OrderedKeys.batch = 100;
+		try {
+			Cache.init(1, Ram.Mb(64), 200000, Cache.DEFAULT_CONCURRENCY_LEVEL);
+			for (int tenant = 0; tenant < 2; tenant++) {
+				for (int i = 0; i < 100000; i++) {
+					Cache.putByteArray("test-" + tenant + "-" + i, new byte[8]);
+				}
+			}
+			Cache.putByteArray("test-10-0", new byte[8]);
+			int listed = 0;
+			String previous = "";
+			for (Iterator<String> keys = Cache.keysWithPrefix("test-1-"); keys.hasNext();) {
+				final String key = keys.next();
+				assertTrue(key.startsWith("test-1-"));
+				assertTrue(key.compareTo(previous) > 0);
+				previous = key;
+				listed++;
+			}
+			assertEquals(100000, listed);
+			final long start = System.nanoTime();
+			assertEquals(100000, Cache.freeWithPrefix("test-1-"));
+			logger.info("100000 keys freed by prefix in " + (System.nanoTime() - start) / 1000000 + "ms");
+			assertEquals(100001, Cache.entries());
+			assertNull(Cache.retrieveByteArray("test-1-42"));
+			assertNotNull(Cache.retrieveByteArray("test-0-42"));
+			assertNotNull(Cache.retrieveByteArray("test-10-0"));
+			assertFalse(Cache.keysWithPrefix("test-1-").hasNext());
+			final Iterator<String> between = Cache.keysBetween("test-0-99998", null);
+			assertEquals("test-0-99998", between.next());
+			assertEquals("test-0-99999", between.next());
+			assertEquals("test-10-0", between.next());
+			assertFalse(between.hasNext());
+			Cache.free("test-10-0");
+			assertFalse(Cache.keysWithPrefix("test-10").hasNext());
+		} finally {
+			OrderedKeys.batch = 1024;
+			Cache.clear();
+		}
+	}
+
+	@Test
+	public void tuplesScannedByLeadingParts() {
+		OrderedKeys.enabled = true;
+		Cache.init(1, Ram.Mb(1));
+		for (int tenant = 0; tenant < 3; tenant++) {
+			for (int entity = 0; entity < 10; entity++) {
+				Cache.putKey(new Object[] {"tenant-" + tenant, entity}, new DummyPojo("entity-" + entity, 10));
+			}
+		}
+		int listed = 0;
+		for (Iterator<byte[]> keys = Cache.encodedKeysWithPrefix(new Object[] {"tenant-1"}); keys.hasNext(); keys.next()) {
+			listed++;
+		}
+		assertEquals(10, listed);
+		assertEquals(10, Cache.freeKeysWithPrefix(new Object[] {"tenant-1"}));
+		assertNull(Cache.getKey(new Object[] {"tenant-1", 3}));
+		assertEquals("entity-3", ((DummyPojo)Cache.getKey(new Object[] {"tenant-2", 3})).name);
+		assertEquals(20, Cache.entries());
+		Cache.clear();
+	}
+
+	@Test
+	public void evictedAndExpiredKeysAreNotListed() throws InterruptedException {
+		OrderedKeys.enabled = true;
+		Cache.init(1, Ram.Kb(256));
+		final double high = Maintenance.highWatermark;
+		Maintenance.highWatermark = 2;
+		try {
+			// more than fits, the first ones are evicted
+			for (int i = 0; i < 5000; i++) {
+				Cache.putByteArray("evicted-" + i, new byte[100]);
+			}
+			int listed = 0;
+			for (Iterator<String> keys = Cache.keysWithPrefix("evicted-"); keys.hasNext(); keys.next()) {
+				listed++;
+			}
+			assertTrue(listed < 5000);
+			assertEquals(Cache.entries(), listed);
+			Cache.clear();
+			for (int i = 0; i < 100; i++) {
+				Cache.putByteArray("expired-" + i, new byte[100], 10);
+			}
+			Thread.sleep(50);
+			Maintenance.cycle(0);
+			assertFalse(Cache.keysWithPrefix("expired-").hasNext());
+			assertEquals(0, OrderedKeys.size());
+		} finally {
+			Maintenance.highWatermark = high;
+			Cache.clear();
+		}
+	}
+
+	@Test
+	public void concurrentPutsAndFreesLeaveNoPhantomKeys() throws InterruptedException {
+		OrderedKeys.enabled = true;
+		Cache.init(1, Ram.Mb(1));
+		final Thread[] threads = new Thread[4];
+		for (int t = 0; t < threads.length; t++) {
+			final int seed = t;
+			threads[t] = new Thread() {
+				public void run() {
+					final Random random = new Random(seed);
+					for (int i = 0; i < 20000; i++) {
+						final String key = "key-" + random.nextInt(8);
+						if (random.nextBoolean()) {
+							Cache.putByteArray(key, new byte[10]);
+						} else {
+							Cache.free(key);
+						}
+					}
+				}
+			};
+			threads[t].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertEquals(Cache.entries(), OrderedKeys.size());
+		for (Iterator<String> keys = Cache.keysWithPrefix("key-"); keys.hasNext();) {
+			assertTrue(Cache.getHandle(keys.next()) != EntryTable.NONE);
+		}
+		Cache.clear();
+	}
+}
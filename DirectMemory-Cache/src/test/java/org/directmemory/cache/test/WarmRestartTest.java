@@ -0,0 +1,173 @@
+package org.directmemory.cache.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.directmemory.cache.Cache;
+import org.directmemory.measures.Ram;
+import org.directmemory.memory.AllocationStrategy;
+import org.directmemory.memory.EntryHeader;
+import org.directmemory.memory.MemoryManager;
+import org.directmemory.memory.OffHeapMemoryBuffer;
+import org.directmemory.misc.DummyPojo;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class WarmRestartTest {
+	private File directory;
+
+	@Before
+	public void createDirectory() throws IOException {
+		directory = File.createTempFile("directmemory", "");
+		directory.delete();
+	}
+
+	@After
+	public void deleteDirectory() {
+		for (File file : directory.listFiles()) {
+			file.delete();
+		}
+		directory.delete();
+	}
+
+	@Test
+	public void entriesSurviveARestart() throws IOException {
+		Cache.init(directory, 2, Ram.Mb(1));
+		for (int i = 0; i < 1000; i++) {
+			Cache.putByteArray("bytes-" + i, ("payload of entry " + i).getBytes());
+		}
+		Cache.put("pojo", new DummyPojo("pojo", 300));
+		Cache.putLong(1234567890123L, new DummyPojo("by id", 300));
+		Cache.putKey(new Object[] {"tenant", 7}, new DummyPojo("by tuple", 300));
+		Cache.putByteArray("short lived", "gone".getBytes(), 50);
+		Cache.putByteArray("freed", "gone too".getBytes());
+		Cache.free("freed");
+		Cache.checkpoint();
+
+		try {
+			Thread.sleep(100);
+		} catch (InterruptedException e) {
+			// let it expire anyway
+		}
+
+		// as a new JVM would, with an empty table and map
+		Cache.init(directory, 2, Ram.Mb(1));
+		assertEquals(1003, Cache.entries());
+		for (int i = 0; i < 1000; i++) {
+			assertEquals("payload of entry " + i, new String(Cache.retrieveByteArray("bytes-" + i)));
+		}
+		assertEquals("pojo", ((DummyPojo)Cache.retrieve("pojo")).name);
+		assertEquals("by id", ((DummyPojo)Cache.getLong(1234567890123L)).name);
+		assertEquals("by tuple", ((DummyPojo)Cache.getKey(new Object[] {"tenant", 7})).name);
+		assertNull(Cache.retrieveByteArray("short lived"));
+		assertNull(Cache.retrieveByteArray("freed"));
+		// the index went away with the restart
+		assertFalse(new File(directory, "index").exists());
+	}
+
+	/**
+	 * @return the payloads read back after a restart with the strategy, null where an entry was not restored
+	 */
+	private byte[][] restart(AllocationStrategy strategy, boolean headers) throws IOException {
+		final boolean defaultHeaders = OffHeapMemoryBuffer.DEFAULT_HEADERS;
+		OffHeapMemoryBuffer.DEFAULT_HEADERS = headers;
+		try {
+			Cache.init(directory, 1, Ram.Mb(1), Cache.DEFAULT_INITIAL_CAPACITY, Cache.DEFAULT_CONCURRENCY_LEVEL, strategy);
+			for (int i = 0; i < 200; i++) {
+				Cache.putByteArray("bytes-" + i, payload(i));
+			}
+			// holes between the saved entries
+			for (int i = 0; i < 200; i += 3) {
+				Cache.free("bytes-" + i);
+			}
+			Cache.checkpoint();
+			Cache.init(directory, 1, Ram.Mb(1), Cache.DEFAULT_INITIAL_CAPACITY, Cache.DEFAULT_CONCURRENCY_LEVEL, strategy);
+			final byte[][] restored = new byte[200][];
+			for (int i = 0; i < 200; i++) {
+				restored[i] = Cache.retrieveByteArray("bytes-" + i);
+			}
+			if (headers) {
+				// the headers of the restored entries are still those of live blocks
+				final OffHeapMemoryBuffer buffer = MemoryManager.buffers.get(0);
+				assertEquals(buffer.entries(), buffer.walk(new EntryHeader.Visitor() {
+					public void visit(EntryHeader header) {
+						// counted
+					}
+				}));
+			}
+			// room is made around them, not over them
+			for (int i = 0; i < 200; i += 3) {
+				Cache.putByteArray("bytes-" + i, payload(i));
+			}
+			for (int i = 0; i < 200; i++) {
+				if (restored[i] != null) {
+					assertArrayEquals(payload(i), Cache.retrieveByteArray("bytes-" + i));
+				}
+			}
+			return restored;
+		} finally {
+			OffHeapMemoryBuffer.DEFAULT_HEADERS = defaultHeaders;
+			Cache.clear();
+		}
+	}
+
+	private static byte[] payload(int i) {
+		final byte[] payload = new byte[50 + i * 7 % 300];
+		for (int j = 0; j < payload.length; j++) {
+			payload[j] = (byte)(i + j);
+		}
+		return payload;
+	}
+
+	@Test
+	public void everyStrategyRestoresTheSamePayloads() throws IOException {
+		for (AllocationStrategy strategy : AllocationStrategy.values()) {
+			for (boolean headers : new boolean[] {false, true}) {
+				final byte[][] restored = restart(strategy, headers);
+				for (int i = 0; i < restored.length; i++) {
+					if (strategy == AllocationStrategy.SLAB || i % 3 == 0) {
+						// slab pages are carved again from scratch
+						assertNull(strategy + " " + i, restored[i]);
+					} else {
+						assertArrayEquals(strategy + " " + i, payload(i), restored[i]);
+					}
+				}
+				for (File file : directory.listFiles()) {
+					file.delete();
+				}
+			}
+		}
+	}
+
+	@Test
+	public void longKeysSurviveARestart() throws IOException {
+		Cache.init(directory, 1, Ram.Mb(1));
+		final StringBuilder key = new StringBuilder();
+		while (key.length() < 30000) {
+			// three bytes each in UTF-8, beyond what writeUTF takes
+			key.append("€");
+		}
+		Cache.putByteArray(key.toString(), "long".getBytes());
+		Cache.putByteArray("short", "short".getBytes());
+		Cache.checkpoint();
+		Cache.init(directory, 1, Ram.Mb(1));
+		assertEquals(2, Cache.entries());
+		assertEquals("long", new String(Cache.retrieveByteArray(key.toString())));
+		assertEquals("short", new String(Cache.retrieveByteArray("short")));
+	}
+
+	@Test
+	public void withoutCheckpointStartsEmpty() {
+		Cache.init(directory, 1, Ram.Mb(1));
+		Cache.putByteArray("key", "value".getBytes());
+		Cache.init(directory, 1, Ram.Mb(1));
+		assertEquals(0, Cache.entries());
+		assertNull(Cache.retrieveByteArray("key"));
+	}
+}
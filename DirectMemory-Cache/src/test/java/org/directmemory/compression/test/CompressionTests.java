@@ -0,0 +1,113 @@
+package org.directmemory.compression.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.Random;
+
+import org.directmemory.cache.Cache;
+import org.directmemory.compression.Codec;
+import org.directmemory.compression.Compression;
+import org.directmemory.compression.DeflateCodec;
+import org.directmemory.compression.Lz4Codec;
+import org.directmemory.measures.Ram;
+import org.directmemory.memory.EntryTable;
+import org.directmemory.memory.MemoryManager;
+import org.directmemory.misc.DummyPojo;
+import org.junit.After;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class CompressionTests {
+	private static Logger logger = LoggerFactory.getLogger(CompressionTests.class);
+
+	@After
+	public void off() {
+		Compression.codec = null;
+		Compression.threshold = Compression.DEFAULT_THRESHOLD;
+		Compression.resetStats();
+	}
+
+	private static byte[] json(int records) {
+		final StringBuilder json = new StringBuilder("[");
+		for (int i = 0; i < records; i++) {
+			json.append("{\"id\":").append(i).append(",\"name\":\"customer ").append(i % 17)
+					.append("\",\"active\":").append(i % 3 == 0).append("},");
+		}
+		return json.append("]").toString().getBytes();
+	}
+
+	private static byte[] random(int size) {
+		final byte[] bytes = new byte[size];
+		new Random(42).nextBytes(bytes);
+		return bytes;
+	}
+
+	private void roundTrips(Codec codec) throws IOException {
+		final byte[][] samples = {new byte[0], "short".getBytes(), new byte[5000], json(200), random(3000), "aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa".getBytes()};
+		for (byte[] sample : samples) {
+			final byte[] compressed = codec.compress(sample, 0, sample.length);
+			assertArrayEquals(sample, codec.decompress(compressed, 0, compressed.length, sample.length));
+		}
+		final byte[] json = json(200);
+		final byte[] compressed = codec.compress(json, 0, json.length);
+		logger.info(codec.getClass().getSimpleName() + ": " + json.length + " bytes to " + compressed.length);
+		assertTrue(compressed.length * 3 < json.length);
+	}
+
+	@Test
+	public void lz4() throws IOException {
+		roundTrips(new Lz4Codec());
+	}
+
+	@Test
+	public void deflate() throws IOException {
+		roundTrips(new DeflateCodec());
+	}
+
+	@Test(expected = IOException.class)
+	public void corruptedPayloads() throws IOException {
+		final byte[] json = json(10);
+		final byte[] compressed = new Lz4Codec().compress(json, 0, json.length);
+		new Lz4Codec().decompress(compressed, 0, compressed.length / 2, json.length);
+	}
+
+	@Test
+	public void thresholdAndGain() throws IOException {
+		assertNull(Compression.compress(json(100)));
+		Compression.codec = new Lz4Codec();
+		Compression.threshold = 100;
+		assertNull(Compression.compress("too short to bother".getBytes()));
+		assertNull(Compression.compress(random(1000)));
+		assertEquals(1, Compression.skipped());
+		final byte[] framed = Compression.compress(json(100));
+		assertArrayEquals(json(100), Compression.decompress(framed));
+		// still readable once the codec changed
+		Compression.codec = new DeflateCodec();
+		assertArrayEquals(json(100), Compression.decompress(framed));
+		assertEquals(1, Compression.compressed());
+		assertTrue(Compression.ratio() > 2);
+		assertTrue(Compression.compressionTime() > 0);
+	}
+
+	@Test
+	public void compressedEntries() {
+		Cache.init(1, Ram.Mb(1));
+		Compression.codec = new Lz4Codec();
+		Cache.put("large", new DummyPojo("large", 2000));
+		Cache.put("small", new DummyPojo("small", 10));
+		assertTrue(MemoryManager.table.hasFlag(Cache.getHandle("large"), EntryTable.FLAG_COMPRESSED));
+		assertFalse(MemoryManager.table.hasFlag(Cache.getHandle("small"), EntryTable.FLAG_COMPRESSED));
+		assertTrue(MemoryManager.table.length(Cache.getHandle("large")) < 500);
+		assertEquals(2000, ((DummyPojo)Cache.retrieve("large")).size);
+		assertEquals("small", ((DummyPojo)Cache.retrieve("small")).name);
+		Cache.update("large", new DummyPojo("larger", 4000));
+		assertEquals("larger", ((DummyPojo)Cache.retrieve("large")).name);
+		logger.info(Compression.stats());
+	}
+}
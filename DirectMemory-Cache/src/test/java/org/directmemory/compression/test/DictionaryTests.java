@@ -0,0 +1,151 @@
+package org.directmemory.compression.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.directmemory.cache.Cache;
+import org.directmemory.compression.Compression;
+import org.directmemory.compression.DeflateCodec;
+import org.directmemory.compression.Dictionaries;
+import org.directmemory.compression.DictionaryCodec;
+import org.directmemory.measures.Ram;
+import org.directmemory.memory.EntryTable;
+import org.directmemory.memory.MemoryManager;
+import org.junit.After;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class DictionaryTests {
+	private static Logger logger = LoggerFactory.getLogger(DictionaryTests.class);
+
+	private static final String[] CITIES = {"Rome", "Milan", "Turin", "Naples", "Florence"};
+
+	public static class Customer {
+		public String name;
+		public String email;
+		public String city;
+		public String notes;
+		public int age;
+
+		public Customer() {
+		}
+
+		Customer(Random random) {
+			final int id = random.nextInt(100000);
+			name = "customer number " + id;
+			email = "customer." + id + "@example.com";
+			city = CITIES[random.nextInt(CITIES.length)];
+			notes = "prefers to be contacted by email, account opened online, newsletter subscriber since " + (2000 + random.nextInt(10));
+			age = 18 + random.nextInt(60);
+		}
+	}
+
+	@After
+	public void off() {
+		Dictionaries.enabled = false;
+		Dictionaries.clear();
+		Compression.resetStats();
+	}
+
+	private static byte[] record(Random random) {
+		final int id = random.nextInt(100000);
+		return ("{\"id\":" + id + ",\"name\":\"customer " + id + "\",\"email\":\"customer." + id
+				+ "@example.com\",\"city\":\"" + CITIES[random.nextInt(CITIES.length)] + "\",\"active\":" + random.nextBoolean()
+				+ ",\"tags\":[\"retail\",\"newsletter\"],\"created\":\"2011-0" + (1 + random.nextInt(9)) + "-1" + random.nextInt(10) + "\"}").getBytes();
+	}
+
+	@Test
+	public void smallPayloadsCompressWithADictionary() throws IOException {
+		final Random random = new Random(1);
+		final List<byte[]> samples = new ArrayList<byte[]>();
+		for (int i = 0; i < 128; i++) {
+			samples.add(record(random));
+		}
+		final byte[] trained = Dictionaries.train(samples, (int)Ram.Kb(4));
+		assertTrue(trained.length > 0);
+		final DictionaryCodec dictionary = new DictionaryCodec(1, 1, trained);
+		Dictionaries.register(dictionary);
+
+		final byte[] record = record(random);
+		final byte[] alone = new DeflateCodec().compress(record, 0, record.length);
+		final byte[] withDictionary = dictionary.compress(record, 0, record.length);
+		logger.info(record.length + " bytes, " + alone.length + " deflated, " + withDictionary.length + " with a dictionary");
+		assertTrue(withDictionary.length * 2 < alone.length);
+		assertArrayEquals(record, dictionary.decompress(withDictionary, 0, withDictionary.length, record.length));
+	}
+
+	@Test
+	public void olderVersionsStayReadable() throws IOException {
+		final Random random = new Random(2);
+		final List<byte[]> samples = new ArrayList<byte[]>();
+		for (int i = 0; i < 64; i++) {
+			samples.add(record(random));
+		}
+		Dictionaries.register(new DictionaryCodec(1, 7, Dictionaries.train(samples, 1024)));
+		final byte[] record = record(random);
+		final byte[] old = Dictionaries.current(7).compress(record, 0, record.length);
+		Dictionaries.register(new DictionaryCodec(2, 7, Dictionaries.train(samples.subList(0, 32), 1024)));
+		assertEquals(2, Dictionaries.current(7).dictionaryId());
+		assertArrayEquals(record, Dictionaries.current(7).decompress(old, 0, old.length, record.length));
+	}
+
+	@Test
+	public void unusedVersionsAreDropped() {
+		final Random random = new Random(4);
+		final List<byte[]> samples = new ArrayList<byte[]>();
+		for (int i = 0; i < 64; i++) {
+			samples.add(record(random));
+		}
+		final byte[] trained = Dictionaries.train(samples, 1024);
+		for (int id = 1; id <= 3; id++) {
+			Dictionaries.register(new DictionaryCodec(id, 7, trained));
+		}
+		final Set<Integer> referenced = Collections.singleton(1);
+		// only replaced since the last sweep, payloads compressed with them may not be stored yet
+		assertEquals(0, Dictionaries.sweep(referenced));
+		assertEquals(1, Dictionaries.sweep(referenced));
+		assertNull(Dictionaries.get(2));
+		assertNotNull(Dictionaries.get(1));
+		assertEquals(3, Dictionaries.current(7).dictionaryId());
+		assertEquals(1, Dictionaries.sweep(Collections.<Integer>emptySet()));
+		assertEquals(0, Dictionaries.olderVersions());
+	}
+
+	@Test
+	public void trainedFromTheCachedObjects() {
+		Cache.init(1, Ram.Mb(4));
+		Dictionaries.enabled = true;
+		final Random random = new Random(3);
+		for (int i = 0; i < Dictionaries.samples * Dictionaries.sampleRate; i++) {
+			Cache.put("before-" + i, new Customer(random));
+		}
+		assertNull(Dictionaries.current(MemoryManager.table.typeId(Cache.getHandle("before-0"))));
+		assertEquals(1, Dictionaries.train());
+		// nothing new to learn from
+		assertEquals(0, Dictionaries.train());
+
+		final Customer customer = new Customer(random);
+		Cache.put("after", customer);
+		final long handle = Cache.getHandle("after");
+		assertNotNull(Dictionaries.current(MemoryManager.table.typeId(handle)));
+		assertTrue(MemoryManager.table.hasFlag(handle, EntryTable.FLAG_COMPRESSED));
+		assertTrue(MemoryManager.table.length(handle) < MemoryManager.table.length(Cache.getHandle("before-0")) / 2);
+		final Customer retrieved = (Customer)Cache.retrieve("after");
+		assertEquals(customer.email, retrieved.email);
+		assertEquals(customer.notes, retrieved.notes);
+		assertEquals(customer.age, retrieved.age);
+		assertTrue(((Customer)Cache.retrieve("before-10")).name.startsWith("customer"));
+		logger.info(Compression.stats());
+	}
+}
@@ -0,0 +1,70 @@
+package org.directmemory.memory.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.util.Random;
+
+import org.directmemory.measures.Ram;
+import org.directmemory.memory.AllocationStrategy;
+import org.directmemory.memory.Arena;
+import org.directmemory.memory.OffHeapMemoryBuffer;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class ArenaTests {
+
+	private static Logger logger = LoggerFactory.getLogger(ArenaTests.class);
+
+	@Test
+	public void sizesBeyondTwoGigabytes() {
+		assertEquals(2L * 1024 * 1024 * 1024, Ram.Gb(2));
+		assertEquals(256L * 1024 * 1024 * 1024, Ram.Gb(256));
+		assertEquals(Ram.Mb(512), Ram.Gb(0.5));
+		assertEquals(Ram.Kb(4 * 1024 * 1024), Ram.Gb(4));
+		logger.info("256Gb is " + Ram.inGb(Ram.Gb(256)));
+	}
+
+	@Test
+	public void copiesStraddleChunks() {
+		Arena arena = Arena.allocateDirect(Ram.Kb(10) + 100, 1024);
+		assertEquals(11, arena.chunks());
+		assertEquals(Ram.Kb(10) + 100, arena.capacity());
+		byte[] payload = new byte[3000];
+		new Random().nextBytes(payload);
+		arena.put(1000, payload);
+		byte[] copy = new byte[payload.length];
+		arena.get(1000, copy);
+		assertArrayEquals(payload, copy);
+		arena.putLong(1020, 0x0102030405060708L);
+		assertEquals(0x0102030405060708L, arena.getLong(1020));
+		arena.put(arena.capacity() - 10, new byte[10]);
+		// chunk boundaries of the source and of the destination at different places
+		arena.get(1000, payload);
+		arena.copy(1000, 6500, payload.length);
+		arena.get(6500, copy);
+		assertArrayEquals(payload, copy);
+	}
+
+	@Test
+	public void allocatorsOverSmallChunks() {
+		for (AllocationStrategy strategy : AllocationStrategy.values()) {
+			OffHeapMemoryBuffer mem = OffHeapMemoryBuffer.createNew(Arena.allocateDirect(Ram.Mb(64), 4096), -1, strategy);
+			Random rnd = new Random(42);
+			long[] stored = new long[100];
+			byte[][] payloads = new byte[stored.length][];
+			for (int i = 0; i < stored.length; i++) {
+				payloads[i] = new byte[1 + rnd.nextInt(2000)];
+				rnd.nextBytes(payloads[i]);
+				stored[i] = mem.store(payloads[i]);
+				assertNotNull(strategy.toString(), stored[i]);
+			}
+			for (int i = 0; i < stored.length; i++) {
+				assertArrayEquals(strategy.toString(), payloads[i], mem.retrieve(stored[i]));
+			}
+			logger.info(strategy + " used " + Ram.inKb(mem.used()) + " over chunks of 4Kb");
+		}
+	}
+}
@@ -2,6 +2,7 @@ package org.directmemory.memory.test;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
 
 import java.util.Date;
 import java.util.Map;
@@ -10,8 +11,8 @@ import java.util.zip.CRC32;
 import java.util.zip.Checksum;
 
 import org.directmemory.measures.Ram;
+import org.directmemory.memory.EntryTable;
 import org.directmemory.memory.OffHeapMemoryBuffer;
-import org.directmemory.memory.Pointer;
 import org.junit.AfterClass;
 import org.junit.BeforeClass;
 import org.junit.Test;
@@ -35,13 +36,13 @@ public class BaseTests {
 		
 		Random rnd = new Random();
 		
-		int size = rnd.nextInt(10) * mem.capacity() / 100;
+		int size = (int)(rnd.nextInt(10) * mem.capacity() / 100);
 		
 		logger.info("size=" + size);
 		
-		Pointer p = mem.store(new byte[size]);
-		assertNotNull(p);
-		assertEquals(size,p.end);
+		long p = mem.store(new byte[size]);
+		assertTrue(p != EntryTable.NONE);
+		assertEquals(size, mem.table.offset(p) + mem.table.length(p));
 		assertEquals(size, mem.used());
 		mem.free(p);
 		assertEquals(0, mem.used());		
@@ -99,7 +100,7 @@ public class BaseTests {
 		String test = "this is a nicely crafted test";
 		for (int i = 0; i < howMany; i++) {
 			final byte[] payload = (test + " - " + i).getBytes();
-			Pointer p = mem.store(payload);
+			long p = mem.store(payload);
 			final byte[] check = mem.retrieve(p);
 			assertNotNull(check);
 			assertEquals(test + " - " + i, new String(check));
@@ -120,16 +121,16 @@ public class BaseTests {
 		logger.info("payload size is variable");
 		logger.info("entries=" + howMany);
 		String test = "this is a nicely crafted test";
-		Pointer lastP = null;
+		long lastP = EntryTable.NONE;
 		for (int i = 0; i < howMany; i++) {
 			byte[] payload = (test + " - " + i).getBytes();
-			Pointer p = mem.store(payload);
-			logger.info("p.start=" + p.start);
-			logger.info("p.end=" + p.end);
-			if (lastP != null) {
-				assertEquals(lastP.end +1, p.start);
+			long p = mem.store(payload);
+			logger.info("offset=" + mem.table.offset(p));
+			logger.info("length=" + mem.table.length(p));
+			if (lastP != EntryTable.NONE) {
+				assertEquals(mem.table.offset(lastP) + mem.table.length(lastP), mem.table.offset(p));
 			}
-			assertEquals(p.end-p.start, payload.length);
+			assertEquals(mem.table.length(p), payload.length);
 			lastP = p;
 			logger.info("---");
 		}
@@ -0,0 +1,122 @@
+package org.directmemory.memory.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.directmemory.measures.Ram;
+import org.directmemory.memory.AllocationStrategy;
+import org.directmemory.memory.BuddyMemoryBuffer;
+import org.directmemory.memory.EntryTable;
+import org.directmemory.memory.OffHeapMemoryBuffer;
+import org.directmemory.misc.Format;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class BuddyTests {
+
+	private static Logger logger = LoggerFactory.getLogger(BuddyTests.class);
+	
+	Random rnd = new Random();
+
+	@Test
+	public void smokeTest() {
+		OffHeapMemoryBuffer mem = OffHeapMemoryBuffer.createNew(Ram.Mb(1), -1, AllocationStrategy.BUDDY);
+		assertEquals(mem.capacity(), mem.largestFreeBlock());
+		
+		byte[] payload = "this is a nicely crafted test".getBytes();
+		long p = mem.store(payload);
+		assertTrue(p != EntryTable.NONE);
+		assertEquals(payload.length, mem.table.length(p));
+		// the whole block of the smallest order is taken
+		assertEquals(1 << BuddyMemoryBuffer.MIN_ORDER, mem.used());
+		assertEquals(new String(payload), new String(mem.retrieve(p)));
+		
+		mem.free(p);
+		assertEquals(0, mem.used());
+		assertEquals(mem.capacity(), mem.largestFreeBlock());
+		assertEquals(0, mem.fragmentation(), 0);
+	}
+
+	@Test
+	public void fullBuffer() {
+		OffHeapMemoryBuffer mem = OffHeapMemoryBuffer.createNew(Ram.Kb(64), -1, AllocationStrategy.BUDDY);
+		for (int i = 0; i < 64; i++) {
+			assertTrue(mem.store(new byte[(int)Ram.Kb(1)]) != EntryTable.NONE);
+		}
+		assertEquals(EntryTable.NONE, mem.store(new byte[1]));
+		assertEquals(0, mem.available());
+	}
+
+	@Test
+	public void unevenCapacity() {
+		OffHeapMemoryBuffer mem = OffHeapMemoryBuffer.createNew(Ram.Mb(100), -1, AllocationStrategy.BUDDY);
+		assertEquals(mem.capacity(), mem.available());
+		assertEquals(Ram.Mb(64), mem.largestFreeBlock());
+		long big = mem.store(new byte[(int)Ram.Mb(40)]);
+		long medium = mem.store(new byte[(int)Ram.Mb(20)]);
+		long small = mem.store(new byte[(int)Ram.Mb(3)]);
+		assertTrue(big != EntryTable.NONE);
+		assertTrue(medium != EntryTable.NONE);
+		assertTrue(small != EntryTable.NONE);
+		mem.free(big);
+		mem.free(medium);
+		mem.free(small);
+		assertEquals(mem.capacity(), mem.available());
+		assertEquals(Ram.Mb(64), mem.largestFreeBlock());
+	}
+
+	@Test
+	public void fragmentation() {
+		OffHeapMemoryBuffer mem = OffHeapMemoryBuffer.createNew(Ram.Mb(1), -1, AllocationStrategy.BUDDY);
+		int howMany = (int)(mem.capacity() / Ram.Kb(1));
+		long[] stored = new long[howMany];
+		for (int i = 0; i < howMany; i++) {
+			stored[i] = mem.store(new byte[(int)Ram.Kb(1)]);
+			assertTrue(stored[i] != EntryTable.NONE);
+		}
+		for (int i = 0; i < howMany; i += 2) {
+			mem.free(stored[i]);
+		}
+		logger.info(Format.it("every other block freed - fragmentation: %.3f", mem.fragmentation()));
+		assertEquals(Ram.Kb(1), mem.largestFreeBlock());
+		assertTrue(mem.fragmentation() > 0.99);
+		
+		for (int i = 1; i < howMany; i += 2) {
+			mem.free(stored[i]);
+		}
+		assertEquals(mem.capacity(), mem.largestFreeBlock());
+		assertEquals(0, mem.fragmentation(), 0);
+	}
+	
+	@Test
+	public void steadyChurn() {
+		OffHeapMemoryBuffer mem = OffHeapMemoryBuffer.createNew(Ram.Mb(16), -1, AllocationStrategy.BUDDY);
+		long[] stored = new long[10000];
+		int maxSize = (int)(mem.capacity() / stored.length);
+		
+		long start = System.currentTimeMillis();
+		for (int i = 0; i < 1000000; i++) {
+			int slot = rnd.nextInt(stored.length);
+			if (stored[slot] != EntryTable.NONE) {
+				mem.free(stored[slot]);
+			}
+			byte[] payload = new byte[1 + rnd.nextInt(maxSize)];
+			payload[0] = (byte)slot;
+			stored[slot] = mem.store(payload);
+			assertTrue(stored[slot] != EntryTable.NONE);
+			assertEquals((byte)slot, mem.retrieve(stored[slot])[0]);
+		}
+		logger.info("1000000 replacements done in " + (System.currentTimeMillis() - start) + " msecs.");
+		logger.info(Format.it("fragmentation under churn: %.3f", mem.fragmentation()));
+
+		for (long handle : stored) {
+			mem.free(handle);
+		}
+		assertEquals(0, mem.used());
+		assertEquals(mem.capacity(), mem.available());
+		assertEquals(mem.capacity(), mem.largestFreeBlock());
+	}
+}
@@ -0,0 +1,174 @@
+package org.directmemory.memory.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.directmemory.measures.Ram;
+import org.directmemory.memory.AllocationStrategy;
+import org.directmemory.memory.EntryTable;
+import org.directmemory.memory.EntryView;
+import org.directmemory.memory.MemoryManager;
+import org.directmemory.memory.OffHeapMemoryBuffer;
+import org.junit.Before;
+import org.junit.Test;
+
+public class BufferPoolTests {
+
+	@Before
+	public void init() {
+		MemoryManager.init(1, 4, Ram.Mb(1), AllocationStrategy.FIRST_FIT);
+	}
+
+	@Test
+	public void growsAsTheCacheFills() {
+		assertEquals(1, MemoryManager.buffers.size());
+		assertEquals(Ram.Mb(1), MemoryManager.allocated());
+		assertEquals(Ram.Mb(4), MemoryManager.capacity());
+		final List<Long> handles = new ArrayList<Long>();
+		final byte[] payload = new byte[(int)Ram.Kb(1)];
+		for (int i = 0; i < 3000; i++) {
+			final long handle = MemoryManager.store(payload);
+			assertTrue(handle != EntryTable.NONE);
+			handles.add(handle);
+		}
+		assertEquals(3, MemoryManager.buffers.size());
+		assertEquals(Ram.Mb(3), MemoryManager.allocated());
+		// full
+		for (int i = 0; i < 1100; i++) {
+			MemoryManager.store(payload);
+		}
+		assertEquals(EntryTable.NONE, MemoryManager.store(payload));
+		assertEquals(4, MemoryManager.buffers.size());
+
+		for (long handle : handles) {
+			MemoryManager.free(handle);
+		}
+		// the buffer holding the last entries is kept
+		assertTrue(MemoryManager.shrink() >= Ram.Mb(2));
+		assertTrue(MemoryManager.buffers.size() <= 2);
+		assertTrue(MemoryManager.store(payload) != EntryTable.NONE);
+	}
+
+	@Test
+	public void neverBelowTheMinimum() {
+		MemoryManager.clear();
+		assertEquals(1, MemoryManager.buffers.size());
+		assertEquals(0, MemoryManager.shrink());
+		final long handle = MemoryManager.store("still there".getBytes());
+		assertEquals("still there", new String(MemoryManager.retrieve(handle)));
+	}
+
+	@Test
+	public void writersSpreadOverBuffers() throws InterruptedException {
+		MemoryManager.init(4, 4, Ram.Mb(1), AllocationStrategy.FIRST_FIT);
+		final Thread[] writers = new Thread[4];
+		for (int t = 0; t < writers.length; t++) {
+			writers[t] = new Thread() {
+				public void run() {
+					for (int i = 0; i < 100; i++) {
+						assertTrue(MemoryManager.store(new byte[1000]) != EntryTable.NONE);
+					}
+				}
+			};
+			writers[t].start();
+		}
+		for (Thread writer : writers) {
+			writer.join();
+		}
+		int inUse = 0;
+		for (OffHeapMemoryBuffer buffer : MemoryManager.buffers) {
+			if (buffer.used() > 0) {
+				inUse++;
+			}
+		}
+		assertTrue(inUse > 1);
+	}
+
+	@Test
+	public void freedSpaceIsReusedInEveryBuffer() {
+		MemoryManager.init(2, 2, Ram.Kb(64), AllocationStrategy.FIRST_FIT);
+		final List<Long> handles = new ArrayList<Long>();
+		long handle;
+		while ((handle = MemoryManager.store(new byte[1000])) != EntryTable.NONE) {
+			handles.add(handle);
+		}
+		// frees everything in the buffer the calling thread does not start from
+		final int other = MemoryManager.table.buffer(handles.get(handles.size() - 1));
+		for (long stored : handles) {
+			if (MemoryManager.table.buffer(stored) == other) {
+				MemoryManager.free(stored);
+			}
+		}
+		handle = MemoryManager.store(new byte[1000]);
+		assertTrue(handle != EntryTable.NONE);
+		assertEquals(other, MemoryManager.table.buffer(handle));
+	}
+
+	@Test
+	public void roomIsMadeInTheOtherBuffers() {
+		MemoryManager.init(2, 2, Ram.Kb(64), AllocationStrategy.BUMP);
+		final List<Long> handles = new ArrayList<Long>();
+		long handle;
+		while ((handle = MemoryManager.store(new byte[1000])) != EntryTable.NONE) {
+			handles.add(handle);
+		}
+		// the buffer the calling thread starts from cannot make room, the other one holds a single entry
+		final int other = MemoryManager.table.buffer(handles.get(handles.size() - 1));
+		for (long stored : handles.subList(0, handles.size() - 1)) {
+			if (MemoryManager.table.buffer(stored) == other) {
+				MemoryManager.free(stored);
+			}
+		}
+		assertEquals(EntryTable.NONE, MemoryManager.store(new byte[1000]));
+		assertTrue(MemoryManager.makeRoom(1000, 8) > 0);
+		handle = MemoryManager.store(new byte[1000]);
+		assertTrue(handle != EntryTable.NONE);
+		assertEquals(other, MemoryManager.table.buffer(handle));
+	}
+
+	@Test
+	public void onlyEmptyBuffersClose() {
+		final OffHeapMemoryBuffer mem = OffHeapMemoryBuffer.createNew(Ram.Kb(64));
+		final long handle = mem.store(new byte[100]);
+		assertFalse(mem.close());
+		assertFalse(mem.isClosed());
+		mem.free(handle);
+		assertTrue(mem.close());
+		assertEquals(EntryTable.NONE, mem.store(new byte[100]));
+	}
+
+	@Test
+	public void pinnedEntriesKeepTheirBufferOpen() {
+		final OffHeapMemoryBuffer mem = OffHeapMemoryBuffer.createNew(Ram.Kb(64));
+		final long handle = mem.store(new byte[100]);
+		final EntryView view = mem.view(handle);
+		mem.free(handle);
+		assertFalse(mem.close());
+		view.release();
+		assertTrue(mem.close());
+	}
+
+	@Test
+	public void replacedPoolIsDisposed() throws InterruptedException {
+		final OffHeapMemoryBuffer previous = MemoryManager.buffers.get(0);
+		final long delay = MemoryManager.RETIREMENT_DELAY;
+		MemoryManager.RETIREMENT_DELAY = 10;
+		try {
+			MemoryManager.init(1, 4, Ram.Mb(1), AllocationStrategy.FIRST_FIT);
+			Thread.sleep(200);
+			assertTrue(previous.isClosed());
+			assertFalse(MemoryManager.buffers.get(0).isClosed());
+		} finally {
+			MemoryManager.RETIREMENT_DELAY = delay;
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void poolWithoutBuffersIsRejected() {
+		MemoryManager.init(0, Ram.Mb(1));
+	}
+}
@@ -0,0 +1,121 @@
+package org.directmemory.memory.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.directmemory.measures.Ram;
+import org.directmemory.memory.AllocationStrategy;
+import org.directmemory.memory.BumpMemoryBuffer;
+import org.directmemory.memory.EntryTable;
+import org.directmemory.memory.OffHeapMemoryBuffer;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class BumpTests {
+
+	private static Logger logger = LoggerFactory.getLogger(BumpTests.class);
+
+	@Test
+	public void smokeTest() {
+		OffHeapMemoryBuffer mem = OffHeapMemoryBuffer.createNew(Ram.Mb(1), -1, AllocationStrategy.BUMP);
+		byte[] payload = "this is a nicely crafted test".getBytes();
+		long p = mem.store(payload);
+		assertTrue(p != EntryTable.NONE);
+		assertEquals(payload.length, mem.table.length(p));
+		assertEquals(payload.length, mem.used());
+		assertEquals(new String(payload), new String(mem.retrieve(p)));
+		mem.free(p);
+		assertEquals(0, mem.used());
+	}
+	
+	@Test
+	public void regionTailsAreHandedBack() throws InterruptedException {
+		final BumpMemoryBuffer mem = (BumpMemoryBuffer)OffHeapMemoryBuffer.createNew(Ram.Mb(1), -1, AllocationStrategy.BUMP);
+		final byte[] payload = new byte[100];
+		
+		Thread idle = new Thread() {
+			public void run() {
+				assertTrue(mem.store(payload) != EntryTable.NONE);
+			}
+		};
+		idle.start();
+		idle.join();
+		assertEquals(mem.capacity() - BumpMemoryBuffer.DEFAULT_REGION_SIZE, mem.available());
+
+		assertEquals(0, mem.reclaimIdleRegions());
+		assertEquals(BumpMemoryBuffer.DEFAULT_REGION_SIZE - payload.length, mem.reclaimIdleRegions());
+		assertEquals(mem.capacity() - payload.length, mem.available());
+		assertEquals(mem.capacity() - payload.length, mem.largestFreeBlock());
+
+		assertTrue(mem.store(payload) != EntryTable.NONE);
+		mem.release();
+		assertEquals(mem.capacity() - payload.length * 2, mem.available());
+	}
+	
+	@Test
+	public void bufferIsResetWhenItsLastEntryIsFreed() {
+		final OffHeapMemoryBuffer mem = OffHeapMemoryBuffer.createNew(Ram.Mb(1), -1, AllocationStrategy.BUMP);
+		final byte[] payload = new byte[1000];
+		final List<Long> stored = new ArrayList<Long>();
+		long p;
+		while ((p = mem.store(payload)) != EntryTable.NONE) {
+			stored.add(p);
+		}
+		for (int i = 1; i < stored.size(); i++) {
+			mem.free(stored.get(i));
+		}
+		// one entry left, the space of the others is not handed out again
+		assertEquals(EntryTable.NONE, mem.store(payload));
+		mem.free(stored.get(0));
+		assertEquals(0, mem.used());
+		assertEquals(mem.capacity(), mem.largestFreeBlock());
+		for (int i = 0; i < stored.size(); i++) {
+			assertTrue(mem.store(payload) != EntryTable.NONE);
+		}
+	}
+
+	@Test
+	public void concurrentStores() throws InterruptedException {
+		concurrentStores(AllocationStrategy.SLAB, 1);
+		concurrentStores(AllocationStrategy.BUMP, 1);
+		int threads = Math.max(2, Runtime.getRuntime().availableProcessors());
+		concurrentStores(AllocationStrategy.SLAB, threads);
+		concurrentStores(AllocationStrategy.BUMP, threads);
+	}
+
+	private void concurrentStores(AllocationStrategy strategy, int howManyThreads) throws InterruptedException {
+		final OffHeapMemoryBuffer mem = OffHeapMemoryBuffer.createNew(Ram.Mb(128), -1, strategy);
+		final int perThread = 1000000 / howManyThreads;
+		final AtomicInteger bad = new AtomicInteger();
+		Thread[] threads = new Thread[howManyThreads];
+		for (int i = 0; i < threads.length; i++) {
+			final String prefix = "thread-" + i + "-";
+			threads[i] = new Thread() {
+				public void run() {
+					for (int j = 0; j < perThread; j++) {
+						final String test = prefix + j;
+						long p = mem.store(test.getBytes());
+						if (p == EntryTable.NONE || !test.equals(new String(mem.retrieve(p)))) {
+							bad.incrementAndGet();
+						}
+					}
+				}
+			};
+		}
+		long start = System.currentTimeMillis();
+		for (Thread thread : threads) {
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		logger.info(strategy + ": " + perThread * howManyThreads + " entries from " + howManyThreads + " threads stored in " + (System.currentTimeMillis() - start) + " msecs.");
+		assertEquals(0, bad.get());
+		assertTrue(mem.used() > 0);
+	}
+}
@@ -0,0 +1,140 @@
+package org.directmemory.memory.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.directmemory.measures.Ram;
+import org.directmemory.memory.AllocationStrategy;
+import org.directmemory.memory.EntryHeader;
+import org.directmemory.memory.EntryTable;
+import org.directmemory.memory.OffHeapMemoryBuffer;
+import org.directmemory.misc.Format;
+import org.junit.After;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class CompactionTests {
+	private static Logger logger = LoggerFactory.getLogger(CompactionTests.class);
+
+	@After
+	public void noHeaders() {
+		OffHeapMemoryBuffer.DEFAULT_HEADERS = false;
+	}
+
+	private static byte[] payload(int i, int size) {
+		final byte[] payload = new byte[size];
+		for (int j = 0; j < size; j++) {
+			payload[j] = (byte)(i + j);
+		}
+		return payload;
+	}
+
+	private static void check(byte[] payload, int i, int size) {
+		assertEquals(size, payload.length);
+		for (int j = 0; j < size; j++) {
+			assertEquals((byte)(i + j), payload[j]);
+		}
+	}
+
+	/**
+	 * fills the buffer with blocks of the given size and frees every other one
+	 */
+	private static long[] fragment(OffHeapMemoryBuffer mem, int size) {
+		final long[] handles = new long[(int)(mem.capacity() / size)];
+		for (int i = 0; i < handles.length; i++) {
+			handles[i] = mem.store(payload(i, size));
+		}
+		for (int i = 0; i < handles.length; i += 2) {
+			mem.free(handles[i]);
+			handles[i] = EntryTable.NONE;
+		}
+		return handles;
+	}
+
+	private void compactAndStore(AllocationStrategy strategy) {
+		final OffHeapMemoryBuffer mem = OffHeapMemoryBuffer.createNew(Ram.Mb(1), -1, strategy);
+		final int size = (int)Ram.Kb(1);
+		final long[] handles = fragment(mem, size);
+		final int large = (int)Ram.Kb(64);
+		assertTrue(mem.available() > large);
+		assertEquals(EntryTable.NONE, mem.store(new byte[large]));
+		logger.info(Format.it("%s fragmentation before compaction %.2f", strategy, mem.fragmentation()));
+
+		assertTrue(mem.compact() > 0);
+		logger.info(Format.it("%s fragmentation after compaction %.2f", strategy, mem.fragmentation()));
+		assertTrue(mem.store(new byte[large]) != EntryTable.NONE);
+		for (int i = 1; i < handles.length; i += 2) {
+			check(mem.retrieve(handles[i]), i, size);
+		}
+	}
+
+	@Test
+	public void firstFit() {
+		compactAndStore(AllocationStrategy.FIRST_FIT);
+	}
+
+	@Test
+	public void buddy() {
+		compactAndStore(AllocationStrategy.BUDDY);
+	}
+
+	@Test
+	public void headersFollowTheEntries() {
+		OffHeapMemoryBuffer.DEFAULT_HEADERS = true;
+		final OffHeapMemoryBuffer mem = OffHeapMemoryBuffer.createNew(Ram.Mb(1));
+		int live = 0;
+		for (long handle : fragment(mem, 1000)) {
+			if (handle != EntryTable.NONE) {
+				live++;
+			}
+		}
+		mem.compact();
+		final AtomicInteger walked = new AtomicInteger();
+		mem.walk(new EntryHeader.Visitor() {
+			public void visit(EntryHeader header) {
+				assertEquals(1000, header.payloadLength);
+				walked.incrementAndGet();
+			}
+		});
+		assertEquals(live, walked.get());
+		assertEquals(walked.get(), mem.recover());
+	}
+
+	@Test
+	public void readersDuringCompaction() throws InterruptedException {
+		final OffHeapMemoryBuffer mem = OffHeapMemoryBuffer.createNew(Ram.Mb(4));
+		final int size = 500;
+		final long[] handles = fragment(mem, size);
+		final AtomicInteger reads = new AtomicInteger();
+		final AtomicInteger failures = new AtomicInteger();
+		final Thread[] readers = new Thread[4];
+		for (int t = 0; t < readers.length; t++) {
+			readers[t] = new Thread() {
+				public void run() {
+					for (int round = 0; round < 20; round++) {
+						for (int i = 1; i < handles.length; i += 2) {
+							try {
+								check(mem.retrieve(handles[i]), i, size);
+								reads.incrementAndGet();
+							} catch (Throwable e) {
+								failures.incrementAndGet();
+							}
+						}
+					}
+				}
+			};
+			readers[t].start();
+		}
+		final long moved = mem.compact();
+		for (Thread reader : readers) {
+			reader.join();
+		}
+		logger.info(Format.it("moved %s while %d reads went on", Ram.inKb(moved), reads.get()));
+		assertTrue(moved > 0);
+		assertEquals(0, failures.get());
+		assertTrue(mem.fragmentation() < 0.1);
+	}
+}
@@ -7,7 +7,6 @@ import java.util.concurrent.atomic.AtomicInteger;
 import org.directmemory.measures.Ram;
 import org.directmemory.memory.MemoryManager;
 import org.directmemory.memory.OffHeapMemoryBuffer;
-import org.directmemory.memory.Pointer;
 import org.junit.AfterClass;
 import org.junit.BeforeClass;
 import org.junit.Rule;
@@ -38,7 +37,7 @@ public class ConcurrentTests2 {
 	private static AtomicInteger bad = new AtomicInteger(); 
 	private static AtomicInteger read = new AtomicInteger();
 
-	public static ConcurrentMap<String, Pointer> map = new MapMaker()
+	public static ConcurrentMap<String, Long> map = new MapMaker()
 		.concurrencyLevel(4)
 		.initialCapacity(100000)
 		.makeMap();
@@ -55,7 +54,7 @@ public class ConcurrentTests2 {
   	@Test
   	public void retrieveCatchThemAll() {
   		String key = "test-" + (rndGen.nextInt(entries)+1);
-  		Pointer p = map.get(key);
+  		Long p = map.get(key);
 		read.incrementAndGet();
   		if (p != null) {
   			got.incrementAndGet();
@@ -74,7 +73,7 @@ public class ConcurrentTests2 {
   	@Test
   	public void retrieveCatchHalfOfThem() {
   		String key = "test-" + (rndGen.nextInt(entries*2)+1);
-  		Pointer p = map.get(key);
+  		Long p = map.get(key);
 		read.incrementAndGet();
   		if (p != null) {
   			got.incrementAndGet();
@@ -132,7 +131,7 @@ public class ConcurrentTests2 {
   		
   	}
 	private void get(String key) {
-  		Pointer p = map.get(key);
+  		Long p = map.get(key);
 		read.incrementAndGet();
   		if (p != null) {
   			got.incrementAndGet();
@@ -7,7 +7,6 @@ import java.util.concurrent.atomic.AtomicInteger;
 import org.directmemory.measures.Ram;
 import org.directmemory.memory.MemoryManager;
 import org.directmemory.memory.OffHeapMemoryBuffer;
-import org.directmemory.memory.Pointer;
 import org.junit.AfterClass;
 import org.junit.BeforeClass;
 import org.junit.Rule;
@@ -39,7 +38,7 @@ public class ConcurrentTests3 {
 	private static AtomicInteger read = new AtomicInteger();
 	private static AtomicInteger disposals = new AtomicInteger();
 
-	public static ConcurrentMap<String, Pointer> map = new MapMaker()
+	public static ConcurrentMap<String, Long> map = new MapMaker()
 		.concurrencyLevel(4)
 		.initialCapacity(100000)
 		.makeMap();
@@ -74,7 +73,7 @@ public class ConcurrentTests3 {
   	}
 	
 	private void get(String key) {
-  		Pointer p = map.get(key);
+  		Long p = map.get(key);
 		read.incrementAndGet();
   		if (p != null) {
   			got.incrementAndGet();
@@ -0,0 +1,93 @@
+package org.directmemory.memory.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.directmemory.measures.Ram;
+import org.directmemory.memory.AllocationStrategy;
+import org.directmemory.memory.EntryHeader;
+import org.directmemory.memory.EntryTable;
+import org.directmemory.memory.OffHeapMemoryBuffer;
+import org.junit.After;
+import org.junit.Test;
+
+public class EntryHeaderTests {
+
+	@After
+	public void noHeaders() {
+		OffHeapMemoryBuffer.DEFAULT_HEADERS = false;
+	}
+
+	private OffHeapMemoryBuffer withHeaders(AllocationStrategy strategy) {
+		OffHeapMemoryBuffer.DEFAULT_HEADERS = true;
+		return OffHeapMemoryBuffer.createNew(Ram.Mb(64), -1, strategy);
+	}
+
+	private void walkAndRecover(AllocationStrategy strategy) {
+		final OffHeapMemoryBuffer mem = withHeaders(strategy);
+		assertTrue(mem.hasHeaders());
+		final Map<Integer, String> stored = new HashMap<Integer, String>();
+		final long[] handles = new long[500];
+		for (int i = 0; i < handles.length; i++) {
+			final String key = "key" + i;
+			// sizes all over the place so that every allocator splits its blocks
+			final byte[] payload = new byte[10 + (i * 37) % 3000];
+			handles[i] = mem.store(payload, 0, key.hashCode(), payload.length % 7);
+			assertTrue(handles[i] != EntryTable.NONE);
+			stored.put(key.hashCode(), key);
+		}
+		for (int i = 0; i < handles.length; i += 3) {
+			mem.free(handles[i]);
+			stored.remove(("key" + i).hashCode());
+		}
+		final Map<Integer, Integer> lengths = new HashMap<Integer, Integer>();
+		final int walked = mem.walk(new EntryHeader.Visitor() {
+			public void visit(EntryHeader header) {
+				lengths.put(header.keyHash, header.payloadLength);
+			}
+		});
+		assertEquals(stored.size(), walked);
+		assertEquals(stored.keySet(), lengths.keySet());
+		for (int i = 1; i < handles.length; i += 3) {
+			assertEquals(mem.table.length(handles[i]), (int)lengths.get(("key" + i).hashCode()));
+		}
+
+		final long used = mem.used();
+		assertEquals(stored.size(), mem.recover());
+		assertEquals(used, mem.used());
+		assertEquals(stored.size(), mem.handles().length);
+		for (long handle : mem.handles()) {
+			final byte[] payload = mem.retrieve(handle);
+			assertEquals(mem.table.length(handle), payload.length);
+			assertEquals(payload.length % 7, mem.table.typeId(handle));
+		}
+	}
+
+	@Test
+	public void firstFit() {
+		walkAndRecover(AllocationStrategy.FIRST_FIT);
+	}
+
+	@Test
+	public void slab() {
+		walkAndRecover(AllocationStrategy.SLAB);
+	}
+
+	@Test
+	public void buddy() {
+		walkAndRecover(AllocationStrategy.BUDDY);
+	}
+
+	@Test
+	public void bump() {
+		walkAndRecover(AllocationStrategy.BUMP);
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void noWalkWithoutHeaders() {
+		OffHeapMemoryBuffer.createNew(Ram.Kb(64)).walk(null);
+	}
+}
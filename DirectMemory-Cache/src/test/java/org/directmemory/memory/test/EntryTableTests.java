@@ -0,0 +1,109 @@
+package org.directmemory.memory.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.directmemory.measures.Ram;
+import org.directmemory.memory.EntryTable;
+import org.directmemory.memory.OffHeapMemoryBuffer;
+import org.junit.Test;
+
+public class EntryTableTests {
+
+	@Test
+	public void staleHandles() {
+		EntryTable table = new EntryTable();
+		long first = table.add(0, 100, 10, 0, 0);
+		assertTrue(first != EntryTable.NONE);
+		assertTrue(table.isLive(first));
+		assertEquals(100, table.offset(first));
+		assertEquals(10, table.length(first));
+		assertTrue(table.remove(first));
+		assertFalse(table.remove(first));
+		table.recycle(first);
+		long second = table.add(1, 200, 20, 0, 0);
+		// same row, newer generation
+		assertEquals(EntryTable.row(first), EntryTable.row(second));
+		assertFalse(table.isLive(first));
+		assertTrue(table.isLive(second));
+		assertEquals(1, table.size());
+		table.dispose();
+	}
+
+	@Test
+	public void expiration() throws InterruptedException {
+		EntryTable table = new EntryTable();
+		long relative = table.add(0, 0, 1, 50, 0);
+		long absolute = table.add(0, 0, 1, 0, System.currentTimeMillis() + 50);
+		long never = table.add(0, 0, 1, 0, 0);
+		assertTrue(table.hasFlag(relative, EntryTable.FLAG_RELATIVE));
+		assertFalse(table.hasFlag(absolute, EntryTable.FLAG_RELATIVE));
+		assertFalse(table.expired(relative));
+		Thread.sleep(100);
+		assertTrue(table.expired(relative));
+		assertTrue(table.expired(absolute));
+		assertFalse(table.expired(never));
+		table.dispose();
+	}
+
+	@Test
+	public void growsBeyondOneSegment() {
+		EntryTable table = new EntryTable();
+		int howMany = EntryTable.SEGMENT_ROWS * 3 + 1;
+		long[] handles = new long[howMany];
+		for (int i = 0; i < howMany; i++) {
+			handles[i] = table.add(0, i, i % 1000, 0, 0);
+		}
+		for (int i = 0; i < howMany; i++) {
+			assertEquals(i, table.offset(handles[i]));
+			assertEquals(i % 1000, table.length(handles[i]));
+		}
+		assertEquals(howMany, table.size());
+		table.dispose();
+	}
+
+	@Test
+	public void freedEntriesAreNotRead() {
+		OffHeapMemoryBuffer mem = OffHeapMemoryBuffer.createNew(Ram.Mb(1));
+		long handle = mem.store("this is a nicely crafted test".getBytes());
+		mem.free(handle);
+		long other = mem.store("another nicely crafted test".getBytes());
+		assertNull(mem.retrieve(handle));
+		assertEquals(0, mem.free(handle));
+		assertEquals("another nicely crafted test", new String(mem.retrieve(other)));
+	}
+
+	@Test
+	public void concurrentHitsAreNotLost() throws InterruptedException {
+		final EntryTable table = new EntryTable();
+		final long handle = table.add(0, 0, 1, 0, 0);
+		final int before = EntryTable.LFU_LOG_FACTOR;
+		// every hit counts
+		EntryTable.LFU_LOG_FACTOR = 0;
+		try {
+			Thread[] threads = new Thread[4];
+			for (int i = 0; i < threads.length; i++) {
+				threads[i] = new Thread() {
+					public void run() {
+						for (int j = 0; j < 50; j++) {
+							table.hit(handle);
+						}
+					}
+				};
+				threads[i].start();
+			}
+			for (Thread thread : threads) {
+				thread.join();
+			}
+			assertEquals(EntryTable.LFU_INIT + 200, table.frequency(handle, System.currentTimeMillis()));
+			table.reference(handle);
+			assertTrue(table.clearReference(handle));
+			assertFalse(table.clearReference(handle));
+		} finally {
+			EntryTable.LFU_LOG_FACTOR = before;
+			table.dispose();
+		}
+	}
+}
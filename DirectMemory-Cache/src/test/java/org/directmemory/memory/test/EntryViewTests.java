@@ -0,0 +1,107 @@
+package org.directmemory.memory.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.ReadOnlyBufferException;
+
+import org.directmemory.measures.Ram;
+import org.directmemory.memory.EntryTable;
+import org.directmemory.memory.EntryView;
+import org.directmemory.memory.OffHeapMemoryBuffer;
+import org.junit.Test;
+
+public class EntryViewTests {
+
+	@Test
+	public void viewsThePayloadInPlace() {
+		final OffHeapMemoryBuffer mem = OffHeapMemoryBuffer.createNew(Ram.Kb(64));
+		mem.store("first".getBytes());
+		final long handle = mem.store("second entry".getBytes());
+		final EntryView view = mem.view(handle);
+		final ByteBuffer payload = view.payload();
+		assertTrue(payload.isDirect());
+		assertTrue(payload.isReadOnly());
+		assertEquals("second entry".length(), payload.remaining());
+		final byte[] bytes = new byte[payload.remaining()];
+		payload.get(bytes);
+		assertEquals("second entry", new String(bytes));
+		view.release();
+		// released twice does no harm
+		view.release();
+		assertEquals(0, mem.table.pins(handle));
+	}
+
+	@Test(expected = ReadOnlyBufferException.class)
+	public void viewsAreReadOnly() {
+		final OffHeapMemoryBuffer mem = OffHeapMemoryBuffer.createNew(Ram.Kb(64));
+		mem.view(mem.store(new byte[10])).payload().put((byte)1);
+	}
+
+	@Test
+	public void readerCallback() {
+		final OffHeapMemoryBuffer mem = OffHeapMemoryBuffer.createNew(Ram.Kb(64));
+		final long handle = mem.store(new byte[] {1, 2, 3, 4});
+		final int sum = mem.read(handle, new EntryView.Reader<Integer>() {
+			public Integer read(ByteBuffer payload) {
+				int sum = 0;
+				while (payload.hasRemaining()) {
+					sum += payload.get();
+				}
+				return sum;
+			}
+		});
+		assertEquals(10, sum);
+		assertEquals(0, mem.table.pins(handle));
+		mem.free(handle);
+		assertNull(mem.view(handle));
+	}
+
+	@Test
+	public void freedWhilePinned() {
+		final OffHeapMemoryBuffer mem = OffHeapMemoryBuffer.createNew(Ram.Kb(64));
+		final long handle = mem.store("pinned".getBytes());
+		final EntryView view = mem.view(handle);
+		mem.free(handle);
+		assertNull(mem.retrieve(handle));
+		// the block is not handed out again while the view is held
+		assertEquals(6, mem.used());
+		final long other = mem.store("reused".getBytes());
+		assertTrue(mem.table.offset(other) != mem.table.offset(handle));
+		final byte[] bytes = new byte[6];
+		view.payload().get(bytes);
+		assertEquals("pinned", new String(bytes));
+		view.release();
+		assertEquals(6, mem.used());
+		mem.free(other);
+		assertEquals(0, mem.used());
+	}
+
+	@Test
+	public void pinnedEntriesStayPut() {
+		final OffHeapMemoryBuffer mem = OffHeapMemoryBuffer.createNew(Ram.Kb(64));
+		final long first = mem.store(new byte[1000]);
+		final long second = mem.store(new byte[1000]);
+		final long offset = mem.table.offset(second);
+		mem.free(first);
+		final EntryView view = mem.view(second);
+		assertEquals(0, mem.compact());
+		assertEquals(offset, mem.table.offset(second));
+		view.release();
+		assertTrue(mem.compact() > 0);
+		assertTrue(mem.table.offset(second) < offset);
+	}
+
+	@Test
+	public void staleHandlesDoNotPin() {
+		final OffHeapMemoryBuffer mem = OffHeapMemoryBuffer.createNew(Ram.Kb(64));
+		final long handle = mem.store(new byte[10]);
+		mem.free(handle);
+		final long reused = mem.store(new byte[10]);
+		assertEquals(EntryTable.row(handle), EntryTable.row(reused));
+		assertNull(mem.view(handle));
+		assertEquals(0, mem.table.pins(reused));
+	}
+}
@@ -0,0 +1,102 @@
+package org.directmemory.memory.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.directmemory.measures.Ram;
+import org.directmemory.memory.EntryTable;
+import org.directmemory.memory.EvictionPolicy;
+import org.directmemory.memory.OffHeapMemoryBuffer;
+import org.junit.After;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class EvictionTests {
+	private static Logger logger = LoggerFactory.getLogger(EvictionTests.class);
+
+	@After
+	public void defaults() {
+		EntryTable.LFU_DECAY_PERIOD = 60000;
+		OffHeapMemoryBuffer.DEFAULT_EVICTION = EvictionPolicy.LFU;
+	}
+
+	@Test
+	public void hotEntriesSurvive() {
+		final OffHeapMemoryBuffer mem = OffHeapMemoryBuffer.createNew(Ram.Mb(1));
+		final long[] handles = new long[2000];
+		for (int i = 0; i < handles.length; i++) {
+			handles[i] = mem.store(new byte[100]);
+		}
+		// one in ten is read over and over
+		for (int round = 0; round < 50; round++) {
+			for (int i = 0; i < handles.length; i += 10) {
+				mem.retrieve(handles[i]);
+			}
+		}
+		assertEquals(2000, mem.entries());
+		assertTrue(mem.collectLFU(1000) > 0);
+		assertEquals(1000, mem.entries());
+		int hot = 0;
+		for (int i = 0; i < handles.length; i += 10) {
+			if (mem.table.isLive(handles[i])) {
+				hot++;
+			}
+		}
+		logger.info(hot + " hot entries out of 200 survived");
+		assertTrue(hot > 190);
+	}
+
+	@Test
+	public void clockGivesReferencedEntriesASecondChance() {
+		OffHeapMemoryBuffer.DEFAULT_EVICTION = EvictionPolicy.CLOCK;
+		final OffHeapMemoryBuffer mem = OffHeapMemoryBuffer.createNew(Ram.Mb(1));
+		final long[] handles = new long[2000];
+		for (int i = 0; i < handles.length; i++) {
+			handles[i] = mem.store(new byte[100]);
+		}
+		final long lastHit = mem.table.lastHit(handles[0]);
+		for (int i = 0; i < handles.length; i += 10) {
+			mem.retrieve(handles[i]);
+			assertTrue(mem.table.isReferenced(handles[i]));
+		}
+		// reads only set the reference bit
+		assertEquals(lastHit, mem.table.lastHit(handles[0]));
+		assertEquals(EntryTable.LFU_INIT, mem.table.frequency(handles[0], System.currentTimeMillis()));
+		assertTrue(mem.collectLFU(1000) > 0);
+		assertEquals(1000, mem.entries());
+		for (int i = 0; i < handles.length; i += 10) {
+			assertTrue(mem.table.isLive(handles[i]));
+		}
+		// the first unreferenced entries went first, in the order of the hand
+		assertTrue(!mem.table.isLive(handles[1]));
+		assertTrue(mem.table.isLive(handles[handles.length - 1]));
+	}
+
+	@Test
+	public void aTenthByDefault() {
+		final OffHeapMemoryBuffer mem = OffHeapMemoryBuffer.createNew(Ram.Mb(1));
+		for (int i = 0; i < 1000; i++) {
+			mem.store(new byte[100]);
+		}
+		mem.collectLFU(-1);
+		assertEquals(900, mem.entries());
+	}
+
+	@Test
+	public void countersGrowLogarithmicallyAndDecay() throws InterruptedException {
+		final OffHeapMemoryBuffer mem = OffHeapMemoryBuffer.createNew(Ram.Kb(64));
+		final long handle = mem.store(new byte[10]);
+		final long now = System.currentTimeMillis();
+		assertEquals(EntryTable.LFU_INIT, mem.table.frequency(handle, now));
+		for (int i = 0; i < 10000; i++) {
+			mem.table.hit(handle);
+		}
+		final int frequency = mem.table.frequency(handle, System.currentTimeMillis());
+		assertTrue(frequency > EntryTable.LFU_INIT + 5);
+		assertTrue(frequency < 100);
+		EntryTable.LFU_DECAY_PERIOD = 10;
+		Thread.sleep(50);
+		assertTrue(mem.table.frequency(handle, System.currentTimeMillis()) <= frequency - 4);
+	}
+}
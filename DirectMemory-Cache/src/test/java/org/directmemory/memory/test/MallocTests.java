@@ -2,13 +2,14 @@ package org.directmemory.memory.test;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
 
 import java.util.Random;
 import java.util.concurrent.ConcurrentMap;
 
 import org.directmemory.measures.Ram;
+import org.directmemory.memory.EntryTable;
 import org.directmemory.memory.OffHeapMemoryBuffer;
-import org.directmemory.memory.Pointer;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Rule;
@@ -47,16 +48,27 @@ public class MallocTests {
 		logger.info("heap - allocated: " + Ram.inMb(Runtime.getRuntime().totalMemory()));
 		logger.info("heap - free : " + Ram.inMb(Runtime.getRuntime().freeMemory()));
 		logger.info("************************************************");
+		mem.clear();
+		mem.close();
 	}
 
-	OffHeapMemoryBuffer mem = OffHeapMemoryBuffer.createNew(512 * 1024 * 1024);
+	OffHeapMemoryBuffer mem = createBuffer();
+	
+	protected OffHeapMemoryBuffer createBuffer() {
+		return OffHeapMemoryBuffer.createNew(512 * 1024 * 1024);
+	}
+	
+	protected int payloadSize(int howMany) {
+		int size = (int)(mem.capacity() / (howMany));
+		size -= size / 100 * 1;
+		return size;
+	}
   
 	@Test
 	public void oneMillionEntries() {
 		assertNotNull(mem);
 		int howMany = 1000000;
-		int size = mem.capacity() / (howMany);
-		size -= size / 100 * 1;
+		int size = payloadSize(howMany);
 		logger.info("payload size=" + size);
 		logger.info("entries=" + howMany);
 
@@ -77,8 +89,7 @@ public class MallocTests {
 		
 		assertNotNull(mem);
 		int howMany = 2000000;
-		int size = mem.capacity() / (howMany);
-		size -= size / 100 * 1;
+		int size = payloadSize(howMany);
 		logger.info("payload size=" + size);
 		logger.info("entries=" + howMany);
 
@@ -98,8 +109,7 @@ public class MallocTests {
 		
 		assertNotNull(mem);
 		int howMany = 5000000;
-		int size = mem.capacity() / (howMany);
-		size -= size / 100 * 1;
+		int size = payloadSize(howMany);
 		logger.info("payload size=" + size);
 		logger.info("entries=" + howMany);
 
@@ -118,7 +128,7 @@ public class MallocTests {
 	@Test
 	public void withMap() {
 
-		ConcurrentMap<Long, Pointer> map = new MapMaker()
+		ConcurrentMap<Long, Long> map = new MapMaker()
 			.concurrencyLevel(4)
 			.initialCapacity(500000)
 			.makeMap();
@@ -131,7 +141,7 @@ public class MallocTests {
 
 		logger.info("adding " + howMany + " strings of " + size + " bytes...");
 		for (long i = 0; i < howMany; i++) {
-			Pointer p = mem.store(payload);
+			long p = mem.store(payload);
 			map.put(i, p);
 		}
 		logger.info("...done");
@@ -158,7 +168,7 @@ public class MallocTests {
 		String test = "this is a nicely crafted test";
 		byte[] payload = test.getBytes();
 		for (int i = 0; i < howMany; i++) {
-			Pointer p = mem.store(payload);
+			long p = mem.store(payload);
 			byte[] check = mem.retrieve(p);
 			assertNotNull(check);
 			assertEquals(test, new String(check));
@@ -166,6 +176,34 @@ public class MallocTests {
 		
 		logger.info("total used=" + Ram.inMb(mem.used()));
 	}
+
+	@Test
+	public void oneMillionEntriesWithChurn() {
+		assertNotNull(mem);
+		int howMany = 1000000;
+		int size = payloadSize(howMany);
+		logger.info("payload size=" + size);
+		logger.info("entries=" + howMany / 2 + ", then " + howMany / 2 + " replacements");
+
+		long[] stored = new long[howMany / 2];
+		byte[] payload = new byte[size];
+		for (int i = 0; i < stored.length; i++) {
+			stored[i] = mem.store(payload);
+			assertTrue(stored[i] != EntryTable.NONE);
+		}
+
+		logger.info("starting...");
+		long start = System.currentTimeMillis();
+		
+		for (int i = 0; i < stored.length; i++) {
+			int victim = rnd.nextInt(stored.length);
+			mem.free(stored[victim]);
+			stored[victim] = mem.store(new byte[1 + rnd.nextInt(size)]);
+			assertTrue(stored[victim] != EntryTable.NONE);
+		}
+		
+		logger.info("...done in " + (System.currentTimeMillis() - start) + " msecs.");
+	}
 }
 	
 	
@@ -2,14 +2,15 @@ package org.directmemory.memory.test;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
 
 import java.util.Map;
 import java.util.Random;
 
 import org.directmemory.measures.Ram;
+import org.directmemory.memory.EntryTable;
 import org.directmemory.memory.MemoryManager;
 import org.directmemory.memory.OffHeapMemoryBuffer;
-import org.directmemory.memory.Pointer;
 import org.junit.BeforeClass;
 import org.junit.Test;
 import org.junit.rules.MethodRule;
@@ -35,13 +36,13 @@ public class MemoryManagerTests {
 		Random rnd = new Random();
 		int size = rnd.nextInt(10) * (int)MemoryManager.capacity() / 100;
 		logger.info("payload size=" + Ram.inKb(size));
-		Pointer p = MemoryManager.store(new byte[size]);
+		long p = MemoryManager.store(new byte[size]);
 		logger.info("stored");
-		assertNotNull(p);
-		assertEquals(size,p.end);
-		assertEquals(size, MemoryManager.activeBuffer.used());
+		assertTrue(p != EntryTable.NONE);
+		assertEquals(size, MemoryManager.table.offset(p) + MemoryManager.table.length(p));
+		assertEquals(size, MemoryManager.used());
 		MemoryManager.free(p);
-		assertEquals(0, MemoryManager.activeBuffer.used());		
+		assertEquals(0, MemoryManager.used());		
 		logger.info("end");
 	}
 
@@ -56,8 +57,8 @@ public class MemoryManagerTests {
 		
 		
 		for (int i = 0; i < howMany ; i++) {
-			Pointer p = MemoryManager.store(payload);
-			assertNotNull(p);
+			long p = MemoryManager.store(payload);
+			assertTrue(p != EntryTable.NONE);
 		}
 		
 		logger.info("" + howMany + " items stored");
@@ -67,12 +68,10 @@ public class MemoryManagerTests {
 	@Test
 	public void readTest() {
 		for (OffHeapMemoryBuffer buffer : MemoryManager.buffers) {
-			for (Pointer ptr : buffer.pointers) {
-				if (!ptr.free) {
-					byte[] res = MemoryManager.retrieve(ptr);
-					assertNotNull(res);
-					assertEquals(new String(payload), new String(res));
-				}
+			for (long handle : buffer.handles()) {
+				byte[] res = MemoryManager.retrieve(handle);
+				assertNotNull(res);
+				assertEquals(new String(payload), new String(res));
 			}
 		}
 	}
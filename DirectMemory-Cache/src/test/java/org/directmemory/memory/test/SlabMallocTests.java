@@ -0,0 +1,67 @@
+package org.directmemory.memory.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.directmemory.measures.Ram;
+import org.directmemory.memory.AllocationStrategy;
+import org.directmemory.memory.EntryTable;
+import org.directmemory.memory.OffHeapMemoryBuffer;
+import org.directmemory.memory.SlabMemoryBuffer;
+
+import org.junit.Test;
+
+import com.carrotsearch.junitbenchmarks.BenchmarkOptions;
+import com.carrotsearch.junitbenchmarks.annotation.AxisRange;
+import com.carrotsearch.junitbenchmarks.annotation.BenchmarkHistoryChart;
+import com.carrotsearch.junitbenchmarks.annotation.BenchmarkMethodChart;
+import com.carrotsearch.junitbenchmarks.annotation.LabelType;
+
+@AxisRange(min = 0, max = 1)
+@BenchmarkMethodChart()
+@BenchmarkOptions(benchmarkRounds = 1, warmupRounds = 0)
+@BenchmarkHistoryChart(labelWith = LabelType.CUSTOM_KEY, maxRuns = 5)
+
+public class SlabMallocTests extends MallocTests {
+
+	@Override
+	protected OffHeapMemoryBuffer createBuffer() {
+		return OffHeapMemoryBuffer.createNew(512 * 1024 * 1024, -1, AllocationStrategy.SLAB);
+	}
+	
+	@Override
+	protected int payloadSize(int howMany) {
+		// size classes are up to GROWTH_FACTOR apart, leave room for the rounding
+		return (int)(super.payloadSize(howMany) / SlabMemoryBuffer.GROWTH_FACTOR);
+	}
+
+	@Test
+	public void emptyPagesGoBackAndMerge() {
+		final SlabMemoryBuffer slab = (SlabMemoryBuffer)mem;
+		final int pages = slab.freePages();
+		final long[] small = new long[50000];
+		final long[] large = new long[50];
+		for (int i = 0; i < small.length; i++) {
+			small[i] = mem.store(new byte[100]);
+			if (i % 1000 == 0) {
+				large[i / 1000] = mem.store(new byte[(int)Ram.Mb(3)]);
+			}
+		}
+		// 100 bytes take a slot of the next size class
+		assertTrue(mem.used() > small.length * 100 + large.length * Ram.Mb(3));
+		for (long handle : small) {
+			mem.free(handle);
+		}
+		for (int i = 0; i < large.length; i += 2) {
+			mem.free(large[i]);
+		}
+		for (int i = 1; i < large.length; i += 2) {
+			mem.free(large[i]);
+		}
+		assertEquals(0, mem.used());
+		assertEquals(pages, slab.freePages());
+		assertEquals(pages * Ram.Mb(1), mem.largestFreeBlock());
+		// the pages of the small entries are good for a run as large as the buffer
+		assertTrue(mem.store(new byte[(int)(pages * Ram.Mb(1))]) != EntryTable.NONE);
+	}
+}
@@ -36,7 +36,7 @@ public class Starter {
 	}
 	
 	public void dump(OffHeapMemoryBuffer mem) {
-		logger.info("off-heap - buffer: " + mem.pointers.get(1).bufferNumber);
+		logger.info("off-heap - buffer: " + mem.bufferNumber);
 		logger.info("off-heap - allocated: " + Ram.inMb(mem.capacity()));
 		logger.info("off-heap - used:      " + Ram.inMb(mem.used()));
 		logger.info("heap 	  - max: " + Ram.inMb(Runtime.getRuntime().maxMemory()));
@@ -48,7 +48,7 @@ public class Starter {
 	public void rawInsert(int megabytes, int howMany) {
 		OffHeapMemoryBuffer mem = OffHeapMemoryBuffer.createNew(megabytes * 1024 * 1024);
 		assertNotNull(mem);
-		int size = mem.capacity() / (howMany);
+		int size = (int)(mem.capacity() / (howMany));
 		size -= size / 100 * 1;
 		logger.info("payload size=" + size);
 		logger.info("entries=" + howMany);
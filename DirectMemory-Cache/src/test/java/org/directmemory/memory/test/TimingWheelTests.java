@@ -0,0 +1,94 @@
+package org.directmemory.memory.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.directmemory.measures.Ram;
+import org.directmemory.memory.OffHeapMemoryBuffer;
+import org.directmemory.memory.TimingWheel;
+import org.junit.Test;
+
+public class TimingWheelTests {
+
+	private static class Counter implements TimingWheel.Sink {
+		int expired;
+
+		public void expired(long handle) {
+			expired++;
+		}
+	}
+
+	@Test
+	public void entriesCascadeDownToTheirBucket() {
+		final OffHeapMemoryBuffer mem = OffHeapMemoryBuffer.createNew(Ram.Kb(64));
+		final long start = System.currentTimeMillis();
+		final TimingWheel wheel = new TimingWheel(mem.table, start);
+		final long[] ttls = {100, 5000, 100000, 2 * 60 * 1000L, 3 * 24 * 3600 * 1000L, 5 * 24 * 3600 * 1000L};
+		final long[] expires = new long[ttls.length];
+		for (int i = 0; i < ttls.length; i++) {
+			final long handle = mem.store(new byte[10], ttls[i]);
+			expires[i] = mem.table.expires(handle);
+			wheel.schedule(handle, expires[i]);
+		}
+		// never expires
+		wheel.schedule(mem.store(new byte[10]), 0);
+		assertEquals(ttls.length, wheel.size());
+		final Counter counter = new Counter();
+		for (int i = 0; i < ttls.length; i++) {
+			// neither early nor later than a bucket of the finest wheel, 16 milliseconds
+			assertEquals(0, wheel.advance(expires[i] - 1, counter));
+			assertEquals(1, wheel.advance(expires[i] + 16, counter));
+		}
+		assertEquals(ttls.length, counter.expired);
+		assertEquals(0, wheel.size());
+	}
+
+	@Test
+	public void staleHandlesAreBounded() {
+		final OffHeapMemoryBuffer mem = OffHeapMemoryBuffer.createNew(Ram.Kb(64));
+		final long start = System.currentTimeMillis();
+		final TimingWheel wheel = new TimingWheel(mem.table, start);
+		final long live = mem.store(new byte[10], 24 * 3600 * 1000L);
+		wheel.schedule(live, mem.table.expires(live));
+		// the same entry overwritten over and over, all of them going to the same far bucket
+		for (int i = 0; i < 100000; i++) {
+			final long handle = mem.store(new byte[10], 24 * 3600 * 1000L);
+			wheel.schedule(handle, mem.table.expires(live));
+			mem.free(handle);
+		}
+		assertTrue(wheel.size() <= 16);
+		assertEquals(1, wheel.advance(mem.table.expires(live) + 16, new Counter()));
+	}
+
+	@Test
+	public void freedEntriesAreSkipped() {
+		final OffHeapMemoryBuffer mem = OffHeapMemoryBuffer.createNew(Ram.Kb(64));
+		final long start = System.currentTimeMillis();
+		final TimingWheel wheel = new TimingWheel(mem.table, start);
+		final long handle = mem.store(new byte[10], 100);
+		wheel.schedule(handle, mem.table.expires(handle));
+		mem.free(handle);
+		final Counter counter = new Counter();
+		assertEquals(0, wheel.advance(start + 1000, counter));
+		assertEquals(0, wheel.size());
+	}
+
+	@Test
+	public void collectExpiredOnlyTouchesDueEntries() throws InterruptedException {
+		final OffHeapMemoryBuffer mem = OffHeapMemoryBuffer.createNew(Ram.Mb(1));
+		for (int i = 0; i < 1000; i++) {
+			mem.store(new byte[100], 50);
+			mem.store(new byte[100], 3600 * 1000L);
+			mem.store(new byte[100]);
+		}
+		assertEquals(2000, mem.expiring());
+		Thread.sleep(100);
+		assertEquals(1000 * 100, mem.collectExpired());
+		assertEquals(2000, mem.entries());
+		// the entries expiring in an hour stay where they are
+		assertEquals(1000, mem.expiring());
+		assertFalse(mem.collectExpired() > 0);
+		assertTrue(mem.used() >= 2000 * 100);
+	}
+}
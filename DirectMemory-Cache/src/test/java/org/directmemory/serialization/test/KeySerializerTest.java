@@ -0,0 +1,71 @@
+package org.directmemory.serialization.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.directmemory.serialization.KeyBuffer;
+import org.directmemory.serialization.TupleKeySerializer;
+import org.junit.Test;
+
+public class KeySerializerTest {
+	private final TupleKeySerializer serializer = new TupleKeySerializer();
+
+	private byte[] encode(Object key) {
+		final KeyBuffer buffer = new KeyBuffer(4);
+		serializer.encode(key, buffer);
+		return buffer.toByteArray();
+	}
+
+	private static boolean startsWith(byte[] bytes, byte[] prefix) {
+		return bytes.length >= prefix.length && Arrays.equals(Arrays.copyOf(bytes, prefix.length), prefix);
+	}
+
+	private static int compare(byte[] a, byte[] b) {
+		for (int i = 0; i < Math.min(a.length, b.length); i++) {
+			final int diff = (a[i] & 0xFF) - (b[i] & 0xFF);
+			if (diff != 0) {
+				return diff;
+			}
+		}
+		return a.length - b.length;
+	}
+
+	@Test
+	public void equalKeysEncodeAlike() {
+		assertArrayEquals(encode(new Object[] {"tenant", 42L, 3}), encode(Arrays.asList("tenant", 42, (short)3)));
+		assertArrayEquals(encode("€uro"), encode(new StringBuilder("€uro")));
+		assertFalse(Arrays.equals(encode("1"), encode(1)));
+		assertFalse(Arrays.equals(encode(new Object[] {"ab", "c"}), encode(new Object[] {"a", "bc"})));
+		// a 0 inside a part does not end it
+		assertFalse(Arrays.equals(encode(new Object[] {new byte[] {1, 0}, new byte[] {2}}), encode(new Object[] {new byte[] {1}, new byte[] {0, 2}})));
+		// a tag, then UTF-8
+		assertEquals(1 + 1 + 2, encode("aé").length);
+	}
+
+	@Test
+	public void leadingPartsArePrefixes() {
+		final byte[] key = encode(new Object[] {"tenant-1", "order", 7});
+		assertTrue(startsWith(key, encode(new Object[] {"tenant-1"})));
+		assertTrue(startsWith(key, encode(new Object[] {"tenant-1", "order"})));
+		assertFalse(startsWith(key, encode(new Object[] {"tenant-10"})));
+		assertTrue(startsWith(encode("test-123"), encode("test-")));
+	}
+
+	@Test
+	public void bytesSortAsKeys() {
+		assertTrue(compare(encode(-5), encode(3)) < 0);
+		assertTrue(compare(encode(3), encode(Long.MAX_VALUE)) < 0);
+		assertTrue(compare(encode("abc"), encode("abd")) < 0);
+		assertTrue(compare(encode(new Object[] {"a", 2}), encode(new Object[] {"a", 10})) < 0);
+		assertTrue(compare(encode(new Object[] {"a", 10}), encode(new Object[] {"ab", 1})) < 0);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void unknownKeysAreRejected() {
+		encode(new Object[] {"a", new Object()});
+	}
+}
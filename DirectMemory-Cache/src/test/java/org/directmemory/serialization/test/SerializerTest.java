@@ -57,24 +57,24 @@ public class SerializerTest {
 	
 	@Test
 	public void ProtostuffTest() throws IOException, ClassNotFoundException, InstantiationException, IllegalAccessException {
-		testSerializer("protostuff-old", new ProtoStuffSerializerV1(), Ram.Kb(1), 20000);
-		testSerializer("protostuff-old", new ProtoStuffSerializerV1(), Ram.Kb(2), 20000);
-		testSerializer("protostuff-old", new ProtoStuffSerializerV1(), Ram.Kb(3), 20000);
-		testSerializer("protostuff-old", new ProtoStuffSerializerV1(), Ram.Kb(4), 20000);
+		testSerializer("protostuff-old", new ProtoStuffSerializerV1(), (int)Ram.Kb(1), 20000);
+		testSerializer("protostuff-old", new ProtoStuffSerializerV1(), (int)Ram.Kb(2), 20000);
+		testSerializer("protostuff-old", new ProtoStuffSerializerV1(), (int)Ram.Kb(3), 20000);
+		testSerializer("protostuff-old", new ProtoStuffSerializerV1(), (int)Ram.Kb(4), 20000);
 	}
 	@Test
 	public void ProtostuffV2Test() throws IOException, ClassNotFoundException, InstantiationException, IllegalAccessException {
-		testSerializer("protostuff-new", new ProtoStuffWithLinkedBufferSerializer(), Ram.Kb(1), 20000);
-		testSerializer("protostuff-new", new ProtoStuffWithLinkedBufferSerializer(), Ram.Kb(2), 20000);
-		testSerializer("protostuff-new", new ProtoStuffWithLinkedBufferSerializer(), Ram.Kb(3), 20000);
-		testSerializer("protostuff-new", new ProtoStuffWithLinkedBufferSerializer(), Ram.Kb(4), 20000);
-		testSerializer("cinquantamila", new ProtoStuffWithLinkedBufferSerializer(), Ram.Kb(3), 50000);
+		testSerializer("protostuff-new", new ProtoStuffWithLinkedBufferSerializer(), (int)Ram.Kb(1), 20000);
+		testSerializer("protostuff-new", new ProtoStuffWithLinkedBufferSerializer(), (int)Ram.Kb(2), 20000);
+		testSerializer("protostuff-new", new ProtoStuffWithLinkedBufferSerializer(), (int)Ram.Kb(3), 20000);
+		testSerializer("protostuff-new", new ProtoStuffWithLinkedBufferSerializer(), (int)Ram.Kb(4), 20000);
+		testSerializer("cinquantamila", new ProtoStuffWithLinkedBufferSerializer(), (int)Ram.Kb(3), 50000);
 	}
 	@Test
 	public void StandardTest() throws IOException, ClassNotFoundException, InstantiationException, IllegalAccessException {
-		testSerializer("java-serialization", new StandardSerializer(), Ram.Kb(1), 20000);
-		testSerializer("java-serialization", new StandardSerializer(), Ram.Kb(2), 20000);
-		testSerializer("java-serialization", new StandardSerializer(), Ram.Kb(3), 20000);
-		testSerializer("java-serialization", new StandardSerializer(), Ram.Kb(4), 20000);
+		testSerializer("java-serialization", new StandardSerializer(), (int)Ram.Kb(1), 20000);
+		testSerializer("java-serialization", new StandardSerializer(), (int)Ram.Kb(2), 20000);
+		testSerializer("java-serialization", new StandardSerializer(), (int)Ram.Kb(3), 20000);
+		testSerializer("java-serialization", new StandardSerializer(), (int)Ram.Kb(4), 20000);
 	}
 }
@@ -0,0 +1,79 @@
+package org.directmemory.serialization.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.directmemory.measures.Ram;
+import org.directmemory.memory.EntryTable;
+import org.directmemory.memory.EntryView;
+import org.directmemory.memory.OffHeapMemoryBuffer;
+import org.directmemory.misc.DummyPojo;
+import org.directmemory.serialization.ProtoStuffSerializerV1;
+import org.directmemory.serialization.StreamingSerializer;
+import org.junit.Test;
+
+public class StreamingSerializerTest {
+
+	private static OffHeapMemoryBuffer.Writer writer(final StreamingSerializer serializer) {
+		return new OffHeapMemoryBuffer.Writer() {
+			public void writeTo(OutputStream out) throws IOException {
+				serializer.writeTo(out);
+			}
+		};
+	}
+
+	private void roundTrip(int size) throws Exception {
+		final StreamingSerializer serializer = new ProtoStuffSerializerV1();
+		final OffHeapMemoryBuffer mem = OffHeapMemoryBuffer.createNew(Ram.Mb(1));
+		final DummyPojo pojo = new DummyPojo("test", size);
+		final int length = serializer.prepare(pojo, DummyPojo.class);
+		assertEquals(serializer.serialize(pojo, DummyPojo.class).length, length);
+		final long handle = mem.store(length, writer(serializer), 0, 0, 0);
+		assertTrue(handle != EntryTable.NONE);
+		assertEquals(length, mem.used());
+		// the same bytes as the array based serialization
+		final DummyPojo copied = (DummyPojo)serializer.deserialize(mem.retrieve(handle), DummyPojo.class);
+		assertEquals(size, copied.size);
+
+		final EntryView view = mem.view(handle);
+		try {
+			final DummyPojo check = (DummyPojo)serializer.deserialize(view.payload(), DummyPojo.class);
+			assertEquals("test", check.name);
+			assertEquals(pojo.payLoad, check.payLoad);
+		} finally {
+			view.release();
+		}
+	}
+
+	@Test
+	public void smallObjects() throws Exception {
+		roundTrip(100);
+	}
+
+	@Test
+	public void objectsLargerThanTheScratchBuffer() throws Exception {
+		roundTrip((int)Ram.Kb(20));
+	}
+
+	@Test
+	public void shortWritesStoreNothing() {
+		final OffHeapMemoryBuffer mem = OffHeapMemoryBuffer.createNew(Ram.Kb(64));
+		try {
+			mem.store(100, new OffHeapMemoryBuffer.Writer() {
+				public void writeTo(OutputStream out) throws IOException {
+					out.write(new byte[60]);
+				}
+			}, 0, 0, 0);
+			fail();
+		} catch (IOException e) {
+			// expected
+		}
+		assertEquals(0, mem.used());
+		assertEquals(0, mem.table.size());
+		assertTrue(mem.store(new byte[(int)Ram.Kb(64)]) != EntryTable.NONE);
+	}
+}